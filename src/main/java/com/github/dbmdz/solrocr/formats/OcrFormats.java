@@ -0,0 +1,159 @@
+package com.github.dbmdz.solrocr.formats;
+
+import com.github.dbmdz.solrocr.formats.alto.AltoFormat;
+import com.github.dbmdz.solrocr.formats.hocr.HocrFormat;
+import com.github.dbmdz.solrocr.formats.miniocr.MiniOcrFormat;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import com.github.dbmdz.solrocr.util.FileMetadataCache;
+import com.github.dbmdz.solrocr.util.FileMetadataCache.FileMetadata;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The supported OCR formats and the detection of the format of OCR content.
+ *
+ * <p>Detecting the format requires a sample from the beginning of the markup, which every format
+ * has to search for its tags. Since all documents from the same file have the same format, the
+ * detected format of every OCR file is cached for the whole process, keyed by the path, size and
+ * modification time of the file. The format can also be declared, either on the {@code
+ * OcrCharFilterFactory} of a field in the schema, or for the files of a source pointer (see {@link
+ * SourcePointer}), in which case no detection is needed at all.
+ */
+public final class OcrFormats {
+  /** Number of characters from the beginning of the markup that the detection looks at. */
+  public static final int SAMPLE_SIZE = 4096;
+
+  private static final int MAX_CACHED_FILES = 65536;
+
+  // In the order they are checked during detection
+  private static final Map<String, OcrFormat> byName =
+      ImmutableMap.of(
+          "hocr", new HocrFormat(), "alto", new AltoFormat(), "miniocr", new MiniOcrFormat());
+
+  /** Detected format of a file, with the metadata of the file at the time of the detection. */
+  private static final class DetectedFormat {
+    final OcrFormat format;
+    final long size;
+    final long lastModified;
+
+    DetectedFormat(OcrFormat format, FileMetadata meta) {
+      this.format = format;
+      this.size = meta.size;
+      this.lastModified = meta.lastModified;
+    }
+
+    boolean isCurrent(FileMetadata meta) {
+      return meta.exists && meta.size == size && meta.lastModified == lastModified;
+    }
+  }
+
+  // Access-ordered, i.e. the least recently used entry is evicted
+  private static final Map<Path, DetectedFormat> detected =
+      new LinkedHashMap<Path, DetectedFormat>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, DetectedFormat> eldest) {
+          return size() > MAX_CACHED_FILES;
+        }
+      };
+
+  private OcrFormats() {}
+
+  /**
+   * Get the format with the given name, one of {@code hocr}, {@code alto} or {@code miniocr}.
+   *
+   * @throws IllegalArgumentException if there is no format with that name
+   */
+  public static OcrFormat byName(String name) {
+    OcrFormat format = byName.get(name.toLowerCase(Locale.US));
+    if (format == null) {
+      throw new IllegalArgumentException(
+          String.format(
+              Locale.US, "Unknown OCR format '%s', must be one of %s", name, byName.keySet()));
+    }
+    return format;
+  }
+
+  /** Detect the format from a sample of the beginning of the markup, {@code null} if unknown. */
+  public static OcrFormat detect(String sample) {
+    return byName.values().stream().filter(fmt -> fmt.hasFormat(sample)).findFirst().orElse(null);
+  }
+
+  /** Detect the format from the beginning of the text, {@code null} if unknown. */
+  public static OcrFormat detect(IterableCharSequence text) {
+    return detect(text.subSequence(0, Math.min(SAMPLE_SIZE, text.length())).toString());
+  }
+
+  /**
+   * Get the format of the content of a pointer, if it is known without looking at the content, i.e.
+   * if it is declared in the pointer or was detected for its first file before.
+   *
+   * @return the format or {@code null} if it has to be detected from the content
+   */
+  public static OcrFormat getKnownFormat(SourcePointer pointer) {
+    String declared = pointer.getFormatName();
+    if (declared != null) {
+      return byName(declared);
+    }
+    return getDetectedFormat(pointer.sources.get(0).path);
+  }
+
+  /**
+   * Get the format that was detected for the file before.
+   *
+   * @return the format or {@code null} if it is unknown or the file changed since the detection
+   */
+  public static OcrFormat getDetectedFormat(Path path) {
+    DetectedFormat cached;
+    synchronized (detected) {
+      cached = detected.get(path);
+    }
+    if (cached == null || !cached.isCurrent(FileMetadataCache.getInstance().get(path))) {
+      return null;
+    }
+    return cached.format;
+  }
+
+  /**
+   * Get the format of the OCR file with the given content: the declared one if present, otherwise
+   * the one that was detected for the file before, otherwise it is detected from the beginning of
+   * the content and remembered for the file.
+   *
+   * @param declaredFormat format declared in the schema or in the pointer, can be {@code null}
+   * @return the format or {@code null} if it could not be determined
+   */
+  public static OcrFormat resolve(
+      Path path, IterableCharSequence content, OcrFormat declaredFormat) {
+    if (declaredFormat != null) {
+      return declaredFormat;
+    }
+    OcrFormat format = getDetectedFormat(path);
+    if (format == null) {
+      format = detect(content);
+      if (format != null) {
+        putDetectedFormat(path, format);
+      }
+    }
+    return format;
+  }
+
+  /** Remember the format that was detected for the content of the pointer. */
+  public static void putDetectedFormat(SourcePointer pointer, OcrFormat format) {
+    putDetectedFormat(pointer.sources.get(0).path, format);
+  }
+
+  /** Remember the format that was detected for the file. */
+  public static void putDetectedFormat(Path path, OcrFormat format) {
+    FileMetadata meta = FileMetadataCache.getInstance().get(path);
+    if (!meta.exists) {
+      return;
+    }
+    synchronized (detected) {
+      detected.put(path, new DetectedFormat(format, meta));
+    }
+  }
+}
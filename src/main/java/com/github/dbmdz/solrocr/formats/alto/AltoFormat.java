@@ -7,6 +7,7 @@ import com.github.dbmdz.solrocr.iter.TagBreakLocator;
 import com.github.dbmdz.solrocr.model.OcrBlock;
 import com.github.dbmdz.solrocr.model.OcrFormat;
 import com.github.dbmdz.solrocr.model.OcrPage;
+import com.github.dbmdz.solrocr.util.BoundaryIndex;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Range;
 import java.awt.Dimension;
@@ -32,6 +33,13 @@ public class AltoFormat implements OcrFormat {
     return new TagBreakLocator(text, breakTag);
   }
 
+  @Override
+  public BreakLocator getBreakLocator(
+      IterableCharSequence text, BoundaryIndex boundaries, OcrBlock... blockTypes) {
+    // Only the first block type is used for breaking, see above
+    return OcrFormat.super.getBreakLocator(text, boundaries, blockTypes[0]);
+  }
+
   @Override
   public OcrParser getParser(Reader input, OcrParser.ParsingFeature... features) {
     try {
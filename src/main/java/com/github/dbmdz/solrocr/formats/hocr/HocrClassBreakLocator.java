@@ -1,13 +1,17 @@
 package com.github.dbmdz.solrocr.formats.hocr;
 
+import com.github.dbmdz.solrocr.iter.AsciiView;
 import com.github.dbmdz.solrocr.iter.BaseBreakLocator;
 import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.iter.MultiPatternMatcher;
 import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
 import java.util.List;
-import org.apache.commons.lang3.StringUtils;
 
 public class HocrClassBreakLocator extends BaseBreakLocator {
-  private final List<String> breakClasses;
+  private static final byte[] META = AsciiView.needle("meta");
+
+  private final MultiPatternMatcher breakClasses;
   private final int overlap = 128;
   private final int blockSize = 64 * 1024;
 
@@ -17,72 +21,83 @@ public class HocrClassBreakLocator extends BaseBreakLocator {
 
   public HocrClassBreakLocator(IterableCharSequence text, List<String> breakClasses) {
     super(text);
-    this.breakClasses = breakClasses;
+    this.breakClasses = MultiPatternMatcher.of(breakClasses);
   }
 
   @Override
   public int getFollowing(int offset) {
+    int[] breaks = this.getFollowing(offset, 1, this.text.getEndIndex());
+    return breaks.length > 0 ? breaks[0] : this.text.getEndIndex();
+  }
+
+  @Override
+  protected int getPreceding(int offset) {
+    int[] breaks = this.getPreceding(offset, 1, this.text.getBeginIndex() - 1);
+    return breaks.length > 0 ? breaks[0] : this.text.getBeginIndex();
+  }
+
+  @Override
+  protected int[] getFollowing(int offset, int n, int limit) {
+    int[] breaks = new int[n];
+    int count = 0;
+    int lastClose = -1;
     int start = Math.min(offset + 1, this.text.getEndIndex());
     int end = Math.min(start + blockSize, this.text.getEndIndex());
-    boolean needsMoreData = end == start + blockSize;
+    scan:
     while (start < this.text.getEndIndex()) {
-      String block = text.subSequence(start, end, true).toString();
+      AsciiView block = AsciiView.of(text.subSequence(start, end, true));
       // Truncate block to last '>' to avoid splitting element openings across blocks
       int blockEnd = block.length();
       int lastTagClose = block.lastIndexOf('>');
-      if (lastTagClose > 0
-          && !StringUtils.isAllBlank(block.subSequence(lastTagClose, block.length()))) {
+      if (lastTagClose > 0 && !block.isBlank(lastTagClose, block.length())) {
         blockEnd = lastTagClose + 1;
         end = start + lastTagClose;
       }
 
       // In hOCR, there can be multiple options for expressing the same level in the block
-      // hierarchy, so we need to check for all of them.
-      int idx = blockEnd;
-      int closeIdx = blockEnd - 1;
-      outer:
-      for (String breakClass : this.breakClasses) {
-        int fromIdx = 0;
-        while (true) {
-          int i = block.indexOf(breakClass, fromIdx);
-          if (i < 0 || i > blockEnd) {
-            // Not found, try next class
-            break;
-          }
-          closeIdx = block.indexOf('>', i);
-          int elemOpen = block.lastIndexOf('<', i);
-          if (elemOpen < 0) {
-            // Incomplete element, try next position
-            fromIdx = closeIdx;
-            continue;
-          }
-          if (closeIdx > block.indexOf('<', i)) {
-            // Not inside of an element tag, try next position
-            fromIdx = i + breakClass.length();
-            continue;
-          }
-          if (block.startsWith("meta", elemOpen + 1)) {
-            // Block specification in meta tag, not a real block, try next position
-            fromIdx = closeIdx;
-            continue;
-          }
-          if (elemOpen < idx) {
-            // Found match
-            idx = elemOpen;
-            needsMoreData = false;
-            break outer;
-          } else {
-            // Try next class
-            break;
-          }
+      // hierarchy, all of them are searched for in a single pass.
+      int fromIdx = 0;
+      while (true) {
+        int i = breakClasses.indexIn(block, fromIdx);
+        if (i < 0 || i > blockEnd) {
+          // Not found
+          break;
         }
-      }
-      if (!needsMoreData) {
-        if (closeIdx < idx) {
-          closeIdx = block.length();
+        int closeIdx = block.indexOf('>', i);
+        int elemOpen = block.lastIndexOf('<', i);
+        if (elemOpen < 0) {
+          // Incomplete element, try next position
+          fromIdx = Math.max(closeIdx, i + 1);
+          continue;
+        }
+        if (closeIdx > block.indexOf('<', i)) {
+          // Not inside of an element tag, try next position
+          fromIdx = i + 1;
+          continue;
+        }
+        if (block.startsWith(META, elemOpen + 1)) {
+          // Block specification in meta tag, not a real block, try next position
+          fromIdx = Math.max(closeIdx, i + 1);
+          continue;
+        }
+        // Found match
+        fromIdx = Math.max(closeIdx, i + 1);
+        int breakOffset = start + elemOpen;
+        if (breakOffset >= limit) {
+          break scan;
         }
-        this.text.setIndex(Math.min(start + closeIdx, this.text.getEndIndex()));
-        return start + idx;
+        if (count > 0 && breakOffset <= breaks[count - 1]) {
+          // Already found in the previous block
+          continue;
+        }
+        breaks[count++] = breakOffset;
+        lastClose = start + (closeIdx < elemOpen ? block.length() : closeIdx);
+        if (count == n) {
+          break scan;
+        }
+      }
+      if (end >= limit) {
+        break;
       }
 
       start = end;
@@ -91,57 +106,69 @@ public class HocrClassBreakLocator extends BaseBreakLocator {
       }
       end = Math.min(end + blockSize, this.text.getEndIndex());
     }
-    return this.text.getEndIndex();
+    if (lastClose >= 0) {
+      this.text.setIndex(Math.min(lastClose, this.text.getEndIndex()));
+    }
+    return count == n ? breaks : Arrays.copyOf(breaks, count);
   }
 
   @Override
-  protected int getPreceding(int offset) {
-    int end = Math.max(0, offset - 1);
-    int start = Math.max(0, end - blockSize);
+  protected int[] getPreceding(int offset, int n, int limit) {
+    int[] breaks = new int[n];
+    int count = 0;
+    // Extend the first block past the offset, so elements that start right before it are found
+    int end = Math.min(Math.max(0, offset - 1) + overlap, this.text.getEndIndex());
+    int start = Math.max(0, offset - 1 - blockSize);
     while (start >= this.text.getBeginIndex()) {
-      String block = text.subSequence(start, end, true).toString();
+      AsciiView block = AsciiView.of(text.subSequence(start, end, true));
       int firstTagOpen = block.indexOf('<');
       int blockStart = 0;
-      if (firstTagOpen > 0 && !StringUtils.isBlank(block.subSequence(0, firstTagOpen))) {
+      if (firstTagOpen > 0 && !block.isBlank(0, firstTagOpen)) {
         // Limit all following searches to the beginning of the first tag in the block
         blockStart = firstTagOpen;
       }
-      int idx = -1;
-      for (String breakClass : this.breakClasses) {
-        // Look for the class in the block
-        int fromIdx = block.length();
-        while (true) {
-          int i = optimizedLastIndexOf(block, breakClass, fromIdx);
-          if (i < blockStart) {
-            // Not found, try next class
-            break;
-          }
-          int elemOpen = block.lastIndexOf('<', i);
-          int previousClose = block.lastIndexOf('>', i);
-          if (elemOpen < blockStart
-              || previousClose > elemOpen
-              || block.startsWith("meta", elemOpen + 1)) {
-            // Class was not part of a tag or in the "meta" tag, keep looking
-            fromIdx = Math.max(previousClose, elemOpen);
-            continue;
-          }
-          if (elemOpen > idx) {
-            idx = elemOpen;
-          }
+      // Look for the classes in the block, starting from the back
+      int fromIdx = block.length();
+      while (true) {
+        int i = breakClasses.lastIndexIn(block, fromIdx - 1);
+        if (i < blockStart) {
+          // Not found
           break;
         }
+        int elemOpen = block.lastIndexOf('<', i);
+        int previousClose = block.lastIndexOf('>', i);
+        if (elemOpen < blockStart
+            || previousClose > elemOpen
+            || block.startsWith(META, elemOpen + 1)) {
+          // Class was not part of a tag or in the "meta" tag, keep looking
+          fromIdx = Math.max(previousClose, elemOpen);
+          continue;
+        }
+        fromIdx = elemOpen;
+        int breakOffset = start + elemOpen;
+        if (breakOffset >= offset) {
+          // Element starts after the offset, in the extension of the first block
+          continue;
+        }
+        if (breakOffset <= limit) {
+          return Arrays.copyOf(breaks, count);
+        }
+        if (count > 0 && breakOffset >= breaks[count - 1]) {
+          // Already found in the previous block
+          continue;
+        }
+        breaks[count++] = breakOffset;
+        if (count == n) {
+          return breaks;
+        }
       }
 
-      if (idx >= blockStart) {
-        return start + idx;
-      }
-
-      if (start == 0) {
+      if (start == 0 || start <= limit) {
         break;
       }
       end = start + overlap;
       start = Math.max(0, start - blockSize);
     }
-    return this.text.getBeginIndex();
+    return Arrays.copyOf(breaks, count);
   }
 }
@@ -0,0 +1,197 @@
+package com.github.dbmdz.solrocr.iter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read-only, zero-copy {@link CharSequence} view on a range of bytes, interpreting every byte as
+ * an ASCII character.
+ *
+ * <p>Like {@link FileBytesCharIterator#charAt(int)}, bytes outside of the ASCII range are presented
+ * as {@code '?'}. This is fine for the purpose the view is intended for, i.e. locating markup in
+ * the OCR documents, since all formats supported by the plugin use pure-ASCII element and attribute
+ * names.
+ *
+ * <p>The search methods mirror the semantics of their counterparts on {@link String}, but operate
+ * directly on the underlying (usually memory-mapped) buffer, i.e. locating breaks in a window of a
+ * file does not involve copying its contents.
+ */
+public final class AsciiView implements CharSequence {
+  private final ByteBuffer buf;
+  private final int offset;
+  private final int length;
+
+  /**
+   * Create a view on {@code length} bytes of the buffer, starting at the absolute position {@code
+   * offset}.
+   *
+   * <p>The view only uses absolute accesses, i.e. the position and limit of the buffer are not
+   * modified.
+   */
+  public static AsciiView wrap(ByteBuffer buf, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > buf.limit()) {
+      throw new IndexOutOfBoundsException();
+    }
+    return new AsciiView(buf, offset, length);
+  }
+
+  /** Obtain an ASCII view of an arbitrary character sequence, copying it if necessary. */
+  public static AsciiView of(CharSequence seq) {
+    if (seq instanceof AsciiView) {
+      return (AsciiView) seq;
+    }
+    byte[] bytes = new byte[seq.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      char c = seq.charAt(i);
+      bytes[i] = c < 0x80 ? (byte) c : (byte) '?';
+    }
+    return new AsciiView(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+
+  /** Encode a search needle for use with the byte-based search methods. */
+  public static byte[] needle(String str) {
+    return str.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private AsciiView(ByteBuffer buf, int offset, int length) {
+    this.buf = buf;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+    }
+    int b = buf.get(offset + index);
+    return b >= 0 ? (char) b : '?';
+  }
+
+  /** Get the raw byte at the given index. */
+  public byte byteAt(int index) {
+    return buf.get(offset + index);
+  }
+
+  @Override
+  public AsciiView subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException();
+    }
+    return new AsciiView(buf, offset + start, end - start);
+  }
+
+  /** Like {@link String#indexOf(int, int)}. */
+  public int indexOf(char c, int fromIndex) {
+    byte b = (byte) c;
+    for (int i = Math.max(fromIndex, 0); i < length; i++) {
+      if (buf.get(offset + i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Like {@link String#indexOf(int)}. */
+  public int indexOf(char c) {
+    return indexOf(c, 0);
+  }
+
+  /** Like {@link String#lastIndexOf(int, int)}. */
+  public int lastIndexOf(char c, int fromIndex) {
+    byte b = (byte) c;
+    for (int i = Math.min(fromIndex, length - 1); i >= 0; i--) {
+      if (buf.get(offset + i) == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Like {@link String#lastIndexOf(int)}. */
+  public int lastIndexOf(char c) {
+    return lastIndexOf(c, length - 1);
+  }
+
+  /**
+   * Like {@link String#indexOf(String, int)}, with a needle obtained via {@link #needle(String)}
+   */
+  public int indexOf(byte[] needle, int fromIndex) {
+    if (needle.length == 0) {
+      return Math.min(Math.max(fromIndex, 0), length);
+    }
+    byte first = needle[0];
+    int max = length - needle.length;
+    for (int i = Math.max(fromIndex, 0); i <= max; i++) {
+      if (buf.get(offset + i) == first && matchesAt(needle, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Like {@link String#lastIndexOf(String, int)}, with a needle obtained via {@link
+   * #needle(String)}.
+   */
+  public int lastIndexOf(byte[] needle, int fromIndex) {
+    int i = Math.min(fromIndex, length - needle.length);
+    if (needle.length == 0) {
+      return i < 0 ? -1 : i;
+    }
+    byte first = needle[0];
+    for (; i >= 0; i--) {
+      if (buf.get(offset + i) == first && matchesAt(needle, i)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Like {@link String#startsWith(String, int)}, with a needle obtained via {@link #needle}. */
+  public boolean startsWith(byte[] prefix, int index) {
+    if (index < 0 || index + prefix.length > length) {
+      return false;
+    }
+    return matchesAt(prefix, index);
+  }
+
+  /** Check if the range only consists of whitespace, like {@code StringUtils#isBlank}. */
+  public boolean isBlank(int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean matchesAt(byte[] needle, int index) {
+    int pos = offset + index;
+    for (int j = 1; j < needle.length; j++) {
+      if (buf.get(pos + j) != needle[j]) {
+        return false;
+      }
+    }
+    return needle.length == 0 || buf.get(pos) == needle[0];
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public String toString() {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      byte b = buf.get(offset + i);
+      bytes[i] = b >= 0 ? b : (byte) '?';
+    }
+    // Ignore the deprecation warning, we only deal with ASCII, so the drawbacks of this constructor
+    // don't concern us. With the String compaction available in JDK >= 9, this should be
+    // *significantly* faster than the constructor with an explicit charset.
+    return new String(bytes, 0, 0, length);
+  }
+}
@@ -1,46 +1,16 @@
 package com.github.dbmdz.solrocr.iter;
 
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeMap;
-import com.google.common.collect.TreeRangeMap;
 import java.text.BreakIterator;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
 /**
  * Simplified version of a {@link BreakIterator}, without most of the state (except for the text)
  * and automated caching.
  */
-@SuppressWarnings("UnstableApiUsage")
 public abstract class BaseBreakLocator implements BreakLocator {
-  private final RangeMap<Integer, Integer> forwardCache = TreeRangeMap.create();
-  private final RangeMap<Integer, Integer> backwardCache = TreeRangeMap.create();
+  private final BreakCache cache = new BreakCache();
   protected final IterableCharSequence text;
 
-  /**
-   * An "optimized" version of {@link String#lastIndexOf(String, int)}.
-   *
-   * <p>This optimization is a bit counter-intuitive, since, on the surface, it uses the absolute
-   * worst way to search for the last occurrence of a substring in a larger string, by starting from
-   * the front of the string and working forward until there are no more matches.
-   *
-   * <p>So why does using this approach speed up highlighting hOCR by ~25%? Well, during hOCR break
-   * locating, we need to look for multiple possible block type identifiers for each level in the
-   * block hierarchy, i.e. we often run into the situation there is no match. These cases are the
-   * absolute worst case for both {@link String#lastIndexOf(String, int)} and {@link
-   * String#indexOf(String, int)}. So why is the latter faster? Well, in recent Hotspot versions, it
-   * is SIMD-accelerated via compiler intrinsics. And the speed-up we get from these worst cases is
-   * significant enough to completely make up for the slightly worse performance in more ideal cases
-   * (~25% slower).
-   */
-  protected static int optimizedLastIndexOf(String haystack, String needle, int fromIdx) {
-    int from = -1;
-    int idx;
-    while ((idx = haystack.indexOf(needle, from + 1)) >= 0 && idx < fromIdx) {
-      from = idx;
-    }
-    return from;
-  }
-
   protected BaseBreakLocator(IterableCharSequence text) {
     this.text = text;
   }
@@ -55,27 +25,16 @@ public abstract class BaseBreakLocator implements BreakLocator {
     if (offset >= this.text.length()) {
       return DONE;
     }
-    Integer cached = this.forwardCache.get(offset);
-    if (cached != null) {
+    int cached = this.cache.following(offset);
+    if (cached != BreakCache.MISS) {
       return cached;
     }
-    Entry<Range<Integer>, Integer> entry = this.backwardCache.getEntry(offset);
-    int preceding;
-    if (entry == null) {
-      preceding = this.getPreceding(offset);
-    } else {
-      if (entry.getKey().upperEndpoint() == offset) {
-        preceding = offset;
-      } else {
-        preceding = entry.getValue();
-      }
-    }
     int following = this.getFollowing(offset);
     if (following < 0) {
       following = this.text.length();
     }
-    this.forwardCache.put(Range.closedOpen(preceding, following), following);
-    this.backwardCache.put(Range.openClosed(preceding, following), preceding);
+    // Everything between the offset and the break was scanned, without finding another break
+    this.cache.put(offset + 1, following, following);
     return following;
   }
 
@@ -84,28 +43,148 @@ public abstract class BaseBreakLocator implements BreakLocator {
     if (offset <= 0) {
       return DONE;
     }
-    Integer cached = this.backwardCache.get(offset);
-    if (cached != null) {
+    int cached = this.cache.preceding(offset);
+    if (cached != BreakCache.MISS) {
       return cached;
     }
-    Entry<Range<Integer>, Integer> entry = this.forwardCache.getEntry(offset);
-    int following;
-    if (entry == null) {
-      following = this.getFollowing(offset);
-    } else {
-      if (entry.getKey().lowerEndpoint() == offset) {
-        following = offset;
-      } else {
-        following = entry.getValue();
-      }
-    }
     int preceding = this.getPreceding(offset);
-    this.backwardCache.put(Range.openClosed(Math.max(0, preceding), following), preceding);
-    this.forwardCache.put(Range.closedOpen(Math.max(0, preceding), following), following);
+    if (preceding >= 0) {
+      this.cache.put(preceding, offset - 1, preceding);
+    }
     return preceding;
   }
 
+  @Override
+  public int following(int offset, int n, int limit) {
+    if (offset >= this.text.length()) {
+      return limit;
+    }
+    // Resolve as many breaks as possible from the cache, scan for the rest in a single pass
+    int idx = offset;
+    for (; n > 0; n--) {
+      int cached = this.cache.following(idx);
+      if (cached == BreakCache.MISS) {
+        break;
+      }
+      if (cached >= limit) {
+        return limit;
+      }
+      idx = cached;
+    }
+    if (n == 0) {
+      return idx;
+    }
+    int[] breaks = this.getFollowing(idx, n, limit);
+    if (breaks.length == n) {
+      this.cache.put(idx + 1, breaks[n - 1], breaks);
+      return breaks[n - 1];
+    }
+    this.cache.put(idx + 1, Math.min(limit, this.text.getEndIndex()) - 1, breaks);
+    return limit;
+  }
+
+  @Override
+  public int preceding(int offset, int n, int limit) {
+    if (offset <= 0) {
+      return limit;
+    }
+    int idx = offset;
+    for (; n > 0; n--) {
+      int cached = this.cache.preceding(idx);
+      if (cached == BreakCache.MISS) {
+        break;
+      }
+      if (cached <= limit) {
+        return limit;
+      }
+      idx = cached;
+    }
+    if (n == 0) {
+      return idx;
+    }
+    int[] breaks = this.getPreceding(idx, n, limit);
+    int[] ascending = new int[breaks.length];
+    for (int i = 0; i < breaks.length; i++) {
+      ascending[i] = breaks[breaks.length - 1 - i];
+    }
+    if (breaks.length == n) {
+      this.cache.put(breaks[n - 1], idx - 1, ascending);
+      return breaks[n - 1];
+    }
+    this.cache.put(Math.max(limit + 1, this.text.getBeginIndex()), idx - 1, ascending);
+    return limit;
+  }
+
+  /**
+   * Locate all breaks in the text in a single forward pass and add them to the cache.
+   *
+   * @return the offsets of all breaks, in ascending order
+   */
+  public int[] locateAll() {
+    int[] breaks = new int[64];
+    int numBreaks = 0;
+    int offset = this.getFollowing(this.text.getBeginIndex() - 1);
+    while (offset >= 0 && offset < this.text.getEndIndex()) {
+      if (numBreaks == breaks.length) {
+        breaks = Arrays.copyOf(breaks, breaks.length * 2);
+      }
+      breaks[numBreaks++] = offset;
+      offset = this.getFollowing(offset);
+    }
+    breaks = Arrays.copyOf(breaks, numBreaks);
+    this.cache.put(this.text.getBeginIndex(), this.text.getEndIndex(), breaks);
+    this.cache.put(this.text.getEndIndex(), this.text.getEndIndex(), this.text.getEndIndex());
+    return breaks;
+  }
+
   protected abstract int getPreceding(int offset);
 
   protected abstract int getFollowing(int offset);
+
+  /**
+   * Locate up to {@code n} breaks after the offset that are located before the limit.
+   *
+   * <p>The default implementation calls {@link #getFollowing(int)} repeatedly, subclasses should
+   * override it to find all breaks in a single forward scan.
+   *
+   * @return the located breaks in ascending order, fewer than {@code n} if the limit or the end of
+   *     the text was reached
+   */
+  protected int[] getFollowing(int offset, int n, int limit) {
+    int[] breaks = new int[n];
+    int count = 0;
+    int idx = offset;
+    while (count < n) {
+      idx = this.getFollowing(idx);
+      if (idx < 0 || idx >= limit || idx >= this.text.getEndIndex()) {
+        break;
+      }
+      breaks[count++] = idx;
+    }
+    return count == n ? breaks : Arrays.copyOf(breaks, count);
+  }
+
+  /**
+   * Locate up to {@code n} breaks before the offset that are located after the limit.
+   *
+   * <p>The default implementation calls {@link #getPreceding(int)} repeatedly, subclasses should
+   * override it to find all breaks in a single backward scan.
+   *
+   * @return the located breaks in descending order, fewer than {@code n} if the limit or the
+   *     beginning of the text was reached
+   */
+  protected int[] getPreceding(int offset, int n, int limit) {
+    int[] breaks = new int[n];
+    int count = 0;
+    int idx = offset;
+    while (count < n) {
+      int next = this.getPreceding(idx);
+      if (next < 0 || next <= limit || next >= idx) {
+        break;
+      }
+      breaks[count++] = next;
+      idx = next;
+    }
+    return count == n ? breaks : Arrays.copyOf(breaks, count);
+  }
 }
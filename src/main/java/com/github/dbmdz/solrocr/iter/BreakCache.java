@@ -0,0 +1,151 @@
+package com.github.dbmdz.solrocr.iter;
+
+import java.util.Arrays;
+
+/**
+ * Cache of known break offsets for a {@link BaseBreakLocator}, based on primitive arrays.
+ *
+ * <p>Keeps a sorted array of all breaks that were located so far and a sorted array of disjoint,
+ * closed intervals of the text that were already scanned, i.e. for which <strong>all</strong>
+ * breaks are known. A lookup is then a binary search over both arrays, without any boxing or
+ * allocation.
+ */
+final class BreakCache {
+  /** Returned by the lookup methods if the answer is not known from the cache. */
+  static final int MISS = Integer.MIN_VALUE;
+
+  private int[] breaks = new int[32];
+  private int numBreaks = 0;
+
+  // Closed intervals [starts[i], ends[i]], sorted and neither overlapping nor adjacent
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private int numIntervals = 0;
+
+  /** Get the first known break after the offset, or {@link #MISS} if it is not known. */
+  int following(int offset) {
+    int from = offset + 1;
+    int interval = intervalContaining(from);
+    if (interval < 0) {
+      return MISS;
+    }
+    int idx = Arrays.binarySearch(breaks, 0, numBreaks, from);
+    if (idx < 0) {
+      idx = -idx - 1;
+    }
+    if (idx < numBreaks && breaks[idx] <= ends[interval]) {
+      return breaks[idx];
+    }
+    return MISS;
+  }
+
+  /** Get the last known break before the offset, or {@link #MISS} if it is not known. */
+  int preceding(int offset) {
+    int to = offset - 1;
+    int interval = intervalContaining(to);
+    if (interval < 0) {
+      return MISS;
+    }
+    int idx = Arrays.binarySearch(breaks, 0, numBreaks, to);
+    if (idx < 0) {
+      idx = -idx - 2;
+    }
+    if (idx >= 0 && breaks[idx] >= starts[interval]) {
+      return breaks[idx];
+    }
+    return MISS;
+  }
+
+  /**
+   * Record that the closed interval {@code [start, end]} was scanned and contains exactly the given
+   * breaks.
+   *
+   * @param breaks offsets of all breaks in the interval, in ascending order
+   */
+  void put(int start, int end, int... breaks) {
+    if (start > end) {
+      return;
+    }
+    addInterval(start, end);
+    if (breaks.length == 1) {
+      addBreak(breaks[0]);
+    } else if (breaks.length > 0) {
+      mergeBreaks(breaks);
+    }
+  }
+
+  /** Index of the interval that contains the offset, or -1 if the offset was not scanned yet. */
+  private int intervalContaining(int offset) {
+    int idx = Arrays.binarySearch(starts, 0, numIntervals, offset);
+    if (idx < 0) {
+      idx = -idx - 2;
+    }
+    if (idx >= 0 && ends[idx] >= offset) {
+      return idx;
+    }
+    return -1;
+  }
+
+  private void addInterval(int start, int end) {
+    // First interval that overlaps or is adjacent to the new one
+    int lo = Arrays.binarySearch(starts, 0, numIntervals, start);
+    lo = lo < 0 ? -lo - 2 : lo;
+    if (lo < 0 || (long) ends[lo] + 1 < start) {
+      lo++;
+    }
+    // One past the last interval that overlaps or is adjacent to the new one
+    int hi = lo;
+    while (hi < numIntervals && starts[hi] <= (long) end + 1) {
+      hi++;
+    }
+    if (lo < hi) {
+      start = Math.min(start, starts[lo]);
+      end = Math.max(end, ends[hi - 1]);
+    }
+    int delta = 1 - (hi - lo);
+    if (numIntervals + delta > starts.length) {
+      starts = Arrays.copyOf(starts, starts.length * 2);
+      ends = Arrays.copyOf(ends, ends.length * 2);
+    }
+    System.arraycopy(starts, hi, starts, hi + delta, numIntervals - hi);
+    System.arraycopy(ends, hi, ends, hi + delta, numIntervals - hi);
+    starts[lo] = start;
+    ends[lo] = end;
+    numIntervals += delta;
+  }
+
+  private void addBreak(int offset) {
+    int idx = Arrays.binarySearch(breaks, 0, numBreaks, offset);
+    if (idx >= 0) {
+      return;
+    }
+    idx = -idx - 1;
+    if (numBreaks == breaks.length) {
+      breaks = Arrays.copyOf(breaks, breaks.length * 2);
+    }
+    System.arraycopy(breaks, idx, breaks, idx + 1, numBreaks - idx);
+    breaks[idx] = offset;
+    numBreaks++;
+  }
+
+  /** Merge a sorted array of breaks into the known breaks in a single pass. */
+  private void mergeBreaks(int[] other) {
+    int[] merged = new int[Math.max(breaks.length, numBreaks + other.length)];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < numBreaks || j < other.length) {
+      int next;
+      if (j >= other.length || (i < numBreaks && breaks[i] <= other[j])) {
+        next = breaks[i++];
+      } else {
+        next = other[j++];
+      }
+      if (n == 0 || merged[n - 1] != next) {
+        merged[n++] = next;
+      }
+    }
+    breaks = merged;
+    numBreaks = n;
+  }
+}
@@ -7,5 +7,41 @@ public interface BreakLocator {
 
   int preceding(int offset);
 
+  /**
+   * Locate the {@code n}-th break after the offset, without going past a limit.
+   *
+   * @return the {@code n}-th break after the offset, or {@code limit} if there are fewer than
+   *     {@code n} breaks between the offset and the limit
+   */
+  default int following(int offset, int n, int limit) {
+    int idx = offset;
+    for (int i = 0; i < n; i++) {
+      int next = following(idx);
+      if (next == DONE || next >= limit) {
+        return limit;
+      }
+      idx = next;
+    }
+    return idx;
+  }
+
+  /**
+   * Locate the {@code n}-th break before the offset, without going past a limit.
+   *
+   * @return the {@code n}-th break before the offset, or {@code limit} if there are fewer than
+   *     {@code n} breaks between the limit and the offset
+   */
+  default int preceding(int offset, int n, int limit) {
+    int idx = offset;
+    for (int i = 0; i < n; i++) {
+      int next = preceding(idx);
+      if (next == DONE || next <= limit) {
+        return limit;
+      }
+      idx = next;
+    }
+    return idx;
+  }
+
   IterableCharSequence getText();
 }
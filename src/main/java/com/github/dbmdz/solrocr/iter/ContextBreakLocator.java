@@ -24,18 +24,8 @@ public class ContextBreakLocator implements BreakLocator {
       limit = limitLocator.following(offset);
     }
 
-    int idx = baseLocator.following(offset);
-    if (idx >= limit) {
-      return limit;
-    }
-    for (int i = 0; i < contextSize; i++) {
-      int next = baseLocator.following(idx);
-      if (next >= limit) {
-        return limit;
-      }
-      idx = next;
-    }
-    return idx;
+    // The context block with the match and the context blocks after it
+    return baseLocator.following(offset, contextSize + 1, limit);
   }
 
   @Override
@@ -44,18 +34,7 @@ public class ContextBreakLocator implements BreakLocator {
     if (limitLocator != null) {
       limit = limitLocator.preceding(offset);
     }
-    int idx = baseLocator.preceding(offset);
-    if (idx <= limit) {
-      return limit;
-    }
-    for (int i = 0; i < contextSize; i++) {
-      int next = baseLocator.preceding(idx);
-      if (next <= limit) {
-        return limit;
-      }
-      idx = next;
-    }
-    return idx;
+    return baseLocator.preceding(offset, contextSize + 1, limit);
   }
 
   @Override
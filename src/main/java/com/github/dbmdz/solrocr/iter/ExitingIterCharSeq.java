@@ -6,9 +6,9 @@ import java.util.Locale;
 import java.util.stream.IntStream;
 import org.apache.lucene.index.QueryTimeout;
 
-public class ExitingIterCharSeq implements IterableCharSequence {
+public class ExitingIterCharSeq implements IterableCharSequence, AutoCloseable {
   public static class ExitingIterCharSeqException extends RuntimeException {
-    ExitingIterCharSeqException(String msg) {
+    public ExitingIterCharSeqException(String msg) {
       super(msg);
     }
   }
@@ -90,6 +90,11 @@ public class ExitingIterCharSeq implements IterableCharSequence {
     return iter.subSequence(start, end, forceAscii);
   }
 
+  @Override
+  public int translateIndexOffset(int indexOffset) {
+    return iter.translateIndexOffset(indexOffset);
+  }
+
   @Override
   public String toString() {
     return iter.toString();
@@ -154,4 +159,11 @@ public class ExitingIterCharSeq implements IterableCharSequence {
   public Object clone() {
     return new ExitingIterCharSeq(iter, timeout);
   }
+
+  @Override
+  public void close() throws Exception {
+    if (iter instanceof AutoCloseable) {
+      ((AutoCloseable) iter).close();
+    }
+  }
 }
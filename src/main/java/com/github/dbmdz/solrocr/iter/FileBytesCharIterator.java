@@ -1,15 +1,17 @@
 package com.github.dbmdz.solrocr.iter;
 
 import com.github.dbmdz.solrocr.model.SourcePointer;
+import com.github.dbmdz.solrocr.util.ContentBackend;
+import com.github.dbmdz.solrocr.util.DecompressingBackend;
+import com.github.dbmdz.solrocr.util.FileContent;
+import com.github.dbmdz.solrocr.util.MappedFileCache;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
+import java.lang.invoke.MethodHandles;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * ATTENTION: This breaks the semantics of {@link java.text.CharacterIterator} and {@link
@@ -19,12 +21,21 @@ import java.nio.file.StandardOpenOption;
  *
  * <p>Please note that this means that this type will only work with {@link java.text.BreakIterator}
  * types that don't mess with the index themselves.
+ *
+ * <p>The file contents are accessed via a {@link ContentBackend}, by default via a shared mapping
+ * obtained from the {@link MappedFileCache} (or decompressed blocks for files stored in the {@link
+ * com.github.dbmdz.solrocr.util.BlockedDeflate} format). The content is released when the iterator
+ * is closed.
+ *
+ * <p>Since all offsets are {@code int}s, only the first 2 GiB of files larger than that can be
+ * accessed. This matches the offsets that can be stored in the Lucene index.
  */
 public class FileBytesCharIterator implements IterableCharSequence, AutoCloseable {
-  private final byte[] copyBuf = new byte[128 * 1024];
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
   private final Path filePath; // For copy-constructor
-  private final FileChannel chan;
-  private final MappedByteBuffer buf;
+  private final ContentBackend backend;
+  private final FileContent mapping;
   private final int numBytes;
   private final SourcePointer ptr;
   private final Charset charset;
@@ -36,18 +47,25 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
   }
 
   public FileBytesCharIterator(Path path, Charset charset, SourcePointer ptr) throws IOException {
+    this(path, charset, ptr, DecompressingBackend.getDefault());
+  }
+
+  public FileBytesCharIterator(
+      Path path, Charset charset, SourcePointer ptr, ContentBackend backend) throws IOException {
     this.ptr = ptr;
     this.charset = charset;
     this.filePath = path;
-    chan = (FileChannel) Files.newByteChannel(path, StandardOpenOption.READ);
-    this.numBytes = (int) chan.size();
-    this.buf = chan.map(MapMode.READ_ONLY, 0, chan.size());
+    this.backend = backend;
+    this.mapping = backend.open(path);
+    if (mapping.size() > Integer.MAX_VALUE) {
+      log.warn(
+          "{} is larger than 2 GiB, only the first 2 GiB of the file can be highlighted.", path);
+    }
+    this.numBytes = (int) Math.min(mapping.size(), Integer.MAX_VALUE);
     if (this.charset == StandardCharsets.UTF_8) {
-      byte[] b = new byte[4];
-      buf.get(b);
       int[] validationBuf = new int[4];
-      for (int i = 0; i < b.length; i++) {
-        validationBuf[i] = b[i] & 0xFF;
+      for (int i = 0; i < Math.min(validationBuf.length, numBytes); i++) {
+        validationBuf[i] = mapping.get(i) & 0xFF;
       }
       // TODO: This is a pretty spotty heuristic, maybe there's something in the stdlib?
       if (!(validationBuf[0] == 0xEF && validationBuf[1] == 0xBB && validationBuf[2] == 0xBF)
@@ -55,13 +73,14 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
           && ((validationBuf[0] >> 4) != 0b1110)
           && ((validationBuf[0] >> 5) != 0b110)
           && ((validationBuf[0] >> 7) != 0)) {
+        mapping.close();
         throw new IllegalArgumentException("File is not UTF-8 encoded");
       }
     }
   }
 
   public FileBytesCharIterator(FileBytesCharIterator other) throws IOException {
-    this(other.filePath, other.charset, other.ptr);
+    this(other.filePath, other.charset, other.ptr, other.backend);
     this.current = other.current;
   }
 
@@ -74,7 +93,7 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
   private int adjustOffset(int b, int offset) {
     while ((b >> 6) == 0b10) {
       offset -= 1;
-      b = this.buf.get(offset) & 0xFF;
+      b = mapping.get(offset) & 0xFF;
     }
     return offset;
   }
@@ -83,7 +102,7 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
     if (offset == numBytes) {
       return offset;
     }
-    int b = this.buf.get(offset) & 0xFF;
+    int b = mapping.get(offset) & 0xFF;
     return adjustOffset(b, offset);
   }
 
@@ -99,7 +118,10 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
    */
   @Override
   public char charAt(int offset) {
-    int b = buf.get(offset) & 0xFF; // bytes are signed in Java....
+    if (offset < 0 || offset >= numBytes) {
+      throw new IndexOutOfBoundsException();
+    }
+    int b = mapping.get(offset) & 0xFF; // bytes are signed in Java....
     if (b < 0x80) {
       // Optimization: It's just ASCII, so simply cast to a char
       return (char) b;
@@ -119,8 +141,7 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
       end = adjustOffset(end);
     }
     byte[] buf = new byte[end - start];
-    this.buf.position(start);
-    this.buf.get(buf);
+    mapping.window(start, buf.length).get(buf);
     return new String(buf, charset);
   }
 
@@ -131,17 +152,9 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
     if (start < 0 || end < 0 || end > this.numBytes || end < start) {
       throw new IndexOutOfBoundsException();
     }
-    int copyLen = end - start;
-    this.buf.position(start);
-    this.buf.get(copyBuf, 0, end - start);
-
-    // Faster pure-ASCII decoding, just treat everything as ASCII, a good chunk faster than
-    // `new String(buf, StandardCharsets.US_ASCII)`, which has a few sanity checks.
-    // Ignore the deprecation warning, the drawbacks of this constructor don't concern us
-    // in this case, since we don't care about misinterpreted codepoints.
-    // Bonus: With the String compaction available in JDK >= 9, this should be *significantly*
-    //        faster than the constructor with an explicit charset.
-    return new String(copyBuf, 0, 0, copyLen);
+    // Zero-copy view on the mapped bytes, see the docs of `charAt` for why it's fine to treat the
+    // contents as ASCII
+    return AsciiView.wrap(mapping.window(start, end - start), 0, end - start);
   }
 
   @Override
@@ -253,6 +266,6 @@ public class FileBytesCharIterator implements IterableCharSequence, AutoCloseabl
 
   @Override
   public void close() throws IOException {
-    chan.close();
+    mapping.close();
   }
 }
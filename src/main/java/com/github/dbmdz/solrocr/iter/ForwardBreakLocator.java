@@ -0,0 +1,125 @@
+package com.github.dbmdz.solrocr.iter;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BreakLocator} for lookups in ascending order of offsets, that only ever reads the text
+ * forward.
+ *
+ * <p>Breaks are located with a cursor that moves through the text in a single pass, the most
+ * recently located breaks are kept in a small window. Lookups before the cursor are answered from
+ * the window, lookups after it advance the cursor. This way, all passages of a document are built
+ * in one monotone pass over its content, which keeps the kernel's read-ahead effective. Only
+ * lookups before the start of the window are delegated to the wrapped locator.
+ *
+ * <p>Note that this means that all of the text up to the last lookup is scanned, even if the
+ * lookups are far apart.
+ */
+public class ForwardBreakLocator implements BreakLocator {
+  private static final int BATCH_SIZE = 32;
+
+  private final BreakLocator baseLocator;
+  private final IterableCharSequence text;
+  // Breaks in the window, in ascending order
+  private int[] window;
+  private int windowSize = 0;
+  // All breaks after `lowerBound` and up to `cursor` are in the window
+  private int lowerBound;
+  private boolean evicted = false;
+  private int cursor;
+  private boolean exhausted = false;
+
+  /**
+   * @param baseLocator locator for the breaks
+   * @param windowCapacity maximum number of breaks to keep in the window, should be large enough to
+   *     hold all breaks of a passage
+   */
+  public ForwardBreakLocator(BreakLocator baseLocator, int windowCapacity) {
+    this.baseLocator = baseLocator;
+    this.text = baseLocator.getText();
+    this.window = new int[Math.max(windowCapacity, 2 * BATCH_SIZE)];
+    this.lowerBound = text.getBeginIndex() - 1;
+    this.cursor = text.getBeginIndex() - 1;
+  }
+
+  @Override
+  public int following(int offset) {
+    if (offset >= text.length()) {
+      return DONE;
+    }
+    if (evicted && offset < lowerBound) {
+      return baseLocator.following(offset);
+    }
+    while (true) {
+      int idx = Arrays.binarySearch(window, 0, windowSize, offset);
+      // Index of the first break after the offset
+      idx = idx < 0 ? -idx - 1 : idx + 1;
+      if (idx < windowSize) {
+        return window[idx];
+      }
+      if (exhausted) {
+        return text.getEndIndex();
+      }
+      advance();
+    }
+  }
+
+  @Override
+  public int preceding(int offset) {
+    if (offset <= 0) {
+      return DONE;
+    }
+    if (evicted && offset <= lowerBound) {
+      return baseLocator.preceding(offset);
+    }
+    // Make sure that all breaks before the offset are known
+    while (cursor < offset - 1 && !exhausted) {
+      advance();
+    }
+    int idx = Arrays.binarySearch(window, 0, windowSize, offset);
+    // Index of the last break before the offset
+    idx = idx < 0 ? -idx - 2 : idx - 1;
+    if (idx >= 0) {
+      return window[idx];
+    }
+    return evicted ? lowerBound : text.getBeginIndex();
+  }
+
+  /** Move the cursor forward, past the next break(s). */
+  private void advance() {
+    int[] next;
+    if (baseLocator instanceof BaseBreakLocator) {
+      // Locate a batch of breaks in a single scan
+      next = ((BaseBreakLocator) baseLocator).getFollowing(cursor, BATCH_SIZE, text.getEndIndex());
+    } else {
+      int brk = baseLocator.following(cursor);
+      next = brk < 0 || brk >= text.getEndIndex() ? new int[0] : new int[] {brk};
+    }
+    if (windowSize + next.length > window.length) {
+      // Drop the older half of the window
+      int keep = window.length / 2;
+      int drop = windowSize - keep;
+      lowerBound = window[drop - 1];
+      evicted = true;
+      System.arraycopy(window, drop, window, 0, keep);
+      windowSize = keep;
+    }
+    int previousCursor = cursor;
+    for (int brk : next) {
+      if (brk > cursor) {
+        window[windowSize++] = brk;
+        cursor = brk;
+      }
+    }
+    if (cursor == previousCursor
+        || (baseLocator instanceof BaseBreakLocator && next.length < BATCH_SIZE)) {
+      exhausted = true;
+      cursor = text.getEndIndex();
+    }
+  }
+
+  @Override
+  public IterableCharSequence getText() {
+    return text;
+  }
+}
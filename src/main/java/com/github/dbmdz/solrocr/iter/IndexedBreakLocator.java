@@ -0,0 +1,80 @@
+package com.github.dbmdz.solrocr.iter;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BreakLocator} that looks up breaks in a sorted array of precomputed offsets, e.g. from a
+ * {@link com.github.dbmdz.solrocr.util.BoundaryIndex}, instead of scanning the markup.
+ */
+public class IndexedBreakLocator implements BreakLocator {
+  private final IterableCharSequence text;
+  private final int[] breaks;
+
+  /**
+   * @param text the text the breaks refer to
+   * @param breaks offsets of all breaks in the text, in ascending order
+   */
+  public IndexedBreakLocator(IterableCharSequence text, int[] breaks) {
+    this.text = text;
+    this.breaks = breaks;
+  }
+
+  @Override
+  public int following(int offset) {
+    if (offset >= text.length()) {
+      return DONE;
+    }
+    int idx = Arrays.binarySearch(breaks, offset);
+    // Index of the first break after the offset
+    idx = idx < 0 ? -idx - 1 : idx + 1;
+    if (idx >= breaks.length) {
+      return text.getEndIndex();
+    }
+    return breaks[idx];
+  }
+
+  @Override
+  public int preceding(int offset) {
+    if (offset <= 0) {
+      return DONE;
+    }
+    int idx = Arrays.binarySearch(breaks, offset);
+    // Index of the last break before the offset
+    idx = idx < 0 ? -idx - 2 : idx - 1;
+    if (idx < 0) {
+      return text.getBeginIndex();
+    }
+    return breaks[idx];
+  }
+
+  @Override
+  public int following(int offset, int n, int limit) {
+    if (offset >= text.length()) {
+      return limit;
+    }
+    int idx = Arrays.binarySearch(breaks, offset);
+    idx = (idx < 0 ? -idx - 1 : idx + 1) + n - 1;
+    if (idx >= breaks.length || breaks[idx] >= limit) {
+      return limit;
+    }
+    return breaks[idx];
+  }
+
+  @Override
+  public int preceding(int offset, int n, int limit) {
+    if (offset <= 0) {
+      return limit;
+    }
+    int idx = Arrays.binarySearch(breaks, offset);
+    idx = (idx < 0 ? -idx - 2 : idx - 1) - (n - 1);
+    if (idx < 0 || breaks[idx] <= limit) {
+      return limit;
+    }
+    return breaks[idx];
+  }
+
+  @Override
+  public IterableCharSequence getText() {
+    return text;
+  }
+}
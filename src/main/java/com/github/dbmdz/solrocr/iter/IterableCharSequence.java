@@ -37,6 +37,29 @@ public interface IterableCharSequence extends CharSequence, CharacterIterator {
 
   CharSequence subSequence(int start, int end, boolean forceAscii);
 
+  /**
+   * Convert an offset as stored in the index to an offset in this sequence.
+   *
+   * <p>These are only different if the sequence does not present the complete source, e.g. only the
+   * regions from a {@link SourcePointer}.
+   */
+  default int translateIndexOffset(int indexOffset) {
+    return indexOffset;
+  }
+
+  /**
+   * Get the offset from the start of the first file that the offsets in the index are relative to,
+   * see {@link SourcePointer#getIndexBase(java.util.List, long[])}.
+   */
+  default long getIndexBase() {
+    return 0;
+  }
+
+  /** Check if the content at an offset as stored in the index is presented in this sequence. */
+  default boolean coversIndexOffset(long indexOffset) {
+    return true;
+  }
+
   static IterableCharSequence fromString(String string) {
     return new IterableStringCharSequence(string);
   }
@@ -1,11 +1,12 @@
 package com.github.dbmdz.solrocr.iter;
 
 import com.github.dbmdz.solrocr.model.SourcePointer;
+import com.github.dbmdz.solrocr.util.ContentBackend;
+import com.github.dbmdz.solrocr.util.DecompressingBackend;
 import com.github.dbmdz.solrocr.util.Utf8;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
@@ -24,40 +25,59 @@ public class MultiFileBytesCharIterator implements IterableCharSequence, AutoClo
   private final Charset charset;
   private final int numBytes;
   private final SourcePointer ptr;
+  private final ContentBackend backend;
   private int current;
   private final Map<Path, FileBytesCharIterator> subiters = new HashMap<>();
 
   public MultiFileBytesCharIterator(List<Path> filePaths, Charset charset, SourcePointer ptr)
       throws IOException {
+    this(filePaths, charset, ptr, DecompressingBackend.getDefault());
+  }
+
+  public MultiFileBytesCharIterator(
+      List<Path> filePaths, Charset charset, SourcePointer ptr, ContentBackend backend)
+      throws IOException {
     this.ptr = ptr;
+    this.backend = backend;
     this.paths = filePaths;
     this.charset = charset;
     this.offsetMap = new TreeMap<>();
-    int offset = 0;
-    for (Path path : filePaths) {
-      offsetMap.put(offset, path);
-      offset += Files.size(path);
+    long offset = 0;
+    try {
+      for (Path path : filePaths) {
+        if (offset >= Integer.MAX_VALUE) {
+          // Offsets are `int`s, just like the offsets in the index, so we can't address anything
+          // beyond the first 2 GiB
+          log.warn(
+              "Combined size of {} exceeds 2 GiB, only the first 2 GiB can be highlighted.",
+              filePaths);
+          break;
+        }
+        // The files are opened right away, so the offsets are based on the same version of every
+        // file as the content that is read from it
+        FileBytesCharIterator it = subiters.get(path);
+        if (it == null) {
+          it = new FileBytesCharIterator(path, charset, ptr, backend);
+          subiters.put(path, it);
+        }
+        offsetMap.put((int) offset, path);
+        offset += it.length();
+      }
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
     }
-    this.numBytes = offset;
+    this.numBytes = (int) Math.min(offset, Integer.MAX_VALUE);
   }
 
   public MultiFileBytesCharIterator(MultiFileBytesCharIterator other) throws IOException {
-    this(other.paths, other.charset, other.ptr);
+    this(other.paths, other.charset, other.ptr, other.backend);
     this.current = other.current;
   }
 
   private IterableCharSequence getCharSeq(int offset) {
     Path path = offsetMap.floorEntry(offset).getValue();
-    FileBytesCharIterator it = subiters.get(path);
-    if (it == null) {
-      try {
-        it = new FileBytesCharIterator(path, charset, ptr);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-      subiters.put(path, it);
-    }
-    return it;
+    return subiters.get(path);
   }
 
   private int adjustOffset(int offset) {
@@ -119,7 +139,7 @@ public class MultiFileBytesCharIterator implements IterableCharSequence, AutoClo
       seq = getCharSeq(end);
       int adjustedEnd = adjustOffset(end);
       sb.append(seq.subSequence(0, adjustedEnd, forceAscii));
-      return sb.toString();
+      return forceAscii ? AsciiView.of(sb) : sb.toString();
     }
   }
 
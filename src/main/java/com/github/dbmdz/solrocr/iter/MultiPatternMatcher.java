@@ -0,0 +1,181 @@
+package com.github.dbmdz.solrocr.iter;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the occurrences of any of a set of ASCII patterns in an {@link AsciiView} in a single pass,
+ * both in forward and in backward direction.
+ *
+ * <p>Uses two Aho-Corasick automata, compiled to dense transition tables over the raw bytes: one
+ * for the patterns themselves and one for the reversed patterns, which is used for scanning
+ * backwards. This means that every byte of the input is only looked at once, regardless of the
+ * number of patterns, which makes a big difference for formats like hOCR where every level of the
+ * block hierarchy can be expressed with multiple class names.
+ *
+ * <p>Instances are immutable and can be shared between threads.
+ */
+public final class MultiPatternMatcher {
+  private static final int ALPHABET_SIZE = 256;
+
+  // Break locators are created for every document, but only ever use a handful of pattern sets
+  private static final Map<List<String>, MultiPatternMatcher> cache = new ConcurrentHashMap<>();
+
+  private final Automaton forward;
+  private final Automaton backward;
+  private final int maxPatternLength;
+
+  /** Get a (shared) matcher for the given patterns. */
+  public static MultiPatternMatcher of(List<String> patterns) {
+    return cache.computeIfAbsent(ImmutableList.copyOf(patterns), MultiPatternMatcher::new);
+  }
+
+  public MultiPatternMatcher(Collection<String> patterns) {
+    if (patterns.isEmpty()) {
+      throw new IllegalArgumentException("Need at least one pattern");
+    }
+    byte[][] needles = patterns.stream().map(AsciiView::needle).toArray(byte[][]::new);
+    byte[][] reversed = new byte[needles.length][];
+    int maxLen = 0;
+    for (int i = 0; i < needles.length; i++) {
+      if (needles[i].length == 0) {
+        throw new IllegalArgumentException("Patterns must not be empty");
+      }
+      maxLen = Math.max(maxLen, needles[i].length);
+      reversed[i] = new byte[needles[i].length];
+      for (int j = 0; j < needles[i].length; j++) {
+        reversed[i][j] = needles[i][needles[i].length - j - 1];
+      }
+    }
+    this.maxPatternLength = maxLen;
+    this.forward = new Automaton(needles);
+    this.backward = new Automaton(reversed);
+  }
+
+  public int getMaxPatternLength() {
+    return maxPatternLength;
+  }
+
+  /**
+   * Find the first position at or after {@code fromIndex} where any of the patterns starts.
+   *
+   * <p>If the patterns were a single one, this would behave exactly like {@link
+   * String#indexOf(String, int)}.
+   *
+   * @return the start of the earliest match in the view, or -1 if there was none
+   */
+  public int indexIn(AsciiView view, int fromIndex) {
+    int[] transitions = forward.transitions;
+    int[] matchLengths = forward.matchLengths;
+    int len = view.length();
+    int state = 0;
+    int best = -1;
+    // Matches are found by their end position, but a longer pattern ending later can still start
+    // earlier than the first match we encounter, so we need to keep looking for a bit.
+    int stopAt = len;
+    for (int i = Math.max(fromIndex, 0); i < stopAt; i++) {
+      state = transitions[(state << 8) | (view.byteAt(i) & 0xFF)];
+      int matchLen = matchLengths[state];
+      if (matchLen > 0) {
+        int start = i - matchLen + 1;
+        if (best < 0 || start < best) {
+          best = start;
+          stopAt = Math.min(len, start + maxPatternLength);
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Find the last position at or before {@code fromIndex} where any of the patterns starts.
+   *
+   * <p>If the patterns were a single one, this would behave exactly like {@link
+   * String#lastIndexOf(String, int)}.
+   *
+   * @return the start of the latest match in the view, or -1 if there was none
+   */
+  public int lastIndexIn(AsciiView view, int fromIndex) {
+    int[] transitions = backward.transitions;
+    int[] matchLengths = backward.matchLengths;
+    int state = 0;
+    // Start a bit further to the right, since matches starting at `fromIndex` can extend past it
+    int scanFrom = (int) Math.min((long) fromIndex + maxPatternLength - 1, view.length() - 1);
+    for (int i = scanFrom; i >= 0; i--) {
+      state = transitions[(state << 8) | (view.byteAt(i) & 0xFF)];
+      // Since we're scanning the reversed patterns, a match always starts at the current position
+      if (matchLengths[state] > 0 && i <= fromIndex) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Aho-Corasick automaton with all failure transitions resolved into a dense table. */
+  private static final class Automaton {
+    /** Next state for every combination of state and input byte, at {@code state << 8 | byte} */
+    final int[] transitions;
+
+    /** Length of the longest pattern that ends in a given state, or 0 if none does */
+    final int[] matchLengths;
+
+    Automaton(byte[][] patterns) {
+      int maxStates = 1;
+      for (byte[] pattern : patterns) {
+        maxStates += pattern.length;
+      }
+      int[] trie = new int[maxStates * ALPHABET_SIZE];
+      Arrays.fill(trie, -1);
+      int[] lengths = new int[maxStates];
+      int numStates = 1;
+
+      // Build the trie of all patterns
+      for (byte[] pattern : patterns) {
+        int state = 0;
+        for (byte b : pattern) {
+          int idx = (state << 8) | (b & 0xFF);
+          if (trie[idx] < 0) {
+            trie[idx] = numStates++;
+          }
+          state = trie[idx];
+        }
+        lengths[state] = Math.max(lengths[state], pattern.length);
+      }
+
+      // Resolve failure links breadth-first, turning the trie into a DFA
+      int[] fail = new int[numStates];
+      Deque<Integer> queue = new ArrayDeque<>();
+      for (int b = 0; b < ALPHABET_SIZE; b++) {
+        if (trie[b] < 0) {
+          trie[b] = 0;
+        } else {
+          fail[trie[b]] = 0;
+          queue.add(trie[b]);
+        }
+      }
+      while (!queue.isEmpty()) {
+        int state = queue.poll();
+        lengths[state] = Math.max(lengths[state], lengths[fail[state]]);
+        for (int b = 0; b < ALPHABET_SIZE; b++) {
+          int idx = (state << 8) | b;
+          int next = trie[idx];
+          int fallback = trie[(fail[state] << 8) | b];
+          if (next < 0) {
+            trie[idx] = fallback;
+          } else {
+            fail[next] = fallback;
+            queue.add(next);
+          }
+        }
+      }
+      this.transitions = Arrays.copyOf(trie, numStates * ALPHABET_SIZE);
+      this.matchLengths = Arrays.copyOf(lengths, numStates);
+    }
+  }
+}
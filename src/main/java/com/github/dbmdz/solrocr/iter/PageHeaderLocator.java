@@ -0,0 +1,192 @@
+package com.github.dbmdz.solrocr.iter;
+
+import com.github.dbmdz.solrocr.formats.OcrFormats;
+import com.github.dbmdz.solrocr.model.OcrBlock;
+import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import com.github.dbmdz.solrocr.model.SourcePointer.FileSource;
+import com.github.dbmdz.solrocr.model.SourcePointer.Region;
+import com.github.dbmdz.solrocr.util.ContentBackend;
+import com.github.dbmdz.solrocr.util.FileContent;
+import com.github.dbmdz.solrocr.util.FileMetadataCache;
+import com.github.dbmdz.solrocr.util.FileMetadataCache.FileMetadata;
+import com.github.dbmdz.solrocr.util.PageIndex;
+import com.github.dbmdz.solrocr.util.PageIndex.PageRecord;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Locates the opening markup of the page that encloses an offset in an OCR file, e.g. the {@code
+ * <Page ...>} element of an ALTO file.
+ *
+ * <p>Regions of a {@link SourcePointer} usually only cover the blocks of a page, so the markup that
+ * identifies the page is not part of the content presented by a {@link RegionCharIterator}. With
+ * this locator, the iterator presents the opening markup of the page as part of the content, right
+ * before the region, so the page of the region's snippets can be determined like for complete
+ * files.
+ *
+ * <p>The start of the page is taken from the {@link PageIndex} next to the OCR file if there is an
+ * up-to-date one. Otherwise, only a bounded window of the markup right before the region is scanned
+ * with the break locator of the file's format, so only a few pages' worth of bytes are read in
+ * addition to the regions, regardless of the size of the file. If there is no page start in the
+ * window, no header is presented for the region. Instances are immutable and can be shared.
+ */
+public class PageHeaderLocator {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** Default number of bytes before a region that are scanned for the start of its page. */
+  public static final int DEFAULT_MAX_SCAN_LENGTH = 1024 * 1024;
+
+  /** Maximum length of the opening markup of a page */
+  private static final int MAX_HEADER_LENGTH = 4096;
+
+  private final ContentBackend backend;
+  private final String pageIndexSuffix;
+  private final int maxScanLength;
+  private final OcrFormat declaredFormat;
+
+  /**
+   * @param pageIndexSuffix suffix of the {@link PageIndex} sidecars, {@code null} or empty if they
+   *     should not be used
+   * @param maxScanLength number of bytes before a region that are scanned for the start of its page
+   *     if there is no page index, {@code 0} to only use page indexes
+   */
+  public PageHeaderLocator(ContentBackend backend, String pageIndexSuffix, int maxScanLength) {
+    this(backend, pageIndexSuffix, maxScanLength, null);
+  }
+
+  private PageHeaderLocator(
+      ContentBackend backend, String pageIndexSuffix, int maxScanLength, OcrFormat declaredFormat) {
+    this.backend = backend;
+    this.pageIndexSuffix = pageIndexSuffix;
+    this.maxScanLength = maxScanLength;
+    this.declaredFormat = declaredFormat;
+  }
+
+  /**
+   * Get a locator for files with the given format.
+   *
+   * @param declaredFormat format of the OCR files if it is declared in the schema or the pointer,
+   *     otherwise ({@code null}) the one declared for the file or the detected one is used
+   */
+  public PageHeaderLocator forFormat(OcrFormat declaredFormat) {
+    return new PageHeaderLocator(backend, pageIndexSuffix, maxScanLength, declaredFormat);
+  }
+
+  /**
+   * Locate the opening markup of the page that encloses the offset, if it starts at or after {@code
+   * fromOffset}.
+   *
+   * @param fromOffset lowest offset in the file that the page can start at, e.g. the end of the
+   *     previous region, since the headers of earlier pages are already presented
+   * @return the start and end offset of the markup in the file, with the end capped at the offset,
+   *     or {@code null} if no page start was found between the two offsets or if the page starts at
+   *     the offset
+   */
+  public long[] locate(FileSource src, long fromOffset, long offset) {
+    if (offset <= fromOffset) {
+      return null;
+    }
+    try {
+      long pageStart = locatePageStart(src, fromOffset, offset);
+      if (pageStart < fromOffset || pageStart >= offset) {
+        return null;
+      }
+      try (FileContent header = backend.open(src.path, pageStart, MAX_HEADER_LENGTH)) {
+        for (int i = 0; i < header.size(); i++) {
+          if (header.get(i) == '>') {
+            return new long[] {pageStart, Math.min(pageStart + i + 1, offset)};
+          }
+        }
+      }
+      return null;
+    } catch (IOException | RuntimeException e) {
+      log.warn("Could not locate page markup before offset {} in {}.", offset, src.path, e);
+      return null;
+    }
+  }
+
+  private long locatePageStart(FileSource src, long fromOffset, long offset) throws IOException {
+    if (pageIndexSuffix != null && !pageIndexSuffix.isEmpty()) {
+      Path idxPath = PageIndex.getSidecarPath(src.path, pageIndexSuffix);
+      FileMetadataCache metaCache = FileMetadataCache.getInstance();
+      FileMetadata idxMeta = metaCache.get(idxPath);
+      if (idxMeta.exists) {
+        PageIndex idx = PageIndex.open(idxPath);
+        // The cached metadata was updated when the region was opened
+        FileMetadata ocr = metaCache.get(src.path);
+        if (ocr.exists && idx.isCurrent(ocr.size, ocr.lastModified, idxMeta.lastModified)) {
+          Optional<PageRecord> page = idx.locatePage(offset);
+          return page.map(PageRecord::getStartOffset).orElse(-1L);
+        }
+      }
+    }
+    if (maxScanLength <= 0) {
+      return -1;
+    }
+    OcrFormat format = getFormat(src);
+    if (format == null) {
+      return -1;
+    }
+    // Only the window right before the region is scanned, never the complete file
+    long windowStart = Math.max(fromOffset, offset - maxScanLength);
+    SourcePointer window =
+        new SourcePointer(
+            ImmutableList.of(
+                new FileSource(
+                    src.path,
+                    ImmutableList.of(new Region(windowStart, offset)),
+                    src.isAscii,
+                    src.format)));
+    try (RegionCharIterator text =
+        new RegionCharIterator(window, StandardCharsets.UTF_8, backend)) {
+      int pageStart = format.getBreakLocator(text, OcrBlock.PAGE).preceding(text.getEndIndex());
+      if (pageStart == BreakLocator.DONE) {
+        return -1;
+      }
+      if (pageStart == text.getBeginIndex()) {
+        // Locators return the beginning of the text if there is no break before the offset, so we
+        // need a fresh one to check if a page starts at the beginning of the window
+        BreakLocator freshLocator = format.getBreakLocator(text, OcrBlock.PAGE);
+        if (freshLocator.following(text.getBeginIndex() - 1, 1, 1) != text.getBeginIndex()) {
+          return -1;
+        }
+      }
+      return windowStart + pageStart;
+    }
+  }
+
+  /**
+   * Get the format of the file. If it is neither declared nor known, it is detected from a sample
+   * of the beginning of the file.
+   */
+  private OcrFormat getFormat(FileSource src) throws IOException {
+    if (declaredFormat != null) {
+      return declaredFormat;
+    }
+    if (src.format != null) {
+      return OcrFormats.byName(src.format);
+    }
+    OcrFormat format = OcrFormats.getDetectedFormat(src.path);
+    if (format != null) {
+      return format;
+    }
+    try (FileContent sample = backend.open(src.path, 0, OcrFormats.SAMPLE_SIZE)) {
+      byte[] buf = new byte[(int) sample.size()];
+      for (int i = 0; i < buf.length; i++) {
+        buf[i] = sample.get(i);
+      }
+      format = OcrFormats.detect(new String(buf, StandardCharsets.UTF_8));
+    }
+    if (format != null) {
+      OcrFormats.putDetectedFormat(src.path, format);
+    }
+    return format;
+  }
+}
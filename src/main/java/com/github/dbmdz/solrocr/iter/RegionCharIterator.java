@@ -0,0 +1,422 @@
+package com.github.dbmdz.solrocr.iter;
+
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import com.github.dbmdz.solrocr.model.SourcePointer.FileSource;
+import com.github.dbmdz.solrocr.model.SourcePointer.Region;
+import com.github.dbmdz.solrocr.util.ContentBackend;
+import com.github.dbmdz.solrocr.util.DecompressingBackend;
+import com.github.dbmdz.solrocr.util.FileContent;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Presents the regions of a {@link SourcePointer} as a single contiguous sequence of bytes.
+ *
+ * <p>Only the bytes in the regions are mapped or read (and thus potentially touched), which makes a
+ * huge difference for pointers that only reference a small part of a large file, e.g. a single page
+ * or issue in a file containing a complete volume.
+ *
+ * <p>Like with {@link FileBytesCharIterator}, all indices are <strong>byte offsets</strong>, but
+ * they are relative to the beginning of the virtual sequence, i.e. the start of the first region.
+ * Offsets from the index, which are relative to the beginning of the first file in the pointer (or
+ * to the start of the first region for content beyond 2 GiB, see {@link
+ * SourcePointer#getIndexBase(List, long[])}), need to be converted with {@link
+ * #translateIndexOffset(int)} before using them with the sequence.
+ *
+ * <p>If a {@link PageHeaderLocator} is passed, the opening markup of the page enclosing a region is
+ * presented right before the region, unless it is part of the content anyway. This allows
+ * determining the pages of snippets from regions that don't include the start of their page.
+ */
+public class RegionCharIterator implements IterableCharSequence, AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final SourcePointer ptr;
+  private final Charset charset;
+  private final ContentBackend backend;
+  private final PageHeaderLocator headerLocator;
+  private final List<Segment> segments;
+  // Start offsets of all segments in the virtual sequence and in the index, for binary searches
+  private final int[] virtualStarts;
+  private final long[] indexStarts;
+  private final long indexBase;
+  private final int numBytes;
+  private int current;
+
+  /** Check if the pointer references specific regions of its files. */
+  public static boolean hasRegions(SourcePointer ptr) {
+    return ptr.sources.stream().anyMatch(s -> !s.regions.isEmpty());
+  }
+
+  public RegionCharIterator(SourcePointer ptr, Charset charset) throws IOException {
+    this(ptr, charset, DecompressingBackend.getDefault());
+  }
+
+  public RegionCharIterator(SourcePointer ptr, Charset charset, ContentBackend backend)
+      throws IOException {
+    this(ptr, charset, backend, null);
+  }
+
+  /**
+   * @param headerLocator locator for the opening markup of the pages enclosing the regions, {@code
+   *     null} if only the regions should be presented
+   */
+  public RegionCharIterator(
+      SourcePointer ptr, Charset charset, ContentBackend backend, PageHeaderLocator headerLocator)
+      throws IOException {
+    this.ptr = ptr;
+    this.charset = charset;
+    this.backend = backend;
+    this.headerLocator = headerLocator;
+    this.segments = new ArrayList<>();
+    long fileOffset = 0;
+    long virtualOffset = 0;
+    long[] fileSizes = new long[ptr.sources.size()];
+    try {
+      for (int srcIdx = 0; srcIdx < ptr.sources.size(); srcIdx++) {
+        FileSource src = ptr.sources.get(srcIdx);
+        if (virtualOffset >= Integer.MAX_VALUE) {
+          // Not presented, but needed to determine the base of the offsets in the index
+          fileSizes[srcIdx] = backend.size(src.path);
+          continue;
+        }
+        // Taken from the opened content, so the offsets of the following files are based on the
+        // same version of this file as its content
+        long fileSize = 0;
+        if (src.regions.isEmpty()) {
+          FileContent mapping = backend.open(src.path);
+          fileSize = mapping.getFileSize();
+          virtualOffset += addSegment(mapping, fileOffset, virtualOffset);
+        } else {
+          // End of the previous region in the file
+          long previousEnd = 0;
+          for (Region region : src.regions) {
+            if (virtualOffset >= Integer.MAX_VALUE) {
+              break;
+            }
+            FileContent mapping =
+                backend.open(
+                    src.path, region.start, region.end < 0 ? -1 : region.end - region.start);
+            fileSize = mapping.getFileSize();
+            try {
+              virtualOffset += addPageHeader(src, region, previousEnd, fileOffset, virtualOffset);
+            } catch (IOException | RuntimeException e) {
+              mapping.close();
+              throw e;
+            }
+            virtualOffset += addSegment(mapping, fileOffset, virtualOffset);
+            previousEnd = region.end < 0 ? fileSize : region.end;
+          }
+        }
+        fileSizes[srcIdx] = fileSize;
+        fileOffset += fileSize;
+      }
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+    if (segments.isEmpty()) {
+      throw new IOException("Regions in " + ptr + " are all empty.");
+    }
+    if (virtualOffset > Integer.MAX_VALUE) {
+      log.warn("Regions in {} exceed 2 GiB, only the first 2 GiB can be highlighted.", ptr);
+    }
+    this.numBytes = (int) Math.min(virtualOffset, Integer.MAX_VALUE);
+    this.virtualStarts = new int[segments.size()];
+    this.indexStarts = new long[segments.size()];
+    this.indexBase = SourcePointer.getIndexBase(ptr.sources, fileSizes);
+    for (int i = 0; i < segments.size(); i++) {
+      virtualStarts[i] = segments.get(i).virtualStart;
+      // Page headers before the first region of large content have negative offsets
+      indexStarts[i] = segments.get(i).sourceStart - indexBase;
+    }
+  }
+
+  public RegionCharIterator(RegionCharIterator other) throws IOException {
+    this(other.ptr, other.charset, other.backend, other.headerLocator);
+    this.current = other.current;
+  }
+
+  /**
+   * Add the opening markup of the page enclosing the region as the next segment, if it is located
+   * between the end of the previous region and the start of the region.
+   *
+   * @return the length of the segment in the sequence
+   */
+  private long addPageHeader(
+      FileSource src, Region region, long previousEnd, long fileOffset, long virtualOffset)
+      throws IOException {
+    if (headerLocator == null) {
+      return 0;
+    }
+    // Headers of pages that start before the end of the previous region are already presented
+    long[] header = headerLocator.locate(src, previousEnd, region.start);
+    if (header == null) {
+      return 0;
+    }
+    return addSegment(
+        backend.open(src.path, header[0], header[1] - header[0]), fileOffset, virtualOffset);
+  }
+
+  /** Add the opened content as the next segment, returns its length in the sequence. */
+  private long addSegment(FileContent mapping, long fileOffset, long virtualOffset) {
+    long size = Math.min(mapping.size(), Integer.MAX_VALUE - virtualOffset);
+    if (size == 0) {
+      // Empty regions don't contribute anything to the sequence
+      mapping.close();
+      return 0;
+    }
+    segments.add(
+        new Segment(mapping, (int) virtualOffset, (int) size, fileOffset + mapping.getOffset()));
+    return size;
+  }
+
+  private int segmentIdx(int offset) {
+    int lo = 0;
+    int hi = virtualStarts.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (virtualStarts[mid] <= offset) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Convert an offset from the index (relative to the beginning of the first file or to the {@link
+   * #getIndexBase() base}) to an offset in the virtual sequence.
+   *
+   * <p>Offsets that fall between two regions are mapped to the start of the following region.
+   */
+  @Override
+  public int translateIndexOffset(int indexOffset) {
+    int idx = findSegmentByIndexOffset(indexOffset);
+    Segment seg = segments.get(idx);
+    if (indexOffset < indexStarts[idx]) {
+      return seg.virtualStart;
+    }
+    return (int) (seg.virtualStart + Math.min(indexOffset - indexStarts[idx], seg.length));
+  }
+
+  @Override
+  public long getIndexBase() {
+    return indexBase;
+  }
+
+  /** Check if the offset from the index falls into one of the regions or page headers. */
+  @Override
+  public boolean coversIndexOffset(long indexOffset) {
+    int idx = findSegmentByIndexOffset(indexOffset);
+    return indexOffset >= indexStarts[idx]
+        && indexOffset < indexStarts[idx] + segments.get(idx).length;
+  }
+
+  /** Find the last segment that starts at or before the offset from the index, or the first. */
+  private int findSegmentByIndexOffset(long indexOffset) {
+    int lo = 0;
+    int hi = indexStarts.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (indexStarts[mid] <= indexOffset) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return lo;
+  }
+
+  private int adjustOffset(int offset) {
+    if (offset == numBytes) {
+      return offset;
+    }
+    int b = byteAt(offset) & 0xFF;
+    while (offset > 0 && (b >> 6) == 0b10) {
+      offset -= 1;
+      b = byteAt(offset) & 0xFF;
+    }
+    return offset;
+  }
+
+  private byte byteAt(int offset) {
+    Segment seg = segments.get(segmentIdx(offset));
+    return seg.mapping.get(offset - seg.virtualStart);
+  }
+
+  /** Get the bytes in the given range, without copying if they're located in a single region. */
+  private ByteBuffer window(int start, int end) {
+    int idx = segmentIdx(start);
+    Segment seg = segments.get(idx);
+    if (end <= seg.virtualStart + seg.length) {
+      return seg.mapping.window(start - seg.virtualStart, end - start);
+    }
+    ByteBuffer buf = ByteBuffer.allocate(end - start);
+    int pos = start;
+    while (pos < end) {
+      seg = segments.get(idx++);
+      int len = Math.min(end, seg.virtualStart + seg.length) - pos;
+      buf.put(seg.mapping.window(pos - seg.virtualStart, len));
+      pos += len;
+    }
+    buf.flip();
+    return buf;
+  }
+
+  @Override
+  public String getIdentifier() {
+    return ptr.toString();
+  }
+
+  @Override
+  public OffsetType getOffsetType() {
+    return OffsetType.BYTES;
+  }
+
+  @Override
+  public Charset getCharset() {
+    return charset;
+  }
+
+  @Override
+  public SourcePointer getPointer() {
+    return ptr;
+  }
+
+  @Override
+  public int length() {
+    return numBytes;
+  }
+
+  /**
+   * Get ASCII character at the given byte offset, see {@link FileBytesCharIterator#charAt(int)} for
+   * the details.
+   */
+  @Override
+  public char charAt(int offset) {
+    if (offset < 0 || offset >= numBytes) {
+      throw new IndexOutOfBoundsException();
+    }
+    int b = byteAt(offset) & 0xFF;
+    return b < 0x80 ? (char) b : '?';
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end, boolean forceAscii) {
+    if (start < 0 || end < 0 || end > this.numBytes || end < start) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (forceAscii) {
+      return AsciiView.wrap(window(start, end), 0, end - start);
+    }
+    start = adjustOffset(start);
+    end = adjustOffset(end);
+    ByteBuffer buf = window(start, end);
+    byte[] bytes = new byte[buf.remaining()];
+    buf.get(bytes);
+    return new String(bytes, charset);
+  }
+
+  @Override
+  public char first() {
+    this.current = this.getBeginIndex();
+    return this.current();
+  }
+
+  @Override
+  public char last() {
+    this.current = this.getEndIndex() - 1;
+    return this.current();
+  }
+
+  @Override
+  public char current() {
+    if (this.current == this.numBytes) {
+      return DONE;
+    }
+    return this.charAt(current);
+  }
+
+  @Override
+  public char next() {
+    // Non-ASCII characters are always represented as a single-byte `?`, so we always move by 1
+    this.current = Math.min(this.current + 1, this.numBytes);
+    if (this.current == this.numBytes) {
+      return DONE;
+    }
+    return this.current();
+  }
+
+  @Override
+  public char previous() {
+    if (this.current > 0) {
+      this.current -= 1;
+      return this.current();
+    } else {
+      return DONE;
+    }
+  }
+
+  @Override
+  public char setIndex(int offset) {
+    this.current = offset;
+    try {
+      return this.current();
+    } catch (IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @Override
+  public int getBeginIndex() {
+    return 0;
+  }
+
+  @Override
+  public int getEndIndex() {
+    return numBytes;
+  }
+
+  @Override
+  public int getIndex() {
+    return current;
+  }
+
+  @Override
+  public Object clone() {
+    try {
+      return new RegionCharIterator(this);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public void close() {
+    segments.forEach(s -> s.mapping.close());
+  }
+
+  private static final class Segment {
+    final FileContent mapping;
+    // Start of the segment in the virtual sequence
+    final int virtualStart;
+    final int length;
+    // Start of the segment relative to the beginning of the first file, like in the index
+    // Offset of the segment from the beginning of the first file
+    final long sourceStart;
+
+    Segment(FileContent mapping, int virtualStart, int length, long sourceStart) {
+      this.mapping = mapping;
+      this.virtualStart = virtualStart;
+      this.length = length;
+      this.sourceStart = sourceStart;
+    }
+  }
+}
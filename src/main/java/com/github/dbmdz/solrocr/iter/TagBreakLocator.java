@@ -1,8 +1,11 @@
 package com.github.dbmdz.solrocr.iter;
 
+import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
+
 /** A {@link BreakLocator} that splits an XML-like document on a specific opening or closing tag. */
 public class TagBreakLocator extends BaseBreakLocator {
-  private final String breakTag;
+  private final MultiPatternMatcher breakTag;
 
   public TagBreakLocator(IterableCharSequence text, String tagName) {
     this(text, tagName, false);
@@ -11,51 +14,90 @@ public class TagBreakLocator extends BaseBreakLocator {
   public TagBreakLocator(IterableCharSequence text, String tagName, boolean closing) {
     super(text);
     if (closing) {
-      this.breakTag = ("</" + tagName + ">"); // .toCharArray();
+      this.breakTag = MultiPatternMatcher.of(ImmutableList.of("</" + tagName + ">"));
     } else {
-      this.breakTag = ("<" + tagName); // .toCharArray();
+      this.breakTag = MultiPatternMatcher.of(ImmutableList.of("<" + tagName));
     }
   }
 
   @Override
   protected int getFollowing(int offset) {
+    int[] breaks = this.getFollowing(offset, 1, this.text.getEndIndex());
+    return breaks.length > 0 ? breaks[0] : this.text.getEndIndex();
+  }
+
+  @Override
+  protected int getPreceding(int offset) {
+    int[] breaks = this.getPreceding(offset, 1, this.text.getBeginIndex() - 1);
+    return breaks.length > 0 ? breaks[0] : this.text.getBeginIndex();
+  }
+
+  @Override
+  protected int[] getFollowing(int offset, int n, int limit) {
     int blockSize = 65536;
-    int overlap = this.breakTag.length();
+    int overlap = this.breakTag.getMaxPatternLength();
+    int[] breaks = new int[n];
+    int count = 0;
     int start = Math.min(offset + 1, this.text.getEndIndex());
-    int end = Math.min(start + blockSize, this.text.getEndIndex());
     while (start < this.text.getEndIndex()) {
-      String block = text.subSequence(start, end, true).toString();
-      int idx = block.indexOf(breakTag);
-      if (idx >= 0) {
-        return start + idx;
+      int end = Math.min(start + blockSize, this.text.getEndIndex());
+      AsciiView block = AsciiView.of(text.subSequence(start, end, true));
+      int idx = breakTag.indexIn(block, 0);
+      while (idx >= 0) {
+        int breakOffset = start + idx;
+        if (breakOffset >= limit) {
+          return Arrays.copyOf(breaks, count);
+        }
+        // Matches in the overlap with the previous block were already found
+        if (count == 0 || breakOffset > breaks[count - 1]) {
+          breaks[count++] = breakOffset;
+          if (count == n) {
+            return breaks;
+          }
+        }
+        idx = breakTag.indexIn(block, idx + 1);
       }
-      start = end;
-      if (end < this.text.getEndIndex()) {
-        end -= overlap;
+      if (end >= this.text.getEndIndex() || end - overlap >= limit) {
+        break;
       }
-      end = Math.min(end + blockSize, this.text.getEndIndex());
+      // Overlap the blocks, so tags that were split between them are found
+      start = end - overlap + 1;
     }
-    return this.text.getEndIndex();
+    return Arrays.copyOf(breaks, count);
   }
 
   @Override
-  protected int getPreceding(int offset) {
+  protected int[] getPreceding(int offset, int n, int limit) {
     int blockSize = 65536;
-    int overlap = this.breakTag.length();
-    int end = Math.max(0, offset - 1);
-    int start = Math.max(0, end - blockSize);
+    int overlap = this.breakTag.getMaxPatternLength();
+    int[] breaks = new int[n];
+    int count = 0;
+    // Extend the first block past the offset, so tags that start right before it are found
+    int end = Math.min(Math.max(0, offset - 1) + overlap, this.text.getEndIndex());
+    int start = Math.max(0, offset - 1 - blockSize);
     while (start >= this.text.getBeginIndex()) {
-      String block = text.subSequence(start, end, true).toString();
-      int idx = optimizedLastIndexOf(block, breakTag, block.length());
-      if (idx >= 0) {
-        return start + idx;
+      AsciiView block = AsciiView.of(text.subSequence(start, end, true));
+      int idx = breakTag.lastIndexIn(block, Math.min(offset - 1 - start, block.length()));
+      while (idx >= 0) {
+        int breakOffset = start + idx;
+        if (breakOffset <= limit) {
+          return Arrays.copyOf(breaks, count);
+        }
+        // Matches in the overlap with the previous block were already found
+        if (count == 0 || breakOffset < breaks[count - 1]) {
+          breaks[count++] = breakOffset;
+          if (count == n) {
+            return breaks;
+          }
+        }
+        idx = idx > 0 ? breakTag.lastIndexIn(block, idx - 1) : -1;
       }
-      end = start + overlap;
-      if (start == 0) {
+      if (start == 0 || start <= limit) {
         break;
       }
+      end = start + overlap;
       start = Math.max(0, start - blockSize);
     }
-    return this.text.getBeginIndex();
+    return Arrays.copyOf(breaks, count);
   }
 }
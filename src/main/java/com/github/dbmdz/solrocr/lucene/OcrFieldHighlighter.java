@@ -27,14 +27,14 @@ package com.github.dbmdz.solrocr.lucene;
 import com.github.dbmdz.solrocr.iter.BreakLocator;
 import com.github.dbmdz.solrocr.iter.IterableCharSequence;
 import com.github.dbmdz.solrocr.model.OcrSnippet;
-import com.github.dbmdz.solrocr.util.PageCacheWarmer;
+import com.google.common.collect.Range;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.search.uhighlight.FieldHighlighter;
 import org.apache.lucene.search.uhighlight.FieldOffsetStrategy;
@@ -45,7 +45,9 @@ import org.apache.lucene.util.BytesRef;
 
 /** A customization of {@link FieldHighlighter} to support OCR fields */
 public class OcrFieldHighlighter extends FieldHighlighter {
-  private final Map<Integer, Integer> numMatches;
+  // Number of matches by document, for every leaf reader, since documents can be highlighted in
+  // parallel and document identifiers are only unique within a leaf
+  private final Map<LeafReader, Map<Integer, Integer>> numMatches;
 
   public OcrFieldHighlighter(
       String field,
@@ -55,7 +57,7 @@ public class OcrFieldHighlighter extends FieldHighlighter {
       int maxNoHighlightPassages) {
     super(
         field, fieldOffsetStrategy, null, passageScorer, maxPassages, maxNoHighlightPassages, null);
-    this.numMatches = new HashMap<>();
+    this.numMatches = new ConcurrentHashMap<>();
   }
 
   /**
@@ -79,8 +81,6 @@ public class OcrFieldHighlighter extends FieldHighlighter {
     // note: it'd be nice to accept a CharSequence for content, but we need a CharacterIterator impl
     // for it.
 
-    // If page cache pre-warming is enabled, cancel it, since we're doing the I/O ourselves now
-    PageCacheWarmer.getInstance().ifPresent(w -> w.cancelPreload(content.getPointer()));
     if (content.length() == 0) {
       return null; // nothing to do
     }
@@ -89,7 +89,14 @@ public class OcrFieldHighlighter extends FieldHighlighter {
     try (OffsetsEnum offsetsEnums = fieldOffsetStrategy.getOffsetsEnum(reader, docId, null)) {
       passages =
           highlightOffsetsEnums(
-              offsetsEnums, docId, breakLocator, formatter, pageId, snippetLimit, scorePassages);
+              offsetsEnums,
+              reader,
+              docId,
+              breakLocator,
+              formatter,
+              pageId,
+              snippetLimit,
+              scorePassages);
     }
 
     // Format the resulting Passages.
@@ -109,6 +116,31 @@ public class OcrFieldHighlighter extends FieldHighlighter {
     }
   }
 
+  /**
+   * Get the start offsets of the first {@code limit} matches in the document, in the order in which
+   * they are consumed during highlighting.
+   *
+   * <p>Offsets are returned as stored in the index, i.e. without any translation to offsets in the
+   * highlighted content.
+   */
+  public int[] getMatchOffsets(LeafReader reader, int docId, int limit) throws IOException {
+    int[] offsets = new int[Math.max(Math.min(limit, 64), 1)];
+    int numOffsets = 0;
+    try (OffsetsEnum off = fieldOffsetStrategy.getOffsetsEnum(reader, docId, null)) {
+      while (numOffsets < limit && off.nextPosition()) {
+        if (off.startOffset() < 0) {
+          // Indexed without offsets, highlighting will fail anyway
+          break;
+        }
+        if (numOffsets == offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[numOffsets++] = off.startOffset();
+      }
+    }
+    return Arrays.copyOf(offsets, numOffsets);
+  }
+
   @Override
   protected Passage[] highlightOffsetsEnums(OffsetsEnum off) {
     throw new UnsupportedOperationException();
@@ -125,6 +157,7 @@ public class OcrFieldHighlighter extends FieldHighlighter {
    */
   protected Passage[] highlightOffsetsEnums(
       OffsetsEnum off,
+      LeafReader reader,
       int docId,
       BreakLocator breakLocator,
       OcrPassageFormatter formatter,
@@ -132,10 +165,21 @@ public class OcrFieldHighlighter extends FieldHighlighter {
       int snippetLimit,
       boolean scorePassages)
       throws IOException {
-    final int contentLength = breakLocator.getText().getEndIndex();
+    final IterableCharSequence content = breakLocator.getText();
+    final int contentLength = content.getEndIndex();
     if (!off.nextPosition()) {
       return new Passage[0];
     }
+    // If we're filtering by a page identifier, only matches in the range of offsets of that page
+    // are considered
+    Range<Integer> pageRange = null;
+    if (pageId != null) {
+      pageRange = formatter.getPageCache(content).findPage(pageId);
+      if (pageRange == null) {
+        setNumMatches(reader, docId, 0);
+        return new Passage[0];
+      }
+    }
     // If we're filtering by a page identifier, we want *all* hits on that page
     int queueSize = pageId != null ? 4096 : maxPassages;
     if (queueSize <= 0) {
@@ -171,13 +215,19 @@ public class OcrFieldHighlighter extends FieldHighlighter {
         throw new IllegalArgumentException(
             "field '" + field + "' was indexed without offsets, cannot highlight");
       }
-      if (pageId != null) {
-        String passagePageId = formatter.determineStartPage(start, breakLocator.getText()).id;
-        if (!passagePageId.equals(pageId)) {
+      // Offsets in the index might differ from the offsets in the content, e.g. if the content
+      // only contains the regions referenced in a source pointer
+      start = content.translateIndexOffset(start);
+      if (pageRange != null) {
+        if (start > pageRange.upperEndpoint()) {
+          // Offsets are in ascending order, so there are no more matches on the page
+          break;
+        }
+        if (!pageRange.contains(start)) {
           continue;
         }
       }
-      int end = off.endOffset();
+      int end = content.translateIndexOffset(off.endOffset());
       if (start < contentLength && end > contentLength) {
         continue;
       }
@@ -217,7 +267,7 @@ public class OcrFieldHighlighter extends FieldHighlighter {
     }
     maybeAddPassage(passageQueue, passageScorer, passage, contentLength, scorePassages);
 
-    this.numMatches.put(docId, numTotal);
+    setNumMatches(reader, docId, numTotal);
     Passage[] passages = passageQueue.toArray(new Passage[passageQueue.size()]);
     // sort in ascending order
     Arrays.sort(passages, Comparator.comparingInt(Passage::getStartOffset));
@@ -268,7 +318,12 @@ public class OcrFieldHighlighter extends FieldHighlighter {
     return new Passage[] {};
   }
 
-  public int getNumMatches(int docId) {
-    return numMatches.getOrDefault(docId, -1);
+  private void setNumMatches(LeafReader reader, int docId, int num) {
+    numMatches.computeIfAbsent(reader, r -> new ConcurrentHashMap<>()).put(docId, num);
+  }
+
+  public int getNumMatches(LeafReader reader, int docId) {
+    Map<Integer, Integer> leafMatches = numMatches.get(reader);
+    return leafMatches == null ? -1 : leafMatches.getOrDefault(docId, -1);
   }
 }
@@ -0,0 +1,188 @@
+package com.github.dbmdz.solrocr.lucene;
+
+import com.github.dbmdz.solrocr.iter.BreakLocator;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.model.OcrBlock;
+import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.OcrPage;
+import com.github.dbmdz.solrocr.util.DocumentPageIndex;
+import com.google.common.collect.Range;
+import java.util.Arrays;
+
+/**
+ * Keeps track of the pages that were discovered in a single OCR document while highlighting it.
+ *
+ * <p>Both the filtering of matches by their page and the formatting of snippets need the page that
+ * a given offset is located on. Every page header is only located and parsed once, and the known
+ * extent of every page is widened with every lookup, so that lookups in ascending order only ever
+ * have to scan the markup between the previous and the current offset.
+ *
+ * <p>If the pages of the document are known from a {@link DocumentPageIndex}, all lookups are
+ * answered from it and the markup is never scanned or parsed.
+ *
+ * <p>Instances are meant to be used for a single document in a single request and are not thread
+ * safe.
+ */
+public class OcrPageCache {
+  private static final int PAGE_FRAGMENT_LENGTH = 512;
+
+  private final BreakLocator pageLocator;
+  private final OcrFormat format;
+
+  // Parallel arrays, sorted by the start offset of the pages. For every page we know that all
+  // offsets in (pageStarts[i], coveredUntil[i]] are located on it.
+  private int[] pageStarts = new int[8];
+  private int[] coveredUntil = new int[8];
+  private OcrPage[] pages = new OcrPage[8];
+  private int numPages = 0;
+  // If set, all pages are looked up in the index and nothing needs to be located in the markup
+  private final DocumentPageIndex pageIndex;
+  // Whether a page starts at the very beginning of the text, determined on demand
+  private Boolean pageAtBeginning;
+
+  /**
+   * @param pageLocator locator for the page breaks in the document
+   * @param format format of the document, used to parse the page headers
+   */
+  public OcrPageCache(BreakLocator pageLocator, OcrFormat format) {
+    this.pageLocator = pageLocator;
+    this.format = format;
+    this.pageIndex = null;
+  }
+
+  /** @param pageIndex all pages in the document */
+  public OcrPageCache(DocumentPageIndex pageIndex) {
+    this.pageLocator = pageIndex.getBreakLocator();
+    this.format = null;
+    this.pageIndex = pageIndex;
+  }
+
+  public IterableCharSequence getText() {
+    return pageLocator.getText();
+  }
+
+  /**
+   * Get the page that the offset is located on.
+   *
+   * @return the page, or {@code null} if there is no page break before the offset
+   */
+  public OcrPage getPage(int offset) {
+    if (pageIndex != null) {
+      int pageIdx = pageIndex.getPageIndex(offset);
+      return pageIdx < 0 ? null : pageIndex.getPage(pageIdx);
+    }
+    int idx = lookup(offset);
+    return idx < 0 ? null : pages[idx];
+  }
+
+  /**
+   * Locate the page with the given identifier, by going through the pages in the document in order
+   * until it is found.
+   *
+   * @return the range of offsets that are located on the page (i.e. for which {@link #getPage(int)}
+   *     returns the page), or {@code null} if there is no page with the identifier
+   */
+  public Range<Integer> findPage(String pageId) {
+    if (pageIndex != null) {
+      int pageIdx = pageIndex.findPage(pageId);
+      if (pageIdx < 0) {
+        return null;
+      }
+      return Range.openClosed(pageIndex.getPageStarts()[pageIdx], pageIndex.getPageEnd(pageIdx));
+    }
+    IterableCharSequence text = pageLocator.getText();
+    // The markup before the first page break doesn't contain any text, so we can start there
+    int pageStart = pageLocator.following(text.getBeginIndex() - 1);
+    while (pageStart >= 0 && pageStart < text.getEndIndex()) {
+      int idx = lookup(pageStart + 1);
+      int pageEnd = pageLocator.following(pageStart);
+      if (pageEnd == BreakLocator.DONE) {
+        pageEnd = text.getEndIndex();
+      }
+      if (idx >= 0) {
+        // All offsets up to the next page break are on the same page
+        coveredUntil[idx] = Math.max(coveredUntil[idx], pageEnd);
+        if (pages[idx] != null && pageId.equals(pages[idx].id)) {
+          return Range.openClosed(pageStarts[idx], pageEnd);
+        }
+      }
+      pageStart = pageEnd;
+    }
+    return null;
+  }
+
+  /**
+   * Get the index of the page the offset is located on, locating and parsing it if needed.
+   *
+   * @return the index of the page, or -1 if there is no page break before the offset
+   */
+  private int lookup(int offset) {
+    int idx = Arrays.binarySearch(pageStarts, 0, numPages, offset);
+    // Index of the last page starting before the offset
+    idx = idx < 0 ? -idx - 2 : idx - 1;
+    if (idx >= 0 && offset <= coveredUntil[idx]) {
+      return idx;
+    }
+    int pageStart;
+    if (idx >= 0) {
+      // Only look for a page break between the covered part of the closest page and the offset
+      int limit = coveredUntil[idx] - 1;
+      pageStart = pageLocator.preceding(offset, 1, limit);
+      if (pageStart == limit) {
+        coveredUntil[idx] = offset;
+        return idx;
+      }
+    } else {
+      pageStart = pageLocator.preceding(offset);
+    }
+    if (pageStart == BreakLocator.DONE || !isPageBreak(pageStart)) {
+      // This means the page is, if present, part of the passage, and will be determined during
+      // parsing anyway
+      return -1;
+    }
+    IterableCharSequence text = pageLocator.getText();
+    String pageFragment =
+        text.subSequence(pageStart, Math.min(pageStart + PAGE_FRAGMENT_LENGTH, text.length()))
+            .toString();
+    insert(idx + 1, pageStart, offset, format.parsePageFragment(pageFragment));
+    return idx + 1;
+  }
+
+  /**
+   * Check if a page starts at the offset. Locators return the beginning of the text if there is no
+   * break before an offset, which must not be mistaken for a page, e.g. if the text starts in the
+   * middle of a page.
+   */
+  private boolean isPageBreak(int offset) {
+    int begin = pageLocator.getText().getBeginIndex();
+    if (offset > begin) {
+      return true;
+    }
+    if (pageAtBeginning == null) {
+      // The locator caches the beginning as a break, so we need a fresh one to check the markup
+      BreakLocator freshLocator = format.getBreakLocator(pageLocator.getText(), OcrBlock.PAGE);
+      pageAtBeginning = freshLocator.following(begin - 1, 1, begin + 1) == begin;
+    }
+    return pageAtBeginning;
+  }
+
+  private void insert(int idx, int pageStart, int covered, OcrPage page) {
+    if (numPages == pageStarts.length) {
+      pageStarts = Arrays.copyOf(pageStarts, numPages * 2);
+      coveredUntil = Arrays.copyOf(coveredUntil, numPages * 2);
+      pages = Arrays.copyOf(pages, numPages * 2);
+    }
+    System.arraycopy(pageStarts, idx, pageStarts, idx + 1, numPages - idx);
+    System.arraycopy(coveredUntil, idx, coveredUntil, idx + 1, numPages - idx);
+    System.arraycopy(pages, idx, pages, idx + 1, numPages - idx);
+    pageStarts[idx] = pageStart;
+    coveredUntil[idx] = covered;
+    pages[idx] = page;
+    numPages++;
+  }
+
+  /** Number of pages that were located and parsed so far, or of all pages in the index. */
+  public int getNumPages() {
+    return pageIndex != null ? pageIndex.getNumPages() : numPages;
+  }
+}
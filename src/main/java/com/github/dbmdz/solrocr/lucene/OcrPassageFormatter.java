@@ -48,6 +48,7 @@ public class OcrPassageFormatter extends PassageFormatter {
   protected final boolean absoluteHighlights;
   protected final boolean alignSpans;
   protected final boolean trackPages;
+  private OcrPageCache pageCache;
 
   public OcrPassageFormatter(
       String startHlTag,
@@ -206,16 +207,24 @@ public class OcrPassageFormatter extends PassageFormatter {
 
   /** Determine the page an OCR fragment resides on. */
   OcrPage determineStartPage(int startOffset, IterableCharSequence content) {
-    BreakLocator pageBreakLocator = this.format.getBreakLocator(content, OcrBlock.PAGE);
-    int pageOffset = pageBreakLocator.preceding(startOffset);
-    if (pageOffset == BreakLocator.DONE) {
-      // This means the page is, if present, part of the passage, and will be determined during
-      // parsing anyway
-      return null;
+    return getPageCache(content).getPage(startOffset);
+  }
+
+  /**
+   * Use the given cache for looking up the pages in its document, e.g. to locate the pages with a
+   * different {@link BreakLocator}.
+   */
+  public void setPageCache(OcrPageCache pageCache) {
+    this.pageCache = pageCache;
+  }
+
+  /** Get the cache for the pages in the given document, creating it if needed. */
+  OcrPageCache getPageCache(IterableCharSequence content) {
+    if (pageCache == null || pageCache.getText() != content) {
+      pageCache =
+          new OcrPageCache(this.format.getBreakLocator(content, OcrBlock.PAGE), this.format);
     }
-    String pageFragment =
-        content.subSequence(pageOffset, Math.min(pageOffset + 512, content.length())).toString();
-    return this.format.parsePageFragment(pageFragment);
+    return pageCache;
   }
 
   /** Parse an {@link OcrSnippet} from an OCR fragment. */
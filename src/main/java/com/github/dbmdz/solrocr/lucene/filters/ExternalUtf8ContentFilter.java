@@ -24,7 +24,7 @@ public class ExternalUtf8ContentFilter extends BaseCharFilter implements SourceA
   private int cumulative;
 
   /** The current <strong>char</strong> offset in the full file; */
-  private int currentInOffset;
+  private long currentInOffset;
 
   /** The current <strong>char</strong> offset in the output. */
   private int currentOutOffset;
@@ -46,9 +46,9 @@ public class ExternalUtf8ContentFilter extends BaseCharFilter implements SourceA
     this.remainingRegions = new LinkedList<>(regions);
     currentRegion = remainingRegions.remove();
     if (currentRegion.start > 0) {
-      this.addOffCorrectMap(currentOutOffset, currentRegion.startOffset);
-      this.cumulative += currentRegion.startOffset;
-      this.currentInOffset = (int) this.input.skip(currentRegion.start);
+      this.addOffCorrectMap(currentOutOffset, (int) currentRegion.startOffset);
+      this.cumulative += (int) currentRegion.startOffset;
+      this.currentInOffset = this.input.skip(currentRegion.start);
     }
   }
 
@@ -64,10 +64,10 @@ public class ExternalUtf8ContentFilter extends BaseCharFilter implements SourceA
 
     int numCharsRead = 0;
     while (len - numCharsRead > 0) {
-      int charsRemainingInRegion = currentRegion.end - currentInOffset;
+      long charsRemainingInRegion = currentRegion.end - currentInOffset;
       int charsToRead = len - numCharsRead;
       if (charsToRead > charsRemainingInRegion) {
-        charsToRead = charsRemainingInRegion;
+        charsToRead = (int) charsRemainingInRegion;
       }
 
       int read = this.input.read(cbuf, off, charsToRead);
@@ -84,9 +84,9 @@ public class ExternalUtf8ContentFilter extends BaseCharFilter implements SourceA
         }
         currentRegion = remainingRegions.remove();
 
-        cumulative = currentRegion.startOffset - currentOutOffset;
+        cumulative = (int) (currentRegion.startOffset - currentOutOffset);
         this.addOffCorrectMap(currentOutOffset, cumulative);
-        int toSkip = this.currentRegion.start - this.currentInOffset;
+        long toSkip = this.currentRegion.start - this.currentInOffset;
         if (toSkip > 0) {
           this.input.skip(this.currentRegion.start - this.currentInOffset);
         }
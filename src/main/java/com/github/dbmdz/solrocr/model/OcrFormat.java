@@ -6,6 +6,7 @@ import com.github.dbmdz.solrocr.iter.IterableCharSequence;
 import com.github.dbmdz.solrocr.lucene.OcrPassageFormatter;
 import com.github.dbmdz.solrocr.lucene.filters.OcrCharFilter;
 import com.github.dbmdz.solrocr.reader.PeekingReader;
+import com.github.dbmdz.solrocr.util.BoundaryIndex;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import java.io.Reader;
@@ -27,6 +28,28 @@ public interface OcrFormat {
    */
   BreakLocator getBreakLocator(IterableCharSequence text, OcrBlock... blockTypes);
 
+  /**
+   * Get a {@link BreakLocator} that splits the content on a given block type, using the precomputed
+   * boundaries from the index if they are available.
+   *
+   * <p>Implementations whose break locators don't break on all of the passed block types need to
+   * override this to request the same block types from the index.
+   *
+   * @param boundaries the precomputed boundaries of the content, can be {@code null}
+   * @param blockTypes the type(s) of {@link OcrBlock} that the input document is split on
+   * @return the {@link BreakLocator} instance
+   */
+  default BreakLocator getBreakLocator(
+      IterableCharSequence text, BoundaryIndex boundaries, OcrBlock... blockTypes) {
+    if (boundaries != null) {
+      BreakLocator locator = boundaries.getBreakLocator(blockTypes);
+      if (locator != null) {
+        return locator;
+      }
+    }
+    return getBreakLocator(text, blockTypes);
+  }
+
   /**
    * Get the parser for the format.
    *
@@ -1,17 +1,22 @@
 package com.github.dbmdz.solrocr.model;
 
+import com.github.dbmdz.solrocr.util.FileMetadataCache;
+import com.github.dbmdz.solrocr.util.FileMetadataCache.FileMetadata;
 import com.google.common.collect.ImmutableList;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 public class SourcePointer {
 
@@ -20,41 +25,46 @@ public class SourcePointer {
     public final Path path;
     public List<Region> regions;
     public boolean isAscii;
+    // Name of the OCR format of the file, if declared in the pointer
+    public final String format;
 
     public FileSource(Path path, List<Region> regions, boolean isAscii) throws IOException {
+      this(path, regions, isAscii, null);
+    }
+
+    public FileSource(Path path, List<Region> regions, boolean isAscii, String format)
+        throws IOException {
       this.path = path;
-      if (!path.toFile().exists()) {
+      this.format = format;
+      FileMetadata meta = FileMetadataCache.getInstance().get(path);
+      if (!meta.exists) {
         throw new FileNotFoundException(
             String.format(Locale.US, "File at %s does not exist.", path));
       }
-      if (path.toFile().length() == 0) {
+      if (meta.size == 0) {
         throw new IOException(String.format(Locale.US, "File at %s is empty.", path));
       }
       this.regions = regions;
       this.isAscii = isAscii;
     }
 
-    static FileSource parse(String pointer) {
+    /** Parse a single source from the pointer, returns {@code null} if the syntax is invalid */
+    static ParsedSource parse(String pointer) {
       Matcher m = POINTER_PAT.matcher(pointer);
-      if (!m.find()) {
-        throw new RuntimeException("Could not parse source pointer from '" + pointer + ".");
+      if (!m.matches()) {
+        return null;
       }
-      Path sourcePath = Paths.get(m.group("path"));
-      List<Region> regions = ImmutableList.of();
+      long[] regions = new long[0];
       if (m.group("regions") != null) {
         regions =
             Arrays.stream(m.group("regions").split(","))
                 .map(Region::parse)
-                .sorted(Comparator.comparingInt(r -> r.start))
-                .collect(Collectors.toList());
-      }
-      try {
-        return new FileSource(sourcePath, regions, m.group("isAscii") != null);
-      } catch (FileNotFoundException e) {
-        throw new RuntimeException("Could not locate file at '" + sourcePath + ".");
-      } catch (IOException e) {
-        throw new RuntimeException("Could not read file at '" + sourcePath + ".");
+                .sorted(Comparator.comparingLong(r -> r.start))
+                .flatMapToLong(r -> LongStream.of(r.start, r.end))
+                .toArray();
       }
+      return new ParsedSource(
+          Paths.get(m.group("path")), regions, m.group("isAscii") != null, m.group("format"));
     }
 
     public String toString() {
@@ -62,6 +72,9 @@ public class SourcePointer {
       if (isAscii) {
         sb.append("{ascii}");
       }
+      if (format != null) {
+        sb.append("{").append(format).append("}");
+      }
       if (!regions.isEmpty()) {
         sb.append("[");
         for (Region region : regions) {
@@ -78,27 +91,27 @@ public class SourcePointer {
 
   public static class Region {
 
-    public int start;
-    public int end;
-    public int startOffset = 0;
+    public long start;
+    public long end;
+    public long startOffset = 0;
 
     public static Region parse(String r) {
       if (r.startsWith(":")) {
-        return new SourcePointer.Region(0, Integer.parseInt(r.substring(1)));
+        return new SourcePointer.Region(0, Long.parseLong(r.substring(1)));
       } else if (r.endsWith(":")) {
-        return new SourcePointer.Region(Integer.parseInt(r.substring(0, r.length() - 1)), -1);
+        return new SourcePointer.Region(Long.parseLong(r.substring(0, r.length() - 1)), -1);
       } else {
         String[] offsets = r.split(":");
-        return new SourcePointer.Region(Integer.parseInt(offsets[0]), Integer.parseInt(offsets[1]));
+        return new SourcePointer.Region(Long.parseLong(offsets[0]), Long.parseLong(offsets[1]));
       }
     }
 
-    public Region(int start, int end) {
+    public Region(long start, long end) {
       this.start = start;
       this.end = end;
     }
 
-    public Region(int start, int end, int startOffset) {
+    public Region(long start, long end, long startOffset) {
       this(start, end);
       this.startOffset = startOffset;
     }
@@ -109,26 +122,99 @@ public class SourcePointer {
     }
   }
 
+  /**
+   * Syntactical parse result of a single source, shared between all users of a pointer string.
+   * Needs to be turned into a {@link FileSource} for every use, since those are mutable.
+   */
+  private static final class ParsedSource {
+    final Path path;
+    // Start and end of every region, in sequence
+    final long[] regions;
+    final boolean isAscii;
+    final String format;
+
+    ParsedSource(Path path, long[] regions, boolean isAscii, String format) {
+      this.path = path;
+      this.regions = regions;
+      this.isAscii = isAscii;
+      this.format = format;
+    }
+
+    FileSource toFileSource() {
+      List<Region> regionList = ImmutableList.of();
+      if (regions.length > 0) {
+        regionList = new ArrayList<>(regions.length / 2);
+        for (int i = 0; i < regions.length; i += 2) {
+          regionList.add(new Region(regions[i], regions[i + 1]));
+        }
+      }
+      try {
+        return new FileSource(path, regionList, isAscii, format);
+      } catch (FileNotFoundException e) {
+        throw new RuntimeException("Could not locate file at '" + path + ".");
+      } catch (IOException e) {
+        throw new RuntimeException("Could not read file at '" + path + ".");
+      }
+    }
+  }
+
+  private static final int MAX_CACHED_POINTERS = 16384;
+
+  // Parsed pointers, parsing is comparatively expensive and the same pointers are parsed over and
+  // over again during highlighting. Access-ordered, i.e. the least recently used entry is evicted.
+  private static final Map<String, ParsedSource[]> parseCache =
+      new LinkedHashMap<String, ParsedSource[]>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ParsedSource[]> eldest) {
+          return size() > MAX_CACHED_POINTERS;
+        }
+      };
+
   static final Pattern POINTER_PAT =
-      Pattern.compile("^(?<path>.+?)(?<isAscii>\\{ascii})?(?:\\[(?<regions>[0-9:,]+)])?$");
+      Pattern.compile(
+          "^(?<path>.+?)(?<isAscii>\\{ascii})?(?:\\{(?<format>hocr|alto|miniocr)})?"
+              + "(?:\\[(?<regions>[0-9:,]+)])?$");
 
   public final List<FileSource> sources;
 
   public static boolean isPointer(String pointer) {
+    return parseSources(pointer) != null;
+  }
+
+  /** Parse the sources of the pointer, returns {@code null} if it is not a valid pointer */
+  private static ParsedSource[] parseSources(String pointer) {
     if (pointer.startsWith("<")) {
-      return false;
+      return null;
+    }
+    synchronized (parseCache) {
+      ParsedSource[] cached = parseCache.get(pointer);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    String[] sourceTokens = pointer.split("\\+");
+    ParsedSource[] parsed = new ParsedSource[sourceTokens.length];
+    for (int i = 0; i < sourceTokens.length; i++) {
+      parsed[i] = FileSource.parse(sourceTokens[i]);
+      if (parsed[i] == null) {
+        return null;
+      }
+    }
+    synchronized (parseCache) {
+      parseCache.put(pointer, parsed);
     }
-    return Arrays.stream(pointer.split("\\+"))
-        .allMatch(pointerToken -> POINTER_PAT.matcher(pointerToken).matches());
+    return parsed;
   }
 
   public static SourcePointer parse(String pointer) {
-    if (!isPointer(pointer)) {
+    ParsedSource[] parsed = parseSources(pointer);
+    if (parsed == null) {
       throw new RuntimeException("Could not parse pointer: " + pointer);
     }
-    String[] sourceTokens = pointer.split("\\+");
-    List<FileSource> fileSources =
-        Arrays.stream(sourceTokens).map(FileSource::parse).collect(Collectors.toList());
+    List<FileSource> fileSources = new ArrayList<>(parsed.length);
+    for (ParsedSource source : parsed) {
+      fileSources.add(source.toFileSource());
+    }
     if (fileSources.isEmpty()) {
       return null;
     } else {
@@ -140,6 +226,45 @@ public class SourcePointer {
     this.sources = sources;
   }
 
+  /**
+   * Get the offset from the start of the first file that the offsets of the content in the index
+   * are relative to.
+   *
+   * <p>Offsets in the index are 32 bit integers. Usually they are relative to the start of the
+   * first file, which keeps indexes built by older versions valid. If the content extends beyond 2
+   * GiB from the start of the first file, they are relative to the start of the first region
+   * instead, so that regions located anywhere in large files can be indexed, as long as the content
+   * of a single document spans less than 2 GiB.
+   *
+   * @param sources sources of the pointer, with the regions as parsed from the pointer
+   * @param fileSizes sizes of the files of the sources, in the same order
+   */
+  public static long getIndexBase(List<FileSource> sources, long[] fileSizes) {
+    long extent = 0;
+    for (int i = 0; i < sources.size() - 1; i++) {
+      extent += fileSizes[i];
+    }
+    int lastIdx = sources.size() - 1;
+    List<Region> lastRegions = sources.get(lastIdx).regions;
+    long lastEnd = lastRegions.isEmpty() ? -1 : lastRegions.get(lastRegions.size() - 1).end;
+    extent += lastEnd < 0 ? fileSizes[lastIdx] : Math.min(lastEnd, fileSizes[lastIdx]);
+    List<Region> firstRegions = sources.get(0).regions;
+    if (extent <= Integer.MAX_VALUE || firstRegions.isEmpty()) {
+      return 0;
+    }
+    return firstRegions.get(0).start;
+  }
+
+  /** Get the name of the OCR format declared for the files, {@code null} if none was declared. */
+  public String getFormatName() {
+    for (FileSource source : sources) {
+      if (source.format != null) {
+        return source.format;
+      }
+    }
+    return null;
+  }
+
   /**
    * Create meaningful human-readable representation of {@link SourcePointer} from it's attached
    * files
@@ -1,6 +1,6 @@
 package com.github.dbmdz.solrocr.reader;
 
-import java.io.FileInputStream;
+import com.github.dbmdz.solrocr.util.BlockedDeflate;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -16,7 +16,7 @@ public class MultiFileReader extends Reader {
   private final Queue<Path> remainingSources;
   private Reader currentReader;
 
-  public MultiFileReader(List<Path> sourcePaths) throws FileNotFoundException {
+  public MultiFileReader(List<Path> sourcePaths) throws IOException {
     for (Path path : sourcePaths) {
       if (!path.toFile().exists()) {
         throw new FileNotFoundException(
@@ -29,7 +29,7 @@ public class MultiFileReader extends Reader {
     this.remainingSources = new LinkedList<>(sourcePaths);
     this.currentReader =
         new InputStreamReader(
-            new FileInputStream(remainingSources.remove().toFile()), StandardCharsets.UTF_8);
+            BlockedDeflate.openStream(remainingSources.remove()), StandardCharsets.UTF_8);
   }
 
   @Override
@@ -39,19 +39,20 @@ public class MultiFileReader extends Reader {
       return -1;
     }
     int numRead = 0;
-    while (numRead < len && currentReader != null) {
+    while (len > 0 && currentReader != null) {
       int read = this.currentReader.read(cbuf, off, len);
-      if (read < len) {
+      if (read < 0) {
+        // Only switch to the next source once the current one is exhausted, short reads are
+        // common, e.g. at the block boundaries of compressed sources
+        this.currentReader.close();
         if (this.remainingSources.isEmpty()) {
           // No more readers, return what was read so far
           this.currentReader = null;
         } else {
           this.currentReader =
               new InputStreamReader(
-                  new FileInputStream(remainingSources.remove().toFile()), StandardCharsets.UTF_8);
+                  BlockedDeflate.openStream(remainingSources.remove()), StandardCharsets.UTF_8);
         }
-      }
-      if (read < 0) {
         continue;
       }
       numRead += read;
@@ -24,7 +24,13 @@
  */
 package com.github.dbmdz.solrocr.solr;
 
+import com.github.dbmdz.solrocr.iter.PageHeaderLocator;
 import com.github.dbmdz.solrocr.model.OcrHighlightResult;
+import com.github.dbmdz.solrocr.util.ContentBackend;
+import com.github.dbmdz.solrocr.util.DecompressingBackend;
+import com.github.dbmdz.solrocr.util.HighlightExecutor;
+import com.github.dbmdz.solrocr.util.PageCacheWarmer;
+import com.github.dbmdz.solrocr.util.PageIndex;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.util.Collection;
@@ -47,6 +53,43 @@ import solrocr.OcrHighlighter;
 public class SolrOcrHighlighter extends UnifiedSolrHighlighter {
   private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  private final ContentBackend contentBackend;
+  private final PageCacheWarmer cacheWarmer;
+  private final String pageIndexSuffix;
+  private final PageHeaderLocator headerLocator;
+  private final HighlightExecutor executor;
+
+  public SolrOcrHighlighter() {
+    this(DecompressingBackend.getDefault(), null, PageIndex.DEFAULT_SIDECAR_SUFFIX, null);
+  }
+
+  public SolrOcrHighlighter(
+      ContentBackend contentBackend,
+      PageCacheWarmer cacheWarmer,
+      String pageIndexSuffix,
+      HighlightExecutor executor) {
+    this(
+        contentBackend,
+        cacheWarmer,
+        pageIndexSuffix,
+        new PageHeaderLocator(
+            contentBackend, pageIndexSuffix, PageHeaderLocator.DEFAULT_MAX_SCAN_LENGTH),
+        executor);
+  }
+
+  public SolrOcrHighlighter(
+      ContentBackend contentBackend,
+      PageCacheWarmer cacheWarmer,
+      String pageIndexSuffix,
+      PageHeaderLocator headerLocator,
+      HighlightExecutor executor) {
+    this.contentBackend = contentBackend;
+    this.cacheWarmer = cacheWarmer;
+    this.pageIndexSuffix = pageIndexSuffix;
+    this.headerLocator = headerLocator;
+    this.executor = executor;
+  }
+
   public NamedList<Object> doHighlighting(
       DocList docs, Query query, SolrQueryRequest req, Map<String, Object> respHeader)
       throws IOException {
@@ -73,7 +116,15 @@ public class SolrOcrHighlighter extends UnifiedSolrHighlighter {
 
     // Highlight OCR fields
     OcrHighlighter ocrHighlighter =
-        new OcrHighlighter(req.getSearcher(), req.getSchema().getIndexAnalyzer(), req.getParams());
+        new OcrHighlighter(
+            req.getSearcher(),
+            req.getSchema().getIndexAnalyzer(),
+            req.getParams(),
+            contentBackend,
+            cacheWarmer,
+            pageIndexSuffix,
+            headerLocator,
+            executor);
     OcrHighlightResult[] ocrSnippets =
         ocrHighlighter.highlightOcrFields(ocrFieldNames, query, docIDs, maxPassagesOcr, respHeader);
 
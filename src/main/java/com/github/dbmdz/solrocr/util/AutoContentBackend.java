@@ -0,0 +1,90 @@
+package com.github.dbmdz.solrocr.util;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link ContentBackend} that picks the backend depending on the type of file system the OCR file
+ * is located on: Files on network file systems are read via positional reads, all others are
+ * memory-mapped.
+ */
+public class AutoContentBackend implements ContentBackend {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  /** File store types (as reported by {@link java.nio.file.FileStore#type()}) that use pread */
+  public static final Set<String> NETWORK_FS_TYPES =
+      ImmutableSet.of(
+          "nfs",
+          "nfs4",
+          "cifs",
+          "smb",
+          "smbfs",
+          "smb2",
+          "fuse.sshfs",
+          "9p",
+          "ceph",
+          "glusterfs",
+          "fuse.glusterfs",
+          "lustre",
+          "afs");
+
+  private static final int MAX_CACHED_DIRECTORIES = 1024;
+
+  private final ContentBackend localBackend;
+  private final ContentBackend networkBackend;
+
+  // OCR files are usually stored in a limited number of directories, so we cache the decision per
+  // directory to avoid looking up the file store for every document.
+  private final Map<Path, ContentBackend> directoryBackends =
+      Collections.synchronizedMap(
+          new LinkedHashMap<Path, ContentBackend>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, ContentBackend> eldest) {
+              return size() > MAX_CACHED_DIRECTORIES;
+            }
+          });
+
+  public AutoContentBackend(ContentBackend localBackend, ContentBackend networkBackend) {
+    this.localBackend = localBackend;
+    this.networkBackend = networkBackend;
+  }
+
+  @Override
+  public FileContent open(Path path, long offset, long length) throws IOException {
+    return backendFor(path).open(path, offset, length);
+  }
+
+  ContentBackend backendFor(Path path) {
+    Path dir = path.toAbsolutePath().getParent();
+    ContentBackend backend = dir != null ? directoryBackends.get(dir) : null;
+    if (backend != null) {
+      return backend;
+    }
+    backend = localBackend;
+    try {
+      String type = Files.getFileStore(path).type().toLowerCase(Locale.US);
+      if (NETWORK_FS_TYPES.contains(type)) {
+        backend = networkBackend;
+      }
+      log.debug("Using {} for files in {} (file system type {})", backend, dir, type);
+    } catch (IOException e) {
+      // Don't cache the decision, the file might just not exist (yet)
+      log.warn("Could not determine file system type of {}, assuming local storage.", path, e);
+      return backend;
+    }
+    if (dir != null) {
+      directoryBackends.put(dir, backend);
+    }
+    return backend;
+  }
+}
@@ -0,0 +1,355 @@
+package com.github.dbmdz.solrocr.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Container format for OCR files that are compressed in independent blocks, which allows random
+ * access to the uncompressed data without decompressing the whole file.
+ *
+ * <p>Similar to BGZF, the uncompressed data is split into blocks of a fixed size that are
+ * compressed separately with raw DEFLATE. An index of the compressed offsets of all blocks is
+ * stored at the end of the file, so the block containing any uncompressed offset can be located
+ * with a simple division. All offsets in source pointers and in the index refer to the
+ * <strong>uncompressed</strong> data, so files can be compressed without reindexing.
+ *
+ * <p>Layout (all numbers are big-endian):
+ *
+ * <pre>
+ *   header:  magic "OCRZ" | version (1 byte) | 3 bytes reserved
+ *   blocks:  raw DEFLATE data of every block
+ *   index:   compressed offset of every block, as 8-byte integers
+ *   footer:  index offset (8 bytes) | uncompressed size (8 bytes) | block size (4 bytes) |
+ *            number of blocks (4 bytes) | magic "OCRZ"
+ * </pre>
+ *
+ * <p>Files can be created with {@link #compress(Path, Path, int)}, or from the command line:
+ *
+ * <pre>
+ *   java -cp solr-ocrhighlighting.jar com.github.dbmdz.solrocr.util.BlockedDeflate \
+ *     input.xml output.xml.ocrz [blockSize]
+ * </pre>
+ */
+public final class BlockedDeflate {
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  private static final byte[] MAGIC = {'O', 'C', 'R', 'Z'};
+  private static final byte VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int FOOTER_SIZE = 8 + 8 + 4 + 4 + MAGIC.length;
+
+  private BlockedDeflate() {}
+
+  /** Block index of a compressed file */
+  public static final class Index {
+    public final int blockSize;
+    public final long uncompressedSize;
+    // Compressed offsets of all blocks, plus the offset of the end of the last block
+    private final long[] blockOffsets;
+
+    Index(int blockSize, long uncompressedSize, long[] blockOffsets) {
+      this.blockSize = blockSize;
+      this.uncompressedSize = uncompressedSize;
+      this.blockOffsets = blockOffsets;
+    }
+
+    public int getNumBlocks() {
+      return blockOffsets.length - 1;
+    }
+
+    /** Uncompressed length of the block */
+    public int getBlockLength(int blockIdx) {
+      return (int) Math.min(blockSize, uncompressedSize - (long) blockIdx * blockSize);
+    }
+  }
+
+  /** Check if the file at the given path is a blocked-deflate container. */
+  public static boolean isCompressed(Path path) throws IOException {
+    try (FileChannel chan = FileChannel.open(path, StandardOpenOption.READ)) {
+      return isCompressed(chan);
+    }
+  }
+
+  private static boolean isCompressed(FileChannel chan) throws IOException {
+    if (chan.size() < HEADER_SIZE + FOOTER_SIZE) {
+      return false;
+    }
+    ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+    readFully(chan, magic, 0);
+    return Arrays.equals(magic.array(), MAGIC);
+  }
+
+  /**
+   * Read the block index of the file.
+   *
+   * @return the index or {@code null} if the file is not a blocked-deflate container
+   */
+  public static Index readIndex(FileChannel chan) throws IOException {
+    if (!isCompressed(chan)) {
+      return null;
+    }
+    ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.BIG_ENDIAN);
+    readFully(chan, footer, chan.size() - FOOTER_SIZE);
+    footer.flip();
+    long indexOffset = footer.getLong();
+    long uncompressedSize = footer.getLong();
+    int blockSize = footer.getInt();
+    int numBlocks = footer.getInt();
+    byte[] magic = new byte[MAGIC.length];
+    footer.get(magic);
+    if (!Arrays.equals(magic, MAGIC)
+        || blockSize <= 0
+        || numBlocks < 0
+        || indexOffset + 8L * numBlocks != chan.size() - FOOTER_SIZE) {
+      throw new IOException("Corrupt blocked-deflate container, invalid footer.");
+    }
+    ByteBuffer indexBuf = ByteBuffer.allocate(8 * numBlocks).order(ByteOrder.BIG_ENDIAN);
+    readFully(chan, indexBuf, indexOffset);
+    indexBuf.flip();
+    long[] offsets = new long[numBlocks + 1];
+    for (int i = 0; i < numBlocks; i++) {
+      offsets[i] = indexBuf.getLong();
+    }
+    offsets[numBlocks] = indexOffset;
+    return new Index(blockSize, uncompressedSize, offsets);
+  }
+
+  /**
+   * Decompress a single block into the target array.
+   *
+   * @param inflater inflater to use, will be reset
+   * @return the uncompressed length of the block
+   */
+  public static int inflateBlock(
+      FileChannel chan, Index index, int blockIdx, Inflater inflater, byte[] out)
+      throws IOException {
+    long start = index.blockOffsets[blockIdx];
+    int compressedLength = (int) (index.blockOffsets[blockIdx + 1] - start);
+    ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+    readFully(chan, compressed, start);
+    int expected = index.getBlockLength(blockIdx);
+    inflater.reset();
+    inflater.setInput(compressed.array(), 0, compressedLength);
+    try {
+      int len = 0;
+      while (len < expected && !inflater.finished()) {
+        int n = inflater.inflate(out, len, expected - len);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        len += n;
+      }
+      if (len != expected) {
+        throw new IOException(
+            String.format(
+                Locale.US,
+                "Corrupt blocked-deflate container, block %d has %d bytes instead of %d.",
+                blockIdx,
+                len,
+                expected));
+      }
+      return len;
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt blocked-deflate container: " + e.getMessage(), e);
+    }
+  }
+
+  /** Get the size of the uncompressed content of the file, for compressed and plain files. */
+  public static long uncompressedSize(Path path) throws IOException {
+    try (FileChannel chan = FileChannel.open(path, StandardOpenOption.READ)) {
+      Index index = readIndex(chan);
+      return index == null ? chan.size() : index.uncompressedSize;
+    }
+  }
+
+  /** Open a stream on the uncompressed content of the file, for compressed and plain files. */
+  public static InputStream openStream(Path path) throws IOException {
+    FileChannel chan = FileChannel.open(path, StandardOpenOption.READ);
+    Index index;
+    try {
+      index = readIndex(chan);
+    } catch (IOException e) {
+      chan.close();
+      throw e;
+    }
+    if (index == null) {
+      chan.position(0);
+      return new BufferedInputStream(Channels.newInputStream(chan));
+    }
+    return new DecompressingInputStream(chan, index);
+  }
+
+  /**
+   * Open a channel on the uncompressed content of the file, for compressed and plain files.
+   *
+   * <p>Like {@link #openStream(Path)}, but without any additional buffering.
+   */
+  public static ReadableByteChannel openChannel(Path path) throws IOException {
+    FileChannel chan = FileChannel.open(path, StandardOpenOption.READ);
+    Index index;
+    try {
+      index = readIndex(chan);
+    } catch (IOException e) {
+      chan.close();
+      throw e;
+    }
+    if (index == null) {
+      chan.position(0);
+      return chan;
+    }
+    return Channels.newChannel(new DecompressingInputStream(chan, index));
+  }
+
+  /** Compress a file into a blocked-deflate container. */
+  public static void compress(Path source, Path target, int blockSize) throws IOException {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("blockSize must be positive, was " + blockSize);
+    }
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(source));
+        OutputStream out = Files.newOutputStream(target)) {
+      byte[] header = Arrays.copyOf(MAGIC, HEADER_SIZE);
+      header[MAGIC.length] = VERSION;
+      out.write(header);
+      long offset = HEADER_SIZE;
+      long uncompressedSize = 0;
+      long[] offsets = new long[16];
+      int numBlocks = 0;
+      byte[] block = new byte[blockSize];
+      byte[] compressed = new byte[blockSize + blockSize / 8 + 64];
+      int len;
+      while ((len = readBlock(in, block)) > 0) {
+        if (numBlocks == offsets.length) {
+          offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[numBlocks++] = offset;
+        deflater.reset();
+        deflater.setInput(block, 0, len);
+        deflater.finish();
+        while (!deflater.finished()) {
+          int n = deflater.deflate(compressed);
+          out.write(compressed, 0, n);
+          offset += n;
+        }
+        uncompressedSize += len;
+      }
+      ByteBuffer trailer =
+          ByteBuffer.allocate(8 * numBlocks + FOOTER_SIZE).order(ByteOrder.BIG_ENDIAN);
+      for (int i = 0; i < numBlocks; i++) {
+        trailer.putLong(offsets[i]);
+      }
+      trailer.putLong(offset);
+      trailer.putLong(uncompressedSize);
+      trailer.putInt(blockSize);
+      trailer.putInt(numBlocks);
+      trailer.put(MAGIC);
+      out.write(trailer.array());
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static int readBlock(InputStream in, byte[] block) throws IOException {
+    int len = 0;
+    while (len < block.length) {
+      int n = in.read(block, len, block.length - len);
+      if (n < 0) {
+        break;
+      }
+      len += n;
+    }
+    return len;
+  }
+
+  private static void readFully(FileChannel chan, ByteBuffer buf, long position)
+      throws IOException {
+    while (buf.hasRemaining()) {
+      int n = chan.read(buf, position + buf.position());
+      if (n < 0) {
+        throw new IOException("Unexpected end of blocked-deflate container.");
+      }
+    }
+  }
+
+  /** Sequentially decompresses all blocks of a container. */
+  private static final class DecompressingInputStream extends InputStream {
+    private final FileChannel chan;
+    private final Index index;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] block;
+    private int blockIdx = -1;
+    private int blockLen = 0;
+    private int pos = 0;
+
+    DecompressingInputStream(FileChannel chan, Index index) {
+      this.chan = chan;
+      this.index = index;
+      this.block = new byte[index.blockSize];
+    }
+
+    private boolean fill() throws IOException {
+      while (pos >= blockLen) {
+        if (blockIdx + 1 >= index.getNumBlocks()) {
+          return false;
+        }
+        blockIdx++;
+        blockLen = inflateBlock(chan, index, blockIdx, inflater, block);
+        pos = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return block[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int n = Math.min(len, blockLen - pos);
+      System.arraycopy(block, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      inflater.end();
+      chan.close();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: BlockedDeflate <input> <output> [blockSize]");
+      System.exit(1);
+    }
+    int blockSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BLOCK_SIZE;
+    compress(Paths.get(args[0]), Paths.get(args[1]), blockSize);
+  }
+}
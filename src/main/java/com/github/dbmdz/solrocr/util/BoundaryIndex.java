@@ -0,0 +1,486 @@
+package com.github.dbmdz.solrocr.util;
+
+import com.github.dbmdz.solrocr.formats.OcrFormats;
+import com.github.dbmdz.solrocr.iter.BaseBreakLocator;
+import com.github.dbmdz.solrocr.iter.BreakLocator;
+import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.IndexedBreakLocator;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.model.OcrBlock;
+import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import com.github.dbmdz.solrocr.util.FileMetadataCache.FileMetadata;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorted offsets of the structural boundaries (pages, blocks, sections, paragraphs and lines) in
+ * OCR files, which allow locating passage boundaries with a binary search instead of scanning the
+ * markup during highlighting.
+ *
+ * <p>The boundaries of an OCR file are stored in a sidecar file next to it, with the {@value
+ * #SIDECAR_SUFFIX} suffix appended to the file name. A boundary is the byte offset at which the
+ * markup of a block starts, exactly as determined by the break locators of the file's {@link
+ * OcrFormat}, i.e. highlighting with and without the sidecar yields the same results. Sidecars are
+ * written during indexing (see {@code writeBoundaryIndex} on the {@code
+ * ExternalUtf8ContentFilterFactory}) or from the command line:
+ *
+ * <pre>
+ *   java -cp solr-ocrhighlighting.jar com.github.dbmdz.solrocr.util.BoundaryIndex file.xml...
+ * </pre>
+ *
+ * <p>The file layout is as follows (all numbers are big-endian):
+ *
+ * <pre>
+ *   header:  magic "OCRBDX" | version (1 byte) |
+ *            size of the OCR file (8 bytes) | modification time of the OCR file (8 bytes, ms) |
+ *            number of block types (1 byte)
+ *   for every block type:
+ *     ordinal of the {@link OcrBlock} (1 byte) | number of boundaries (4 bytes) |
+ *     boundaries, delta-encoded as variable-length integers (7 bits per byte, MSB = continue)
+ * </pre>
+ *
+ * <p>A sidecar is only used if the size and modification time of the OCR file match the ones
+ * recorded in it exactly, otherwise (and for sidecars written by older versions, which don't record
+ * them) the boundaries are located by scanning the markup, as usual.
+ */
+public class BoundaryIndex {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final String SIDECAR_SUFFIX = ".boundaries";
+
+  static final byte[] MAGIC = "OCRBDX".getBytes(StandardCharsets.US_ASCII);
+  static final byte VERSION = 0x02;
+  // Sidecars of this version don't record the size and modification time of their OCR file
+  private static final byte VERSION_UNSTAMPED = 0x01;
+
+  /** Block types that are indexed, words are too numerous to be worth it */
+  static final List<OcrBlock> INDEXED_BLOCKS =
+      ImmutableList.of(
+          OcrBlock.PAGE, OcrBlock.BLOCK, OcrBlock.SECTION, OcrBlock.PARAGRAPH, OcrBlock.LINE);
+
+  /** Maximum number of boundaries held in the cache, about 64 MiB */
+  private static final long MAX_CACHED_BOUNDARIES = 8L * 1024 * 1024;
+
+  // Access-ordered, i.e. iteration starts at the least recently used entry
+  private static final LinkedHashMap<SidecarKey, FileBoundaries> cache =
+      new LinkedHashMap<>(64, 0.75f, true);
+  private static long cachedBoundaries = 0;
+
+  private final IterableCharSequence text;
+  private final FileBoundaries[] files;
+  // Offsets of the files relative to the beginning of the first file, i.e. in the index
+  private final long[] fileStarts;
+  private final Map<OcrBlock, int[]> breaks = new EnumMap<>(OcrBlock.class);
+
+  private BoundaryIndex(IterableCharSequence text, FileBoundaries[] files, long[] fileStarts) {
+    this.text = text;
+    this.files = files;
+    this.fileStarts = fileStarts;
+  }
+
+  /** Get the path of the sidecar for the OCR file at the given path. */
+  public static Path getSidecarPath(Path ocrPath) {
+    return ocrPath.resolveSibling(ocrPath.getFileName() + SIDECAR_SUFFIX);
+  }
+
+  /**
+   * Check if the OCR file at the given path has a sidecar that was written for its current version.
+   *
+   * <p>The metadata of the OCR file is read from the file system, not from the {@link
+   * FileMetadataCache}, so changes to the file are detected right away.
+   */
+  public static boolean hasSidecar(Path ocrPath) {
+    Path sidecarPath = getSidecarPath(ocrPath);
+    if (!FileMetadataCache.getInstance().get(sidecarPath).exists) {
+      return false;
+    }
+    try {
+      BasicFileAttributes ocr = FileMetadataCache.getInstance().stat(ocrPath);
+      try (DataInputStream in = new DataInputStream(Files.newInputStream(sidecarPath))) {
+        long[] stamp = readHeader(in);
+        return stamp != null
+            && stamp[0] == ocr.size()
+            && stamp[1] == ocr.lastModifiedTime().toMillis();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Load the boundaries for the given content.
+   *
+   * @return the boundaries or {@code null} if the content does not come from a source pointer or if
+   *     any of the pointer's files has no up-to-date sidecar
+   */
+  public static BoundaryIndex load(IterableCharSequence text, ContentBackend backend) {
+    SourcePointer ptr = text.getPointer();
+    if (ptr == null) {
+      return null;
+    }
+    FileBoundaries[] files = new FileBoundaries[ptr.sources.size()];
+    long[] fileStarts = new long[files.length];
+    long fileStart = 0;
+    try {
+      for (int i = 0; i < files.length; i++) {
+        Path path = ptr.sources.get(i).path;
+        Path sidecarPath = getSidecarPath(path);
+        if (!FileMetadataCache.getInstance().get(sidecarPath).exists) {
+          return null;
+        }
+        files[i] = getFileBoundaries(sidecarPath);
+        // The cached metadata was updated when the content was opened, so it describes the same
+        // version of the file that is highlighted
+        if (!files[i].isCurrent(FileMetadataCache.getInstance().get(path))) {
+          log.debug("Boundary index for {} is outdated, falling back to scanning.", path);
+          return null;
+        }
+        fileStarts[i] = fileStart;
+        fileStart += backend.size(path);
+      }
+    } catch (IOException e) {
+      log.warn("Could not load boundary index for {}, falling back to scanning.", ptr, e);
+      return null;
+    }
+    return new BoundaryIndex(text, files, fileStarts);
+  }
+
+  private static FileBoundaries getFileBoundaries(Path sidecarPath) throws IOException {
+    FileMetadata meta = FileMetadataCache.getInstance().get(sidecarPath);
+    SidecarKey key = new SidecarKey(sidecarPath, meta.lastModified, meta.size);
+    synchronized (cache) {
+      FileBoundaries cached = cache.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    FileBoundaries boundaries;
+    try (InputStream is = Files.newInputStream(sidecarPath)) {
+      boundaries = read(is);
+    }
+    synchronized (cache) {
+      if (cache.put(key, boundaries) == null) {
+        cachedBoundaries += boundaries.size();
+      }
+      Iterator<FileBoundaries> it = cache.values().iterator();
+      while (cachedBoundaries > MAX_CACHED_BOUNDARIES && it.hasNext()) {
+        cachedBoundaries -= it.next().size();
+        it.remove();
+      }
+    }
+    return boundaries;
+  }
+
+  /**
+   * Get a break locator for the given block types.
+   *
+   * <p>Like the break locators of the OCR formats, the returned locator breaks on the boundaries of
+   * all of the block types.
+   *
+   * @return the locator or {@code null} if any of the block types is not indexed
+   */
+  public BreakLocator getBreakLocator(OcrBlock... blockTypes) {
+    int[] merged = null;
+    for (OcrBlock blockType : blockTypes) {
+      int[] typeBreaks = getBreaks(blockType);
+      if (typeBreaks == null) {
+        return null;
+      }
+      merged = merged == null ? typeBreaks : union(merged, typeBreaks);
+    }
+    return merged == null ? null : new IndexedBreakLocator(text, merged);
+  }
+
+  /** Get the boundaries of the block type, translated to offsets in the text. */
+  private synchronized int[] getBreaks(OcrBlock blockType) {
+    if (breaks.containsKey(blockType)) {
+      return breaks.get(blockType);
+    }
+    int[] out = new int[64];
+    int numBreaks = 0;
+    for (int i = 0; i < files.length; i++) {
+      long[] fileBreaks = files[i].get(blockType);
+      if (fileBreaks == null) {
+        breaks.put(blockType, null);
+        return null;
+      }
+      for (long fileBreak : fileBreaks) {
+        long indexOffset = fileStarts[i] + fileBreak - text.getIndexBase();
+        if (indexOffset > Integer.MAX_VALUE) {
+          break;
+        }
+        // Skip boundaries outside of the regions (and page headers) presented by the text
+        if (!text.coversIndexOffset(indexOffset)) {
+          continue;
+        }
+        int offset = text.translateIndexOffset((int) indexOffset);
+        if (numBreaks > 0 && out[numBreaks - 1] >= offset) {
+          continue;
+        }
+        if (numBreaks == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        out[numBreaks++] = offset;
+      }
+    }
+    int[] typeBreaks = Arrays.copyOf(out, numBreaks);
+    breaks.put(blockType, typeBreaks);
+    return typeBreaks;
+  }
+
+  private static int[] union(int[] a, int[] b) {
+    int[] out = new int[a.length + b.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < a.length || j < b.length) {
+      int next;
+      if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+        next = a[i++];
+      } else {
+        next = b[j++];
+      }
+      if (n == 0 || out[n - 1] != next) {
+        out[n++] = next;
+      }
+    }
+    return Arrays.copyOf(out, n);
+  }
+
+  /**
+   * Locate all boundaries in the OCR file and write them to its sidecar.
+   *
+   * <p>The sidecar is written to a temporary file first and then moved into place, so concurrent
+   * writers and readers of the same sidecar don't interfere with each other.
+   *
+   * @return {@code false} if the format of the file could not be determined
+   */
+  public static boolean write(Path ocrPath) throws IOException {
+    return write(ocrPath, null);
+  }
+
+  /**
+   * Locate all boundaries in the OCR file and write them to its sidecar.
+   *
+   * @param declaredFormat format of the file if it is declared in the schema or in the pointer,
+   *     otherwise ({@code null}) it is detected
+   * @return {@code false} if the format of the file could not be determined
+   */
+  public static boolean write(Path ocrPath, OcrFormat declaredFormat) throws IOException {
+    Map<OcrBlock, long[]> boundaries = new EnumMap<>(OcrBlock.class);
+    // Taken before reading the content, so a change during the indexing results in a mismatch
+    BasicFileAttributes ocr = FileMetadataCache.getInstance().stat(ocrPath);
+    try (FileBytesCharIterator text =
+        new FileBytesCharIterator(ocrPath, StandardCharsets.UTF_8, null)) {
+      OcrFormat format = OcrFormats.resolve(ocrPath, text, declaredFormat);
+      if (format == null) {
+        return false;
+      }
+      for (OcrBlock blockType : INDEXED_BLOCKS) {
+        BreakLocator locator = format.getBreakLocator(text, blockType);
+        if (!(locator instanceof BaseBreakLocator)) {
+          continue;
+        }
+        int[] breaks = ((BaseBreakLocator) locator).locateAll();
+        boundaries.put(blockType, Arrays.stream(breaks).asLongStream().toArray());
+      }
+    }
+    Path sidecarPath = getSidecarPath(ocrPath);
+    Path tmpPath = Files.createTempFile(sidecarPath.getParent(), ".", SIDECAR_SUFFIX + ".tmp");
+    try {
+      try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmpPath))) {
+        write(boundaries, ocr.size(), ocr.lastModifiedTime().toMillis(), os);
+      }
+      try {
+        Files.move(
+            tmpPath,
+            sidecarPath,
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpPath, sidecarPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmpPath);
+    }
+    FileMetadataCache.getInstance().invalidate(sidecarPath);
+    return true;
+  }
+
+  static void write(
+      Map<OcrBlock, long[]> boundaries, long ocrSize, long ocrLastModified, OutputStream os)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(os);
+    out.write(MAGIC);
+    out.writeByte(VERSION);
+    out.writeLong(ocrSize);
+    out.writeLong(ocrLastModified);
+    out.writeByte(boundaries.size());
+    for (Map.Entry<OcrBlock, long[]> entry : boundaries.entrySet()) {
+      long[] offsets = entry.getValue();
+      out.writeByte(entry.getKey().ordinal());
+      out.writeInt(offsets.length);
+      long prev = 0;
+      for (long offset : offsets) {
+        long delta = offset - prev;
+        if (delta < 0) {
+          throw new IllegalArgumentException("Boundaries must be sorted in ascending order");
+        }
+        while ((delta & ~0x7FL) != 0) {
+          out.writeByte((int) ((delta & 0x7F) | 0x80));
+          delta >>>= 7;
+        }
+        out.writeByte((int) delta);
+        prev = offset;
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Read the header up to the number of block types.
+   *
+   * @return the size and modification time of the OCR file, or {@code null} if the sidecar does not
+   *     record them
+   */
+  private static long[] readHeader(DataInputStream in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Invalid boundary index, expected OCRBDX magic at offset 0.");
+    }
+    byte version = in.readByte();
+    if (version == VERSION_UNSTAMPED) {
+      return null;
+    }
+    if (version != VERSION) {
+      throw new IOException(
+          String.format(Locale.US, "Unsupported boundary index version %d.", version));
+    }
+    return new long[] {in.readLong(), in.readLong()};
+  }
+
+  static FileBoundaries read(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    long[] stamp = readHeader(in);
+    int numTypes = in.readUnsignedByte();
+    FileBoundaries boundaries =
+        stamp == null ? new FileBoundaries(-1, -1) : new FileBoundaries(stamp[0], stamp[1]);
+    OcrBlock[] blockTypes = OcrBlock.values();
+    for (int i = 0; i < numTypes; i++) {
+      int ordinal = in.readUnsignedByte();
+      if (ordinal >= blockTypes.length) {
+        throw new IOException("Invalid block type in boundary index: " + ordinal);
+      }
+      long[] offsets = new long[in.readInt()];
+      long prev = 0;
+      for (int j = 0; j < offsets.length; j++) {
+        long delta = 0;
+        int shift = 0;
+        int b;
+        do {
+          b = in.readUnsignedByte();
+          delta |= (long) (b & 0x7F) << shift;
+          shift += 7;
+        } while ((b & 0x80) != 0);
+        prev += delta;
+        offsets[j] = prev;
+      }
+      boundaries.offsets.put(blockTypes[ordinal], offsets);
+    }
+    return boundaries;
+  }
+
+  /** Boundaries of a single OCR file, as offsets from the beginning of the file. */
+  static final class FileBoundaries {
+    final Map<OcrBlock, long[]> offsets = new EnumMap<>(OcrBlock.class);
+    // Metadata of the OCR file the boundaries were located in, -1 if unknown
+    final long ocrSize;
+    final long ocrLastModified;
+
+    FileBoundaries(long ocrSize, long ocrLastModified) {
+      this.ocrSize = ocrSize;
+      this.ocrLastModified = ocrLastModified;
+    }
+
+    /** Check if the boundaries were located in the version of the OCR file with the metadata. */
+    boolean isCurrent(FileMetadata ocr) {
+      return ocr.exists && ocrSize == ocr.size && ocrLastModified == ocr.lastModified;
+    }
+
+    long[] get(OcrBlock blockType) {
+      return offsets.get(blockType);
+    }
+
+    long size() {
+      return offsets.values().stream().mapToLong(o -> o.length).sum();
+    }
+  }
+
+  private static final class SidecarKey {
+    final Path path;
+    final long lastModified;
+    final long size;
+
+    SidecarKey(Path path, long lastModified, long size) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      SidecarKey key = (SidecarKey) o;
+      return lastModified == key.lastModified && size == key.size && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, lastModified, size);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: BoundaryIndex <ocrFile>...");
+      System.exit(1);
+    }
+    for (String arg : args) {
+      Path path = Paths.get(arg);
+      if (!write(path)) {
+        System.err.println("Could not determine OCR format of " + path + ", skipping.");
+      }
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.github.dbmdz.solrocr.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** Strategy for reading the contents of OCR files during highlighting. */
+public interface ContentBackend {
+  /**
+   * Open a byte range of the file at the given path.
+   *
+   * @param offset start of the range in the file
+   * @param length length of the range, a negative value means until the end of the file. Ranges
+   *     reaching beyond the end of the file are truncated.
+   */
+  FileContent open(Path path, long offset, long length) throws IOException;
+
+  /** Open the complete file at the given path. */
+  default FileContent open(Path path) throws IOException {
+    return open(path, 0, -1);
+  }
+
+  /**
+   * Get the size of the content of the file at the given path, as presented by the backend.
+   *
+   * <p>Like {@link #open}, this reads the current size from the file system (see {@link
+   * FileMetadataCache#stat(Path)}), so it matches the content that is read. Prefer {@link
+   * FileContent#getFileSize()} if the file is opened anyway.
+   */
+  default long size(Path path) throws IOException {
+    return FileMetadataCache.getInstance().stat(path).size();
+  }
+}
@@ -0,0 +1,367 @@
+package com.github.dbmdz.solrocr.util;
+
+import com.github.dbmdz.solrocr.iter.ExitingIterCharSeq.ExitingIterCharSeqException;
+import com.github.dbmdz.solrocr.util.BlockedDeflate.Index;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+/**
+ * {@link ContentBackend} that transparently decompresses files stored in the {@link BlockedDeflate}
+ * container format and delegates all other files to another backend.
+ *
+ * <p>Decompressed blocks are kept in a bounded LRU cache, so repeated accesses to the same region
+ * of a file, which are very common during highlighting, only need to decompress the data once.
+ */
+public class DecompressingBackend implements ContentBackend {
+  public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+  private static final int MAX_CACHED_INDEXES = 4096;
+
+  // Marker for files that were checked and are not compressed
+  private static final Index NOT_COMPRESSED = new Index(1, 0, new long[1]);
+
+  private static DecompressingBackend defaultInstance;
+
+  private final ContentBackend delegate;
+  private final long capacity;
+
+  // Access-ordered, i.e. iteration starts at the least recently used entry
+  private final LinkedHashMap<BlockKey, byte[]> blocks = new LinkedHashMap<>(256, 0.75f, true);
+  private long cachedBytes = 0;
+
+  private final Map<FileKey, Index> indexes =
+      new LinkedHashMap<FileKey, Index>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<FileKey, Index> eldest) {
+          return size() > MAX_CACHED_INDEXES;
+        }
+      };
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesDecompressed = new AtomicLong();
+
+  /** Get the default instance, which delegates uncompressed files to the {@link MappedFileCache} */
+  public static synchronized DecompressingBackend getDefault() {
+    if (defaultInstance == null) {
+      defaultInstance = new DecompressingBackend(MappedFileCache.getInstance(), DEFAULT_CAPACITY);
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * @param delegate backend for files that are not compressed
+   * @param capacity maximum number of decompressed bytes to keep in the cache
+   */
+  public DecompressingBackend(ContentBackend delegate, long capacity) {
+    this.delegate = delegate;
+    this.capacity = capacity;
+  }
+
+  public ContentBackend getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public FileContent open(Path path, long offset, long length) throws IOException {
+    BasicFileAttributes attrs = FileMetadataCache.getInstance().stat(path);
+    FileKey fileKey =
+        new FileKey(
+            path.toAbsolutePath().normalize(), attrs.lastModifiedTime().toMillis(), attrs.size());
+    Index index = getIndex(fileKey);
+    if (index == NOT_COMPRESSED) {
+      return delegate.open(path, offset, length);
+    }
+    if (offset < 0 || offset > index.uncompressedSize) {
+      throw new IllegalArgumentException(
+          String.format(
+              Locale.US,
+              "Offset %d is out of bounds for %s (%d bytes uncompressed)",
+              offset,
+              path,
+              index.uncompressedSize));
+    }
+    if (length < 0 || offset + length > index.uncompressedSize) {
+      length = index.uncompressedSize - offset;
+    }
+    return new CompressedContent(path, fileKey, index, offset, length);
+  }
+
+  /** Get the size of the uncompressed content of the file. */
+  @Override
+  public long size(Path path) throws IOException {
+    BasicFileAttributes attrs = FileMetadataCache.getInstance().stat(path);
+    Index index =
+        getIndex(
+            new FileKey(
+                path.toAbsolutePath().normalize(),
+                attrs.lastModifiedTime().toMillis(),
+                attrs.size()));
+    return index == NOT_COMPRESSED ? attrs.size() : index.uncompressedSize;
+  }
+
+  private Index getIndex(FileKey fileKey) throws IOException {
+    synchronized (indexes) {
+      Index index = indexes.get(fileKey);
+      if (index != null) {
+        return index;
+      }
+    }
+    Index index;
+    try (FileChannel chan = FileChannel.open(fileKey.path, StandardOpenOption.READ)) {
+      index = BlockedDeflate.readIndex(chan);
+    }
+    if (index == null) {
+      index = NOT_COMPRESSED;
+    }
+    synchronized (indexes) {
+      indexes.put(fileKey, index);
+    }
+    return index;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Total number of bytes decompressed */
+  public long getBytesDecompressed() {
+    return bytesDecompressed.get();
+  }
+
+  private synchronized byte[] getCachedBlock(BlockKey key) {
+    return blocks.get(key);
+  }
+
+  private synchronized void cacheBlock(BlockKey key, byte[] block) {
+    if (blocks.put(key, block) == null) {
+      cachedBytes += block.length;
+    }
+    Iterator<byte[]> it = blocks.values().iterator();
+    while (cachedBytes > capacity && it.hasNext()) {
+      cachedBytes -= it.next().length;
+      it.remove();
+    }
+  }
+
+  private static final class FileKey {
+    final Path path;
+    final long lastModified;
+    final long size;
+
+    FileKey(Path path, long lastModified, long size) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      FileKey key = (FileKey) o;
+      return lastModified == key.lastModified && size == key.size && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, lastModified, size);
+    }
+  }
+
+  private static final class BlockKey {
+    final FileKey file;
+    final int blockIdx;
+
+    BlockKey(FileKey file, int blockIdx) {
+      this.file = file;
+      this.blockIdx = blockIdx;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      BlockKey key = (BlockKey) o;
+      return blockIdx == key.blockIdx && file.equals(key.file);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * file.hashCode() + blockIdx;
+    }
+  }
+
+  /** Uncompressed view on a range of a compressed file. */
+  private final class CompressedContent implements FileContent {
+    private final Path path;
+    private final FileKey fileKey;
+    private final Index index;
+    private final long offset;
+    private final long length;
+    private FileChannel chan;
+    private Inflater inflater;
+    // The most recently used block, held directly so we don't need to go through the cache
+    private byte[] current;
+    private long currentStart = -1;
+
+    CompressedContent(Path path, FileKey fileKey, Index index, long offset, long length) {
+      this.path = path;
+      this.fileKey = fileKey;
+      this.index = index;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /** Make the block containing the uncompressed file offset the current one. */
+    private void moveTo(long fileOffset) {
+      int blockIdx = (int) (fileOffset / index.blockSize);
+      BlockKey key = new BlockKey(fileKey, blockIdx);
+      byte[] block = getCachedBlock(key);
+      if (block != null) {
+        hits.incrementAndGet();
+      } else {
+        misses.incrementAndGet();
+        block = readBlock(blockIdx);
+        cacheBlock(key, block);
+      }
+      current = block;
+      currentStart = (long) blockIdx * index.blockSize;
+    }
+
+    private byte[] readBlock(int blockIdx) {
+      HighlightTimeout timeout = HighlightTimeout.getInstance();
+      if (timeout.shouldExit()) {
+        throw new ExitingIterCharSeqException(
+            String.format(
+                Locale.US,
+                "The request took to long to highlight the OCR files (file: %s, timeout was: %s)",
+                path,
+                timeout));
+      }
+      try {
+        if (chan == null) {
+          chan = FileChannel.open(path, StandardOpenOption.READ);
+          inflater = new Inflater(true);
+        }
+        byte[] block = new byte[index.getBlockLength(blockIdx)];
+        BlockedDeflate.inflateBlock(chan, index, blockIdx, inflater, block);
+        bytesDecompressed.addAndGet(block.length);
+        return block;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public byte get(long pos) {
+      if (pos < 0 || pos >= length) {
+        throw new IndexOutOfBoundsException();
+      }
+      long fileOffset = offset + pos;
+      long blockOffset = fileOffset - currentStart;
+      if (current == null || blockOffset < 0 || blockOffset >= current.length) {
+        moveTo(fileOffset);
+        blockOffset = fileOffset - currentStart;
+      }
+      return current[(int) blockOffset];
+    }
+
+    /** Windows inside of a single block are returned without copying. */
+    @Override
+    public ByteBuffer window(long pos, int len) {
+      if (pos < 0 || len < 0 || pos + len > length) {
+        throw new IndexOutOfBoundsException(
+            String.format(Locale.US, "[%d, %d) is out of bounds", pos, pos + len));
+      }
+      long fileOffset = offset + pos;
+      if (current == null
+          || fileOffset < currentStart
+          || fileOffset >= currentStart + current.length) {
+        if (len == 0) {
+          return ByteBuffer.allocate(0);
+        }
+        moveTo(fileOffset);
+      }
+      int blockOffset = (int) (fileOffset - currentStart);
+      if (blockOffset + len <= current.length) {
+        // Cached blocks are never modified, so we can hand out a read-only view
+        return ByteBuffer.wrap(current, blockOffset, len).slice().asReadOnlyBuffer();
+      }
+      ByteBuffer out = ByteBuffer.allocate(len);
+      while (out.hasRemaining()) {
+        blockOffset = (int) (fileOffset - currentStart);
+        if (blockOffset < 0 || blockOffset >= current.length) {
+          moveTo(fileOffset);
+          blockOffset = (int) (fileOffset - currentStart);
+        }
+        int n = Math.min(out.remaining(), current.length - blockOffset);
+        out.put(current, blockOffset, n);
+        fileOffset += n;
+      }
+      out.flip();
+      return out;
+    }
+
+    @Override
+    public long size() {
+      return length;
+    }
+
+    @Override
+    public long getOffset() {
+      return offset;
+    }
+
+    @Override
+    public long getFileSize() {
+      return index.uncompressedSize;
+    }
+
+    @Override
+    public Path getPath() {
+      return path;
+    }
+
+    @Override
+    public void close() {
+      current = null;
+      if (inflater != null) {
+        inflater.end();
+        inflater = null;
+      }
+      if (chan != null) {
+        try {
+          chan.close();
+        } catch (IOException e) {
+          // NOP, we only read from the channel
+        }
+        chan = null;
+      }
+    }
+  }
+}
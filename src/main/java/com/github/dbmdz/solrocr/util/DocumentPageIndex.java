@@ -0,0 +1,263 @@
+package com.github.dbmdz.solrocr.util;
+
+import com.github.dbmdz.solrocr.iter.BreakLocator;
+import com.github.dbmdz.solrocr.iter.IndexedBreakLocator;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.model.OcrPage;
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import com.github.dbmdz.solrocr.model.SourcePointer.Region;
+import com.github.dbmdz.solrocr.util.FileMetadataCache.FileMetadata;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pages of a single highlighted document, read from the {@link PageIndex} sidecars of its
+ * source files.
+ *
+ * <p>Like for the {@link BoundaryIndex}, the page offsets from the sidecars are translated to
+ * offsets in the document's text, so the pages can be used without scanning or parsing any markup.
+ * If any of the source files has no up-to-date sidecar, the index is not used at all and pages are
+ * located in the markup, as usual.
+ */
+public class DocumentPageIndex {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final IterableCharSequence text;
+  private final PageIndex[] files;
+  // Offsets at which the files start in the index, i.e. in the concatenation of all files
+  private final long[] fileStarts;
+  // Offsets in the text at which the page markup starts, in ascending order
+  private final int[] pageStarts;
+  // Index of the file (upper 32 bits) and of the entry in its index (lower 32 bits) for every page,
+  // in ascending order
+  private final long[] pageEntries;
+  // Parsed lazily from the indexes
+  private final OcrPage[] pages;
+  private int[] lineStarts;
+
+  private DocumentPageIndex(
+      IterableCharSequence text,
+      PageIndex[] files,
+      long[] fileStarts,
+      int[] pageStarts,
+      long[] pageEntries) {
+    this.text = text;
+    this.files = files;
+    this.fileStarts = fileStarts;
+    this.pageStarts = pageStarts;
+    this.pageEntries = pageEntries;
+    this.pages = new OcrPage[pageStarts.length];
+  }
+
+  /**
+   * Load the pages for the given content.
+   *
+   * @param suffix suffix of the sidecar files, see {@link PageIndex#getSidecarPath(Path, String)}
+   * @return the pages or {@code null} if the content does not come from a source pointer or if any
+   *     of the pointer's files has no up-to-date sidecar
+   */
+  public static DocumentPageIndex load(
+      IterableCharSequence text, ContentBackend backend, String suffix) {
+    SourcePointer ptr = text.getPointer();
+    if (ptr == null) {
+      return null;
+    }
+    FileMetadataCache metaCache = FileMetadataCache.getInstance();
+    for (SourcePointer.FileSource source : ptr.sources) {
+      if (!metaCache.get(PageIndex.getSidecarPath(source.path, suffix)).exists) {
+        return null;
+      }
+    }
+    PageIndex[] files = new PageIndex[ptr.sources.size()];
+    long[] fileStarts = new long[files.length];
+    int[] pageStarts = new int[64];
+    long[] pageEntries = new long[64];
+    int numPages = 0;
+    long fileStart = 0;
+    try {
+      for (int fileIdx = 0; fileIdx < files.length; fileIdx++) {
+        SourcePointer.FileSource source = ptr.sources.get(fileIdx);
+        Path idxPath = PageIndex.getSidecarPath(source.path, suffix);
+        PageIndex idx = PageIndex.open(idxPath);
+        // The cached metadata was updated when the content was opened, so it describes the same
+        // version of the file that is highlighted
+        FileMetadata ocr = metaCache.get(source.path);
+        if (!ocr.exists
+            || !idx.isCurrent(ocr.size, ocr.lastModified, metaCache.get(idxPath).lastModified)) {
+          log.debug("Page index for {} is outdated, falling back to scanning.", source.path);
+          return null;
+        }
+        files[fileIdx] = idx;
+        fileStarts[fileIdx] = fileStart;
+        for (int recordIdx = 0; recordIdx < idx.getNumRecords(); recordIdx++) {
+          if (idx.isGap(recordIdx)
+              || !overlapsRegions(
+                  source.regions, idx.getStartOffset(recordIdx), idx.getEndOffset(recordIdx))) {
+            continue;
+          }
+          // Pages of large content can start before the base of the offsets in the index
+          long indexOffset =
+              Math.max(
+                  fileStart + idx.getStartOffset(recordIdx) - text.getIndexBase(),
+                  Integer.MIN_VALUE);
+          if (indexOffset > Integer.MAX_VALUE) {
+            break;
+          }
+          // Pages that start before a region are mapped to the start of the region
+          int offset = text.translateIndexOffset((int) indexOffset);
+          if (offset >= text.getEndIndex()) {
+            break;
+          }
+          long entry = ((long) fileIdx << 32) | recordIdx;
+          if (numPages > 0 && pageStarts[numPages - 1] >= offset) {
+            // Only the last of the pages that were mapped to the same offset is on the region
+            pageEntries[numPages - 1] = entry;
+            continue;
+          }
+          if (numPages == pageStarts.length) {
+            pageStarts = Arrays.copyOf(pageStarts, numPages * 2);
+            pageEntries = Arrays.copyOf(pageEntries, numPages * 2);
+          }
+          pageStarts[numPages] = offset;
+          pageEntries[numPages] = entry;
+          numPages++;
+        }
+        fileStart += backend.size(source.path);
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      log.warn("Could not load page index for {}, falling back to scanning.", ptr, e);
+      return null;
+    }
+    return new DocumentPageIndex(
+        text,
+        files,
+        fileStarts,
+        Arrays.copyOf(pageStarts, numPages),
+        Arrays.copyOf(pageEntries, numPages));
+  }
+
+  /** Check if any part of the page lies within the regions, an empty list means the whole file. */
+  private static boolean overlapsRegions(List<Region> regions, long pageStart, long pageEnd) {
+    if (regions.isEmpty()) {
+      return true;
+    }
+    for (Region region : regions) {
+      boolean startsBeforeEnd = region.end < 0 || pageStart < region.end;
+      if (startsBeforeEnd && pageEnd > region.start) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public IterableCharSequence getText() {
+    return text;
+  }
+
+  public int getNumPages() {
+    return pageStarts.length;
+  }
+
+  /** Offsets in the text at which the pages start, in ascending order. */
+  public int[] getPageStarts() {
+    return pageStarts;
+  }
+
+  /** Offset in the text after the last character of the page, i.e. the start of the next page. */
+  public int getPageEnd(int pageIdx) {
+    return pageIdx + 1 < pageStarts.length ? pageStarts[pageIdx + 1] : text.getEndIndex();
+  }
+
+  /** Get the index of the page that the offset is located on, or -1 if it is before all pages. */
+  public int getPageIndex(int offset) {
+    int idx = Arrays.binarySearch(pageStarts, offset);
+    // Index of the last page starting before the offset
+    return idx < 0 ? -idx - 2 : idx - 1;
+  }
+
+  /** Get the page with the given index. */
+  public OcrPage getPage(int pageIdx) {
+    OcrPage page = pages[pageIdx];
+    if (page == null) {
+      long entry = pageEntries[pageIdx];
+      PageIndex idx = files[(int) (entry >>> 32)];
+      page = new OcrPage(idx.getId((int) entry), idx.getDimensions((int) entry));
+      pages[pageIdx] = page;
+    }
+    return page;
+  }
+
+  /** Get the index of the page with the given identifier, or -1 if there is no such page. */
+  public int findPage(String pageId) {
+    for (int fileIdx = 0; fileIdx < files.length; fileIdx++) {
+      int recordIdx = files[fileIdx].findRecord(pageId);
+      if (recordIdx < 0) {
+        continue;
+      }
+      int pageIdx = Arrays.binarySearch(pageEntries, ((long) fileIdx << 32) | recordIdx);
+      if (pageIdx >= 0) {
+        return pageIdx;
+      }
+    }
+    return -1;
+  }
+
+  /** Get a break locator for the page boundaries. */
+  public BreakLocator getBreakLocator() {
+    return new IndexedBreakLocator(text, pageStarts);
+  }
+
+  /**
+   * Get a break locator for the line boundaries, from the line starts stored for every page.
+   *
+   * @return the locator or {@code null} if any of the indexes has no line starts
+   */
+  public BreakLocator getLineBreakLocator() {
+    for (PageIndex idx : files) {
+      if (!idx.hasLineStarts()) {
+        return null;
+      }
+    }
+    if (lineStarts == null) {
+      lineStarts = translateLineStarts();
+    }
+    return new IndexedBreakLocator(text, lineStarts);
+  }
+
+  private int[] translateLineStarts() {
+    List<SourcePointer.FileSource> sources = text.getPointer().sources;
+    int[] starts = new int[256];
+    int numLines = 0;
+    for (long entry : pageEntries) {
+      int fileIdx = (int) (entry >>> 32);
+      List<Region> regions = sources.get(fileIdx).regions;
+      for (long lineStart : files[fileIdx].getLineStarts((int) entry)) {
+        if (!overlapsRegions(regions, lineStart, lineStart + 1)) {
+          continue;
+        }
+        long indexOffset =
+            Math.max(fileStarts[fileIdx] + lineStart - text.getIndexBase(), Integer.MIN_VALUE);
+        if (indexOffset > Integer.MAX_VALUE) {
+          break;
+        }
+        int offset = text.translateIndexOffset((int) indexOffset);
+        if (offset >= text.getEndIndex()) {
+          break;
+        }
+        if (numLines > 0 && starts[numLines - 1] >= offset) {
+          continue;
+        }
+        if (numLines == starts.length) {
+          starts = Arrays.copyOf(starts, numLines * 2);
+        }
+        starts[numLines++] = offset;
+      }
+    }
+    return Arrays.copyOf(starts, numLines);
+  }
+}
@@ -0,0 +1,37 @@
+package com.github.dbmdz.solrocr.util;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Read-only access to a byte range of a file, obtained from a {@link ContentBackend}.
+ *
+ * <p>All offsets are relative to the start of the range. Handles <strong>must</strong> be closed
+ * after use and are not safe for use by multiple threads.
+ */
+public interface FileContent extends AutoCloseable {
+  /** Get the byte at the given offset. */
+  byte get(long offset);
+
+  /**
+   * Get a buffer with the {@code length} bytes starting at {@code offset}, with the buffer's
+   * position 0 corresponding to {@code offset}.
+   *
+   * <p>The buffer must not be modified and must not be used after the handle was closed.
+   */
+  ByteBuffer window(long offset, int length);
+
+  /** Size of the range. */
+  long size();
+
+  /** Offset of the range in the file. */
+  long getOffset();
+
+  /** Size of the complete file (as presented by the backend) at the time it was opened. */
+  long getFileSize();
+
+  Path getPath();
+
+  @Override
+  void close();
+}
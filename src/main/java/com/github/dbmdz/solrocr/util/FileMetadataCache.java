@@ -0,0 +1,183 @@
+package com.github.dbmdz.solrocr.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide, bounded cache of file metadata (existence, readability, size and modification time)
+ * of OCR files.
+ *
+ * <p>Every highlighted document and every indexed pointer needs the metadata of all of its files.
+ * On network file systems every lookup is a round trip to the server, which can easily dominate the
+ * time needed to highlight a page-level document. Entries are kept for a configurable time to live,
+ * after which the file system is queried again, i.e. changes to files are picked up after at most
+ * one TTL. Missing files are cached as well, so pointers to files that don't exist don't result in
+ * a lookup every time.
+ */
+public class FileMetadataCache {
+  public static final int DEFAULT_MAX_ENTRIES = 65536;
+  public static final long DEFAULT_TTL_MS = 30_000;
+
+  private static final FileMetadataCache instance =
+      new FileMetadataCache(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MS);
+
+  /** Metadata of a single file. */
+  public static final class FileMetadata {
+    public final boolean exists;
+    public final boolean readable;
+    public final long size;
+    public final long lastModified;
+    final long loadedAt;
+
+    FileMetadata(boolean exists, boolean readable, long size, long lastModified, long loadedAt) {
+      this.exists = exists;
+      this.readable = readable;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.loadedAt = loadedAt;
+    }
+  }
+
+  // Access-ordered, i.e. iteration starts at the least recently used entry
+  private final LinkedHashMap<Path, FileMetadata> entries =
+      new LinkedHashMap<Path, FileMetadata>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, FileMetadata> eldest) {
+          return size() > maxEntries;
+        }
+      };
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private int maxEntries;
+  private long ttlNanos;
+
+  public static FileMetadataCache getInstance() {
+    return instance;
+  }
+
+  FileMetadataCache(int maxEntries, long ttlMs) {
+    this.maxEntries = maxEntries;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+  }
+
+  /** Get the metadata of the file at the given path, from the cache if possible. */
+  public FileMetadata get(Path path) {
+    long now = System.nanoTime();
+    synchronized (this) {
+      FileMetadata meta = entries.get(path);
+      if (meta != null && now - meta.loadedAt < ttlNanos) {
+        hits.incrementAndGet();
+        return meta;
+      }
+    }
+    misses.incrementAndGet();
+    FileMetadata meta = load(path, now);
+    synchronized (this) {
+      if (ttlNanos > 0) {
+        entries.put(path, meta);
+      }
+    }
+    return meta;
+  }
+
+  /**
+   * Read the current attributes of the file at the given path from the file system and update the
+   * cached metadata with them.
+   *
+   * <p>This is used by the {@link ContentBackend}s when opening a file, so that all later lookups
+   * agree with the content that is actually read, instead of returning outdated metadata for up to
+   * one TTL after the file was changed.
+   */
+  public BasicFileAttributes stat(Path path) throws IOException {
+    long now = System.nanoTime();
+    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+    // The file is about to be read, so we don't check its readability separately
+    FileMetadata meta =
+        new FileMetadata(
+            true, !attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis(), now);
+    synchronized (this) {
+      if (ttlNanos > 0) {
+        entries.put(path, meta);
+      }
+    }
+    return attrs;
+  }
+
+  /**
+   * Get the size of the file at the given path.
+   *
+   * @throws NoSuchFileException if the file does not exist
+   */
+  public long size(Path path) throws IOException {
+    FileMetadata meta = get(path);
+    if (!meta.exists) {
+      throw new NoSuchFileException(path.toString());
+    }
+    return meta.size;
+  }
+
+  /** Drop the cached metadata for the file at the given path. */
+  public synchronized void invalidate(Path path) {
+    entries.remove(path);
+  }
+
+  /** Drop all cached metadata. */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  private static FileMetadata load(Path path, long now) {
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+      return new FileMetadata(
+          true,
+          !attrs.isDirectory() && Files.isReadable(path),
+          attrs.size(),
+          attrs.lastModifiedTime().toMillis(),
+          now);
+    } catch (IOException e) {
+      return new FileMetadata(false, false, 0, 0, now);
+    }
+  }
+
+  /** Set the maximum number of files whose metadata is kept in the cache. */
+  public synchronized void setMaxEntries(int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("maxEntries must be positive, was " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+    while (entries.size() > maxEntries) {
+      entries.remove(entries.keySet().iterator().next());
+    }
+  }
+
+  /** Set the time to live of cached entries, a value of {@code 0} disables the cache. */
+  public synchronized void setTtl(long ttlMs) {
+    if (ttlMs < 0) {
+      throw new IllegalArgumentException("ttl must not be negative, was " + ttlMs);
+    }
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    if (ttlMs == 0) {
+      entries.clear();
+    }
+  }
+
+  public synchronized int getNumEntries() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+}
@@ -0,0 +1,107 @@
+package com.github.dbmdz.solrocr.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded executor for highlighting documents in parallel, shared by all requests of a core.
+ *
+ * <p>On JDK 21 and newer, every task runs on its own virtual thread and a semaphore limits the
+ * number of tasks that run at the same time. On older JDKs, the tasks run on a fixed pool of daemon
+ * threads.
+ */
+public class HighlightExecutor {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final ExecutorService service;
+  // For tasks that are not subject to the limit, i.e. mostly waiting for other tasks
+  private final ExecutorService unboundedService;
+  // Only needed for virtual threads, the platform thread pool is bounded by itself
+  private final Semaphore permits;
+  private final int maxConcurrency;
+
+  /** @param maxConcurrency maximum number of documents that are highlighted at the same time */
+  public HighlightExecutor(int maxConcurrency) {
+    if (maxConcurrency < 1) {
+      throw new IllegalArgumentException("maxConcurrency must be positive");
+    }
+    this.maxConcurrency = maxConcurrency;
+    ExecutorService virtualService = createVirtualThreadExecutor();
+    if (virtualService != null) {
+      this.service = virtualService;
+      this.unboundedService = virtualService;
+      this.permits = new Semaphore(maxConcurrency);
+    } else {
+      this.service =
+          Executors.newFixedThreadPool(
+              maxConcurrency,
+              new ThreadFactoryBuilder()
+                  .setNameFormat("solr-ocrhighlighting-highlighter-%d")
+                  .setDaemon(true)
+                  .build());
+      this.unboundedService =
+          Executors.newCachedThreadPool(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("solr-ocrhighlighting-loader-%d")
+                  .setDaemon(true)
+                  .build());
+      this.permits = null;
+    }
+  }
+
+  /** Create an executor with a virtual thread per task, or {@code null} if the JDK has none. */
+  private static ExecutorService createVirtualThreadExecutor() {
+    try {
+      // Looked up reflectively, since we still target Java 8
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      log.debug("Virtual threads are not available, using a pool of platform threads.");
+      return null;
+    }
+  }
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public boolean usesVirtualThreads() {
+    return permits != null;
+  }
+
+  public <T> Future<T> submit(Callable<T> task) {
+    if (permits == null) {
+      return service.submit(task);
+    }
+    return service.submit(
+        () -> {
+          permits.acquire();
+          try {
+            return task.call();
+          } finally {
+            permits.release();
+          }
+        });
+  }
+
+  /**
+   * Run a task that is not counted against the limit of tasks running at the same time. Meant for
+   * tasks that spend most of their time waiting for the bounded tasks to make progress, which would
+   * otherwise block the slots they are waiting for.
+   */
+  public <T> Future<T> submitUnbounded(Callable<T> task) {
+    return unboundedService.submit(task);
+  }
+
+  public void shutdown() {
+    service.shutdownNow();
+    unboundedService.shutdownNow();
+  }
+}
@@ -23,6 +23,11 @@ public class HighlightTimeout implements QueryTimeout {
         System.nanoTime() + TimeUnit.NANOSECONDS.convert(timeAllowed, TimeUnit.MILLISECONDS));
   }
 
+  /** Set the absolute deadline, e.g. to pass the timeout of a request on to another thread. */
+  public static void setTimeoutAt(long timeoutAtNanos) {
+    timeoutAt.set(timeoutAtNanos);
+  }
+
   public static void reset() {
     timeoutAt.remove();
   }
@@ -0,0 +1,457 @@
+package com.github.dbmdz.solrocr.util;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide, bounded cache of read-only memory mappings of OCR files.
+ *
+ * <p>Highlighting the same set of files over and over again would otherwise result in a constant
+ * churn of {@code open}/{@code mmap}/{@code munmap} system calls. Instead, mappings are kept around
+ * after use and handed out again to later users of the same file.
+ *
+ * <p>Mappings are keyed by their path, modification time and size, i.e. a changed file will result
+ * in a new mapping. Every user obtains a reference-counted {@link MappedFile} handle that needs to
+ * be closed after use. The number of cached mappings is capped (to stay clear of the kernel's
+ * {@code vm.max_map_count} limit), if the cap is exceeded the least recently used mapping is
+ * evicted. An evicted mapping is only unmapped once the last handle referring to it is closed,
+ * since accessing an unmapped buffer would crash the JVM.
+ *
+ * <p>A single {@link MappedByteBuffer} can only address 2 GiB, so larger files are mapped in
+ * multiple segments of (at most) 1 GiB, which are transparently addressed with {@code long} offsets
+ * through the {@link MappedFile} handle.
+ */
+public class MappedFileCache implements ContentBackend {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  public static final int DEFAULT_MAX_MAPPINGS = 4096;
+
+  /** Files are mapped in segments of 1 GiB */
+  public static final int DEFAULT_SEGMENT_SHIFT = 30;
+
+  private static final MappedFileCache instance =
+      new MappedFileCache(DEFAULT_MAX_MAPPINGS, DEFAULT_SEGMENT_SHIFT);
+
+  /**
+   * Explicitly unmaps a mapped buffer, if supported by the JVM. Otherwise, the mapping is released
+   * once the buffer is garbage-collected.
+   */
+  private static final Consumer<ByteBuffer> UNMAPPER = lookupUnmapper();
+
+  // Access-ordered, i.e. iteration starts at the least recently used entry
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final int segmentShift;
+  private int maxMappings;
+
+  public static MappedFileCache getInstance() {
+    return instance;
+  }
+
+  MappedFileCache(int maxMappings, int segmentShift) {
+    if (segmentShift < 1 || segmentShift > 30) {
+      throw new IllegalArgumentException("segmentShift must be between 1 and 30");
+    }
+    this.maxMappings = maxMappings;
+    this.segmentShift = segmentShift;
+  }
+
+  MappedFileCache(int maxMappings) {
+    this(maxMappings, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  /**
+   * Obtain a handle to a read-only mapping of the file at the given path.
+   *
+   * <p>The handle <strong>must</strong> be closed after use.
+   */
+  public MappedFile acquire(Path path) throws IOException {
+    return acquire(path, 0, -1);
+  }
+
+  @Override
+  public FileContent open(Path path, long offset, long length) throws IOException {
+    return acquire(path, offset, length);
+  }
+
+  /**
+   * Obtain a handle to a read-only mapping of a byte range of the file at the given path.
+   *
+   * <p>Only the range is mapped, offsets passed to the handle are relative to its start. This
+   * should be preferred over mapping the whole file if only a small part of a large file is needed.
+   * The handle <strong>must</strong> be closed after use.
+   *
+   * @param offset start of the range in the file
+   * @param length length of the range, a negative value means until the end of the file. Ranges
+   *     reaching beyond the end of the file are truncated.
+   */
+  public MappedFile acquire(Path path, long offset, long length) throws IOException {
+    BasicFileAttributes attrs = FileMetadataCache.getInstance().stat(path);
+    if (offset < 0 || offset > attrs.size()) {
+      throw new IllegalArgumentException(
+          String.format(
+              Locale.US,
+              "Offset %d is out of bounds for %s (%d bytes)",
+              offset,
+              path,
+              attrs.size()));
+    }
+    if (length < 0 || offset + length > attrs.size()) {
+      length = attrs.size() - offset;
+    }
+    Key key =
+        new Key(
+            path.toAbsolutePath().normalize(),
+            attrs.lastModifiedTime().toMillis(),
+            attrs.size(),
+            offset,
+            length);
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        hits.incrementAndGet();
+        entry.refCount++;
+        return new MappedFile(path, entry);
+      }
+    }
+    misses.incrementAndGet();
+
+    // Mapping is expensive, so don't block other users of the cache while doing it
+    Entry mapped;
+    try (FileChannel chan = (FileChannel) Files.newByteChannel(path, StandardOpenOption.READ)) {
+      mapped = new Entry(key, mapSegments(chan, key.offset, key.length));
+    }
+
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        // Somebody else was faster, use their mapping instead
+        unmap(mapped.segments);
+        entry.refCount++;
+        return new MappedFile(path, entry);
+      }
+      evictStale(key);
+      mapped.refCount++;
+      entries.put(key, mapped);
+      evictIfNecessary();
+      return new MappedFile(path, mapped);
+    }
+  }
+
+  /** Set the maximum number of mappings that are kept in the cache. */
+  public synchronized void setMaxMappings(int maxMappings) {
+    if (maxMappings < 1) {
+      throw new IllegalArgumentException("maxMappings must be positive, was " + maxMappings);
+    }
+    this.maxMappings = maxMappings;
+    evictIfNecessary();
+  }
+
+  public synchronized int getMaxMappings() {
+    return maxMappings;
+  }
+
+  /** Number of mappings currently held by the cache. */
+  public synchronized int getNumMappings() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /** Evict all mappings that are not currently in use. */
+  public synchronized void clear() {
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Entry entry = it.next();
+      if (entry.refCount == 0) {
+        it.remove();
+        evict(entry);
+      }
+    }
+  }
+
+  /** Drop mappings for older versions of the file that is about to be cached. */
+  private void evictStale(Key key) {
+    Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key, Entry> e = it.next();
+      Key other = e.getKey();
+      if (other.path.equals(key.path)
+          && (other.lastModified != key.lastModified || other.size != key.size)) {
+        it.remove();
+        evict(e.getValue());
+      }
+    }
+  }
+
+  private void evictIfNecessary() {
+    while (entries.size() > maxMappings) {
+      // Prefer the least recently used entry that is not in use, otherwise evict the least recently
+      // used one, it will be unmapped once its last user is done with it.
+      Entry victim = null;
+      for (Entry entry : entries.values()) {
+        if (victim == null) {
+          victim = entry;
+        }
+        if (entry.refCount == 0) {
+          victim = entry;
+          break;
+        }
+      }
+      entries.remove(victim.key);
+      evict(victim);
+    }
+  }
+
+  private void evict(Entry entry) {
+    evictions.incrementAndGet();
+    entry.evicted = true;
+    if (entry.refCount == 0) {
+      unmap(entry.segments);
+    }
+  }
+
+  private synchronized void release(Entry entry) {
+    entry.refCount--;
+    if (entry.refCount == 0 && entry.evicted) {
+      unmap(entry.segments);
+    }
+  }
+
+  private MappedByteBuffer[] mapSegments(FileChannel chan, long offset, long length)
+      throws IOException {
+    long segmentSize = 1L << segmentShift;
+    int numSegments = (int) Math.max(1, (length + segmentSize - 1) >>> segmentShift);
+    MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+    try {
+      for (int i = 0; i < numSegments; i++) {
+        long start = i * segmentSize;
+        segments[i] =
+            chan.map(MapMode.READ_ONLY, offset + start, Math.min(segmentSize, length - start));
+      }
+    } catch (IOException e) {
+      unmap(segments);
+      throw e;
+    }
+    return segments;
+  }
+
+  private static void unmap(ByteBuffer[] segments) {
+    if (UNMAPPER == null) {
+      return;
+    }
+    for (ByteBuffer segment : segments) {
+      if (segment != null) {
+        UNMAPPER.accept(segment);
+      }
+    }
+  }
+
+  /**
+   * Look up a way to explicitly unmap a buffer, based on the approach used by Lucene's {@code
+   * MMapDirectory}.
+   */
+  private static Consumer<ByteBuffer> lookupUnmapper() {
+    try {
+      // Java 9 and newer
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+      unsafeField.setAccessible(true);
+      Object unsafe = unsafeField.get(null);
+      return buf -> {
+        try {
+          invokeCleaner.invoke(unsafe, buf);
+        } catch (ReflectiveOperationException e) {
+          log.warn("Could not unmap buffer: {}", e.getMessage());
+        }
+      };
+    } catch (ReflectiveOperationException | SecurityException e) {
+      // Java 8 or restricted environment, mappings are released by the garbage collector
+      log.info(
+          "Explicit unmapping of OCR files is not supported on this JVM, relying on GC ({})",
+          e.getMessage());
+      return null;
+    }
+  }
+
+  private static final class Key {
+    final Path path;
+    final long lastModified;
+    final long size;
+    // Mapped range of the file
+    final long offset;
+    final long length;
+
+    Key(Path path, long lastModified, long size, long offset, long length) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.size = size;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return lastModified == key.lastModified
+          && size == key.size
+          && offset == key.offset
+          && length == key.length
+          && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, lastModified, size, offset, length);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US, "%s@%d[%d:%d](%d bytes)", path, lastModified, offset, offset + length, size);
+    }
+  }
+
+  private static final class Entry {
+    final Key key;
+    final MappedByteBuffer[] segments;
+    // Guarded by the cache's monitor
+    int refCount = 0;
+    boolean evicted = false;
+
+    Entry(Key key, MappedByteBuffer[] segments) {
+      this.key = key;
+      this.segments = segments;
+    }
+  }
+
+  /** A reference-counted handle to a cached file mapping. */
+  public final class MappedFile implements FileContent {
+    private final Path path;
+    private final Entry entry;
+    // Local copies for fast access
+    private final MappedByteBuffer[] segments;
+    private final int shift;
+    private final long mask;
+    private boolean closed = false;
+
+    private MappedFile(Path path, Entry entry) {
+      this.path = path;
+      this.entry = entry;
+      this.segments = entry.segments;
+      this.shift = segmentShift;
+      this.mask = (1L << segmentShift) - 1;
+    }
+
+    /** Get the byte at the given offset in the mapped range. */
+    @Override
+    public byte get(long offset) {
+      return segments[(int) (offset >>> shift)].get((int) (offset & mask));
+    }
+
+    /**
+     * Get a buffer with the {@code length} bytes of the mapped range starting at {@code offset},
+     * with the buffer's position 0 corresponding to {@code offset}.
+     *
+     * <p>If the range is located in a single segment of the mapping (i.e. always for files smaller
+     * than the segment size), the returned buffer is a view on the mapped memory, otherwise the
+     * range is copied to the heap. The buffer must not be used after the handle was closed.
+     */
+    @Override
+    public ByteBuffer window(long offset, int length) {
+      if (offset < 0 || length < 0 || offset + length > size()) {
+        throw new IndexOutOfBoundsException(
+            String.format(Locale.US, "[%d, %d) is out of bounds", offset, offset + length));
+      }
+      int segmentIdx = (int) (offset >>> shift);
+      int segmentOffset = (int) (offset & mask);
+      if (length == 0 || segmentIdx == (int) ((offset + length - 1) >>> shift)) {
+        ByteBuffer buf = segments[segmentIdx].duplicate();
+        buf.position(segmentOffset);
+        buf.limit(segmentOffset + length);
+        return buf.slice();
+      }
+      byte[] copy = new byte[length];
+      int copied = 0;
+      while (copied < length) {
+        ByteBuffer segment = segments[segmentIdx++].duplicate();
+        segment.position(segmentOffset);
+        int toCopy = Math.min(segment.remaining(), length - copied);
+        segment.get(copy, copied, toCopy);
+        copied += toCopy;
+        segmentOffset = 0;
+      }
+      return ByteBuffer.wrap(copy);
+    }
+
+    @Override
+    public Path getPath() {
+      return path;
+    }
+
+    /** Size of the mapped range. */
+    @Override
+    public long size() {
+      return entry.key.length;
+    }
+
+    /** Offset of the mapped range in the file. */
+    @Override
+    public long getOffset() {
+      return entry.key.offset;
+    }
+
+    @Override
+    public long getFileSize() {
+      return entry.key.size;
+    }
+
+    /** Release the handle, the mapping is unmapped if it was evicted and this was its last user. */
+    @Override
+    public synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      release(entry);
+    }
+  }
+}
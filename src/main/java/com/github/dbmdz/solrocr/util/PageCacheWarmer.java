@@ -6,18 +6,16 @@ import com.github.dbmdz.solrocr.model.SourcePointer.Region;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utility to concurrently "warm" the OS page cache with files that will be used for highlighting.
@@ -35,111 +33,448 @@ import java.util.concurrent.TimeUnit;
  * <p>The class also provides a way to cancel the pre-loading of a given source pointer. This is
  * called at the beginning of the snippet generation process, since at that point any background I/O
  * on the target files will only add to the latency we might experience anyway.
+ *
+ * <p>Files are read through the same {@link ContentBackend} that is used during highlighting, so
+ * the highlighter not only finds the data in the page cache, but also re-uses the mappings (and
+ * their page table entries) or cached blocks that were set up by the warmer.
+ *
+ * <p>By default, the complete targets of a source pointer are preloaded. Optionally, the warmer can
+ * be restricted to windows around the matches in a document (see {@link
+ * #preloadMatches(SourcePointer, int[], long)}), which is only a tiny fraction of the data for
+ * large documents with few matches.
+ *
+ * <p>Every core has its own warmer. Instead of limiting the number of pending jobs, the amount of
+ * data that is queued or being read is limited. Jobs from older requests are preferred over jobs
+ * from newer requests, since the older requests are more likely to need the data soon.
  */
 public class PageCacheWarmer {
-  private static final int MAX_PENDING_JOBS = 128;
+  private static final int PAGE_SIZE = 4096;
+
+  // Number of jobs to keep track of before forgetting about completed jobs that were never claimed
+  private static final int MAX_TRACKED_JOBS = 4096;
+
+  private final ContentBackend backend;
 
-  // The singleton instance of the cache warmer
-  private static PageCacheWarmer instance;
+  // Number of bytes to touch between checks for cancellation
+  private final int readSize;
 
-  // This is the read buffer for every worker thread, so we only do as many allocations as necessary
-  private final ThreadLocal<ByteBuffer> localBuf;
+  // Number of bytes to preload before and after every match, or 0 to preload the complete files
+  private final int matchWindow;
 
-  // Set of pending preload operations for file sources, used to allow the cancelling of preloading
-  // tasks
-  private final Set<FileSource> pendingPreloads = ConcurrentHashMap.newKeySet(MAX_PENDING_JOBS);
+  // Maximum number of bytes that can be queued or being read at any time
+  private final long maxBytesInFlight;
 
-  private final ExecutorService service;
+  // Preloading jobs for file sources, used to allow the cancelling of preloading tasks and to
+  // determine whether the warmer was faster than the highlighter
+  private final Map<FileSource, PreloadJob> jobs = new ConcurrentHashMap<>();
+
+  private final ThreadPoolExecutor service;
+
+  private final AtomicLong jobSequence = new AtomicLong();
+  private final AtomicLong bytesInFlight = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong numDropped = new AtomicLong();
+  private final AtomicLong numCancelled = new AtomicLong();
+  private final AtomicLong numWarmerFirst = new AtomicLong();
+  private final AtomicLong numQueryFirst = new AtomicLong();
+
+  // Sink for the bytes touched during preloading, so the reads are not optimized away
+  @SuppressWarnings("unused")
+  private volatile int touched;
+
+  private enum State {
+    QUEUED,
+    RUNNING,
+    DONE,
+    CANCELLED
+  }
 
   /**
-   * Enable the page cache warmer.
+   * Create a new page cache warmer.
    *
-   * @param readBufSize Size of blocks to read for cache warming. Should match the block size of the
-   *     underlying storage layer for best performance.
+   * @param backend Backend to read the files with, should be the same that is used for
+   *     highlighting.
+   * @param readBufSize Number of bytes to read between checks for cancellation. Should match the
+   *     block size of the underlying storage layer for best performance.
    * @param numThreads Number of worker threads to use for cache warming. Should match the number of
    *     parallel I/O operations that are possible with the storage layer
+   * @param matchWindow Number of bytes around every match to preload if preloading is targeted at
+   *     the matches in a document, {@code 0} to always preload the complete files.
+   * @param maxBytesInFlight Maximum number of bytes that can be queued for preloading. New jobs are
+   *     dropped if the limit would be exceeded.
    */
-  public static void enable(int readBufSize, int numThreads) {
-    if (instance == null) {
-      instance = new PageCacheWarmer(readBufSize, numThreads);
-    }
-  }
-
-  public static Optional<PageCacheWarmer> getInstance() {
-    return Optional.ofNullable(instance);
-  }
-
-  private PageCacheWarmer(int bufSize, int numThreads) {
-    this.localBuf = ThreadLocal.withInitial(() -> ByteBuffer.allocate(bufSize));
+  public PageCacheWarmer(
+      ContentBackend backend,
+      int readBufSize,
+      int numThreads,
+      int matchWindow,
+      long maxBytesInFlight) {
+    this.backend = backend;
+    this.readSize = readBufSize;
+    this.matchWindow = Math.max(matchWindow, 0);
+    this.maxBytesInFlight = maxBytesInFlight;
     this.service =
         new ThreadPoolExecutor(
             numThreads,
             numThreads,
             0,
             TimeUnit.MILLISECONDS,
-            new LinkedBlockingDeque<>(MAX_PENDING_JOBS),
+            new PriorityBlockingQueue<>(),
             new ThreadFactoryBuilder()
                 .setNameFormat("solr-ocrhighlighting-cache-warmer-%d")
-                .build(),
-            new ThreadPoolExecutor.DiscardOldestPolicy());
+                .setDaemon(true)
+                .build());
+  }
+
+  /** Check if preloading is restricted to windows around the matches in a document. */
+  public boolean isMatchTargeted() {
+    return matchWindow > 0;
   }
 
   /**
-   * Reads the file source in 32KiB chunks
+   * Populate the OS page cache with the targets of the source pointer.
    *
-   * @param src file source
+   * @param requestStart {@link System#nanoTime()} at the start of the request the preloading is
+   *     performed for, jobs from older requests are processed first
    */
-  private void preload(FileSource src) {
-    ByteBuffer buf = localBuf.get();
-    try (SeekableByteChannel channel = Files.newByteChannel(src.path, StandardOpenOption.READ)) {
-      List<Region> regions;
-      if (src.regions.isEmpty()) {
-        regions = ImmutableList.of(new Region(0, (int) channel.size()));
-      } else {
-        regions = src.regions;
-      }
-      for (Region region : regions) {
-        channel.position(region.start);
-        int remainingSize = region.end - region.start;
-        while (remainingSize > 0) {
-          // Read and immediately clear the buffer, we don't need the data
-          remainingSize -= channel.read(buf);
-          buf.clear();
-          if (Thread.interrupted() || !pendingPreloads.contains(src)) {
-            return;
-          }
-        }
+  public void preload(SourcePointer ptr, long requestStart) {
+    if (ptr == null) {
+      return;
+    }
+    for (FileSource source : ptr.sources) {
+      long size;
+      try {
+        size = estimateSize(source);
+      } catch (IOException e) {
+        // Highlighting will fail anyway
+        continue;
       }
-    } catch (IOException e) {
-      // NOP, this method only serves to populate the page cache, so we don't care about I/O errors.
-    } finally {
-      pendingPreloads.remove(src);
+      submit(new PreloadJob(ImmutableList.of(source), null, requestStart, size));
     }
   }
 
-  /** Populate the OS page cache with the targets of the source pointer. */
-  public void preload(SourcePointer ptr) {
-    if (ptr == null) {
+  /**
+   * Populate the OS page cache with windows around the given matches in the targets of the source
+   * pointer.
+   *
+   * <p>The windows are preloaded in the order of the offsets, so these should be passed in the
+   * order that the highlighter will consume them, i.e. ascending.
+   *
+   * @param matchOffsets start offsets of the matches as stored in the index, i.e. relative to the
+   *     beginning of the first file in the pointer
+   * @param requestStart {@link System#nanoTime()} at the start of the request the preloading is
+   *     performed for, jobs from older requests are processed first
+   */
+  public void preloadMatches(SourcePointer ptr, int[] matchOffsets, long requestStart) {
+    if (ptr == null || matchOffsets.length == 0) {
       return;
     }
-    for (FileSource source : ptr.sources) {
-      if (pendingPreloads.contains(source)) {
-        continue;
+    long size = 0;
+    try {
+      for (FileSource source : ptr.sources) {
+        size += estimateSize(source);
       }
-      pendingPreloads.add(source);
-      service.submit(() -> preload(source));
+    } catch (IOException e) {
+      return;
     }
+    size = Math.min(size, 2L * matchWindow * matchOffsets.length);
+    submit(new PreloadJob(ptr.sources, matchOffsets, requestStart, size));
   }
 
-  /** Cancel all running and pending preloading tasks for the given source pointer. */
+  private long estimateSize(FileSource source) throws IOException {
+    long fileSize = backend.size(source.path);
+    if (source.regions.isEmpty()) {
+      return fileSize;
+    }
+    long size = 0;
+    for (Region region : source.regions) {
+      size += (region.end < 0 ? fileSize : Math.min(region.end, fileSize)) - region.start;
+    }
+    return size;
+  }
+
+  private void submit(PreloadJob job) {
+    for (FileSource source : job.sources) {
+      PreloadJob existing = jobs.get(source);
+      if (existing != null && (existing.state == State.QUEUED || existing.state == State.RUNNING)) {
+        // Already being taken care of
+        return;
+      }
+    }
+    long inFlight = bytesInFlight.addAndGet(job.size);
+    // A single job that exceeds the budget is fine if nothing else is going on
+    if (inFlight > maxBytesInFlight && inFlight > job.size) {
+      bytesInFlight.addAndGet(-job.size);
+      numDropped.incrementAndGet();
+      return;
+    }
+    if (jobs.size() > MAX_TRACKED_JOBS) {
+      jobs.values().removeIf(j -> j.state == State.DONE || j.state == State.CANCELLED);
+    }
+    job.sources.forEach(s -> jobs.put(s, job));
+    service.execute(job);
+  }
+
+  /**
+   * Cancel all running and pending preloading tasks for the given source pointer.
+   *
+   * <p>This should be called before the highlighter starts reading from the pointer's targets. If
+   * the warmer has not finished preloading the targets at this point, the query thread has to read
+   * the data itself.
+   */
   public void cancelPreload(SourcePointer ptr) {
     if (ptr == null) {
       return;
     }
-    ptr.sources.forEach(pendingPreloads::remove);
+    Set<PreloadJob> claimed = new HashSet<>();
+    for (FileSource source : ptr.sources) {
+      PreloadJob job = jobs.remove(source);
+      if (job != null) {
+        claimed.add(job);
+      }
+    }
+    for (PreloadJob job : claimed) {
+      if (job.state == State.DONE) {
+        numWarmerFirst.incrementAndGet();
+        continue;
+      }
+      numQueryFirst.incrementAndGet();
+      if (job.cancel()) {
+        numCancelled.incrementAndGet();
+        if (service.getQueue().remove(job)) {
+          job.release();
+        }
+      }
+    }
   }
 
   public void shutdown() {
     service.shutdownNow();
   }
+
+  /** Number of jobs waiting to be processed */
+  public int getQueueDepth() {
+    return service.getQueue().size();
+  }
+
+  /** Number of bytes that are queued for preloading or currently being preloaded */
+  public long getBytesInFlight() {
+    return bytesInFlight.get();
+  }
+
+  /** Total number of bytes preloaded */
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /** Number of jobs that were dropped since they would have exceeded the bytes-in-flight limit */
+  public long getNumDropped() {
+    return numDropped.get();
+  }
+
+  /** Number of jobs that were cancelled before they were completed */
+  public long getNumCancelled() {
+    return numCancelled.get();
+  }
+
+  /** Number of jobs that were completed before the highlighter needed the data */
+  public long getNumWarmerFirst() {
+    return numWarmerFirst.get();
+  }
+
+  /** Number of jobs that were not completed when the highlighter needed the data */
+  public long getNumQueryFirst() {
+    return numQueryFirst.get();
+  }
+
+  /**
+   * Touch every page between {@code from} and {@code to} in a range of the source's file.
+   *
+   * <p>The range determines the content that is opened and should match the range that is used
+   * during highlighting, the pages that are actually touched can be restricted further with {@code
+   * from} and {@code to}, which are relative to the start of the range.
+   *
+   * @return whether the preloading should continue, i.e. {@code false} if it was cancelled
+   */
+  private boolean touch(
+      PreloadJob job, FileSource src, long offset, long length, long from, long to)
+      throws IOException {
+    try (FileContent content = backend.open(src.path, offset, length)) {
+      long end = Math.min(content.size(), to);
+      long pos = Math.max(from, 0);
+      int sink = 0;
+      while (pos < end) {
+        long chunkStart = pos;
+        long chunkEnd = Math.min(pos + readSize, end);
+        for (; pos < chunkEnd; pos += PAGE_SIZE) {
+          sink ^= content.get(pos);
+        }
+        bytesRead.addAndGet(chunkEnd - chunkStart);
+        if (Thread.interrupted() || job.state == State.CANCELLED) {
+          return false;
+        }
+      }
+      touched = sink;
+      return true;
+    }
+  }
+
+  /** Preload the complete file source. */
+  private void preloadSource(PreloadJob job, FileSource src) throws IOException {
+    if (src.regions.isEmpty()) {
+      touch(job, src, 0, -1, 0, Long.MAX_VALUE);
+      return;
+    }
+    for (Region region : src.regions) {
+      // Regions are opened separately, in the same way as during highlighting
+      if (!touch(
+          job,
+          src,
+          region.start,
+          region.end < 0 ? -1 : region.end - region.start,
+          0,
+          Long.MAX_VALUE)) {
+        return;
+      }
+    }
+  }
+
+  /** Preload windows around the matches in the sources. */
+  private void preloadMatches(PreloadJob job) throws IOException {
+    List<FileSource> sources = job.sources;
+    long[] fileSizes = new long[sources.size()];
+    long[] fileStarts = new long[sources.size() + 1];
+    for (int i = 0; i < sources.size(); i++) {
+      fileSizes[i] = backend.size(sources.get(i).path);
+      fileStarts[i + 1] = fileStarts[i] + fileSizes[i];
+    }
+    // Match offsets are relative to the base, the windows to the start of the first file
+    long indexBase = SourcePointer.getIndexBase(sources, fileSizes);
+    long preloadedUntil = 0;
+    for (int matchOffset : job.matchOffsets) {
+      long offset = indexBase + matchOffset;
+      long windowStart = Math.max(Math.max(offset - matchWindow, 0), preloadedUntil);
+      long windowEnd = Math.min(offset + matchWindow, fileStarts[sources.size()]);
+      if (windowStart >= windowEnd) {
+        continue;
+      }
+      if (!touchWindow(job, fileStarts, windowStart, windowEnd)) {
+        return;
+      }
+      preloadedUntil = windowEnd;
+    }
+  }
+
+  /**
+   * Touch all pages in a window of the concatenated files, using the same ranges as the
+   * highlighter.
+   */
+  private boolean touchWindow(PreloadJob job, long[] fileStarts, long start, long end)
+      throws IOException {
+    List<FileSource> sources = job.sources;
+    for (int i = 0; i < sources.size(); i++) {
+      if (fileStarts[i + 1] <= start || fileStarts[i] >= end) {
+        continue;
+      }
+      FileSource src = sources.get(i);
+      long from = start - fileStarts[i];
+      long to = end - fileStarts[i];
+      if (src.regions.isEmpty()) {
+        if (!touch(job, src, 0, -1, from, to)) {
+          return false;
+        }
+        continue;
+      }
+      for (Region region : src.regions) {
+        long regionEnd = region.end < 0 ? fileStarts[i + 1] - fileStarts[i] : region.end;
+        if (regionEnd <= from || region.start >= to) {
+          continue;
+        }
+        if (!touch(
+            job,
+            src,
+            region.start,
+            region.end < 0 ? -1 : region.end - region.start,
+            from - region.start,
+            to - region.start)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private final class PreloadJob implements Runnable, Comparable<PreloadJob> {
+    final List<FileSource> sources;
+    // Offsets of the matches to preload windows around, or `null` to preload the complete sources
+    final int[] matchOffsets;
+    final long requestStart;
+    final long sequence;
+    final long size;
+    volatile State state = State.QUEUED;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    PreloadJob(List<FileSource> sources, int[] matchOffsets, long requestStart, long size) {
+      this.sources = sources;
+      this.matchOffsets = matchOffsets;
+      this.requestStart = requestStart;
+      this.sequence = jobSequence.getAndIncrement();
+      this.size = size;
+    }
+
+    /** Cancel the job, returns {@code false} if it was already done. */
+    synchronized boolean cancel() {
+      if (state == State.DONE || state == State.CANCELLED) {
+        return false;
+      }
+      state = State.CANCELLED;
+      return true;
+    }
+
+    /** Release the job's share of the bytes in flight, exactly once */
+    void release() {
+      if (released.compareAndSet(false, true)) {
+        bytesInFlight.addAndGet(-size);
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        synchronized (this) {
+          if (state != State.QUEUED) {
+            return;
+          }
+          state = State.RUNNING;
+        }
+        if (matchOffsets != null) {
+          preloadMatches(this);
+        } else {
+          for (FileSource source : sources) {
+            preloadSource(this, source);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // NOP, this only serves to populate the page cache, so we don't care about I/O errors or
+        // interrupted reads.
+      } finally {
+        synchronized (this) {
+          if (state == State.RUNNING) {
+            state = State.DONE;
+          }
+        }
+        release();
+      }
+    }
+
+    @Override
+    public int compareTo(PreloadJob other) {
+      // Subtract instead of comparing directly, since nanoTime values can overflow
+      int cmp = Long.signum(requestStart - other.requestStart);
+      if (cmp != 0) {
+        return cmp;
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+  }
 }
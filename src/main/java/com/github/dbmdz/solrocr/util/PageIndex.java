@@ -2,11 +2,18 @@ package com.github.dbmdz.solrocr.util;
 
 import static java.util.Objects.requireNonNull;
 
+import com.github.dbmdz.solrocr.formats.OcrFormats;
+import com.github.dbmdz.solrocr.iter.BreakLocator;
+import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.model.OcrBlock;
+import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.OcrPage;
+import com.github.dbmdz.solrocr.util.FileMetadataCache.FileMetadata;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.common.math.IntMath;
-import com.google.common.primitives.Bytes;
 import java.awt.Dimension;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -14,17 +21,31 @@ import java.math.RoundingMode;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 /**
  * Read/Write OCR page index files.
@@ -37,13 +58,13 @@ import java.util.Set;
  * <pre>
  * ┌────────────────┐
  * │     Header     │
- * │ 8 or 10 bytes  │
+ * │  16-32 bytes   │
  * └────────────────┘
  * ╔════════════════╗
  * ║  Page Entries  ║
  * ║┌──────────────┐║
  * ║│     Entry    │║
- * ║│  4-16 bytes  │║
+ * ║│  8-32 bytes  │║
  * ║└──────────────┘║
  * ║       ...      ║
  * ╚════════════════╝
@@ -54,27 +75,40 @@ import java.util.Set;
  * ┇  0-terminated  ┇
  * ┇  UTF8 strings  ┇
  * ┗╍╍╍╍╍╍╍╍╍╍╍╍╍╍╍╍┛
+ * ┏╍╍╍╍╍╍╍╍╍╍╍╍╍╍╍╍┓
+ * ┇  (optional)    ┇
+ * ┇  Line starts:  ┇
+ * ┇  Sequence of   ┇
+ * ┇  u32 offsets   ┇
+ * ┗╍╍╍╍╍╍╍╍╍╍╍╍╍╍╍╍┛
  * </pre>
  *
  * <strong>Header</strong>
  *
  * <ul>
  *   <li>Magic: <code>OCRIDX</code>
- *   <li>Version: <code>u8</code>
+ *   <li>Version: <code>u8</code>, currently <code>2</code>
  *   <li>Features: <code>u8</code> bitset (see below)
- *   <li>Number of records: <code>u16</code>, only present when identifiers are encoded, otherwise
- *       determine from file size
+ *   <li>Number of records: <code>u32</code>
+ *   <li>Record size: <code>u16</code>, size of a page entry in bytes
+ *   <li>Reserved: <code>u16</code>, always zero
+ *   <li>Source size (optional): <code>u64</code>, size of the OCR file the index was written for
+ *   <li>Source modification time (optional): <code>u64</code>, modification time of the OCR file
+ *       the index was written for, in milliseconds since the epoch
  * </ul>
  *
  * <strong>Page Entry</strong>
  *
  * <ul>
- *   <li>Offset: <code>u32</code>, byte offset in the OCR file the page markup starts
- *   <li>Length (optional): <code>u32</code>, length of the OCR markup in the OCR file
+ *   <li>Offset: <code>u64</code>, byte offset in the OCR file the page markup starts
+ *   <li>Length (optional): <code>u64</code>, length of the OCR markup in the OCR file
  *   <li>ID Offset (optional): <code>u32</code>, offset in the <strong>index file</strong> at which
  *       the page's identifier is located.
  *   <li>Page Width (optional): <code>u16</code>
  *   <li>Page Height (optional): <code>u16</code>
+ *   <li>Line Starts Offset (optional): <code>u32</code>, offset in the <strong>index file</strong>
+ *       at which the start offsets of the page's lines are located, relative to the page offset
+ *   <li>Number of Lines (optional): <code>u32</code>
  * </ul>
  *
  * As can be seen, the length and layout of page entries is highly variable and depends on the
@@ -83,16 +117,24 @@ import java.util.Set;
  *
  * <pre>
  * 0 0 0 0 0 0 0 0
- * . . . . . │ │ │
- *           │ │ └ Length of page markup
- *           │ └ Page identifiers
- *           └ Page dimensions (width and height)
+ * . . . │ │ │ │ │
+ *       │ │ │ │ └ Length of page markup
+ *       │ │ │ └ Page identifiers
+ *       │ │ └ Page dimensions (width and height)
+ *       │ └ Line starts
+ *       └ Source size and modification time (in the header)
  * </pre>
  *
  * If a feature results in additional values in the page entry, these values are added according to
  * their order in the feature bitset (or the above list), e.g. if both the page length and page
  * dimensions features are active (i.e. the bitset is <code>00000101</code>), the resulting page
- * entry will be a <code>(u32, u32, u16, u16)</code> structure.
+ * entry will be a <code>(u64, u64, u16, u16)</code> structure. Readers ignore feature bits they
+ * don't know, the values of these features are located after all known values in the page entry and
+ * are skipped with the record size from the header.
+ *
+ * <p>If the index records the size and modification time of its OCR file, it is only used if they
+ * match the current OCR file exactly. Indexes that don't record them (like all indexes of the first
+ * version) are used if they are not older than the OCR file.
  *
  * <p><strong>Note:</strong> The position of a page record in the file is determined by its <em>page
  * number</em>. If there are gaps in the OCR markup, e.g. if page #3 is followed by page #5 in the
@@ -100,21 +142,56 @@ import java.util.Set;
  * retrieval of the page entry from the index given the (1-based) page number:
  *
  * <ul>
- *   <li>Read header (8 or 10 bytes) to determine record size
+ *   <li>Read header to determine record size
  *   <li>Seek to <code>headerSize + (pageNum - 1) * recordSize</li>
  *   <li>Read <code>recordSize</code> bytes</code>
  * </ul>
+ *
+ * <p>Files in the first version of the format can still be read. Their header is 8 bytes long, or
+ * 10 bytes with identifiers, in which case it ends with the number of records as a <code>u16
+ * </code>. Their page entries have no record size and use <code>u32</code> offsets and lengths,
+ * which limited them to 65535 pages and OCR files of 4 GiB.
+ *
+ * <p>During highlighting, page indexes are looked up next to the OCR files (see {@link
+ * #getSidecarPath(Path, String)}) and used in place of the page markup, see {@link
+ * DocumentPageIndex}.
  */
 public class PageIndex implements AutoCloseable {
 
-  static final byte OFFSET_IDX_VERSION = 0x01;
+  static final byte OFFSET_IDX_VERSION = 0x02;
+
+  /** Number of characters from the start of the page markup that are parsed for a page */
+  private static final int PAGE_FRAGMENT_LENGTH = 512;
 
   static final byte[] OFFSET_IDX_MAGIC = "OCRIDX".getBytes(StandardCharsets.UTF_8);
 
   private enum Feature {
-    LENGTH,
-    IDENTIFIER,
-    DIMENSION
+    LENGTH(0x01),
+    IDENTIFIER(0x02),
+    DIMENSION(0x04),
+    LINES(0x08),
+    SOURCE(0x10);
+
+    final int bit;
+
+    Feature(int bit) {
+      this.bit = bit;
+    }
+
+    /** Width of the feature's values in a page entry. */
+    int getWidth(int version) {
+      switch (this) {
+        case LENGTH:
+          return version == 1 ? 4 : 8;
+        case LINES:
+          return 8;
+        case SOURCE:
+          // Stored in the header
+          return 0;
+        default:
+          return 4;
+      }
+    }
   }
 
   private static class Header {
@@ -123,22 +200,28 @@ public class PageIndex implements AutoCloseable {
     public final int headerSize;
     public final int numRecords;
     public final int recordSize;
+    // Metadata of the OCR file the index was written for, -1 if not recorded
+    public final long sourceSize;
+    public final long sourceLastModified;
+    // Position of the values of every feature in a page entry, by ordinal
+    private final int[] fieldPositions = new int[Feature.values().length];
 
-    private static int getRecordSize(Set<Feature> features) {
-      int recordSize = 4;
-      if (features.contains(Feature.LENGTH)) {
-        recordSize += 4;
-      }
-      if (features.contains(Feature.IDENTIFIER)) {
-        recordSize += 4;
-      }
-      if (features.contains(Feature.DIMENSION)) {
-        recordSize += 4;
+    private static int getOffsetWidth(int version) {
+      return version == 1 ? 4 : 8;
+    }
+
+    private static int getRecordSize(int version, Set<Feature> features) {
+      int recordSize = getOffsetWidth(version);
+      for (Feature feature : features) {
+        recordSize += feature.getWidth(version);
       }
       return recordSize;
     }
 
-    private static int getHeaderSize(Set<Feature> features) {
+    private static int getHeaderSize(int version, Set<Feature> features) {
+      if (version > 1) {
+        return features.contains(Feature.SOURCE) ? 32 : 16;
+      }
       int headerSize = 8;
       if (features.contains(Feature.IDENTIFIER)) {
         headerSize += 2;
@@ -146,70 +229,127 @@ public class PageIndex implements AutoCloseable {
       return headerSize;
     }
 
-    Header(int version, int numRecords, Set<Feature> features) {
+    Header(
+        int version,
+        int numRecords,
+        Set<Feature> features,
+        long sourceSize,
+        long sourceLastModified) {
+      this(
+          version,
+          numRecords,
+          features,
+          getRecordSize(version, features),
+          sourceSize,
+          sourceLastModified);
+    }
+
+    Header(
+        int version,
+        int numRecords,
+        Set<Feature> features,
+        int recordSize,
+        long sourceSize,
+        long sourceLastModified) {
       this.version = version;
       this.numRecords = numRecords;
       this.features = features;
-      this.headerSize = getHeaderSize(features);
-      this.recordSize = getRecordSize(features);
+      this.headerSize = getHeaderSize(version, features);
+      this.recordSize = recordSize;
+      this.sourceSize = sourceSize;
+      this.sourceLastModified = sourceLastModified;
+      int pos = getOffsetWidth(version);
+      // Values are laid out in the order of the feature bits
+      for (Feature feature : Feature.values()) {
+        if (features.contains(feature)) {
+          fieldPositions[feature.ordinal()] = pos;
+          pos += feature.getWidth(version);
+        }
+      }
+    }
+
+    /** Position of the feature's values relative to the start of a page entry. */
+    int getFieldPosition(Feature feature) {
+      return fieldPositions[feature.ordinal()];
     }
 
     public byte[] compile() {
       byte featureVec = (byte) 0x00;
-      if (features.contains(Feature.LENGTH)) {
-        featureVec |= 0x01;
-      }
-      if (features.contains(Feature.IDENTIFIER)) {
-        featureVec |= 0x02;
+      for (Feature feature : features) {
+        featureVec |= feature.bit;
       }
-      if (features.contains(Feature.DIMENSION)) {
-        featureVec |= 0x04;
-      }
-
       ByteBuffer buf = ByteBuffer.allocate(headerSize);
       buf.put(OFFSET_IDX_MAGIC);
-      buf.put(OFFSET_IDX_VERSION);
+      buf.put((byte) version);
       buf.put(featureVec);
-      if (features.contains(Feature.IDENTIFIER)) {
-        buf.putShort((short) numRecords);
+      buf.putInt(numRecords);
+      buf.putShort((short) recordSize);
+      buf.putShort((short) 0);
+      if (features.contains(Feature.SOURCE)) {
+        buf.putLong(sourceSize);
+        buf.putLong(sourceLastModified);
       }
       return buf.array();
     }
 
-    static Header parse(FileChannel chan) throws IOException {
-      ByteBuffer magicBuf = ByteBuffer.allocate(6);
-      chan.read(magicBuf);
-      magicBuf.flip();
-      if (!Arrays.equals(magicBuf.array(), OFFSET_IDX_MAGIC)) {
+    static Header parse(ByteBuffer buf) throws IOException {
+      if (buf.limit() < 8) {
+        throw new IOException("Invalid index file, too short for the header.");
+      }
+      byte[] magic = new byte[OFFSET_IDX_MAGIC.length];
+      for (int i = 0; i < magic.length; i++) {
+        magic[i] = buf.get(i);
+      }
+      if (!Arrays.equals(magic, OFFSET_IDX_MAGIC)) {
         throw new IOException("Invalid index file, expected OCRIDX magic at offset 0.");
       }
-      ByteBuffer buf = ByteBuffer.allocate(2);
-      chan.read(buf);
-      buf.flip();
-      Set<Feature> features = new HashSet<>();
-      int numRecords = -1;
-      byte version = buf.get(0);
-      byte featureVec = buf.get(1);
-      if ((featureVec & 0x01) != 0) {
-        features.add(Feature.LENGTH);
-      }
-      if ((featureVec & 0x02) != 0) {
-        features.add(Feature.IDENTIFIER);
-        buf.position(8);
-        numRecords = Short.toUnsignedInt(buf.getShort());
-      }
-      if ((featureVec & 0x04) != 0) {
-        features.add(Feature.DIMENSION);
-      }
-      int headerSize = getHeaderSize(features);
-      int recordSize = getRecordSize(features);
-      if (numRecords < 0) {
+      int version = buf.get(6);
+      if (version < 1 || version > OFFSET_IDX_VERSION) {
+        throw new IOException(
+            String.format(Locale.US, "Unsupported index file version %d.", version));
+      }
+      Set<Feature> features = EnumSet.noneOf(Feature.class);
+      byte featureVec = buf.get(7);
+      for (Feature feature : Feature.values()) {
+        if ((featureVec & feature.bit) != 0
+            && (version > 1 || (feature != Feature.LINES && feature != Feature.SOURCE))) {
+          features.add(feature);
+        }
+      }
+      int headerSize = getHeaderSize(version, features);
+      if (buf.limit() < headerSize) {
+        throw new IOException("Invalid index file, too short for the header.");
+      }
+      int recordSize = getRecordSize(version, features);
+      long numRecords;
+      if (version > 1) {
+        numRecords = Integer.toUnsignedLong(buf.getInt(8));
+        int storedRecordSize = Short.toUnsignedInt(buf.getShort(12));
+        if (storedRecordSize < recordSize) {
+          throw new IOException("Invalid index file, page entries are too short.");
+        }
+        // Entries can have additional values for features we don't know about
+        recordSize = storedRecordSize;
+      } else if (features.contains(Feature.IDENTIFIER)) {
+        numRecords = Short.toUnsignedInt(buf.getShort(8));
+      } else {
         // No variable-length tail, just discard the header and count the bytes
-        numRecords = (int) ((chan.size() - headerSize) / recordSize);
+        numRecords = (buf.limit() - headerSize) / recordSize;
+      }
+      if (headerSize + numRecords * recordSize > buf.limit()) {
+        throw new IOException("Invalid index file, truncated page entries.");
       }
-      return new Header(version, numRecords, features);
+      long sourceSize = -1;
+      long sourceLastModified = -1;
+      if (features.contains(Feature.SOURCE)) {
+        sourceSize = buf.getLong(16);
+        sourceLastModified = buf.getLong(24);
+      }
+      return new Header(
+          version, (int) numRecords, features, recordSize, sourceSize, sourceLastModified);
     }
   }
+
   /**
    * This class represents a single page with an unique id, its position inside a byte stream and
    * its pixel dimensions.
@@ -220,12 +360,23 @@ public class PageIndex implements AutoCloseable {
     private final long startOffset;
     private final long endOffset;
     private final Dimension dimensions;
+    private final long[] lineStarts;
 
     public PageRecord(String id, long startOffset, long endOffset, Dimension dimensions) {
+      this(id, startOffset, endOffset, dimensions, null);
+    }
+
+    /**
+     * @param lineStarts byte offsets in the source OCR file at which the page's lines start, in
+     *     ascending order, can be null
+     */
+    public PageRecord(
+        String id, long startOffset, long endOffset, Dimension dimensions, long[] lineStarts) {
       this.id = requireNonNull(id);
       this.startOffset = startOffset;
       this.endOffset = endOffset;
       this.dimensions = dimensions;
+      this.lineStarts = lineStarts;
     }
 
     /** Get the page identifier */
@@ -286,83 +437,294 @@ public class PageIndex implements AutoCloseable {
     public Dimension getDimensions() {
       return dimensions;
     }
+
+    /** Get the byte offsets in the source OCR file at which the page's lines start, can be null. */
+    public long[] getLineStarts() {
+      return lineStarts;
+    }
   }
 
   public static void writeIndex(List<PageRecord> pages, OutputStream os) throws IOException {
+    writeIndex(pages, null, os);
+  }
+
+  /**
+   * Write the index for the pages of an OCR file.
+   *
+   * @param source attributes of the OCR file, their size and modification time are recorded in the
+   *     index, can be null
+   */
+  public static void writeIndex(List<PageRecord> pages, BasicFileAttributes source, OutputStream os)
+      throws IOException {
     int numPages = pages.size();
-    boolean hasIdentifiers = pages.stream().map(PageRecord::getId).anyMatch(Objects::nonNull);
     boolean hasDimensions =
         pages.stream().map(PageRecord::getDimensions).anyMatch(Objects::nonNull);
-    if (numPages < 1) {
-      return;
-    }
+    boolean hasLines = pages.stream().map(PageRecord::getLineStarts).anyMatch(Objects::nonNull);
 
-    Set<Feature> features = new HashSet<>(Collections.singletonList(Feature.LENGTH));
-    if (hasIdentifiers) {
-      features.add(Feature.IDENTIFIER);
-    }
+    // Identifiers are always written, since readers need them to tell pages from gaps
+    Set<Feature> features = EnumSet.of(Feature.LENGTH, Feature.IDENTIFIER);
     if (hasDimensions) {
       features.add(Feature.DIMENSION);
     }
-    Header header = new Header(0x01, numPages, features);
-    ByteBuffer buf = ByteBuffer.allocate(header.headerSize + numPages * header.recordSize);
-    ByteArrayOutputStream idOutput = null;
-    int idOffset = buf.limit();
-    if (hasIdentifiers) {
-      idOutput = new ByteArrayOutputStream();
+    if (hasLines) {
+      features.add(Feature.LINES);
+    }
+    if (source != null) {
+      features.add(Feature.SOURCE);
     }
+    Header header =
+        source == null
+            ? new Header(OFFSET_IDX_VERSION, numPages, features, -1, -1)
+            : new Header(
+                OFFSET_IDX_VERSION,
+                numPages,
+                features,
+                source.size(),
+                source.lastModifiedTime().toMillis());
+    long entriesSize = header.headerSize + (long) numPages * header.recordSize;
+    if (entriesSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many pages for a single index: " + numPages);
+    }
+    ByteBuffer buf = ByteBuffer.allocate((int) entriesSize);
+    // Identifiers and line starts are written to separate sections after the page entries
+    ByteArrayOutputStream idOutput = new ByteArrayOutputStream();
+    ByteArrayOutputStream lineOutput = new ByteArrayOutputStream();
     buf.put(header.compile());
-    int idx = 0;
     for (PageRecord page : pages) {
-      // Page numbers are 1-indexed, but we write to a 0-indexed file, hence - 1
-      int outOff = header.headerSize + (idx * header.recordSize);
-      // Offset
-      buf.position(outOff);
-      buf.putInt((int) page.getStartOffset());
-      // Length
-      buf.putInt((int) (page.getEndOffset() - page.getStartOffset()));
-      if (hasIdentifiers) {
-        if (page.getId() == null) {
-          // No identifier, null pointer
-          buf.putInt(0);
-        } else {
-          // Pointer to null-terminated UTF8 string in tail
-          buf.putInt(idOffset);
-          byte[] idBytes = page.getId().getBytes(StandardCharsets.UTF_8);
-          idOutput.write(idBytes);
-          idOutput.write(0x00);
-          idOffset += (idBytes.length + 1);
-        }
+      if (page.getStartOffset() < 0 || page.getEndOffset() < page.getStartOffset()) {
+        throw new IllegalArgumentException(
+            String.format(
+                Locale.US,
+                "Page '%s' has invalid offsets %d-%d",
+                page.getId(),
+                page.getStartOffset(),
+                page.getEndOffset()));
       }
+      buf.putLong(page.getStartOffset());
+      buf.putLong(page.getEndOffset() - page.getStartOffset());
+      // Pointer to null-terminated UTF8 string in tail
+      buf.putInt((int) entriesSize + idOutput.size());
+      byte[] idBytes = page.getId().getBytes(StandardCharsets.UTF_8);
+      idOutput.write(idBytes);
+      idOutput.write(0x00);
       if (hasDimensions) {
-        buf.putShort((short) page.getDimensions().width);
-        buf.putShort((short) page.getDimensions().height);
+        Dimension dims = page.getDimensions();
+        buf.putShort((short) (dims == null ? 0 : dims.width));
+        buf.putShort((short) (dims == null ? 0 : dims.height));
+      }
+      if (hasLines) {
+        long[] lineStarts = page.getLineStarts();
+        int numLines = lineStarts == null ? 0 : lineStarts.length;
+        // The position of the line section is only known once all identifiers are written
+        buf.putInt(lineOutput.size());
+        buf.putInt(numLines);
+        ByteBuffer lineBuf = ByteBuffer.allocate(numLines * 4);
+        for (int i = 0; i < numLines; i++) {
+          long relativeStart = lineStarts[i] - page.getStartOffset();
+          if (relativeStart < 0 || relativeStart > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException(
+                String.format(
+                    Locale.US,
+                    "Line at offset %d is not located on page '%s'",
+                    lineStarts[i],
+                    page.getId()));
+          }
+          lineBuf.putInt((int) relativeStart);
+        }
+        lineOutput.write(lineBuf.array());
       }
-      idx += 1;
     }
-    buf.rewind();
-    os.write(buf.array());
-    if (idOutput != null) {
-      os.write(idOutput.toByteArray());
+    if (entriesSize + idOutput.size() + lineOutput.size() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Index would exceed the maximum size of 2 GiB");
+    }
+    if (hasLines) {
+      // Make the line section pointers relative to the start of the index file
+      int linesStart = (int) entriesSize + idOutput.size();
+      int linesPos = header.getFieldPosition(Feature.LINES);
+      for (int i = 0; i < numPages; i++) {
+        int pos = header.headerSize + i * header.recordSize + linesPos;
+        buf.putInt(pos, buf.getInt(pos) + linesStart);
+      }
     }
+    os.write(buf.array());
+    idOutput.writeTo(os);
+    lineOutput.writeTo(os);
   }
 
+  /**
+   * Write the index to the given path.
+   *
+   * <p>The index is written to a temporary file first and then moved into place, so concurrent
+   * writers and readers of the same index don't interfere with each other.
+   */
   public static void writeIndex(List<PageRecord> pages, Path targetPath) throws IOException {
-    try (OutputStream os =
-        Files.newOutputStream(targetPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
-      writeIndex(pages, os);
+    writeIndex(pages, null, targetPath);
+  }
+
+  /**
+   * Write the index for the pages of an OCR file to the given path.
+   *
+   * @param source attributes of the OCR file, their size and modification time are recorded in the
+   *     index, can be null
+   */
+  public static void writeIndex(List<PageRecord> pages, BasicFileAttributes source, Path targetPath)
+      throws IOException {
+    targetPath = targetPath.toAbsolutePath();
+    Path tmpPath =
+        Files.createTempFile(targetPath.getParent(), "." + targetPath.getFileName(), ".tmp");
+    try {
+      try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmpPath))) {
+        writeIndex(pages, source, os);
+      }
+      try {
+        Files.move(
+            tmpPath,
+            targetPath,
+            StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmpPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmpPath);
+    }
+    FileMetadataCache.getInstance().invalidate(targetPath);
+  }
+
+  /**
+   * Locate and parse all pages in the OCR file and write them to its page index.
+   *
+   * <p>Pages and lines are located with the break locators of the file's format and pages are
+   * parsed from their markup, exactly like during highlighting without an index, i.e. highlighting
+   * with and without the index yields the same results.
+   *
+   * @return {@code false} if the format of the file could not be determined
+   */
+  public static boolean write(Path ocrPath, String suffix) throws IOException {
+    return write(ocrPath, suffix, null);
+  }
+
+  /**
+   * Locate and parse all pages in the OCR file and write them to its page index.
+   *
+   * @param declaredFormat format of the file if it is declared in the schema or in the pointer,
+   *     otherwise ({@code null}) it is detected
+   * @return {@code false} if the format of the file could not be determined
+   */
+  public static boolean write(Path ocrPath, String suffix, OcrFormat declaredFormat)
+      throws IOException {
+    List<PageRecord> pages = new ArrayList<>();
+    // Taken before reading the content, so a change during the indexing results in a mismatch
+    BasicFileAttributes source = FileMetadataCache.getInstance().stat(ocrPath);
+    try (FileBytesCharIterator text =
+        new FileBytesCharIterator(ocrPath, StandardCharsets.UTF_8, null)) {
+      OcrFormat format = OcrFormats.resolve(ocrPath, text, declaredFormat);
+      if (format == null) {
+        return false;
+      }
+      BreakLocator pageLocator = format.getBreakLocator(text, OcrBlock.PAGE);
+      BreakLocator lineLocator = format.getBreakLocator(text, OcrBlock.LINE);
+      int lineStart = lineLocator.following(text.getBeginIndex() - 1);
+      int pageStart = pageLocator.following(text.getBeginIndex() - 1);
+      while (pageStart >= 0 && pageStart < text.getEndIndex()) {
+        int pageEnd = pageLocator.following(pageStart);
+        if (pageEnd < 0) {
+          pageEnd = text.getEndIndex();
+        }
+        String pageFragment =
+            text.subSequence(pageStart, Math.min(pageStart + PAGE_FRAGMENT_LENGTH, pageEnd))
+                .toString();
+        OcrPage page = format.parsePageFragment(pageFragment);
+        // Checkpoints for locating line breaks without scanning
+        LongStream.Builder lineStarts = LongStream.builder();
+        while (lineStart >= 0 && lineStart < pageEnd) {
+          if (lineStart >= pageStart) {
+            lineStarts.add(lineStart);
+          }
+          lineStart = lineLocator.following(lineStart);
+        }
+        pages.add(
+            new PageRecord(
+                page.id, pageStart, pageEnd, page.dimensions, lineStarts.build().toArray()));
+        pageStart = pageEnd;
+      }
     }
+    writeIndex(pages, source, getSidecarPath(ocrPath, suffix));
+    return true;
+  }
+
+  /** Suffix that is appended to the file name of an OCR file to get the path of its page index. */
+  public static final String DEFAULT_SIDECAR_SUFFIX = ".ocridx";
+
+  /** Get the path of the page index for the OCR file at the given path. */
+  public static Path getSidecarPath(Path ocrPath, String suffix) {
+    return ocrPath.resolveSibling(ocrPath.getFileName() + suffix);
+  }
+
+  /**
+   * Check if the OCR file at the given path has a page index that was written for its current
+   * version.
+   *
+   * <p>The metadata of the OCR file is read from the file system, not from the {@link
+   * FileMetadataCache}, so changes to the file are detected right away.
+   */
+  public static boolean hasSidecar(Path ocrPath, String suffix) {
+    Path idxPath = getSidecarPath(ocrPath, suffix);
+    FileMetadata idxMeta = FileMetadataCache.getInstance().get(idxPath);
+    if (!idxMeta.exists) {
+      return false;
+    }
+    try {
+      BasicFileAttributes ocr = FileMetadataCache.getInstance().stat(ocrPath);
+      return open(idxPath)
+          .isCurrent(ocr.size(), ocr.lastModifiedTime().toMillis(), idxMeta.lastModified);
+    } catch (IOException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Check if the index was written for the version of the OCR file with the given size and
+   * modification time.
+   *
+   * <p>Indexes that don't record the metadata of their OCR file are considered current if they were
+   * not modified before the OCR file.
+   *
+   * @param idxLastModified modification time of the index file
+   */
+  public boolean isCurrent(long ocrSize, long ocrLastModified, long idxLastModified) {
+    if (!header.features.contains(Feature.SOURCE)) {
+      return idxLastModified >= ocrLastModified;
+    }
+    return header.sourceSize == ocrSize && header.sourceLastModified == ocrLastModified;
   }
 
   private static final Set<Feature> REQUIRED_FEATURES =
-      ImmutableSet.of(Feature.LENGTH, Feature.IDENTIFIER, Feature.DIMENSION);
+      ImmutableSet.of(Feature.LENGTH, Feature.IDENTIFIER);
+
+  /** Maximum number of indexes held in the cache, every index is a separate memory mapping */
+  private static final int MAX_CACHED_INDEXES = 1024;
 
-  private final FileChannel chan;
+  // Access-ordered, i.e. iteration starts at the least recently used entry
+  private static final LinkedHashMap<IndexKey, PageIndex> cache =
+      new LinkedHashMap<>(64, 0.75f, true);
+
+  private final ByteBuffer buf;
   private final Header header;
+  // Lazily built on the first lookup by identifier
+  private volatile Map<String, Integer> recordsById;
 
+  /**
+   * Open the index at the given path.
+   *
+   * <p>The index is mapped into memory as a whole, all lookups are answered from the mapping.
+   * Prefer {@link #open(Path)}, which shares the instances for the same file.
+   */
   public PageIndex(Path idxPath) throws IOException {
-    this.chan = FileChannel.open(idxPath, StandardOpenOption.READ);
-    this.header = Header.parse(chan);
+    try (FileChannel chan = FileChannel.open(idxPath, StandardOpenOption.READ)) {
+      this.buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+    }
+    this.header = Header.parse(buf);
     if (!header.features.containsAll(REQUIRED_FEATURES)) {
       String missing =
           String.join(
@@ -374,82 +736,299 @@ public class PageIndex implements AutoCloseable {
     }
   }
 
-  public Optional<PageRecord> locatePage(int ocrOffset) throws IOException {
-    if (header.numRecords == 0) {
-      return Optional.empty();
+  /**
+   * Get the index at the given path from the process-wide cache, opening it if necessary.
+   *
+   * <p>Cached instances are keyed by the modification time and size of the file, so a rewritten
+   * index is opened again once its metadata changes in the {@link FileMetadataCache}.
+   */
+  public static PageIndex open(Path idxPath) throws IOException {
+    FileMetadata meta = FileMetadataCache.getInstance().get(idxPath);
+    IndexKey key = new IndexKey(idxPath, meta.lastModified, meta.size);
+    synchronized (cache) {
+      PageIndex cached = cache.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    PageIndex idx = new PageIndex(idxPath);
+    synchronized (cache) {
+      cache.put(key, idx);
+      Iterator<PageIndex> it = cache.values().iterator();
+      while (cache.size() > MAX_CACHED_INDEXES && it.hasNext()) {
+        // The mapping is released once the evicted instance is no longer used
+        it.next();
+        it.remove();
+      }
+    }
+    return idx;
+  }
+
+  /** Number of page entries in the index, including empty entries for gaps in the page numbers. */
+  public int getNumRecords() {
+    return header.numRecords;
+  }
+
+  /** Check if the entry is an empty entry for a gap in the page numbers. */
+  public boolean isGap(int recordIdx) {
+    return getIdOffset(recordIdx) == 0;
+  }
+
+  /** Get the byte offset in the OCR file at which the page's markup starts. */
+  public long getStartOffset(int recordIdx) {
+    return readOffset(getRecordPosition(recordIdx));
+  }
+
+  /** Get the byte offset of the first character after the page's markup in the OCR file. */
+  public long getEndOffset(int recordIdx) {
+    int pos = getRecordPosition(recordIdx);
+    return readOffset(pos) + readOffset(pos + header.getFieldPosition(Feature.LENGTH));
+  }
+
+  /** Get the identifier of the page, must not be called for gaps. */
+  public String getId(int recordIdx) {
+    return readIdentifier(getIdOffset(recordIdx));
+  }
+
+  /** Get the pixel dimensions of the page, can be null. */
+  public Dimension getDimensions(int recordIdx) {
+    if (!header.features.contains(Feature.DIMENSION)) {
+      return null;
+    }
+    int pos = getRecordPosition(recordIdx) + header.getFieldPosition(Feature.DIMENSION);
+    int width = Short.toUnsignedInt(buf.getShort(pos));
+    int height = Short.toUnsignedInt(buf.getShort(pos + 2));
+    if (width == 0 && height == 0) {
+      return null;
+    }
+    return new Dimension(width, height);
+  }
+
+  /** Check if the index has the offsets at which the lines of every page start. */
+  public boolean hasLineStarts() {
+    return header.features.contains(Feature.LINES);
+  }
+
+  /**
+   * Get the byte offsets in the OCR file at which the lines on the page start.
+   *
+   * @return the offsets in ascending order, or {@code null} if the index has no line starts
+   */
+  public long[] getLineStarts(int recordIdx) {
+    if (!hasLineStarts()) {
+      return null;
+    }
+    int pos = getRecordPosition(recordIdx) + header.getFieldPosition(Feature.LINES);
+    int linesOffset = buf.getInt(pos);
+    long[] lineStarts = new long[buf.getInt(pos + 4)];
+    long pageStart = getStartOffset(recordIdx);
+    for (int i = 0; i < lineStarts.length; i++) {
+      lineStarts[i] = pageStart + Integer.toUnsignedLong(buf.getInt(linesOffset + i * 4));
+    }
+    return lineStarts;
+  }
+
+  /** Get the page for the entry, must not be called for gaps. */
+  public PageRecord getRecord(int recordIdx) {
+    return new PageRecord(
+        getId(recordIdx),
+        getStartOffset(recordIdx),
+        getEndOffset(recordIdx),
+        getDimensions(recordIdx),
+        getLineStarts(recordIdx));
+  }
+
+  /**
+   * Get the index of the entry for the page with the given identifier.
+   *
+   * <p>The mapping from identifiers to entries is built on the first call, all later calls are
+   * simple hash lookups.
+   *
+   * @return the index of the entry or -1 if there is no page with the identifier
+   */
+  public int findRecord(String pageId) {
+    Map<String, Integer> byId = recordsById;
+    if (byId == null) {
+      synchronized (this) {
+        byId = recordsById;
+        if (byId == null) {
+          byId = new HashMap<>(header.numRecords * 2);
+          for (int i = 0; i < header.numRecords; i++) {
+            if (!isGap(i)) {
+              byId.putIfAbsent(readIdentifier(getIdOffset(i)), i);
+            }
+          }
+          recordsById = byId;
+        }
+      }
+    }
+    Integer recordIdx = byId.get(pageId);
+    return recordIdx == null ? -1 : recordIdx;
+  }
+
+  /**
+   * Read all pages in the index, in the order of their page numbers.
+   *
+   * <p>Empty entries for gaps in the page numbers are skipped.
+   */
+  public List<PageRecord> getPages() {
+    List<PageRecord> pages = new ArrayList<>(header.numRecords);
+    for (int i = 0; i < header.numRecords; i++) {
+      if (!isGap(i)) {
+        pages.add(getRecord(i));
+      }
     }
-    boolean hasLength = header.features.contains(Feature.LENGTH);
-    ByteBuffer buf = ByteBuffer.allocate(hasLength ? 8 : 4);
+    return pages;
+  }
+
+  public Optional<PageRecord> locatePage(long ocrOffset) {
     // Use simple binary search to locate the page that contains the given offset
     int left = 0;
     int right = this.header.numRecords - 1;
-    while (left < right) {
+    while (left <= right) {
       int middle = IntMath.divide(left + right, 2, RoundingMode.FLOOR);
-      chan.read(buf, header.headerSize + (long) middle * header.recordSize);
-      buf.flip();
-      long pageStart = Integer.toUnsignedLong(buf.getInt());
-      if (ocrOffset < pageStart) {
-        right = middle - 1;
-        continue;
-      }
-      long pageEnd;
-      if (hasLength) {
-        pageEnd = pageStart + buf.getInt();
-      } else {
-        buf.rewind();
-        chan.read(buf, middle + header.recordSize);
-        buf.flip();
-        pageEnd = buf.getInt();
+      // Skip over the empty entries for gaps in the page numbers
+      int probe = middle;
+      while (probe <= right && isGap(probe)) {
+        probe++;
       }
-      if (ocrOffset >= pageEnd) {
-        left = middle + 1;
+      if (probe > right || ocrOffset < getStartOffset(probe)) {
+        right = middle - 1;
+      } else if (ocrOffset >= getEndOffset(probe)) {
+        left = probe + 1;
       } else {
-        return Optional.of(this.parsePage(pageStart));
+        return Optional.of(getRecord(probe));
       }
     }
     return Optional.empty();
   }
 
-  private PageRecord parsePage(long pageOffset) throws IOException {
-    if (pageOffset - header.headerSize % header.recordSize != 0) {
-      throw new IllegalArgumentException(
-          "Page offsets must be aligned to headerSize + recordSize!");
+  private int getRecordPosition(int recordIdx) {
+    return header.headerSize + recordIdx * header.recordSize;
+  }
+
+  private int getIdOffset(int recordIdx) {
+    return buf.getInt(getRecordPosition(recordIdx) + header.getFieldPosition(Feature.IDENTIFIER));
+  }
+
+  /** Read an offset or length, which are 32 bit wide in the first version of the format. */
+  private long readOffset(int pos) {
+    return header.version == 1 ? Integer.toUnsignedLong(buf.getInt(pos)) : buf.getLong(pos);
+  }
+
+  private String readIdentifier(int offset) {
+    int end = offset;
+    while (end < buf.limit() && buf.get(end) != 0x00) {
+      end++;
     }
-    ByteBuffer buf = ByteBuffer.allocate(this.header.recordSize);
-    chan.read(buf, pageOffset);
-    buf.flip();
-    long startOffset = Integer.toUnsignedLong(buf.getInt());
-    long length = Integer.toUnsignedLong(buf.getInt());
-    return new PageRecord(
-        readIdentifier(Integer.toUnsignedLong(buf.getInt())),
-        startOffset,
-        startOffset + length,
-        new Dimension(Short.toUnsignedInt(buf.getShort()), Short.toUnsignedInt(buf.getShort())));
-  }
-
-  private String readIdentifier(long offset) throws IOException {
-    ByteBuffer buf = ByteBuffer.allocate(128);
-    ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
-    do {
-      int numRead = chan.read(buf, offset);
-      if (numRead <= 0) {
-        // EOF, just return what we read so far
-        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
-      }
-      buf.flip();
-      int end = Bytes.indexOf(buf.array(), (byte) 0x00);
-      if (end >= 0) {
-        bos.write(buf.array());
-        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
-      } else {
-        bos.write(buf.array());
-      }
-      offset += numRead;
-    } while (true);
+    byte[] idBytes = new byte[end - offset];
+    for (int i = 0; i < idBytes.length; i++) {
+      idBytes[i] = buf.get(offset + i);
+    }
+    return new String(idBytes, StandardCharsets.UTF_8);
   }
 
+  /**
+   * Does nothing, the mapping is released by the garbage collector once the instance is no longer
+   * referenced. This way, the shared instances from {@link #open(Path)} can't be closed by
+   * accident.
+   */
   @Override
-  public void close() throws Exception {
-    this.chan.close();
+  public void close() {}
+
+  private static final class IndexKey {
+    final Path path;
+    final long lastModified;
+    final long size;
+
+    IndexKey(Path path, long lastModified, long size) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      IndexKey key = (IndexKey) o;
+      return lastModified == key.lastModified && size == key.size && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, lastModified, size);
+    }
+  }
+  /**
+   * Write the page indexes for all OCR files at the given paths, directories are searched
+   * recursively. Up-to-date indexes are left untouched.
+   */
+  public static void main(String[] args) throws Exception {
+    int numThreads = Runtime.getRuntime().availableProcessors();
+    String suffix = DEFAULT_SIDECAR_SUFFIX;
+    List<Path> roots = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if ("-j".equals(args[i]) && i + 1 < args.length) {
+        numThreads = Integer.parseInt(args[++i]);
+      } else if ("-s".equals(args[i]) && i + 1 < args.length) {
+        suffix = args[++i];
+      } else {
+        roots.add(Paths.get(args[i]));
+      }
+    }
+    if (roots.isEmpty()) {
+      System.err.println("Usage: PageIndex [-j <threads>] [-s <suffix>] <ocrFileOrDirectory>...");
+      System.exit(1);
+    }
+    final String sidecarSuffix = suffix;
+    AtomicInteger numWritten = new AtomicInteger();
+    AtomicInteger numFailed = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    List<Future<?>> jobs = new ArrayList<>();
+    for (Path root : roots) {
+      try (Stream<Path> paths = Files.walk(root)) {
+        paths
+            .filter(Files::isRegularFile)
+            .filter(
+                p -> {
+                  String name = p.getFileName().toString();
+                  return !name.endsWith(sidecarSuffix)
+                      && !name.endsWith(BoundaryIndex.SIDECAR_SUFFIX);
+                })
+            .filter(p -> !hasSidecar(p, sidecarSuffix))
+            .forEach(
+                p ->
+                    jobs.add(
+                        pool.submit(
+                            () -> {
+                              try {
+                                if (write(p, sidecarSuffix)) {
+                                  numWritten.incrementAndGet();
+                                } else {
+                                  System.err.println(
+                                      "Could not determine OCR format of " + p + ", skipping.");
+                                }
+                              } catch (IOException | RuntimeException e) {
+                                numFailed.incrementAndGet();
+                                System.err.println(
+                                    "Could not write page index for " + p + ": " + e);
+                              }
+                            })));
+      }
+    }
+    for (Future<?> job : jobs) {
+      job.get();
+    }
+    pool.shutdown();
+    System.err.printf(
+        Locale.US, "Wrote %d page indexes, %d failed.%n", numWritten.get(), numFailed.get());
+    if (numFailed.get() > 0) {
+      System.exit(1);
+    }
   }
 }
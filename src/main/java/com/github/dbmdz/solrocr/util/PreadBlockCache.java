@@ -0,0 +1,406 @@
+package com.github.dbmdz.solrocr.util;
+
+import com.github.dbmdz.solrocr.iter.ExitingIterCharSeq.ExitingIterCharSeqException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ContentBackend} that reads OCR files with positional reads into a bounded, off-heap cache
+ * of fixed-size blocks.
+ *
+ * <p>This is an alternative to memory-mapping for storage layers where page faults are expensive
+ * and unpredictable, most notably network file systems like NFS or SMB: A page fault stalls the
+ * highlighting thread without any way to interrupt it or to account for the time spent waiting.
+ * With explicit reads, every block that needs to be fetched from storage is a point where the
+ * request can be aborted if it exceeded {@code hl.ocr.timeAllowed} or if the thread was
+ * interrupted.
+ *
+ * <p>Blocks are aligned to multiples of the block size in the file, which should match the
+ * preferred transfer size of the storage layer (e.g. the {@code rsize} mount option for NFS). If
+ * the configured capacity is exceeded, the least recently used block that is not currently in use
+ * is evicted and its buffer recycled.
+ */
+public class PreadBlockCache implements ContentBackend {
+  public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+  public static final long DEFAULT_CAPACITY = 256L * 1024 * 1024;
+
+  private final int blockSize;
+  private final int maxBlocks;
+
+  // Access-ordered, i.e. iteration starts at the least recently used block
+  private final LinkedHashMap<BlockKey, Block> blocks = new LinkedHashMap<>(256, 0.75f, true);
+  private final Deque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+  private int numAllocated = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+
+  /**
+   * @param blockSize size of the blocks read from storage and kept in the cache
+   * @param capacity maximum number of bytes to keep in the cache
+   */
+  public PreadBlockCache(int blockSize, long capacity) {
+    if (blockSize < 512) {
+      throw new IllegalArgumentException("blockSize must be at least 512 bytes, was " + blockSize);
+    }
+    this.blockSize = blockSize;
+    this.maxBlocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacity / blockSize));
+  }
+
+  @Override
+  public FileContent open(Path path, long offset, long length) throws IOException {
+    BasicFileAttributes attrs = FileMetadataCache.getInstance().stat(path);
+    if (offset < 0 || offset > attrs.size()) {
+      throw new IllegalArgumentException(
+          String.format(
+              Locale.US,
+              "Offset %d is out of bounds for %s (%d bytes)",
+              offset,
+              path,
+              attrs.size()));
+    }
+    if (length < 0 || offset + length > attrs.size()) {
+      length = attrs.size() - offset;
+    }
+    FileKey fileKey =
+        new FileKey(
+            path.toAbsolutePath().normalize(), attrs.lastModifiedTime().toMillis(), attrs.size());
+    return new BlockFileContent(path, fileKey, offset, length);
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /** Number of blocks currently held by the cache */
+  public synchronized int getNumBlocks() {
+    return blocks.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Total number of bytes read from storage. */
+  public long getBytesRead() {
+    return bytesRead.get();
+  }
+
+  /** Get a block from the cache or read it from the channel. The block is pinned until released. */
+  private Block acquireBlock(FileKey fileKey, long blockIdx, FileChannel chan, Path path) {
+    BlockKey key = new BlockKey(fileKey, blockIdx);
+    ByteBuffer buf;
+    synchronized (this) {
+      Block block = blocks.get(key);
+      if (block != null) {
+        hits.incrementAndGet();
+        block.pins++;
+        return block;
+      }
+      buf = obtainBuffer();
+    }
+    misses.incrementAndGet();
+
+    // Reading from storage is the slow part, so this is where we check if we should stop
+    HighlightTimeout timeout = HighlightTimeout.getInstance();
+    if (timeout.shouldExit()) {
+      recycle(buf);
+      throw new ExitingIterCharSeqException(
+          String.format(
+              Locale.US,
+              "The request took to long to highlight the OCR files (file: %s, timeout was: %s)",
+              path,
+              timeout));
+    }
+    try {
+      buf.clear();
+      long start = blockIdx * blockSize;
+      int toRead = (int) Math.min(blockSize, fileKey.size - start);
+      buf.limit(toRead);
+      while (buf.hasRemaining()) {
+        int read = chan.read(buf, start + buf.position());
+        if (read < 0) {
+          throw new IOException(
+              String.format(
+                  Locale.US, "Unexpected end of %s at offset %d", path, start + buf.position()));
+        }
+      }
+      bytesRead.addAndGet(toRead);
+      buf.flip();
+    } catch (ClosedByInterruptException e) {
+      recycle(buf);
+      throw new ExitingIterCharSeqException(
+          String.format(Locale.US, "Interrupted while reading the OCR file at %s.", path));
+    } catch (IOException e) {
+      recycle(buf);
+      throw new UncheckedIOException(e);
+    }
+
+    synchronized (this) {
+      Block block = blocks.get(key);
+      if (block != null) {
+        // Somebody else was faster, use their block
+        freeBuffers.add(buf);
+        block.pins++;
+        return block;
+      }
+      block = new Block(buf);
+      block.pins++;
+      blocks.put(key, block);
+      evictIfNecessary();
+      return block;
+    }
+  }
+
+  private synchronized void releaseBlock(Block block) {
+    block.pins--;
+    if (block.pins == 0 && block.evicted) {
+      freeBuffers.add(block.data);
+    }
+  }
+
+  private synchronized void recycle(ByteBuffer buf) {
+    freeBuffers.add(buf);
+  }
+
+  /** Must be called while holding the monitor */
+  private ByteBuffer obtainBuffer() {
+    if (freeBuffers.isEmpty()) {
+      evictIfNecessary(maxBlocks - 1);
+    }
+    if (!freeBuffers.isEmpty()) {
+      return freeBuffers.poll();
+    }
+    // Either we're below capacity or all blocks are in use, in which case we temporarily exceed
+    // the capacity.
+    numAllocated++;
+    return ByteBuffer.allocateDirect(blockSize);
+  }
+
+  private void evictIfNecessary() {
+    evictIfNecessary(maxBlocks);
+  }
+
+  private void evictIfNecessary(int targetSize) {
+    Iterator<Block> it = blocks.values().iterator();
+    while (blocks.size() > targetSize && it.hasNext()) {
+      Block block = it.next();
+      if (block.pins > 0) {
+        continue;
+      }
+      it.remove();
+      block.evicted = true;
+      freeBuffers.add(block.data);
+    }
+    // Don't keep more buffers around than needed
+    while (numAllocated > maxBlocks && !freeBuffers.isEmpty()) {
+      freeBuffers.poll();
+      numAllocated--;
+    }
+  }
+
+  private static final class FileKey {
+    final Path path;
+    final long lastModified;
+    final long size;
+
+    FileKey(Path path, long lastModified, long size) {
+      this.path = path;
+      this.lastModified = lastModified;
+      this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      FileKey key = (FileKey) o;
+      return lastModified == key.lastModified && size == key.size && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, lastModified, size);
+    }
+  }
+
+  private static final class BlockKey {
+    final FileKey file;
+    final long blockIdx;
+
+    BlockKey(FileKey file, long blockIdx) {
+      this.file = file;
+      this.blockIdx = blockIdx;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      BlockKey key = (BlockKey) o;
+      return blockIdx == key.blockIdx && file.equals(key.file);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * file.hashCode() + Long.hashCode(blockIdx);
+    }
+  }
+
+  private static final class Block {
+    final ByteBuffer data;
+    // Guarded by the cache's monitor
+    int pins = 0;
+    boolean evicted = false;
+
+    Block(ByteBuffer data) {
+      this.data = data;
+    }
+  }
+
+  /** Handle for a range of a file, keeps the most recently used block pinned for fast access. */
+  private final class BlockFileContent implements FileContent {
+    private final Path path;
+    private final FileKey fileKey;
+    private final long offset;
+    private final long length;
+    private FileChannel chan;
+    private Block current;
+    private long currentStart = -1;
+    private int currentLength = 0;
+
+    BlockFileContent(Path path, FileKey fileKey, long offset, long length) {
+      this.path = path;
+      this.fileKey = fileKey;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /** Make the block containing the absolute file offset the current one. */
+    private void moveTo(long fileOffset) {
+      if (fileOffset < 0 || fileOffset >= fileKey.size) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (chan == null) {
+        try {
+          // Opened lazily, since we might never need to read anything that's not cached already
+          chan = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      long blockIdx = fileOffset / blockSize;
+      Block next = acquireBlock(fileKey, blockIdx, chan, path);
+      if (current != null) {
+        releaseBlock(current);
+      }
+      current = next;
+      currentStart = blockIdx * blockSize;
+      currentLength = next.data.limit();
+    }
+
+    @Override
+    public byte get(long pos) {
+      if (pos < 0 || pos >= length) {
+        throw new IndexOutOfBoundsException();
+      }
+      long fileOffset = offset + pos;
+      long blockOffset = fileOffset - currentStart;
+      if (current == null || blockOffset < 0 || blockOffset >= currentLength) {
+        moveTo(fileOffset);
+        blockOffset = fileOffset - currentStart;
+      }
+      return current.data.get((int) blockOffset);
+    }
+
+    /**
+     * Since blocks are recycled once they're no longer pinned, windows are always copied from the
+     * cached blocks.
+     */
+    @Override
+    public ByteBuffer window(long pos, int len) {
+      if (pos < 0 || len < 0 || pos + len > length) {
+        throw new IndexOutOfBoundsException(
+            String.format(Locale.US, "[%d, %d) is out of bounds", pos, pos + len));
+      }
+      ByteBuffer out = ByteBuffer.allocate(len);
+      long fileOffset = offset + pos;
+      while (out.hasRemaining()) {
+        long blockOffset = fileOffset - currentStart;
+        if (current == null || blockOffset < 0 || blockOffset >= currentLength) {
+          moveTo(fileOffset);
+          blockOffset = fileOffset - currentStart;
+        }
+        ByteBuffer src = current.data.duplicate();
+        src.position((int) blockOffset);
+        src.limit((int) Math.min(currentLength, blockOffset + out.remaining()));
+        fileOffset += src.remaining();
+        out.put(src);
+      }
+      out.flip();
+      return out;
+    }
+
+    @Override
+    public long size() {
+      return length;
+    }
+
+    @Override
+    public long getOffset() {
+      return offset;
+    }
+
+    @Override
+    public long getFileSize() {
+      return fileKey.size;
+    }
+
+    @Override
+    public Path getPath() {
+      return path;
+    }
+
+    @Override
+    public void close() {
+      if (current != null) {
+        releaseBlock(current);
+        current = null;
+      }
+      if (chan != null) {
+        try {
+          chan.close();
+        } catch (IOException e) {
+          // NOP, we only read from the channel
+        }
+        chan = null;
+      }
+    }
+  }
+}
@@ -1,21 +1,26 @@
 package solrocr;
 
+import com.github.dbmdz.solrocr.formats.OcrFormats;
 import com.github.dbmdz.solrocr.lucene.filters.ExternalUtf8ContentFilter;
+import com.github.dbmdz.solrocr.model.OcrFormat;
 import com.github.dbmdz.solrocr.model.SourcePointer;
 import com.github.dbmdz.solrocr.reader.MultiFileReader;
+import com.github.dbmdz.solrocr.util.BlockedDeflate;
+import com.github.dbmdz.solrocr.util.BoundaryIndex;
+import com.github.dbmdz.solrocr.util.FileMetadataCache;
+import com.github.dbmdz.solrocr.util.FileMetadataCache.FileMetadata;
+import com.github.dbmdz.solrocr.util.PageIndex;
 import com.github.dbmdz.solrocr.util.Utf8;
 import com.google.common.collect.ImmutableList;
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.invoke.MethodHandles;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -24,6 +29,8 @@ import org.apache.commons.io.IOUtils;
 import org.apache.lucene.analysis.CharFilterFactory;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrException.ErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A CharFilter implementation that loads the field value from an external UTF8-encoded source and
@@ -32,8 +39,20 @@ import org.apache.solr.common.SolrException.ErrorCode;
  * <p>For more information on these source pointers, refer to {@link SourcePointer}.
  */
 public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
+  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+  private final boolean writeBoundaryIndex;
+  private final boolean writePageIndex;
+  private final String pageIndexSuffix;
+  // Format of the OCR files for writing the sidecars, detected from the files if not declared
+  private final OcrFormat format;
+
   public ExternalUtf8ContentFilterFactory(Map<String, String> args) {
     super(args);
+    this.writeBoundaryIndex = "true".equals(args.get("writeBoundaryIndex"));
+    this.writePageIndex = "true".equals(args.get("writePageIndex"));
+    this.pageIndexSuffix = args.getOrDefault("pageIndexSuffix", PageIndex.DEFAULT_SIDECAR_SUFFIX);
+    this.format = args.containsKey("format") ? OcrFormats.byName(args.get("format")) : null;
     // TODO: Read allowed base directories from config
     // TODO: Read allowed filename patterns from config
     // TODO: Warn of security implications if neither is defined
@@ -61,6 +80,12 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
                 ptrStr));
       }
       pointer.sources.forEach(this::validateSource);
+      if (writeBoundaryIndex) {
+        pointer.sources.forEach(this::ensureBoundaryIndex);
+      }
+      if (writePageIndex) {
+        pointer.sources.forEach(this::ensurePageIndex);
+      }
 
       // Regions contained in source pointers are defined by byte offsets.
       // We need to convert these to Java character offsets so they can be used by the filter.
@@ -80,7 +105,7 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
       } else {
         r =
             new InputStreamReader(
-                new FileInputStream(pointer.sources.get(0).path.toFile()), StandardCharsets.UTF_8);
+                BlockedDeflate.openStream(pointer.sources.get(0).path), StandardCharsets.UTF_8);
       }
 
       List<SourcePointer.Region> charRegions =
@@ -97,8 +122,8 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
   private void validateSource(SourcePointer.FileSource src) {
     // TODO: Check if sourcePath is located under one of the allowed base directories, else abort
     // TODO: Check if sourcePath's filename matches one of the allowed filename patterns, else abort
-    File f = src.path.toFile();
-    if (!f.exists() || !f.canRead()) {
+    FileMetadata meta = FileMetadataCache.getInstance().get(src.path);
+    if (!meta.exists || !meta.readable) {
       throw new SolrException(
           ErrorCode.BAD_REQUEST,
           String.format(
@@ -106,7 +131,42 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
     }
   }
 
-  private static long getUtf8DecodedLength(FileChannel fChan, ByteBuffer buf, long numBytes)
+  /** Get the format declared for the source in the pointer or in the schema, if any. */
+  private OcrFormat getDeclaredFormat(SourcePointer.FileSource src) {
+    return src.format != null ? OcrFormats.byName(src.format) : format;
+  }
+
+  /** Write the boundary index sidecar for the source, unless an up-to-date one exists. */
+  private void ensureBoundaryIndex(SourcePointer.FileSource src) {
+    if (BoundaryIndex.hasSidecar(src.path)) {
+      return;
+    }
+    try {
+      if (!BoundaryIndex.write(src.path, getDeclaredFormat(src))) {
+        log.warn("Could not determine OCR format of {}, no boundary index written.", src.path);
+      }
+    } catch (IOException | RuntimeException e) {
+      // Highlighting works without the index, so this should not fail the indexing
+      log.warn("Could not write boundary index for {}", src.path, e);
+    }
+  }
+
+  /** Write the page index sidecar for the source, unless an up-to-date one exists. */
+  private void ensurePageIndex(SourcePointer.FileSource src) {
+    if (PageIndex.hasSidecar(src.path, pageIndexSuffix)) {
+      return;
+    }
+    try {
+      if (!PageIndex.write(src.path, pageIndexSuffix, getDeclaredFormat(src))) {
+        log.warn("Could not determine OCR format of {}, no page index written.", src.path);
+      }
+    } catch (IOException | RuntimeException e) {
+      // Highlighting works without the index, so this should not fail the indexing
+      log.warn("Could not write page index for {}", src.path, e);
+    }
+  }
+
+  private static long getUtf8DecodedLength(ReadableByteChannel fChan, ByteBuffer buf, long numBytes)
       throws IOException {
     long numRead = 0;
     long decodedLength = 0;
@@ -134,32 +194,63 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
     return decodedLength;
   }
 
+  /**
+   * Offsets in the index are 32 bit integers, so content located more than 2 GiB after the base of
+   * the offsets (see {@link SourcePointer#getIndexBase(List, long[])}) can not be indexed.
+   *
+   * @param indexOffset offset relative to the base
+   */
+  private static void checkIndexable(long indexOffset, SourcePointer ptr) {
+    if (indexOffset > Integer.MAX_VALUE) {
+      throw new SolrException(
+          ErrorCode.BAD_REQUEST,
+          String.format(
+              Locale.US,
+              "Cannot index content that spans more than 2 GiB (byte offset %d from the start of"
+                  + " the first region in '%s'), reference less content per document or split"
+                  + " the data into separate files.",
+              indexOffset,
+              ptr));
+    }
+  }
+
   private void toCharOffsets(SourcePointer ptr) throws IOException {
-    int byteOffset = 0;
-    int charOffset = 0;
+    long byteOffset = 0;
+    long charOffset = 0;
     ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 1024 /* 1 MiB */);
+    long[] fileSizes = new long[ptr.sources.size()];
+    for (int i = 0; i < fileSizes.length; i++) {
+      fileSizes[i] = BlockedDeflate.uncompressedSize(ptr.sources.get(i).path);
+    }
+    // The offsets in the index are relative to this offset in the first file
+    final long indexBase = SourcePointer.getIndexBase(ptr.sources, fileSizes);
+    int srcIdx = 0;
     // TODO: Use a queue for the file sources so we don't have to read until the end of the last
     //       file every time
     // TODO: Think about building the UTF8 -> UTF16 offset map right here if the mapping part should
     //       become a bottle neck
     for (SourcePointer.FileSource src : ptr.sources) {
-      try (FileChannel fChan = FileChannel.open(src.path, StandardOpenOption.READ)) {
-        final int fSize = (int) fChan.size();
-
-        int bomOffset = 0;
-        if (!src.isAscii) {
-          // Check for BOM, we need to skip it as to not break mult-file parsing
+      // Sources can be stored in the blocked-deflate format, all offsets refer to the uncompressed
+      // content
+      final long fSize = fileSizes[srcIdx++];
+      int bomOffset = 0;
+      if (!src.isAscii) {
+        // Check for BOM, we need to skip it as to not break mult-file parsing
+        try (ReadableByteChannel bomChan = BlockedDeflate.openChannel(src.path)) {
           ByteBuffer bomBuf = ByteBuffer.allocate(3);
-          fChan.read(bomBuf, 0);
+          while (bomBuf.hasRemaining() && bomChan.read(bomBuf) >= 0) {
+            // Read until we have three bytes or the file ends
+          }
           bomBuf.flip();
           if (bomBuf.equals(ByteBuffer.wrap(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}))) {
             bomOffset = 3;
           }
-          fChan.position(0);
         }
+      }
+      try (ReadableByteChannel fChan = BlockedDeflate.openChannel(src.path)) {
 
         // Byte offset of the current file from the beginning of the first file
-        final int baseOffset = byteOffset;
+        final long baseOffset = byteOffset;
         if (src.regions.isEmpty()) {
           src.regions = ImmutableList.of(new SourcePointer.Region(0, fSize));
         }
@@ -167,7 +258,12 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
           if (src.isAscii) {
             // Optimization for pure-ASCII sources, where we don't need to do any mapping
             region.start += baseOffset;
+            if (region.end < 0) {
+              region.end = fSize;
+            }
             region.end = Math.min(region.end + baseOffset, fSize + baseOffset);
+            region.startOffset = region.start - indexBase;
+            checkIndexable(region.end - indexBase, ptr);
             continue;
           }
           if (region.start == 0) {
@@ -183,24 +279,25 @@ public class ExternalUtf8ContentFilterFactory extends CharFilterFactory {
           // Read until the start of the region
           if (byteOffset != region.start) {
             // Read the data between the current offset and the start of the region
-            int len = region.start - byteOffset;
+            long len = region.start - byteOffset;
             charOffset += getUtf8DecodedLength(fChan, buf, len);
             byteOffset += len;
           }
 
-          int regionSize = region.end - region.start;
+          long regionSize = region.end - region.start;
           region.start = charOffset;
-          region.startOffset = byteOffset;
+          region.startOffset = byteOffset - indexBase;
           // Read region, determine character offset of region end
           charOffset += getUtf8DecodedLength(fChan, buf, regionSize);
           byteOffset += regionSize;
+          checkIndexable(byteOffset - indexBase, ptr);
           region.end = charOffset;
         }
         // Determine character offset of the end of the file
         if (src.isAscii) {
           byteOffset += fSize;
         } else if (byteOffset != baseOffset + fSize) {
-          int len = (baseOffset + fSize) - byteOffset;
+          long len = (baseOffset + fSize) - byteOffset;
           charOffset += getUtf8DecodedLength(fChan, buf, len);
           byteOffset += len;
         }
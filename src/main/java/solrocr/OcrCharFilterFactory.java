@@ -1,13 +1,12 @@
 package solrocr;
 
-import com.github.dbmdz.solrocr.formats.alto.AltoFormat;
-import com.github.dbmdz.solrocr.formats.hocr.HocrFormat;
-import com.github.dbmdz.solrocr.formats.miniocr.MiniOcrFormat;
+import com.github.dbmdz.solrocr.formats.OcrFormats;
 import com.github.dbmdz.solrocr.lucene.filters.OcrCharFilter;
 import com.github.dbmdz.solrocr.lucene.filters.SanitizingXmlFilter;
 import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.SourcePointer;
 import com.github.dbmdz.solrocr.reader.PeekingReader;
-import com.google.common.collect.ImmutableSet;
+import com.github.dbmdz.solrocr.util.SourceAwareReader;
 import java.io.Reader;
 import java.util.Map;
 import org.apache.lucene.analysis.CharFilterFactory;
@@ -15,6 +14,10 @@ import org.apache.lucene.analysis.CharFilterFactory;
 /**
  * A CharFilterFactory that detects the OCR format from the input and creates the correct CharFilter
  * instance to convert the input OCR to plaintext.
+ *
+ * <p>If all documents of a field have the same format, it can be declared with the {@code format}
+ * attribute ({@code hocr}, {@code alto} or {@code miniocr}), which skips the detection during
+ * indexing and highlighting.
  */
 public class OcrCharFilterFactory extends CharFilterFactory {
   public static final String ALTERNATIVE_MARKER = "\u2060\u2060";
@@ -24,14 +27,18 @@ public class OcrCharFilterFactory extends CharFilterFactory {
 
   private final boolean expandAlternatives;
   private final boolean fixMarkup;
-
-  private static final ImmutableSet<OcrFormat> FORMATS =
-      ImmutableSet.of(new HocrFormat(), new AltoFormat(), new MiniOcrFormat());
+  private final OcrFormat format;
 
   public OcrCharFilterFactory(Map<String, String> args) {
     super(args);
     this.expandAlternatives = "true".equals(args.get("expandAlternatives"));
     this.fixMarkup = "true".equals(args.get("fixMarkup"));
+    this.format = args.containsKey("format") ? OcrFormats.byName(args.get("format")) : null;
+  }
+
+  /** Get the format declared for the field, {@code null} if it is detected from the input. */
+  public OcrFormat getFormat() {
+    return format;
   }
 
   @Override
@@ -42,14 +49,24 @@ public class OcrCharFilterFactory extends CharFilterFactory {
       // Empty document, no special treatment necessary
       return OcrCharFilter.nopFilter();
     }
-    OcrFormat fmt =
-        FORMATS.stream()
-            .filter(f -> f.hasFormat(peeker.peekBeginning()))
-            .findFirst()
-            .orElseThrow(
-                () ->
-                    new RuntimeException(
-                        "Could not determine OCR format from chunk: " + peeker.peekBeginning()));
+    OcrFormat fmt = format;
+    SourcePointer pointer = null;
+    if (fmt == null) {
+      pointer = getPointer(input);
+      if (pointer != null) {
+        fmt = OcrFormats.getKnownFormat(pointer);
+      }
+    }
+    if (fmt == null) {
+      fmt = OcrFormats.detect(peeker.peekBeginning());
+      if (fmt == null) {
+        throw new RuntimeException(
+            "Could not determine OCR format from chunk: " + peeker.peekBeginning());
+      }
+      if (pointer != null) {
+        OcrFormats.putDetectedFormat(pointer, fmt);
+      }
+    }
     Reader formatFilter = fmt.filter(peeker, expandAlternatives);
     if (formatFilter == null) {
       return OcrCharFilter.nopFilter();
@@ -57,4 +74,21 @@ public class OcrCharFilterFactory extends CharFilterFactory {
       return formatFilter;
     }
   }
+
+  /** Get the source pointer the input was loaded from, if it comes from external files. */
+  private static SourcePointer getPointer(Reader input) {
+    if (!(input instanceof SourceAwareReader)) {
+      return null;
+    }
+    String source = ((SourceAwareReader) input).getSource().orElse(null);
+    if (source == null || !SourcePointer.isPointer(source)) {
+      return null;
+    }
+    try {
+      return SourcePointer.parse(source);
+    } catch (RuntimeException e) {
+      // The files are validated when they are read, the format is simply detected in that case
+      return null;
+    }
+  }
 }
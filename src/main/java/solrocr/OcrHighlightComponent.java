@@ -1,8 +1,17 @@
 package solrocr;
 
+import com.github.dbmdz.solrocr.iter.PageHeaderLocator;
 import com.github.dbmdz.solrocr.solr.OcrHighlightParams;
 import com.github.dbmdz.solrocr.solr.SolrOcrHighlighter;
+import com.github.dbmdz.solrocr.util.AutoContentBackend;
+import com.github.dbmdz.solrocr.util.ContentBackend;
+import com.github.dbmdz.solrocr.util.DecompressingBackend;
+import com.github.dbmdz.solrocr.util.FileMetadataCache;
+import com.github.dbmdz.solrocr.util.HighlightExecutor;
+import com.github.dbmdz.solrocr.util.MappedFileCache;
 import com.github.dbmdz.solrocr.util.PageCacheWarmer;
+import com.github.dbmdz.solrocr.util.PageIndex;
+import com.github.dbmdz.solrocr.util.PreadBlockCache;
 import com.google.common.base.Strings;
 import java.io.IOException;
 import java.util.Arrays;
@@ -26,6 +35,7 @@ import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.handler.component.ShardRequest;
 import org.apache.solr.handler.component.ShardResponse;
+import org.apache.solr.metrics.SolrMetricsContext;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
@@ -40,8 +50,13 @@ public class OcrHighlightComponent extends SearchComponent
   public static final String COMPONENT_NAME = "ocrHighlight";
   public static final String HL_RESPONSE_FIELD = "ocrHighlighting";
 
+  // Default limit for the amount of data that can be queued for preloading, 1 GiB
+  private static final long DEFAULT_PRELOAD_BYTES_IN_FLIGHT = 1024L * 1024 * 1024;
+
   private PluginInfo info;
   private SolrOcrHighlighter ocrHighlighter;
+  private volatile PageCacheWarmer cacheWarmer;
+  private HighlightExecutor executor;
 
   @Override
   public String getDescription() {
@@ -80,14 +95,67 @@ public class OcrHighlightComponent extends SearchComponent
 
   @Override
   public void inform(SolrCore core) {
-    this.ocrHighlighter = new SolrOcrHighlighter();
+    String maxMappedFiles = info.attributes.get("maxMappedFiles");
+    if (maxMappedFiles != null) {
+      // NOTE: The cache is shared by all cores in the JVM
+      MappedFileCache.getInstance().setMaxMappings(Integer.parseInt(maxMappedFiles));
+    }
+    String fileMetadataTtl = info.attributes.get("fileMetadataTtl");
+    if (fileMetadataTtl != null) {
+      // NOTE: The cache is shared by all cores in the JVM
+      FileMetadataCache.getInstance().setTtl(Long.parseLong(fileMetadataTtl));
+    }
+    // Files in the blocked-deflate format are transparently decompressed, regardless of the backend
+    ContentBackend contentBackend =
+        new DecompressingBackend(
+            createContentBackend(),
+            Long.parseLong(
+                info.attributes.getOrDefault(
+                    "decompressedCacheSize",
+                    String.valueOf(DecompressingBackend.DEFAULT_CAPACITY))));
     if ("true".equals(info.attributes.getOrDefault("enablePreload", "false"))) {
-      PageCacheWarmer.enable(
-          Integer.parseInt(info.attributes.getOrDefault("preloadReadSize", "32768")),
-          Integer.parseInt(info.attributes.getOrDefault("preloadConcurrency", "8")));
+      this.cacheWarmer =
+          new PageCacheWarmer(
+              contentBackend,
+              Integer.parseInt(info.attributes.getOrDefault("preloadReadSize", "32768")),
+              Integer.parseInt(info.attributes.getOrDefault("preloadConcurrency", "8")),
+              "matches".equals(info.attributes.getOrDefault("preloadMode", "full"))
+                  ? Integer.parseInt(info.attributes.getOrDefault("preloadMatchWindow", "65536"))
+                  : 0,
+              Long.parseLong(
+                  info.attributes.getOrDefault(
+                      "preloadMaxBytesInFlight", String.valueOf(DEFAULT_PRELOAD_BYTES_IN_FLIGHT))));
+    }
+    // Page index sidecars are looked up next to the OCR files, an empty suffix disables this
+    String pageIndexSuffix =
+        info.attributes.getOrDefault("pageIndexSuffix", PageIndex.DEFAULT_SIDECAR_SUFFIX);
+    // The page headers of regions are located with the page index sidecars if available, otherwise
+    // by scanning a bounded window before every region
+    PageHeaderLocator headerLocator = null;
+    if ("true".equals(info.attributes.getOrDefault("enablePageHeaders", "true"))) {
+      headerLocator =
+          new PageHeaderLocator(
+              contentBackend,
+              pageIndexSuffix.isEmpty() ? null : pageIndexSuffix,
+              Integer.parseInt(
+                  info.attributes.getOrDefault(
+                      "pageHeaderScanLength",
+                      String.valueOf(PageHeaderLocator.DEFAULT_MAX_SCAN_LENGTH))));
     }
+    // Shared by all requests, the number of threads per request is set with hl.ocr.threads
+    int highlightThreads = Integer.parseInt(info.attributes.getOrDefault("highlightThreads", "8"));
+    if (highlightThreads > 0) {
+      this.executor = new HighlightExecutor(highlightThreads);
+    }
+    this.ocrHighlighter =
+        new SolrOcrHighlighter(
+            contentBackend,
+            cacheWarmer,
+            pageIndexSuffix.isEmpty() ? null : pageIndexSuffix,
+            headerLocator,
+            executor);
 
-    // Shut down the cache warming threads after closing of the core
+    // Shut down the cache warming and highlighting threads after closing of the core
     core.addCloseHook(
         new CloseHook() {
           @Override
@@ -95,11 +163,106 @@ public class OcrHighlightComponent extends SearchComponent
 
           @Override
           public void postClose(SolrCore core) {
-            PageCacheWarmer.getInstance().ifPresent(PageCacheWarmer::shutdown);
+            if (cacheWarmer != null) {
+              cacheWarmer.shutdown();
+            }
+            if (executor != null) {
+              executor.shutdown();
+            }
           }
         });
   }
 
+  @Override
+  public void initializeMetrics(SolrMetricsContext parentContext, String scope) {
+    super.initializeMetrics(parentContext, scope);
+    // The warmer is only created once the core informs us, so the gauges need to check for it
+    String category = getCategory().toString();
+    solrMetricsContext.gauge(
+        () -> cacheWarmer == null ? 0 : cacheWarmer.getQueueDepth(),
+        true,
+        "queueDepth",
+        category,
+        scope,
+        "preload");
+    solrMetricsContext.gauge(
+        () -> cacheWarmer == null ? 0L : cacheWarmer.getBytesInFlight(),
+        true,
+        "bytesInFlight",
+        category,
+        scope,
+        "preload");
+    solrMetricsContext.gauge(
+        () -> cacheWarmer == null ? 0L : cacheWarmer.getBytesRead(),
+        true,
+        "bytesRead",
+        category,
+        scope,
+        "preload");
+    solrMetricsContext.gauge(
+        () -> cacheWarmer == null ? 0L : cacheWarmer.getNumDropped(),
+        true,
+        "dropped",
+        category,
+        scope,
+        "preload");
+    solrMetricsContext.gauge(
+        () -> cacheWarmer == null ? 0L : cacheWarmer.getNumCancelled(),
+        true,
+        "cancelled",
+        category,
+        scope,
+        "preload");
+    solrMetricsContext.gauge(
+        () -> cacheWarmer == null ? 0L : cacheWarmer.getNumWarmerFirst(),
+        true,
+        "warmerFirst",
+        category,
+        scope,
+        "preload");
+    solrMetricsContext.gauge(
+        () -> cacheWarmer == null ? 0L : cacheWarmer.getNumQueryFirst(),
+        true,
+        "queryFirst",
+        category,
+        scope,
+        "preload");
+  }
+
+  /**
+   * Create the backend used for reading OCR files, based on the {@code contentBackend} attribute:
+   *
+   * <ul>
+   *   <li>{@code mmap} (default): Memory-map the files, shared by all cores in the JVM
+   *   <li>{@code pread}: Read the files into a per-core block cache with positional reads
+   *   <li>{@code auto}: Use {@code pread} for files on network file systems, {@code mmap} otherwise
+   * </ul>
+   */
+  private ContentBackend createContentBackend() {
+    String backendType = info.attributes.getOrDefault("contentBackend", "mmap");
+    if ("mmap".equals(backendType)) {
+      return MappedFileCache.getInstance();
+    }
+    PreadBlockCache blockCache =
+        new PreadBlockCache(
+            Integer.parseInt(
+                info.attributes.getOrDefault(
+                    "preadBlockSize", String.valueOf(PreadBlockCache.DEFAULT_BLOCK_SIZE))),
+            Long.parseLong(
+                info.attributes.getOrDefault(
+                    "preadCacheSize", String.valueOf(PreadBlockCache.DEFAULT_CAPACITY))));
+    switch (backendType) {
+      case "pread":
+        return blockCache;
+      case "auto":
+        return new AutoContentBackend(MappedFileCache.getInstance(), blockCache);
+      default:
+        throw new SolrException(
+            SolrException.ErrorCode.SERVER_ERROR,
+            "Invalid contentBackend '" + backendType + "', must be one of mmap, pread or auto.");
+    }
+  }
+
   @Override
   public void process(ResponseBuilder rb) throws IOException {
     if (rb.doHighlights) {
@@ -24,16 +24,18 @@
  */
 package solrocr;
 
-import com.github.dbmdz.solrocr.formats.alto.AltoFormat;
-import com.github.dbmdz.solrocr.formats.hocr.HocrFormat;
-import com.github.dbmdz.solrocr.formats.miniocr.MiniOcrFormat;
+import com.github.dbmdz.solrocr.formats.OcrFormats;
 import com.github.dbmdz.solrocr.iter.BreakLocator;
 import com.github.dbmdz.solrocr.iter.ContextBreakLocator;
 import com.github.dbmdz.solrocr.iter.ExitingIterCharSeq;
 import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.ForwardBreakLocator;
 import com.github.dbmdz.solrocr.iter.IterableCharSequence;
 import com.github.dbmdz.solrocr.iter.MultiFileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.PageHeaderLocator;
+import com.github.dbmdz.solrocr.iter.RegionCharIterator;
 import com.github.dbmdz.solrocr.lucene.OcrFieldHighlighter;
+import com.github.dbmdz.solrocr.lucene.OcrPageCache;
 import com.github.dbmdz.solrocr.lucene.OcrPassageFormatter;
 import com.github.dbmdz.solrocr.lucene.OcrPassageScorer;
 import com.github.dbmdz.solrocr.model.OcrBlock;
@@ -43,9 +45,16 @@ import com.github.dbmdz.solrocr.model.OcrSnippet;
 import com.github.dbmdz.solrocr.model.SourcePointer;
 import com.github.dbmdz.solrocr.reader.LegacyBaseCompositeReader;
 import com.github.dbmdz.solrocr.solr.OcrHighlightParams;
+import com.github.dbmdz.solrocr.util.BoundaryIndex;
+import com.github.dbmdz.solrocr.util.ContentBackend;
+import com.github.dbmdz.solrocr.util.DecompressingBackend;
+import com.github.dbmdz.solrocr.util.DocumentPageIndex;
+import com.github.dbmdz.solrocr.util.HighlightExecutor;
 import com.github.dbmdz.solrocr.util.HighlightTimeout;
 import com.github.dbmdz.solrocr.util.PageCacheWarmer;
-import com.google.common.collect.ImmutableSet;
+import com.github.dbmdz.solrocr.util.PageIndex;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -54,15 +63,27 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharFilterFactory;
 import org.apache.lucene.document.DocumentStoredFieldVisitor;
 import org.apache.lucene.index.BaseCompositeReader;
 import org.apache.lucene.index.ExitableDirectoryReader;
@@ -86,8 +107,11 @@ import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.InPlaceMergeSorter;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.solr.analysis.TokenizerChain;
 import org.apache.solr.common.params.HighlightParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.SolrQueryTimeoutImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -103,8 +127,11 @@ public class OcrHighlighter extends UnifiedHighlighter {
   private static final CharacterRunAutomaton[] ZERO_LEN_AUTOMATA_ARRAY_LEGACY =
       new CharacterRunAutomaton[0];
   private static final IndexSearcher EMPTY_INDEXSEARCHER;
-  private static final Set<OcrFormat> FORMATS =
-      ImmutableSet.of(new HocrFormat(), new AltoFormat(), new MiniOcrFormat());
+  // Minimum number of content groups that are opened ahead of highlighting
+  private static final int MIN_GROUPS_AHEAD = 2;
+  // Number of documents whose stored fields are loaded and grouped by their content at once
+  private static final int GROUPING_BATCH_SIZE = 32;
+
   private static final int DEFAULT_SNIPPET_LIMIT = 100;
   public static final String PARTIAL_OCR_HIGHLIGHTS = "partialOcrHighlights";
 
@@ -233,10 +260,95 @@ public class OcrHighlighter extends UnifiedHighlighter {
   }
 
   private final SolrParams params;
+  private final ContentBackend contentBackend;
+  private final PageCacheWarmer cacheWarmer;
+  private final String pageIndexSuffix;
+  private final PageHeaderLocator headerLocator;
+  private final HighlightExecutor executor;
+  // Used to prioritize the preloading for older requests
+  private final long requestStart = System.nanoTime();
 
   public OcrHighlighter(IndexSearcher indexSearcher, Analyzer indexAnalyzer, SolrParams params) {
+    this(indexSearcher, indexAnalyzer, params, DecompressingBackend.getDefault(), null);
+  }
+
+  /**
+   * @param contentBackend backend to read the OCR files with
+   * @param cacheWarmer warmer to preload the OCR files with, can be {@code null} if preloading is
+   *     disabled
+   */
+  public OcrHighlighter(
+      IndexSearcher indexSearcher,
+      Analyzer indexAnalyzer,
+      SolrParams params,
+      ContentBackend contentBackend,
+      PageCacheWarmer cacheWarmer) {
+    this(
+        indexSearcher,
+        indexAnalyzer,
+        params,
+        contentBackend,
+        cacheWarmer,
+        PageIndex.DEFAULT_SIDECAR_SUFFIX,
+        null);
+  }
+
+  /**
+   * @param contentBackend backend to read the OCR files with
+   * @param cacheWarmer warmer to preload the OCR files with, can be {@code null} if preloading is
+   *     disabled
+   * @param pageIndexSuffix suffix of the {@link PageIndex} sidecars next to the OCR files, can be
+   *     {@code null} to not look for sidecars
+   * @param executor executor to highlight documents in parallel with, can be {@code null} to always
+   *     highlight them sequentially
+   */
+  public OcrHighlighter(
+      IndexSearcher indexSearcher,
+      Analyzer indexAnalyzer,
+      SolrParams params,
+      ContentBackend contentBackend,
+      PageCacheWarmer cacheWarmer,
+      String pageIndexSuffix,
+      HighlightExecutor executor) {
+    this(
+        indexSearcher,
+        indexAnalyzer,
+        params,
+        contentBackend,
+        cacheWarmer,
+        pageIndexSuffix,
+        new PageHeaderLocator(
+            contentBackend, pageIndexSuffix, PageHeaderLocator.DEFAULT_MAX_SCAN_LENGTH),
+        executor);
+  }
+
+  /**
+   * @param contentBackend backend to read the OCR files with
+   * @param cacheWarmer warmer to preload the OCR files with, can be {@code null} if preloading is
+   *     disabled
+   * @param pageIndexSuffix suffix of the {@link PageIndex} sidecars next to the OCR files, can be
+   *     {@code null} to not look for sidecars
+   * @param headerLocator locator for the opening markup of the pages enclosing the regions of
+   *     source pointers, can be {@code null} to only present the regions themselves
+   * @param executor executor to highlight documents in parallel with, can be {@code null} to always
+   *     highlight them sequentially
+   */
+  public OcrHighlighter(
+      IndexSearcher indexSearcher,
+      Analyzer indexAnalyzer,
+      SolrParams params,
+      ContentBackend contentBackend,
+      PageCacheWarmer cacheWarmer,
+      String pageIndexSuffix,
+      PageHeaderLocator headerLocator,
+      HighlightExecutor executor) {
     super(indexSearcher, indexAnalyzer);
     this.params = params;
+    this.contentBackend = contentBackend;
+    this.cacheWarmer = cacheWarmer;
+    this.pageIndexSuffix = pageIndexSuffix;
+    this.headerLocator = headerLocator;
+    this.executor = executor;
   }
 
   @Override
@@ -348,134 +460,106 @@ public class OcrHighlighter extends UnifiedHighlighter {
       }
     }
 
+    // Number of documents (or rather fields of documents) that are highlighted at the same time
+    int numThreads =
+        executor == null
+            ? 1
+            : Math.min(params.getInt(OcrHighlightParams.THREADS, 1), executor.getMaxConcurrency());
+    // The term vector cache is not thread-safe, so it can only be used for sequential highlighting
     IndexReader indexReaderWithTermVecCache =
-        (numTermVectors >= 2) ? TermVectorReusingLeafReader.wrap(searcher.getIndexReader()) : null;
+        (numTermVectors >= 2 && numThreads <= 1)
+            ? TermVectorReusingLeafReader.wrap(searcher.getIndexReader())
+            : null;
 
-    // [fieldIdx][docIdInIndex] of highlightDoc result
+    // [fieldIdx][docIdInIndex] of highlightGroup result
     OcrSnippet[][][] highlightDocsInByField = new OcrSnippet[fields.length][docIds.length][];
     int[][] snippetCountsByField = new int[fields.length][docIds.length];
-    // Highlight in doc batches determined by loadFieldValues (consumes from docIdIter)
-    DocIdSetIterator docIdIter = asDocIdSetIterator(docIds);
-    docLoop:
-    for (int batchDocIdx = 0; batchDocIdx < docIds.length; ) {
-      List<IterableCharSequence[]> fieldValsByDoc = loadOcrFieldValues(fields, docIdIter);
+    IndexReader[] readersByField = new IndexReader[fields.length];
+    for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
+      readersByField[fieldIdx] =
+          (fieldHighlighters[fieldIdx].getOffsetSource() == OffsetSource.TERM_VECTORS
+                  && indexReaderWithTermVecCache != null)
+              ? indexReaderWithTermVecCache
+              : searcher.getIndexReader();
+    }
 
-      // Highlight in per-field order first, then by doc (better I/O pattern)
-      for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
-        OcrSnippet[][] resultByDocIn = highlightDocsInByField[fieldIdx]; // parallel to docIdsIn
-        OcrFieldHighlighter fieldHighlighter = fieldHighlighters[fieldIdx];
-        for (int docIdx = batchDocIdx; docIdx - batchDocIdx < fieldValsByDoc.size(); docIdx++) {
-          int docId = docIds[docIdx]; // sorted order
-          IterableCharSequence content = fieldValsByDoc.get(docIdx - batchDocIdx)[fieldIdx];
-          if (content == null) {
-            continue;
-          }
-          if (timeAllowed != null) {
-            content = new ExitingIterCharSeq(content, HighlightTimeout.getInstance());
-          }
-          IndexReader indexReader =
-              (fieldHighlighter.getOffsetSource() == OffsetSource.TERM_VECTORS
-                      && indexReaderWithTermVecCache != null)
-                  ? indexReaderWithTermVecCache
-                  : searcher.getIndexReader();
-          final LeafReader leafReader;
-          if (indexReader instanceof LeafReader) {
-            leafReader = (LeafReader) indexReader;
-          } else {
-            List<LeafReaderContext> leaves = indexReader.leaves();
-            LeafReaderContext leafReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
-            leafReader = leafReaderContext.reader();
-            docId -= leafReaderContext.docBase; // adjust 'doc' to be within this leaf reader
-          }
-          int docInIndex = docInIndexes[docIdx]; // original input order
-          assert resultByDocIn[docInIndex] == null;
-          OcrFormat ocrFormat = getFormat(content);
-          if (ocrFormat == null) {
-            continue;
-          }
-          String limitBlockParam = params.get(OcrHighlightParams.LIMIT_BLOCK, "block");
-          OcrBlock[] limitBlocks = null;
-          if (!limitBlockParam.equalsIgnoreCase("NONE")) {
-            limitBlocks =
-                OcrBlock.getHierarchyFrom(OcrBlock.valueOf(limitBlockParam.toUpperCase(Locale.US)))
-                    .toArray(new OcrBlock[0]);
-          }
-          OcrBlock contextBlock =
-              OcrBlock.valueOf(
-                  params.get(OcrHighlightParams.CONTEXT_BLOCK, "line").toUpperCase(Locale.US));
-          BreakLocator contextLocator = ocrFormat.getBreakLocator(content, contextBlock);
-          BreakLocator limitLocator =
-              limitBlocks == null ? null : ocrFormat.getBreakLocator(content, limitBlocks);
-          BreakLocator breakLocator =
-              new ContextBreakLocator(
-                  contextLocator, limitLocator, params.getInt(OcrHighlightParams.CONTEXT_SIZE, 2));
-          OcrPassageFormatter formatter =
-              ocrFormat.getPassageFormatter(
-                  OcrHighlightParams.get(params, OcrHighlightParams.TAG_PRE, "<em>"),
-                  OcrHighlightParams.get(params, OcrHighlightParams.TAG_POST, "</em>"),
-                  params.getBool(OcrHighlightParams.ABSOLUTE_HIGHLIGHTS, false),
-                  params.getBool(OcrHighlightParams.ALIGN_SPANS, false),
-                  params.getBool(OcrHighlightParams.TRACK_PAGES, true));
-          int snippetLimit =
-              Math.max(
-                  maxPassages[fieldIdx],
-                  params.getInt(OcrHighlightParams.MAX_OCR_PASSAGES, DEFAULT_SNIPPET_LIMIT));
-          boolean scorePassages = params.getBool(OcrHighlightParams.SCORE_PASSAGES, true);
-          try {
-            resultByDocIn[docInIndex] =
-                fieldHighlighter.highlightFieldForDoc(
-                    leafReader,
-                    docId,
-                    breakLocator,
-                    formatter,
-                    content,
-                    params.get(OcrHighlightParams.PAGE_ID),
-                    snippetLimit,
-                    scorePassages);
-          } catch (ExitingIterCharSeq.ExitingIterCharSeqException
-              | ExitableDirectoryReader.ExitingReaderException e) {
-            log.warn("OCR Highlighting timed out while handling " + content.getPointer(), e);
-            respHeader.put(PARTIAL_OCR_HIGHLIGHTS, Boolean.TRUE);
-            resultByDocIn[docInIndex] = null;
-            // Stop highlighting
-            break docLoop;
-          } catch (RuntimeException e) {
-            // This catch-all prevents OCR highlighting from failing the complete query,
-            // instead users get an error message in their Solr log.
-            if (content.getPointer() != null) {
-              log.error(
-                  "Could not highlight OCR content for document {} at '{}'",
-                  docId,
-                  content.getPointer(),
-                  e);
-            } else {
-              log.error(
-                  "Could not highlight OCR for document {} with OCR markup '{}...'",
-                  docId,
-                  content.subSequence(0, 256),
-                  e);
-            }
-          } finally {
-            if (content instanceof AutoCloseable) {
-              try {
-                ((AutoCloseable) content).close();
-              } catch (Exception e) {
-                log.warn(
-                    "Encountered error while closing content iterator for {}: {}",
-                    content.getPointer(),
-                    e.getMessage());
+    // Set once the timeout is exceeded, the remaining documents are skipped
+    AtomicBoolean timedOut = new AtomicBoolean(false);
+    // Fields of documents are grouped by their content and the groups are processed in the order
+    // of their position in the OCR files. If possible, the groups are opened ahead of highlighting
+    // on a separate thread, so that the I/O for the next groups overlaps with highlighting.
+    ContentLoader loader =
+        new ContentLoader(
+            fields,
+            fieldHighlighters,
+            maxPassages,
+            docIds,
+            timedOut,
+            executor == null ? 0 : Math.max(numThreads, MIN_GROUPS_AHEAD));
+    ParallelRunner runner = numThreads > 1 ? new ParallelRunner(numThreads) : null;
+    Throwable failure = null;
+    try {
+      ContentGroup nextGroup;
+      while ((nextGroup = loader.next()) != null) {
+        ContentGroup group = nextGroup;
+        IterableCharSequence content =
+            timeAllowed != null
+                ? new ExitingIterCharSeq(group.content, HighlightTimeout.getInstance())
+                : group.content;
+        HighlightTask task =
+            () -> {
+              if (timedOut.get()) {
+                closeContent(content);
+                return;
+              }
+              boolean completed =
+                  highlightGroup(
+                      group,
+                      content,
+                      fieldHighlighters,
+                      readersByField,
+                      maxPassages,
+                      docIds,
+                      docInIndexes,
+                      highlightDocsInByField,
+                      snippetCountsByField);
+              if (!completed) {
+                timedOut.set(true);
               }
+            };
+        if (runner != null) {
+          runner.submit(task);
+        } else {
+          task.run();
+        }
+      }
+    } catch (Throwable t) {
+      // Tasks that were submitted, but not started yet, are skipped
+      failure = t;
+      timedOut.set(true);
+      throw t;
+    } finally {
+      try {
+        loader.close();
+        // The tasks must be done before the contents are closed and the request is finished
+        if (runner != null) {
+          try {
+            runner.awaitAll();
+          } catch (IOException | RuntimeException e) {
+            if (failure == null) {
+              throw e;
             }
+            failure.addSuppressed(e);
           }
-          snippetCountsByField[fieldIdx][docInIndex] = fieldHighlighter.getNumMatches(docId);
         }
+      } finally {
+        HighlightTimeout.reset();
+        SolrQueryTimeoutImpl.reset();
       }
-      batchDocIdx += fieldValsByDoc.size();
     }
-    assert docIdIter.docID() == DocIdSetIterator.NO_MORE_DOCS
-        || docIdIter.nextDoc() == DocIdSetIterator.NO_MORE_DOCS;
-    HighlightTimeout.reset();
-    SolrQueryTimeoutImpl.reset();
+    if (timedOut.get()) {
+      respHeader.put(PARTIAL_OCR_HIGHLIGHTS, Boolean.TRUE);
+    }
 
     OcrHighlightResult[] out = new OcrHighlightResult[docIds.length];
     for (int d = 0; d < docIds.length; d++) {
@@ -495,6 +579,564 @@ public class OcrHighlighter extends UnifiedHighlighter {
     return out;
   }
 
+  /** Highlighting of the fields of documents that share their content. */
+  @FunctionalInterface
+  private interface HighlightTask {
+    void run() throws IOException;
+  }
+
+  /**
+   * Highlight the fields of the documents in the group on their shared content and store the
+   * snippets and the number of matches at the index of the field and of the document in the
+   * original input order in the result arrays.
+   *
+   * @return {@code false} if highlighting was stopped since the timeout was exceeded
+   */
+  private boolean highlightGroup(
+      ContentGroup group,
+      IterableCharSequence content,
+      OcrFieldHighlighter[] fieldHighlighters,
+      IndexReader[] readersByField,
+      int[] maxPassages,
+      int[] docIds,
+      int[] docInIndexes,
+      OcrSnippet[][][] snippetsByField,
+      int[][] snippetCountsByField)
+      throws IOException {
+    try {
+      OcrFormat ocrFormat = group.format;
+      if (ocrFormat == null) {
+        return true;
+      }
+      String limitBlockParam = params.get(OcrHighlightParams.LIMIT_BLOCK, "block");
+      OcrBlock[] limitBlocks = null;
+      if (!limitBlockParam.equalsIgnoreCase("NONE")) {
+        limitBlocks =
+            OcrBlock.getHierarchyFrom(OcrBlock.valueOf(limitBlockParam.toUpperCase(Locale.US)))
+                .toArray(new OcrBlock[0]);
+      }
+      OcrBlock contextBlock =
+          OcrBlock.valueOf(
+              params.get(OcrHighlightParams.CONTEXT_BLOCK, "line").toUpperCase(Locale.US));
+      // Use the precomputed block boundaries if available, otherwise the markup is scanned
+      BoundaryIndex boundaries = BoundaryIndex.load(content, contentBackend);
+      // Same for the pages, which are needed for page tracking and the page filter
+      DocumentPageIndex pageIndex =
+          pageIndexSuffix == null
+              ? null
+              : DocumentPageIndex.load(content, contentBackend, pageIndexSuffix);
+      BreakLocator contextLocator =
+          getBreakLocator(ocrFormat, content, boundaries, pageIndex, contextBlock);
+      BreakLocator limitLocator =
+          limitBlocks == null
+              ? null
+              : getBreakLocator(ocrFormat, content, boundaries, pageIndex, limitBlocks);
+      int contextSize = params.getInt(OcrHighlightParams.CONTEXT_SIZE, 2);
+      if (params.getBool(OcrHighlightParams.STREAM_PASSAGES, false)) {
+        // Build the passages in a single forward pass over the content
+        contextLocator = new ForwardBreakLocator(contextLocator, 4 * (contextSize + 1));
+        if (limitLocator != null) {
+          limitLocator = new ForwardBreakLocator(limitLocator, 0);
+        }
+      }
+      // The located breaks are cached in the locators, so they are shared by the whole group
+      BreakLocator breakLocator =
+          new ContextBreakLocator(contextLocator, limitLocator, contextSize);
+      // Shared between the page filter and the snippet formatting, every page is parsed once
+      OcrPageCache pageCache =
+          pageIndex != null
+              ? new OcrPageCache(pageIndex)
+              : new OcrPageCache(
+                  ocrFormat.getBreakLocator(content, boundaries, OcrBlock.PAGE), ocrFormat);
+      boolean scorePassages = params.getBool(OcrHighlightParams.SCORE_PASSAGES, true);
+      if (cacheWarmer != null) {
+        // Cancel any preloading, since we're doing the I/O ourselves now
+        cacheWarmer.cancelPreload(content.getPointer());
+      }
+      for (FieldDoc member : group.members) {
+        int fieldIdx = member.fieldIdx;
+        IndexReader indexReader = readersByField[fieldIdx];
+        int docId = docIds[member.docIdx]; // sorted order
+        final LeafReader leafReader;
+        if (indexReader instanceof LeafReader) {
+          leafReader = (LeafReader) indexReader;
+        } else {
+          List<LeafReaderContext> leaves = indexReader.leaves();
+          LeafReaderContext leafReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
+          leafReader = leafReaderContext.reader();
+          docId -= leafReaderContext.docBase; // adjust 'doc' to be within this leaf reader
+        }
+        int docInIndex = docInIndexes[member.docIdx]; // original input order
+        OcrSnippet[][] resultByDocIn = snippetsByField[fieldIdx];
+        assert resultByDocIn[docInIndex] == null;
+        OcrPassageFormatter formatter =
+            ocrFormat.getPassageFormatter(
+                OcrHighlightParams.get(params, OcrHighlightParams.TAG_PRE, "<em>"),
+                OcrHighlightParams.get(params, OcrHighlightParams.TAG_POST, "</em>"),
+                params.getBool(OcrHighlightParams.ABSOLUTE_HIGHLIGHTS, false),
+                params.getBool(OcrHighlightParams.ALIGN_SPANS, false),
+                params.getBool(OcrHighlightParams.TRACK_PAGES, true));
+        formatter.setPageCache(pageCache);
+        OcrFieldHighlighter fieldHighlighter = fieldHighlighters[fieldIdx];
+        try {
+          resultByDocIn[docInIndex] =
+              fieldHighlighter.highlightFieldForDoc(
+                  leafReader,
+                  docId,
+                  breakLocator,
+                  formatter,
+                  content,
+                  params.get(OcrHighlightParams.PAGE_ID),
+                  getSnippetLimit(maxPassages[fieldIdx]),
+                  scorePassages);
+        } catch (ExitingIterCharSeq.ExitingIterCharSeqException
+            | ExitableDirectoryReader.ExitingReaderException e) {
+          log.warn("OCR Highlighting timed out while handling " + content.getPointer(), e);
+          resultByDocIn[docInIndex] = null;
+          return false;
+        } catch (RuntimeException e) {
+          // This catch-all prevents OCR highlighting from failing the complete query,
+          // instead users get an error message in their Solr log.
+          if (content.getPointer() != null) {
+            log.error(
+                "Could not highlight OCR content for document {} at '{}'",
+                docId,
+                content.getPointer(),
+                e);
+          } else {
+            log.error(
+                "Could not highlight OCR for document {} with OCR markup '{}...'",
+                docId,
+                content.subSequence(0, 256),
+                e);
+          }
+        }
+        snippetCountsByField[fieldIdx][docInIndex] =
+            fieldHighlighter.getNumMatches(leafReader, docId);
+      }
+      return true;
+    } finally {
+      closeContent(content);
+    }
+  }
+
+  private void closeContent(IterableCharSequence content) {
+    if (content instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) content).close();
+      } catch (Exception e) {
+        log.warn(
+            "Encountered error while closing content iterator for {}: {}",
+            content.getPointer(),
+            e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Run the task with the timeout of a request, on a different thread than the one the request is
+   * handled on.
+   */
+  private static <T> T callWithTimeout(Long timeoutAt, Callable<T> task) throws Exception {
+    if (timeoutAt != null) {
+      HighlightTimeout.setTimeoutAt(timeoutAt);
+      SolrQueryTimeoutImpl.set(
+          Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutAt - System.nanoTime())));
+    }
+    try {
+      return task.call();
+    } finally {
+      HighlightTimeout.reset();
+      SolrQueryTimeoutImpl.reset();
+    }
+  }
+
+  private static void rethrow(Throwable failure) throws IOException {
+    Throwables.throwIfInstanceOf(failure, IOException.class);
+    Throwables.throwIfUnchecked(failure);
+    throw new RuntimeException(failure);
+  }
+
+  /**
+   * Runs tasks on the shared executor, with at most {@code numThreads} of them running at the same
+   * time. The timeout of the request is passed on to the threads that run the tasks.
+   */
+  private class ParallelRunner {
+    private final Long timeoutAt = HighlightTimeout.get();
+    private final Semaphore permits;
+    private final List<Future<?>> futures = new ArrayList<>();
+
+    ParallelRunner(int numThreads) {
+      this.permits = new Semaphore(numThreads);
+    }
+
+    void submit(HighlightTask task) {
+      permits.acquireUninterruptibly();
+      futures.add(
+          executor.submit(
+              () -> {
+                try {
+                  return callWithTimeout(
+                      timeoutAt,
+                      () -> {
+                        task.run();
+                        return null;
+                      });
+                } finally {
+                  permits.release();
+                }
+              }));
+    }
+
+    /** Wait for all tasks, even if one of them failed, so no content is left open. */
+    void awaitAll() throws IOException {
+      Throwable failure = null;
+      for (Future<?> future : futures) {
+        try {
+          Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+      if (failure != null) {
+        rethrow(failure);
+      }
+    }
+  }
+
+  /** A field of a document, by their indexes in the sorted fields and documents. */
+  private static class FieldDoc {
+    final int fieldIdx;
+    final int docIdx;
+
+    FieldDoc(int fieldIdx, int docIdx) {
+      this.fieldIdx = fieldIdx;
+      this.docIdx = docIdx;
+    }
+  }
+
+  /**
+   * Fields of documents that have the same OCR content, i.e. the same source pointer, and the same
+   * declared format, and are highlighted on a single shared content. Fields with OCR markup stored
+   * in the index are only grouped with the other fields of the same document.
+   */
+  private static class ContentGroup {
+    // Groups of pointers are processed in the order of their files and of the offsets in them
+    static final Comparator<ContentGroup> POSITION_ORDER =
+        Comparator.comparing((ContentGroup g) -> g.pointer.sources.get(0).path)
+            .thenComparingLong(ContentGroup::getStartOffset);
+
+    final SourcePointer pointer;
+    final String markup;
+    // Format declared in the pointer or for the fields in the schema, null if it is detected
+    final OcrFormat declaredFormat;
+    final List<FieldDoc> members = new ArrayList<>();
+    // Set once the group is loaded
+    IterableCharSequence content;
+    OcrFormat format;
+
+    ContentGroup(SourcePointer pointer, String markup, OcrFormat declaredFormat) {
+      this.pointer = pointer;
+      this.markup = markup;
+      this.declaredFormat = declaredFormat;
+    }
+
+    /** Offset of the pointer's first region in its first file. */
+    long getStartOffset() {
+      List<SourcePointer.Region> regions = pointer.sources.get(0).regions;
+      return regions.isEmpty() ? 0 : regions.get(0).start;
+    }
+  }
+
+  /**
+   * Loads the stored OCR fields of the documents, groups them by their content and opens the
+   * content of the groups, in the order of their position in the OCR files.
+   *
+   * <p>The documents are grouped in batches of a fixed size, so highlighting of the first groups
+   * can start before the stored fields of all documents are loaded. Only documents in the same
+   * batch share their content and are ordered by their position.
+   *
+   * <p>With a positive number of groups to load ahead, the groups are opened on a separate thread
+   * that stays at most that many groups ahead of highlighting, otherwise they are opened on demand.
+   */
+  private class ContentLoader implements Callable<Void> {
+    private final ContentGroup END = new ContentGroup(null, null, null);
+
+    private final String[] fields;
+    private final OcrFieldHighlighter[] fieldHighlighters;
+    private final int[] maxPassages;
+    private final int[] docIds;
+    private final AtomicBoolean timedOut;
+    private final BlockingQueue<ContentGroup> queue;
+    private final Long timeoutAt = HighlightTimeout.get();
+    private final Future<Void> loading;
+    // Formats declared in the schema, by field
+    private final OcrFormat[] fieldFormats;
+    // Groups of the current batch of documents
+    private List<ContentGroup> groups = Collections.emptyList();
+    private int nextGroupIdx = 0;
+    // First document of the next batch
+    private int nextDocIdx = 0;
+    private volatile boolean closed = false;
+    private boolean finished = false;
+
+    ContentLoader(
+        String[] fields,
+        OcrFieldHighlighter[] fieldHighlighters,
+        int[] maxPassages,
+        int[] docIds,
+        AtomicBoolean timedOut,
+        int numAhead) {
+      this.fields = fields;
+      this.fieldHighlighters = fieldHighlighters;
+      this.maxPassages = maxPassages;
+      this.docIds = docIds;
+      this.timedOut = timedOut;
+      this.fieldFormats = new OcrFormat[fields.length];
+      for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
+        fieldFormats[fieldIdx] = getDeclaredFormat(fields[fieldIdx]);
+      }
+      if (numAhead > 0 && docIds.length > 1) {
+        this.queue = new ArrayBlockingQueue<>(numAhead);
+        this.loading = executor.submitUnbounded(this);
+      } else {
+        this.queue = null;
+        this.loading = null;
+      }
+    }
+
+    @Override
+    public Void call() throws Exception {
+      return callWithTimeout(
+          timeoutAt,
+          () -> {
+            try {
+              while (!closed && !timedOut.get() && prepareNextBatch()) {
+                for (ContentGroup group : groups) {
+                  if (closed || timedOut.get()) {
+                    break;
+                  }
+                  load(group);
+                  Uninterruptibles.putUninterruptibly(queue, group);
+                }
+              }
+            } finally {
+              Uninterruptibles.putUninterruptibly(queue, END);
+            }
+            return null;
+          });
+    }
+
+    /**
+     * Load the stored fields of the next batch of documents and group them by their content.
+     *
+     * @return {@code false} if there are no more documents
+     */
+    private boolean prepareNextBatch() throws IOException {
+      if (nextDocIdx >= docIds.length) {
+        return false;
+      }
+      int batchEnd = Math.min(nextDocIdx + GROUPING_BATCH_SIZE, docIds.length);
+      List<ContentGroup> markupGroups = new ArrayList<>();
+      // By the canonical form of the pointers, i.e. shared by all fields and documents that point
+      // to the same sources
+      Map<String, ContentGroup> pointerGroups = new HashMap<>();
+      for (int docIdx = nextDocIdx; docIdx < batchEnd; docIdx++) {
+        String[] values;
+        try {
+          values = loadStoredValues(fields, docIds[docIdx]);
+        } catch (ExitableDirectoryReader.ExitingReaderException e) {
+          log.warn("OCR Highlighting timed out while loading document {}", docIds[docIdx], e);
+          timedOut.set(true);
+          batchEnd = docIds.length;
+          break;
+        }
+        for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
+          String value = values[fieldIdx];
+          if (value == null) {
+            // No OCR content at all
+            continue;
+          }
+          FieldDoc member = new FieldDoc(fieldIdx, docIdx);
+          if (!SourcePointer.isPointer(value)) {
+            // OCR content as stored text, only shared by fields of the document with the same text
+            // and format
+            OcrFormat declaredFormat = fieldFormats[fieldIdx];
+            ContentGroup group = findMarkupGroup(markupGroups, docIdx, value, declaredFormat);
+            if (group == null) {
+              group = new ContentGroup(null, value, declaredFormat);
+              markupGroups.add(group);
+            }
+            group.members.add(member);
+            continue;
+          }
+          SourcePointer sourcePointer = SourcePointer.parse(value);
+          if (sourcePointer == null) {
+            // None of the files in the pointer exist or were readable, log should have warnings
+            continue;
+          }
+          // A format declared in the pointer takes precedence over the one declared for the field
+          OcrFormat declaredFormat =
+              sourcePointer.getFormatName() != null
+                  ? OcrFormats.byName(sourcePointer.getFormatName())
+                  : fieldFormats[fieldIdx];
+          // Fields that declare different formats for the same pointer don't share the content
+          String key =
+              declaredFormat == null
+                  ? sourcePointer.toString()
+                  : sourcePointer + "|" + declaredFormat.getClass().getName();
+          pointerGroups
+              .computeIfAbsent(key, k -> new ContentGroup(sourcePointer, null, declaredFormat))
+              .members
+              .add(member);
+        }
+      }
+      // Every file is read in a single forward pass
+      List<ContentGroup> sortedPointerGroups = new ArrayList<>(pointerGroups.values());
+      sortedPointerGroups.sort(ContentGroup.POSITION_ORDER);
+      // If preloading is enabled, start warming the cache for the pointers. When preloading is
+      // targeted at the matches, this happens once the matches are known.
+      if (cacheWarmer != null && !cacheWarmer.isMatchTargeted()) {
+        for (ContentGroup group : sortedPointerGroups) {
+          cacheWarmer.preload(group.pointer, requestStart);
+        }
+      }
+      groups = new ArrayList<>(markupGroups);
+      groups.addAll(sortedPointerGroups);
+      nextGroupIdx = 0;
+      nextDocIdx = batchEnd;
+      return true;
+    }
+
+    /**
+     * Find the group of a previous field of the document with the same stored text and declared
+     * format.
+     */
+    private ContentGroup findMarkupGroup(
+        List<ContentGroup> markupGroups, int docIdx, String markup, OcrFormat declaredFormat) {
+      for (int i = markupGroups.size() - 1; i >= 0; i--) {
+        ContentGroup group = markupGroups.get(i);
+        if (group.members.get(0).docIdx != docIdx) {
+          break;
+        }
+        if (group.markup.equals(markup) && isSameFormat(group.declaredFormat, declaredFormat)) {
+          return group;
+        }
+      }
+      return null;
+    }
+
+    private boolean isSameFormat(OcrFormat a, OcrFormat b) {
+      return a == null ? b == null : b != null && a.getClass() == b.getClass();
+    }
+
+    /** Open the content of the group and determine its format. */
+    private void load(ContentGroup group) throws IOException {
+      OcrFormat declaredFormat = group.declaredFormat;
+      if (group.pointer == null) {
+        group.content = IterableCharSequence.fromString(group.markup);
+        group.format = declaredFormat != null ? declaredFormat : OcrFormats.detect(group.content);
+        return;
+      }
+      if (cacheWarmer != null && cacheWarmer.isMatchTargeted()) {
+        for (FieldDoc member : group.members) {
+          preloadMatches(
+              fieldHighlighters[member.fieldIdx],
+              maxPassages[member.fieldIdx],
+              docIds[member.docIdx],
+              group.pointer);
+        }
+      }
+      OcrFormat format = declaredFormat;
+      group.content = openContent(group.pointer, format);
+      if (format == null) {
+        // All documents in the same file share the format, so it's only detected once per file
+        format = OcrFormats.getKnownFormat(group.pointer);
+      }
+      if (format == null) {
+        format = OcrFormats.detect(group.content);
+        if (format != null) {
+          OcrFormats.putDetectedFormat(group.pointer, format);
+        }
+      }
+      group.format = format;
+    }
+
+    /** Get the next group, or {@code null} if all groups were loaded. */
+    ContentGroup next() throws IOException {
+      if (queue == null) {
+        while (nextGroupIdx >= groups.size()) {
+          if (timedOut.get() || !prepareNextBatch()) {
+            return null;
+          }
+        }
+        if (timedOut.get()) {
+          return null;
+        }
+        ContentGroup group = groups.get(nextGroupIdx++);
+        load(group);
+        return group;
+      }
+      if (finished) {
+        return null;
+      }
+      ContentGroup group = Uninterruptibles.takeUninterruptibly(queue);
+      if (group != END) {
+        return group;
+      }
+      finished = true;
+      try {
+        Uninterruptibles.getUninterruptibly(loading);
+      } catch (ExecutionException e) {
+        rethrow(e.getCause());
+      }
+      return null;
+    }
+
+    /** Stop loading and close the contents of all groups that were loaded, but not consumed. */
+    void close() {
+      closed = true;
+      while (queue != null && !finished) {
+        ContentGroup group = Uninterruptibles.takeUninterruptibly(queue);
+        if (group == END) {
+          finished = true;
+        } else {
+          closeContent(group.content);
+        }
+      }
+    }
+  }
+
+  private int getSnippetLimit(int maxPassages) {
+    return Math.max(
+        maxPassages, params.getInt(OcrHighlightParams.MAX_OCR_PASSAGES, DEFAULT_SNIPPET_LIMIT));
+  }
+
+  /**
+   * Schedule preloading of the windows around the matches of a field in a document, in the same
+   * order that the matches will be highlighted in.
+   */
+  private void preloadMatches(
+      OcrFieldHighlighter fieldHighlighter, int maxPassages, int docId, SourcePointer pointer)
+      throws IOException {
+    List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+    LeafReaderContext leafReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    // Matches past the snippet limit are only counted, so we don't need their context
+    int limit = getSnippetLimit(maxPassages) + 1;
+    int[] matchOffsets;
+    try {
+      matchOffsets =
+          fieldHighlighter.getMatchOffsets(
+              leafReaderContext.reader(), docId - leafReaderContext.docBase, limit);
+    } catch (ExitableDirectoryReader.ExitingReaderException e) {
+      // Out of time, the highlighting loop will take care of handling this
+      return;
+    }
+    cacheWarmer.preloadMatches(pointer, matchOffsets, requestStart);
+  }
+
   @Override
   protected List<CharSequence[]> loadFieldValues(
       String[] fields, DocIdSetIterator docIter, int cacheCharsThreshold) throws IOException {
@@ -512,51 +1154,136 @@ public class OcrHighlighter extends UnifiedHighlighter {
     List<IterableCharSequence[]> fieldValues = new ArrayList<>((int) docIter.cost());
     int docId;
     while ((docId = docIter.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
-      DocumentStoredFieldVisitor docIdVisitor = new DocumentStoredFieldVisitor(fields);
-      IterableCharSequence[] ocrVals = new IterableCharSequence[fields.length];
-      searcher.doc(docId, docIdVisitor);
-      for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
-        String fieldName = fields[fieldIdx];
-        String fieldValue = docIdVisitor.getDocument().get(fieldName);
-        if (fieldValue == null) {
-          // No OCR content at all
-          ocrVals[fieldIdx] = null;
-          continue;
-        }
-        if (!SourcePointer.isPointer(fieldValue)) {
-          // OCR content as stored text
-          ocrVals[fieldIdx] = IterableCharSequence.fromString(fieldValue);
-          continue;
-        }
-        SourcePointer sourcePointer = SourcePointer.parse(fieldValue);
-        if (sourcePointer == null) {
-          // None of the files in the pointer exist or were readable, log should have warnings
-          ocrVals[fieldIdx] = null;
-          continue;
-        }
-        // If preloading is enabled, start warming the cache for the pointer
-        PageCacheWarmer.getInstance().ifPresent(w -> w.preload(sourcePointer));
-        if (sourcePointer.sources.size() == 1) {
-          ocrVals[fieldIdx] =
-              new FileBytesCharIterator(
-                  sourcePointer.sources.get(0).path, StandardCharsets.UTF_8, sourcePointer);
-        } else {
-          ocrVals[fieldIdx] =
-              new MultiFileBytesCharIterator(
-                  sourcePointer.sources.stream().map(s -> s.path).collect(Collectors.toList()),
-                  StandardCharsets.UTF_8,
-                  sourcePointer);
-        }
-      }
-      fieldValues.add(ocrVals);
+      fieldValues.add(loadOcrFieldValues(fields, docId));
     }
     return fieldValues;
   }
 
-  private OcrFormat getFormat(IterableCharSequence content) {
-    // Sample the first 4k characters to determine the format
-    String sampleChunk = content.subSequence(0, Math.min(4096, content.length())).toString();
-    return FORMATS.stream().filter(fmt -> fmt.hasFormat(sampleChunk)).findFirst().orElse(null);
+  /** Load the stored values of the OCR fields of a document. */
+  private String[] loadStoredValues(String[] fields, int docId) throws IOException {
+    DocumentStoredFieldVisitor docIdVisitor = new DocumentStoredFieldVisitor(fields);
+    searcher.doc(docId, docIdVisitor);
+    String[] values = new String[fields.length];
+    for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
+      values[fieldIdx] = docIdVisitor.getDocument().get(fields[fieldIdx]);
+    }
+    return values;
+  }
+
+  /**
+   * Load the values of the OCR fields of a document, values that are source pointers are opened and
+   * their preloading is started.
+   */
+  protected IterableCharSequence[] loadOcrFieldValues(String[] fields, int docId)
+      throws IOException {
+    String[] values = loadStoredValues(fields, docId);
+    IterableCharSequence[] ocrVals = new IterableCharSequence[fields.length];
+    for (int fieldIdx = 0; fieldIdx < fields.length; fieldIdx++) {
+      String fieldValue = values[fieldIdx];
+      if (fieldValue == null) {
+        // No OCR content at all
+        ocrVals[fieldIdx] = null;
+        continue;
+      }
+      if (!SourcePointer.isPointer(fieldValue)) {
+        // OCR content as stored text
+        ocrVals[fieldIdx] = IterableCharSequence.fromString(fieldValue);
+        continue;
+      }
+      SourcePointer sourcePointer = SourcePointer.parse(fieldValue);
+      if (sourcePointer == null) {
+        // None of the files in the pointer exist or were readable, log should have warnings
+        ocrVals[fieldIdx] = null;
+        continue;
+      }
+      // If preloading is enabled, start warming the cache for the pointer. When preloading is
+      // targeted at the matches, this happens once the matches are known.
+      if (cacheWarmer != null && !cacheWarmer.isMatchTargeted()) {
+        cacheWarmer.preload(sourcePointer, requestStart);
+      }
+      ocrVals[fieldIdx] = openContent(sourcePointer);
+    }
+    return ocrVals;
+  }
+
+  /** Open the content referenced by the pointer. */
+  private IterableCharSequence openContent(SourcePointer sourcePointer) throws IOException {
+    return openContent(sourcePointer, null);
+  }
+
+  /**
+   * Open the content referenced by the pointer.
+   *
+   * <p>Unless disabled, regions are presented with the opening markup of their enclosing page, so
+   * the pages of their snippets can be determined.
+   *
+   * @param declaredFormat format declared in the pointer or for the field, {@code null} if it has
+   *     to be detected
+   */
+  private IterableCharSequence openContent(SourcePointer sourcePointer, OcrFormat declaredFormat)
+      throws IOException {
+    if (RegionCharIterator.hasRegions(sourcePointer)) {
+      // Only map the parts of the files that are referenced by the pointer
+      return new RegionCharIterator(
+          sourcePointer,
+          StandardCharsets.UTF_8,
+          contentBackend,
+          headerLocator == null ? null : headerLocator.forFormat(declaredFormat));
+    } else if (sourcePointer.sources.size() == 1) {
+      return new FileBytesCharIterator(
+          sourcePointer.sources.get(0).path, StandardCharsets.UTF_8, sourcePointer, contentBackend);
+    } else {
+      return new MultiFileBytesCharIterator(
+          sourcePointer.sources.stream().map(s -> s.path).collect(Collectors.toList()),
+          StandardCharsets.UTF_8,
+          sourcePointer,
+          contentBackend);
+    }
+  }
+
+  /**
+   * Get the format declared on the {@link OcrCharFilterFactory} of the field in the schema, or
+   * {@code null} if the format is detected from the content.
+   */
+  private OcrFormat getDeclaredFormat(String field) {
+    if (!(searcher instanceof SolrIndexSearcher)) {
+      return null;
+    }
+    SchemaField schemaField = ((SolrIndexSearcher) searcher).getSchema().getFieldOrNull(field);
+    if (schemaField == null
+        || !(schemaField.getType().getIndexAnalyzer() instanceof TokenizerChain)) {
+      return null;
+    }
+    TokenizerChain chain = (TokenizerChain) schemaField.getType().getIndexAnalyzer();
+    for (CharFilterFactory charFilter : chain.getCharFilterFactories()) {
+      if (charFilter instanceof OcrCharFilterFactory) {
+        return ((OcrCharFilterFactory) charFilter).getFormat();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Get a break locator for the block types, from the page index if only pages or lines are
+   * requested (and the index has line starts), otherwise from the boundary index or by scanning the
+   * markup.
+   */
+  private BreakLocator getBreakLocator(
+      OcrFormat ocrFormat,
+      IterableCharSequence content,
+      BoundaryIndex boundaries,
+      DocumentPageIndex pageIndex,
+      OcrBlock... blockTypes) {
+    if (pageIndex != null && blockTypes.length == 1 && blockTypes[0] == OcrBlock.PAGE) {
+      return pageIndex.getBreakLocator();
+    }
+    if (pageIndex != null && blockTypes.length == 1 && blockTypes[0] == OcrBlock.LINE) {
+      BreakLocator lineLocator = pageIndex.getLineBreakLocator();
+      if (lineLocator != null) {
+        return lineLocator;
+      }
+    }
+    return ocrFormat.getBreakLocator(content, boundaries, blockTypes);
   }
 
   /**
@@ -2,7 +2,10 @@ package com.github.dbmdz.solrocr.lucene;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.github.dbmdz.solrocr.formats.OcrFormats;
+import com.github.dbmdz.solrocr.formats.miniocr.MiniOcrFormat;
 import com.github.dbmdz.solrocr.lucene.filters.OcrCharFilter;
+import com.github.dbmdz.solrocr.model.SourcePointer;
 import java.io.IOException;
 import java.io.StringReader;
 import java.nio.file.Path;
@@ -94,4 +97,22 @@ public class OcrCharFilterTest {
     String doc = IOUtils.toString(filter);
     assertThat(doc).contains("Imper-Imper-Imper-senater");
   }
+
+  @Test
+  public void testDeclaredFormat() throws IOException {
+    Path p = Paths.get("src/test/resources/data/miniocr.xml");
+    OcrCharFilterFactory fac =
+        new OcrCharFilterFactory(Collections.singletonMap("format", "miniocr"));
+    assertThat(fac.getFormat()).isInstanceOf(MiniOcrFormat.class);
+    String doc = IOUtils.toString(fac.create(filterFac.create(new StringReader(p.toString()))));
+    assertThat(doc).contains("Bayerische Staatsbibliothek München");
+  }
+
+  @Test
+  public void testCachesDetectedFormat() throws IOException {
+    Path p = Paths.get("src/test/resources/data/miniocr.xml").toAbsolutePath();
+    IOUtils.toString(ocrFac.create(filterFac.create(new StringReader(p.toString()))));
+    assertThat(OcrFormats.getKnownFormat(SourcePointer.parse(p.toString())))
+        .isInstanceOf(MiniOcrFormat.class);
+  }
 }
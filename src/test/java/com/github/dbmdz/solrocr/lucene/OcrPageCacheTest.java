@@ -0,0 +1,117 @@
+package com.github.dbmdz.solrocr.lucene;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.formats.miniocr.MiniOcrFormat;
+import com.github.dbmdz.solrocr.iter.BreakLocator;
+import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.iter.TagBreakLocator;
+import com.github.dbmdz.solrocr.model.OcrBlock;
+import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.OcrPage;
+import com.google.common.collect.Range;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class OcrPageCacheTest {
+  private final OcrFormat format = new MiniOcrFormat();
+
+  private IterableCharSequence openContent() throws IOException {
+    return new FileBytesCharIterator(
+        Paths.get("src/test/resources/data/miniocr.xml"), StandardCharsets.UTF_8, null);
+  }
+
+  /** Locate and parse the page without any caching. */
+  private OcrPage locatePage(IterableCharSequence content, int offset) {
+    int pageStart = format.getBreakLocator(content, OcrBlock.PAGE).preceding(offset);
+    int firstPageStart = format.getBreakLocator(content, OcrBlock.PAGE).following(-1);
+    if (pageStart == BreakLocator.DONE || pageStart < firstPageStart) {
+      // Before the first page
+      return null;
+    }
+    return format.parsePageFragment(
+        content.subSequence(pageStart, Math.min(pageStart + 512, content.length())).toString());
+  }
+
+  @Test
+  void testAscendingLookups() throws IOException {
+    IterableCharSequence content = openContent();
+    OcrPageCache cache = new OcrPageCache(format.getBreakLocator(content, OcrBlock.PAGE), format);
+    Set<OcrPage> seenPages = new HashSet<>();
+    for (int offset = 1; offset < content.length(); offset += 4999) {
+      OcrPage page = cache.getPage(offset);
+      assertThat(page).isEqualTo(locatePage(content, offset));
+      if (page != null) {
+        seenPages.add(page);
+      }
+    }
+    // Every page was parsed exactly once
+    assertThat(cache.getNumPages()).isEqualTo(seenPages.size());
+  }
+
+  @Test
+  void testRandomLookups() throws IOException {
+    IterableCharSequence content = openContent();
+    OcrPageCache cache = new OcrPageCache(format.getBreakLocator(content, OcrBlock.PAGE), format);
+    Random rand = new Random(7);
+    int[] offsets = rand.ints(300, 1, content.length()).toArray();
+    for (int offset : offsets) {
+      assertThat(cache.getPage(offset)).isEqualTo(locatePage(content, offset));
+    }
+    // Looking up the same offsets again doesn't discover any new pages
+    int numPages = cache.getNumPages();
+    Arrays.sort(offsets);
+    for (int offset : offsets) {
+      assertThat(cache.getPage(offset)).isEqualTo(locatePage(content, offset));
+    }
+    assertThat(cache.getNumPages()).isEqualTo(numPages).isLessThanOrEqualTo(27);
+  }
+
+  @Test
+  void testFindPage() throws IOException {
+    IterableCharSequence content = openContent();
+    int[] pageBreaks = new TagBreakLocator(content, "p").locateAll();
+    for (int i : new int[] {0, 12, pageBreaks.length - 1}) {
+      OcrPage expected = locatePage(content, pageBreaks[i] + 1);
+      OcrPageCache cache = new OcrPageCache(format.getBreakLocator(content, OcrBlock.PAGE), format);
+      Range<Integer> range = cache.findPage(expected.id);
+      assertThat(range).isNotNull();
+      assertThat(range.lowerEndpoint()).isEqualTo(pageBreaks[i]);
+      int pageEnd = i + 1 < pageBreaks.length ? pageBreaks[i + 1] : content.length();
+      assertThat(range.upperEndpoint()).isEqualTo(pageEnd);
+      assertThat(cache.getPage(range.lowerEndpoint() + 1)).isEqualTo(expected);
+      assertThat(cache.getPage(range.upperEndpoint())).isEqualTo(expected);
+      assertThat(locatePage(content, range.upperEndpoint())).isEqualTo(expected);
+      if (i + 1 < pageBreaks.length) {
+        assertThat(cache.getPage(range.upperEndpoint() + 1)).isNotEqualTo(expected);
+      }
+    }
+    assertThat(
+            new OcrPageCache(format.getBreakLocator(content, OcrBlock.PAGE), format)
+                .findPage("doesnotexist"))
+        .isNull();
+  }
+
+  @Test
+  void testTextStartingWithinPage() throws IOException {
+    IterableCharSequence content = openContent();
+    int[] pageBreaks = new TagBreakLocator(content, "p").locateAll();
+    // Starts after the header of the first page
+    int start = pageBreaks[0] + 64;
+    IterableCharSequence partial =
+        IterableCharSequence.fromString(content.subSequence(start, content.length()).toString());
+    OcrPageCache cache = new OcrPageCache(format.getBreakLocator(partial, OcrBlock.PAGE), format);
+    assertThat(cache.getPage(1)).isNull();
+    assertThat(cache.getPage(pageBreaks[1] - start - 1)).isNull();
+    assertThat(cache.getPage(pageBreaks[1] - start + 1))
+        .isEqualTo(locatePage(content, pageBreaks[1] + 1));
+    assertThat(cache.findPage(locatePage(content, pageBreaks[0] + 1).id)).isNull();
+  }
+}
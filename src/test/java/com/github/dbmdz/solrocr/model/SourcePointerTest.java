@@ -2,6 +2,7 @@ package com.github.dbmdz.solrocr.model;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
 
 import java.nio.charset.StandardCharsets;
@@ -81,4 +82,41 @@ public class SourcePointerTest {
     // act + assert
     assertThrows(RuntimeException.class, () -> SourcePointer.parse(pointerStr));
   }
+
+  /** The OCR format can be declared after the path */
+  @Test
+  public void testDeclaredFormat() throws Exception {
+    Path p = Paths.get("src/test/resources/data/miniocr.xml").toAbsolutePath();
+    String pointerStr = p + "{ascii}{miniocr}[0:1000]";
+
+    SourcePointer sourcePointer = SourcePointer.parse(pointerStr);
+
+    assertNotNull(sourcePointer);
+    assertEquals(p, sourcePointer.sources.get(0).path);
+    assertEquals("miniocr", sourcePointer.getFormatName());
+    assertEquals(pointerStr, sourcePointer.toString());
+    assertNull(SourcePointer.parse(p.toString()).getFormatName());
+  }
+
+  /** Offsets in the index are only relative to the first region for content beyond 2 GiB */
+  @Test
+  public void testIndexBase() throws Exception {
+    Path p = Paths.get("src/test/resources/data/miniocr.xml").toAbsolutePath();
+    long gib = 1024L * 1024 * 1024;
+    SourcePointer small = SourcePointer.parse(p + "[100:200,300:400]");
+    assertEquals(0, SourcePointer.getIndexBase(small.sources, new long[] {1000}));
+    SourcePointer large = SourcePointer.parse(p + "[" + (3 * gib) + ":" + (3 * gib + 100) + "]");
+    assertEquals(3 * gib, SourcePointer.getIndexBase(large.sources, new long[] {4 * gib}));
+    // Open-ended regions extend to the end of the file
+    SourcePointer openEnded = SourcePointer.parse(p + "[100:]");
+    assertEquals(0, SourcePointer.getIndexBase(openEnded.sources, new long[] {1000}));
+    assertEquals(100, SourcePointer.getIndexBase(openEnded.sources, new long[] {3 * gib}));
+    // Preceding files count towards the extent of the content
+    SourcePointer multi = SourcePointer.parse(p + "[100:200]+" + p + "[0:100]");
+    assertEquals(0, SourcePointer.getIndexBase(multi.sources, new long[] {1000, 1000}));
+    assertEquals(100, SourcePointer.getIndexBase(multi.sources, new long[] {3 * gib, 1000}));
+    // Complete files can't be rebased
+    SourcePointer complete = SourcePointer.parse(p.toString());
+    assertEquals(0, SourcePointer.getIndexBase(complete.sources, new long[] {3 * gib}));
+  }
 }
@@ -125,6 +125,20 @@ public class AltoMultiTest extends SolrTestCaseJ4 {
         req,
         "count(//arr[@name='snippets']/lst)=1",
         "contains(//arr[@name='snippets']/lst/str[@name='text']/text(), '<em>kalifat</em>')",
-        "count(//arr[@name='highlights']/arr/lst)=2");
+        "count(//arr[@name='highlights']/arr/lst)=2",
+        // The match is located in the second file, whose page header is not part of the regions
+        "count(//arr[@name='pages']/lst)=1",
+        "//arr[@name='pages']/lst/str[@name='id']/text()='P2'",
+        "//arr[@name='pages']/lst/int[@name='width']/text()='3180'",
+        "//arr[@name='pages']/lst/int[@name='height']/text()='4710'");
+  }
+
+  @Test
+  public void testRegionsWithPageFilter() {
+    assertQ(
+        xmlQ("q", "Kalifat", "hl.ocr.pageId", "P2"),
+        "count(//arr[@name='snippets']/lst)=1",
+        "//arr[@name='pages']/lst/str[@name='id']/text()='P2'");
+    assertQ(xmlQ("q", "Kalifat", "hl.ocr.pageId", "P1"), "count(//arr[@name='snippets']/lst)=0");
   }
 }
@@ -1,8 +1,11 @@
 package com.github.dbmdz.solrocr.solr;
 
+import com.github.dbmdz.solrocr.util.HighlightTimeout;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
@@ -11,6 +14,7 @@ import java.util.stream.Stream;
 import org.apache.solr.SolrTestCaseJ4;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrQueryTimeoutImpl;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -120,6 +124,186 @@ public class MiniOcrTest extends SolrTestCaseJ4 {
         "//arr[@name='highlights'][1]/arr/lst/int[@name='lry']/text()='1'");
   }
 
+  @Test
+  public void testStreamingPassages() {
+    SolrQueryRequest req = xmlQ("q", "München", "hl.ocr.streamPassages", "true");
+    assertQ(
+        req,
+        "count(//lst[@name='ocrHighlighting']/lst[@name='31337']/lst[@name='ocr_text']/arr/lst)=3",
+        "//str[@name='text'][1]/text()='Bayerische Staatsbibliothek <em>München</em>'");
+  }
+
+  @Test
+  public void testParallelHighlighting() {
+    SolrQueryRequest req =
+        xmlQ(
+            "q",
+            "München",
+            "qf",
+            "ocr_text ocr_text_stored",
+            "hl.ocr.fl",
+            "ocr_text,ocr_text_stored",
+            "hl.ocr.threads",
+            "4");
+    assertQ(
+        req,
+        "count(//lst[@name='ocrHighlighting']/lst[@name='31337']/lst[@name='ocr_text']/arr/lst)=3",
+        "count(//lst[@name='ocrHighlighting']/lst[@name='41337']/lst[@name='ocr_text_stored']/arr/lst)=3",
+        "//lst[@name='31337']/lst[@name='ocr_text']//str[@name='text'][1]/text()='Bayerische Staatsbibliothek <em>München</em>'");
+  }
+
+  @Test
+  public void testParallelHighlightingKeepsResultOrder() {
+    for (String sort : new String[] {"id asc", "id desc"}) {
+      SolrQueryRequest req =
+          xmlQ(
+              "q",
+              "München",
+              "qf",
+              "ocr_text ocr_text_stored",
+              "hl.ocr.fl",
+              "ocr_text,ocr_text_stored",
+              "hl.ocr.threads",
+              "4",
+              "sort",
+              sort);
+      String first = sort.equals("id asc") ? "31337" : "41337";
+      String last = sort.equals("id asc") ? "41337" : "31337";
+      assertQ(
+          req,
+          "count(//lst[@name='ocrHighlighting']/lst)=count(//result/doc)",
+          "//lst[@name='ocrHighlighting']/lst[1]/@name='" + first + "'",
+          "//lst[@name='ocrHighlighting']/lst[last()]/@name='" + last + "'",
+          "//lst[@name='ocrHighlighting']/lst[1]/@name=//result/doc[1]/str[@name='id']",
+          "//lst[@name='ocrHighlighting']/lst[last()]/@name=//result/doc[last()]/str[@name='id']");
+    }
+  }
+
+  @Test
+  public void testParallelHighlightingWithTimeout() {
+    SolrQueryRequest req =
+        xmlQ(
+            "q",
+            "München",
+            "qf",
+            "ocr_text ocr_text_stored",
+            "hl.ocr.fl",
+            "ocr_text,ocr_text_stored",
+            "hl.ocr.threads",
+            "4",
+            "hl.ocr.timeAllowed",
+            "1");
+    assertQ(
+        req,
+        "//bool[@name='partialOcrHighlights']='true'",
+        "count(//lst[@name='ocrHighlighting']/lst)=count(//result/doc)");
+  }
+
+  @Test
+  public void testParallelHighlightingWithFailingLoader() throws Exception {
+    Path tmpDir = createTempDir();
+    Path ocrPath = Paths.get("src/test/resources/data/miniocr.xml");
+    Path firstPath = Files.copy(ocrPath, tmpDir.resolve("a.xml"));
+    Path secondPath = Files.copy(ocrPath, tmpDir.resolve("b.xml"));
+    assertU(adoc("ocr_text", firstPath.toString(), "id", "31341"));
+    assertU(adoc("ocr_text", secondPath.toString(), "id", "31342"));
+    assertU(commit());
+    // The metadata of the file is still cached, so opening it only fails once the group of the
+    // first file was submitted
+    Files.delete(secondPath);
+    ignoreException("b.xml");
+    try {
+      SolrQueryRequest req =
+          xmlQ(
+              "q",
+              "München",
+              "fq",
+              "id:(31341 31342)",
+              "hl.ocr.threads",
+              "4",
+              "hl.ocr.timeAllowed",
+              "60000");
+      Exception e = expectThrows(Exception.class, () -> h.query(req));
+      assertTrue(
+          Throwables.getCausalChain(e).stream().anyMatch(NoSuchFileException.class::isInstance));
+      // The timeouts of the request must not leak into the next request on the thread
+      assertNull(HighlightTimeout.get());
+      assertNull(SolrQueryTimeoutImpl.getTimeoutAtNs());
+    } finally {
+      unIgnoreException("b.xml");
+      assertU(delI("31341"));
+      assertU(delI("31342"));
+      assertU(commit());
+    }
+    assertQ(
+        xmlQ("q", "München", "hl.ocr.threads", "4"),
+        "not(//bool[@name='partialOcrHighlights'])",
+        "count(//lst[@name='ocrHighlighting']/lst[@name='31337']/lst[@name='ocr_text']/arr/lst)=3");
+  }
+
+  @Test
+  public void testSharedContent() {
+    Path ocrPath = Paths.get("src/test/resources/data/miniocr.xml").toAbsolutePath();
+    assertU(adoc("ocr_text", ocrPath.toString(), "id", "31338"));
+    assertU(commit());
+    for (String threads : new String[] {"1", "4"}) {
+      SolrQueryRequest req = xmlQ("q", "München", "hl.ocr.threads", threads);
+      assertQ(
+          req,
+          "count(//lst[@name='ocrHighlighting']/lst[@name='31337']/lst[@name='ocr_text']/arr/lst)=3",
+          "count(//lst[@name='ocrHighlighting']/lst[@name='31338']/lst[@name='ocr_text']/arr/lst)=3",
+          "//lst[@name='31338']/lst[@name='ocr_text']//str[@name='text'][1]/text()='Bayerische Staatsbibliothek <em>München</em>'");
+    }
+    assertU(delI("31338"));
+    assertU(commit());
+  }
+
+  @Test
+  public void testSharedContentAcrossFields() {
+    Path ocrPath = Paths.get("src/test/resources/data/miniocr.xml").toAbsolutePath();
+    assertU(
+        adoc("ocr_text", ocrPath.toString(), "ocr_text_alt", ocrPath.toString(), "id", "31339"));
+    assertU(commit());
+    SolrQueryRequest req =
+        xmlQ("q", "München", "qf", "ocr_text ocr_text_alt", "hl.ocr.fl", "ocr_text,ocr_text_alt");
+    assertQ(
+        req,
+        "count(//lst[@name='ocrHighlighting']/lst[@name='31339']/lst[@name='ocr_text']/arr/lst)=3",
+        "count(//lst[@name='ocrHighlighting']/lst[@name='31339']/lst[@name='ocr_text_alt']/arr/lst)=3",
+        "//lst[@name='31339']/lst[@name='ocr_text_alt']//str[@name='text'][1]/text()='Bayerische Staatsbibliothek <em>München</em>'");
+    assertU(delI("31339"));
+    assertU(commit());
+  }
+
+  @Test
+  public void testContentNotSharedAcrossDeclaredFormats() {
+    // The ALTO field comes first, its declared format must not be used for the MiniOCR field
+    Path ocrPath = Paths.get("src/test/resources/data/miniocr.xml").toAbsolutePath();
+    assertU(
+        adoc(
+            "ocr_text_alto",
+            ocrPath.toString(),
+            "ocr_text_miniocr",
+            ocrPath.toString(),
+            "id",
+            "31340"));
+    assertU(commit());
+    SolrQueryRequest req =
+        xmlQ(
+            "q",
+            "München",
+            "qf",
+            "ocr_text_alto ocr_text_miniocr",
+            "hl.ocr.fl",
+            "ocr_text_alto,ocr_text_miniocr");
+    assertQ(
+        req,
+        "count(//lst[@name='ocrHighlighting']/lst[@name='31340']/lst[@name='ocr_text_miniocr']/arr/lst)=3",
+        "//lst[@name='31340']/lst[@name='ocr_text_miniocr']//str[@name='text'][1]/text()='Bayerische Staatsbibliothek <em>München</em>'");
+    assertU(delI("31340"));
+    assertU(commit());
+  }
+
   @Test
   public void testStoredHighlighting() {
     SolrQueryRequest req =
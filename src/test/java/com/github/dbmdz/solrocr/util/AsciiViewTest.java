@@ -0,0 +1,59 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.iter.AsciiView;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class AsciiViewTest {
+  private static final String TEXT =
+      "  <div class=\"ocr_line\">Bäume</div><meta class=\"ocr_page\">";
+
+  private static AsciiView view() {
+    // Pad the buffer so the view does not start at the beginning of the buffer
+    byte[] bytes = ("xx" + TEXT + "yy").getBytes(StandardCharsets.UTF_8);
+    return AsciiView.wrap(ByteBuffer.wrap(bytes), 2, bytes.length - 4);
+  }
+
+  private static String asciiText() {
+    // What the view should look like, i.e. every non-ASCII byte replaced by a '?'
+    return TEXT.replace("ä", "??");
+  }
+
+  @Test
+  void testCharSequence() {
+    AsciiView view = view();
+    assertThat(view.length()).isEqualTo(asciiText().length());
+    assertThat(view.toString()).isEqualTo(asciiText());
+    assertThat(view.subSequence(3, 6).toString()).isEqualTo("div");
+    assertThat(view.charAt(view.length() - 1)).isEqualTo('>');
+  }
+
+  @Test
+  void testSearchesBehaveLikeString() {
+    AsciiView view = view();
+    String str = asciiText();
+    for (String needle : new String[] {"class", "ocr_page", "<", "notfound", ""}) {
+      byte[] n = AsciiView.needle(needle);
+      for (int from = -1; from <= str.length() + 1; from++) {
+        assertThat(view.indexOf(n, from)).isEqualTo(str.indexOf(needle, from));
+        assertThat(view.lastIndexOf(n, from)).isEqualTo(str.lastIndexOf(needle, from));
+        assertThat(view.startsWith(n, from)).isEqualTo(str.startsWith(needle, from));
+      }
+    }
+    for (int from = -1; from <= str.length() + 1; from++) {
+      assertThat(view.indexOf('<', from)).isEqualTo(str.indexOf('<', from));
+      assertThat(view.lastIndexOf('>', from)).isEqualTo(str.lastIndexOf('>', from));
+    }
+  }
+
+  @Test
+  void testBlank() {
+    AsciiView view = view();
+    assertThat(view.isBlank(0, 2)).isTrue();
+    assertThat(view.isBlank(0, 3)).isFalse();
+    assertThat(AsciiView.of("\t\n <").isBlank(0, 3)).isTrue();
+  }
+}
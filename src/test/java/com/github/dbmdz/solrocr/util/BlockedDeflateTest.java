@@ -0,0 +1,99 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.RegionCharIterator;
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlockedDeflateTest {
+  @TempDir Path tempDir;
+
+  private static String createContent() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      sb.append("<p id=\"p").append(i).append("\">Größe ").append(i).append("</p>\n");
+    }
+    return sb.toString();
+  }
+
+  private Path compress(String content, int blockSize) throws IOException {
+    Path plain = tempDir.resolve("plain.xml");
+    Files.write(plain, content.getBytes(StandardCharsets.UTF_8));
+    Path compressed = tempDir.resolve("compressed.xml.ocrz");
+    BlockedDeflate.compress(plain, compressed, blockSize);
+    return compressed;
+  }
+
+  @Test
+  void testRoundtrip() throws IOException {
+    String content = createContent();
+    Path compressed = compress(content, 1000);
+    assertThat(BlockedDeflate.isCompressed(compressed)).isTrue();
+    assertThat(Files.size(compressed)).isLessThan(content.length() / 3);
+    assertThat(BlockedDeflate.uncompressedSize(compressed))
+        .isEqualTo(content.getBytes(StandardCharsets.UTF_8).length);
+    try (InputStream is = BlockedDeflate.openStream(compressed)) {
+      assertThat(IOUtils.toString(is, StandardCharsets.UTF_8)).isEqualTo(content);
+    }
+  }
+
+  @Test
+  void testRandomAccess() throws IOException {
+    String content = createContent();
+    byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    Path compressed = compress(content, 1000);
+    DecompressingBackend backend = new DecompressingBackend(new MappedFileCache(4), 100_000);
+    try (FileContent fc = backend.open(compressed)) {
+      assertThat(fc.size()).isEqualTo(bytes.length);
+      assertThat(fc.get(0)).isEqualTo(bytes[0]);
+      assertThat(fc.get(bytes.length - 1)).isEqualTo(bytes[bytes.length - 1]);
+      assertThat(fc.get(12345)).isEqualTo(bytes[12345]);
+      // Window spanning multiple blocks
+      ByteBuffer window = fc.window(1990, 2020);
+      byte[] windowBytes = new byte[window.remaining()];
+      window.get(windowBytes);
+      assertThat(new String(windowBytes, StandardCharsets.UTF_8))
+          .isEqualTo(new String(bytes, 1990, 2020, StandardCharsets.UTF_8));
+      fc.get(0);
+    }
+    assertThat(backend.getHits()).isGreaterThan(0);
+    // Uncompressed files are handed off to the delegate
+    Path plain = tempDir.resolve("plain.xml");
+    assertThat(backend.size(plain)).isEqualTo(bytes.length);
+    try (FileContent fc = backend.open(plain)) {
+      assertThat(fc).isInstanceOf(MappedFileCache.MappedFile.class);
+    }
+  }
+
+  @Test
+  void testIteratorsUseUncompressedOffsets() throws IOException {
+    String content = createContent();
+    Path compressed = compress(content, 1000);
+    Path plain = tempDir.resolve("plain.xml");
+    try (FileBytesCharIterator it =
+            new FileBytesCharIterator(compressed, StandardCharsets.UTF_8, null);
+        FileBytesCharIterator plainIt =
+            new FileBytesCharIterator(plain, StandardCharsets.UTF_8, null)) {
+      assertThat(it.length()).isEqualTo(plainIt.length());
+      assertThat(it.subSequence(5000, 7000).toString())
+          .isEqualTo(plainIt.subSequence(5000, 7000).toString());
+    }
+    SourcePointer ptr = SourcePointer.parse(compressed + "[5000:7000]");
+    SourcePointer plainPtr = SourcePointer.parse(plain + "[5000:7000]");
+    try (RegionCharIterator it = new RegionCharIterator(ptr, StandardCharsets.UTF_8);
+        RegionCharIterator plainIt = new RegionCharIterator(plainPtr, StandardCharsets.UTF_8)) {
+      assertThat(it.subSequence(0, it.length()).toString())
+          .isEqualTo(plainIt.subSequence(0, plainIt.length()).toString());
+    }
+  }
+}
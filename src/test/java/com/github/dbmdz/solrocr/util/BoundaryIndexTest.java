@@ -0,0 +1,112 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.formats.OcrFormats;
+import com.github.dbmdz.solrocr.formats.alto.AltoFormat;
+import com.github.dbmdz.solrocr.formats.hocr.HocrFormat;
+import com.github.dbmdz.solrocr.iter.BreakLocator;
+import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.IndexedBreakLocator;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.iter.RegionCharIterator;
+import com.github.dbmdz.solrocr.model.OcrBlock;
+import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BoundaryIndexTest {
+  @TempDir Path tempDir;
+
+  private Path copyWithSidecar(String name) throws IOException {
+    Path p = tempDir.resolve(name);
+    Files.copy(Paths.get("src/test/resources/data").resolve(name), p);
+    assertThat(BoundaryIndex.hasSidecar(p)).isFalse();
+    assertThat(BoundaryIndex.write(p)).isTrue();
+    assertThat(BoundaryIndex.hasSidecar(p)).isTrue();
+    return p;
+  }
+
+  private static void assertSameBreaks(
+      IterableCharSequence text, OcrFormat format, OcrBlock... blockTypes) {
+    BoundaryIndex boundaries = BoundaryIndex.load(text, DecompressingBackend.getDefault());
+    assertThat(boundaries).isNotNull();
+    BreakLocator indexed = format.getBreakLocator(text, boundaries, blockTypes);
+    assertThat(indexed).isInstanceOf(IndexedBreakLocator.class);
+    for (int offset = 0; offset < text.length(); offset += 997) {
+      // Use fresh scanning locators, so the results are not influenced by their caches
+      assertThat(indexed.following(offset))
+          .isEqualTo(format.getBreakLocator(text, blockTypes).following(offset));
+      assertThat(indexed.preceding(offset))
+          .isEqualTo(format.getBreakLocator(text, blockTypes).preceding(offset));
+    }
+  }
+
+  @Test
+  void testHocr() throws IOException {
+    Path p = copyWithSidecar("multicolumn.hocr");
+    SourcePointer ptr = SourcePointer.parse(p.toString());
+    try (FileBytesCharIterator text = new FileBytesCharIterator(p, StandardCharsets.UTF_8, ptr)) {
+      assertSameBreaks(text, new HocrFormat(), OcrBlock.LINE);
+      assertSameBreaks(text, new HocrFormat(), OcrBlock.PARAGRAPH, OcrBlock.BLOCK, OcrBlock.PAGE);
+    }
+  }
+
+  @Test
+  void testAltoRegions() throws IOException {
+    Path p = copyWithSidecar("alto.xml");
+    int start;
+    try (FileBytesCharIterator full = new FileBytesCharIterator(p, StandardCharsets.UTF_8, null)) {
+      start = full.subSequence(0, full.length()).toString().indexOf("<TextBlock");
+    }
+    SourcePointer ptr = SourcePointer.parse(p + "[" + start + ":" + (start + 50000) + "]");
+    try (RegionCharIterator text = new RegionCharIterator(ptr, StandardCharsets.UTF_8)) {
+      assertSameBreaks(text, new AltoFormat(), OcrBlock.LINE);
+      assertSameBreaks(text, new AltoFormat(), OcrBlock.BLOCK, OcrBlock.PAGE);
+    }
+  }
+
+  @Test
+  void testCachesDetectedFormat() throws IOException {
+    Path p = copyWithSidecar("alto.xml");
+    assertThat(OcrFormats.getDetectedFormat(p)).isInstanceOf(AltoFormat.class);
+    // A declared format is used as-is and not remembered as detected
+    Path q = tempDir.resolve("alto_declared.xml");
+    Files.copy(p, q);
+    assertThat(BoundaryIndex.write(q, new AltoFormat())).isTrue();
+    assertThat(OcrFormats.getDetectedFormat(q)).isNull();
+  }
+
+  @Test
+  void testIgnoresOutdatedSidecars() throws IOException {
+    Path p = copyWithSidecar("alto.xml");
+    Files.setLastModifiedTime(
+        p, FileTime.fromMillis(Files.getLastModifiedTime(p).toMillis() + 10000));
+    assertThat(BoundaryIndex.hasSidecar(p)).isFalse();
+  }
+
+  @Test
+  void testIgnoresSidecarsAfterMtimePreservingCopy() throws IOException {
+    Path p = copyWithSidecar("alto.xml");
+    FileTime mtime = Files.getLastModifiedTime(p);
+    // Replace the file with a different one, but keep the modification time, like `cp -p` does
+    Files.copy(
+        Paths.get("src/test/resources/data/alto_multi/1865-05-24_01-00001.xml"),
+        p,
+        StandardCopyOption.REPLACE_EXISTING);
+    Files.setLastModifiedTime(p, mtime);
+    assertThat(BoundaryIndex.hasSidecar(p)).isFalse();
+    SourcePointer ptr = SourcePointer.parse(p.toString());
+    try (FileBytesCharIterator text = new FileBytesCharIterator(p, StandardCharsets.UTF_8, ptr)) {
+      assertThat(BoundaryIndex.load(text, DecompressingBackend.getDefault())).isNull();
+    }
+  }
+}
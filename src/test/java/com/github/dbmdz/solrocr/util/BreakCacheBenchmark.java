@@ -0,0 +1,115 @@
+package com.github.dbmdz.solrocr.util;
+
+import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.iter.TagBreakLocator;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeMap;
+import com.google.common.collect.TreeRangeMap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the lookup performance of the break cache of the {@link
+ * com.github.dbmdz.solrocr.iter.BaseBreakLocator} with the Guava {@link RangeMap} caches it used
+ * before.
+ *
+ * <p>All word breaks of the file are located up front, so both caches are complete and the cost of
+ * scanning the markup is factored out. Then the same random {@code following}/{@code preceding}
+ * queries are run against both caches, for a few rounds to let the JIT warm up.
+ *
+ * <p>Not run as part of the test suite, run it from the IDE or with:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) \
+ *   com.github.dbmdz.solrocr.util.BreakCacheBenchmark [ocrFile] [numQueries] [numRounds]
+ * </pre>
+ */
+public class BreakCacheBenchmark {
+
+  /** Break cache as it was kept by the locators before, with one map per lookup direction. */
+  @SuppressWarnings("UnstableApiUsage")
+  private static class RangeMapBreakCache {
+    private final RangeMap<Integer, Integer> forwardCache = TreeRangeMap.create();
+    private final RangeMap<Integer, Integer> backwardCache = TreeRangeMap.create();
+
+    RangeMapBreakCache(int[] breaks, int beginIndex) {
+      int preceding = beginIndex;
+      for (int following : breaks) {
+        if (following <= preceding) {
+          continue;
+        }
+        forwardCache.put(Range.closedOpen(preceding, following), following);
+        backwardCache.put(Range.openClosed(preceding, following), preceding);
+        preceding = following;
+      }
+    }
+
+    int following(int offset) {
+      Integer cached = forwardCache.get(offset);
+      return cached == null ? Integer.MIN_VALUE : cached;
+    }
+
+    int preceding(int offset) {
+      Integer cached = backwardCache.get(offset);
+      return cached == null ? Integer.MIN_VALUE : cached;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path ocrPath = Paths.get(args.length > 0 ? args[0] : "src/test/resources/data/miniocr.xml");
+    int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+    int numRounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    IterableCharSequence seq = new FileBytesCharIterator(ocrPath, StandardCharsets.UTF_8, null);
+    TagBreakLocator locator = new TagBreakLocator(seq, "w");
+    // Fills the locator's cache with all breaks in the text
+    int[] breaks = locator.locateAll();
+    RangeMapBreakCache rangeMapCache = new RangeMapBreakCache(breaks, seq.getBeginIndex());
+
+    int lastBreak = breaks[breaks.length - 1];
+    int[] offsets = new Random(42).ints(numQueries, seq.getBeginIndex(), lastBreak).toArray();
+    System.out.printf(
+        Locale.US,
+        "%d breaks in %d chars, %d following and %d preceding queries per round%n",
+        breaks.length,
+        seq.length(),
+        numQueries,
+        numQueries);
+
+    for (int round = 1; round <= numRounds; round++) {
+      long checksum = 0;
+      long start = System.nanoTime();
+      for (int offset : offsets) {
+        checksum += locator.following(offset);
+        checksum += locator.preceding(offset + 1);
+      }
+      long breakCacheNanos = System.nanoTime() - start;
+
+      long rangeMapChecksum = 0;
+      start = System.nanoTime();
+      for (int offset : offsets) {
+        rangeMapChecksum += rangeMapCache.following(offset);
+        rangeMapChecksum += rangeMapCache.preceding(offset + 1);
+      }
+      long rangeMapNanos = System.nanoTime() - start;
+
+      if (checksum != rangeMapChecksum) {
+        throw new IllegalStateException("Caches returned different breaks");
+      }
+      System.out.printf(
+          Locale.US,
+          "round %2d: BreakCache %7.1f ms (%5.1f ns/query), RangeMap %7.1f ms (%5.1f ns/query)%n",
+          round,
+          breakCacheNanos / 1e6,
+          breakCacheNanos / (2.0 * numQueries),
+          rangeMapNanos / 1e6,
+          rangeMapNanos / (2.0 * numQueries));
+    }
+  }
+}
@@ -3,17 +3,22 @@ package com.github.dbmdz.solrocr.util;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.github.dbmdz.solrocr.formats.hocr.HocrClassBreakLocator;
+import com.github.dbmdz.solrocr.formats.hocr.HocrFormat;
 import com.github.dbmdz.solrocr.iter.BreakLocator;
 import com.github.dbmdz.solrocr.iter.ContextBreakLocator;
 import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.IndexedBreakLocator;
 import com.github.dbmdz.solrocr.iter.IterableCharSequence;
 import com.github.dbmdz.solrocr.iter.TagBreakLocator;
+import com.github.dbmdz.solrocr.model.OcrBlock;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Random;
+import java.util.function.Supplier;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.charfilter.HTMLStripCharFilter;
@@ -114,4 +119,67 @@ class ContextBreakLocatorTest {
     snippet = seq.subSequence(start, end).toString();
     assertThat(StringUtils.countMatches(snippet, "<TextLine")).isEqualTo(1 + 2);
   }
+
+  /** Answers every lookup with a fresh locator, so only single breaks are located at a time. */
+  private static class SingleStepLocator implements BreakLocator {
+    private final Supplier<BreakLocator> factory;
+
+    SingleStepLocator(Supplier<BreakLocator> factory) {
+      this.factory = factory;
+    }
+
+    @Override
+    public int following(int offset) {
+      return factory.get().following(offset);
+    }
+
+    @Override
+    public int preceding(int offset) {
+      return factory.get().preceding(offset);
+    }
+
+    @Override
+    public IterableCharSequence getText() {
+      return factory.get().getText();
+    }
+  }
+
+  private static void assertSameNthBreaks(
+      BreakLocator locator, BreakLocator limitLocator, Supplier<BreakLocator> factory) {
+    BreakLocator expected = new SingleStepLocator(factory);
+    int length = locator.getText().length();
+    Random rand = new Random(23);
+    for (int i = 0; i < 200; i++) {
+      int offset = rand.nextInt(length);
+      int n = 1 + rand.nextInt(12);
+      int limit = limitLocator.following(offset);
+      assertThat(locator.following(offset, n, limit))
+          .isEqualTo(expected.following(offset, n, limit));
+      limit = limitLocator.preceding(offset);
+      assertThat(locator.preceding(offset, n, limit))
+          .isEqualTo(expected.preceding(offset, n, limit));
+    }
+  }
+
+  @Test
+  void testNthBreakLookups() throws IOException {
+    IterableCharSequence seq = new FileBytesCharIterator(utf8Path, StandardCharsets.UTF_8, null);
+    assertSameNthBreaks(
+        new TagBreakLocator(seq, "l"),
+        new TagBreakLocator(seq, "p"),
+        () -> new TagBreakLocator(seq, "l"));
+    assertSameNthBreaks(
+        new IndexedBreakLocator(seq, new TagBreakLocator(seq, "w").locateAll()),
+        new TagBreakLocator(seq, "b"),
+        () -> new TagBreakLocator(seq, "w"));
+
+    IterableCharSequence hocr =
+        new FileBytesCharIterator(
+            Paths.get("src/test/resources/data/multicolumn.hocr"), StandardCharsets.UTF_8, null);
+    HocrFormat format = new HocrFormat();
+    assertSameNthBreaks(
+        format.getBreakLocator(hocr, OcrBlock.LINE),
+        format.getBreakLocator(hocr, OcrBlock.BLOCK),
+        () -> format.getBreakLocator(hocr, OcrBlock.LINE));
+  }
 }
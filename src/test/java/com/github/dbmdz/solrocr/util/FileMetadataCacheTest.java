@@ -0,0 +1,62 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.github.dbmdz.solrocr.util.FileMetadataCache.FileMetadata;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileMetadataCacheTest {
+  @TempDir Path tempDir;
+
+  @Test
+  void testCachesMetadata() throws IOException {
+    FileMetadataCache cache = new FileMetadataCache(16, 60_000);
+    Path p = tempDir.resolve("a.xml");
+    Files.write(p, new byte[100]);
+    assertThat(cache.size(p)).isEqualTo(100);
+    Files.write(p, new byte[200]);
+    // Still cached
+    assertThat(cache.size(p)).isEqualTo(100);
+    assertThat(cache.getHits()).isEqualTo(1);
+    cache.invalidate(p);
+    assertThat(cache.size(p)).isEqualTo(200);
+    assertThat(cache.getMisses()).isEqualTo(2);
+  }
+
+  @Test
+  void testCachesMissingFiles() throws IOException {
+    FileMetadataCache cache = new FileMetadataCache(16, 60_000);
+    Path p = tempDir.resolve("missing.xml");
+    FileMetadata meta = cache.get(p);
+    assertThat(meta.exists).isFalse();
+    assertThatThrownBy(() -> cache.size(p)).isInstanceOf(NoSuchFileException.class);
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(cache.getHits()).isEqualTo(1);
+  }
+
+  @Test
+  void testExpiresEntries() throws Exception {
+    FileMetadataCache cache = new FileMetadataCache(16, 1);
+    Path p = tempDir.resolve("a.xml");
+    Files.write(p, new byte[100]);
+    assertThat(cache.size(p)).isEqualTo(100);
+    Files.write(p, new byte[200]);
+    Thread.sleep(5);
+    assertThat(cache.size(p)).isEqualTo(200);
+  }
+
+  @Test
+  void testIsBounded() throws IOException {
+    FileMetadataCache cache = new FileMetadataCache(2, 60_000);
+    for (int i = 0; i < 5; i++) {
+      cache.get(tempDir.resolve("file" + i));
+    }
+    assertThat(cache.getNumEntries()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,77 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.formats.hocr.HocrFormat;
+import com.github.dbmdz.solrocr.iter.BreakLocator;
+import com.github.dbmdz.solrocr.iter.ContextBreakLocator;
+import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.ForwardBreakLocator;
+import com.github.dbmdz.solrocr.iter.IndexedBreakLocator;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.iter.TagBreakLocator;
+import com.github.dbmdz.solrocr.model.OcrBlock;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ForwardBreakLocatorTest {
+  private static int[] ascendingOffsets(int length, int num) {
+    int[] offsets = new Random(17).ints(num, 0, length).sorted().toArray();
+    // Sprinkle in some lookups that go back a bit
+    for (int i = 3; i < offsets.length; i += 7) {
+      offsets[i] = Math.max(0, offsets[i - 1] - 300);
+    }
+    return offsets;
+  }
+
+  @Test
+  void testMatchesRegularLookups() throws IOException {
+    IterableCharSequence seq =
+        new FileBytesCharIterator(
+            Paths.get("src/test/resources/data/miniocr.xml"), StandardCharsets.UTF_8, null);
+    // Small window, so breaks are evicted from it
+    BreakLocator forward = new ForwardBreakLocator(new TagBreakLocator(seq, "l"), 64);
+    BreakLocator regular = new TagBreakLocator(seq, "l");
+    for (int offset : ascendingOffsets(seq.length(), 500)) {
+      assertThat(forward.following(offset)).isEqualTo(regular.following(offset));
+      assertThat(forward.preceding(offset)).isEqualTo(regular.preceding(offset));
+    }
+    // Lookups before the window are delegated to the wrapped locator
+    assertThat(forward.following(1000)).isEqualTo(regular.following(1000));
+    assertThat(forward.preceding(1000)).isEqualTo(regular.preceding(1000));
+
+    BreakLocator forwardIndexed =
+        new ForwardBreakLocator(
+            new IndexedBreakLocator(seq, new TagBreakLocator(seq, "w").locateAll()), 64);
+    regular = new TagBreakLocator(seq, "w");
+    for (int offset : ascendingOffsets(seq.length(), 200)) {
+      assertThat(forwardIndexed.following(offset)).isEqualTo(regular.following(offset));
+      assertThat(forwardIndexed.preceding(offset)).isEqualTo(regular.preceding(offset));
+    }
+  }
+
+  @Test
+  void testContexts() throws IOException {
+    IterableCharSequence seq =
+        new FileBytesCharIterator(
+            Paths.get("src/test/resources/data/multicolumn.hocr"), StandardCharsets.UTF_8, null);
+    HocrFormat format = new HocrFormat();
+    BreakLocator forward =
+        new ContextBreakLocator(
+            new ForwardBreakLocator(format.getBreakLocator(seq, OcrBlock.LINE), 12),
+            new ForwardBreakLocator(format.getBreakLocator(seq, OcrBlock.BLOCK), 0),
+            2);
+    BreakLocator regular =
+        new ContextBreakLocator(
+            format.getBreakLocator(seq, OcrBlock.LINE),
+            format.getBreakLocator(seq, OcrBlock.BLOCK),
+            2);
+    for (int offset : ascendingOffsets(seq.length(), 300)) {
+      assertThat(forward.preceding(offset + 1)).isEqualTo(regular.preceding(offset + 1));
+      assertThat(forward.following(offset)).isEqualTo(regular.following(offset));
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.util.MappedFileCache.MappedFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedFileCacheTest {
+  @TempDir Path tempDir;
+
+  private Path createFile(String name, String content) throws IOException {
+    Path p = tempDir.resolve(name);
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    return p;
+  }
+
+  @Test
+  void testReusesMappings() throws IOException {
+    MappedFileCache cache = new MappedFileCache(4);
+    Path p = createFile("a.xml", "<alto/>");
+    try (MappedFile first = cache.acquire(p);
+        MappedFile second = cache.acquire(p)) {
+      assertThat(first.size()).isEqualTo(7);
+      assertThat(second.get(1)).isEqualTo((byte) 'a');
+    }
+    assertThat(cache.getMisses()).isEqualTo(1);
+    assertThat(cache.getHits()).isEqualTo(1);
+    assertThat(cache.getNumMappings()).isEqualTo(1);
+  }
+
+  @Test
+  void testEvictsLeastRecentlyUsed() throws IOException {
+    MappedFileCache cache = new MappedFileCache(2);
+    Path a = createFile("a.xml", "a");
+    Path b = createFile("b.xml", "b");
+    Path c = createFile("c.xml", "c");
+    cache.acquire(a).close();
+    cache.acquire(b).close();
+    cache.acquire(a).close();
+    cache.acquire(c).close();
+    assertThat(cache.getNumMappings()).isEqualTo(2);
+    assertThat(cache.getEvictions()).isEqualTo(1);
+
+    // `b` was evicted, `a` should still be cached
+    cache.acquire(a).close();
+    assertThat(cache.getHits()).isEqualTo(2);
+    cache.acquire(b).close();
+    assertThat(cache.getMisses()).isEqualTo(4);
+  }
+
+  @Test
+  void testEvictedMappingStaysUsable() throws IOException {
+    MappedFileCache cache = new MappedFileCache(1);
+    Path a = createFile("a.xml", "aaaa");
+    Path b = createFile("b.xml", "bbbb");
+    try (MappedFile inUse = cache.acquire(a)) {
+      cache.acquire(b).close();
+      assertThat(cache.getEvictions()).isEqualTo(1);
+      assertThat(inUse.get(3)).isEqualTo((byte) 'a');
+    }
+  }
+
+  @Test
+  void testRemapsChangedFiles() throws IOException {
+    MappedFileCache cache = new MappedFileCache(4);
+    Path p = createFile("a.xml", "<alto/>");
+    cache.acquire(p).close();
+    Files.write(p, "<alto></alto>".getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+    try (MappedFile mapping = cache.acquire(p)) {
+      assertThat(mapping.size()).isEqualTo(13);
+    }
+    assertThat(cache.getMisses()).isEqualTo(2);
+    assertThat(cache.getNumMappings()).isEqualTo(1);
+  }
+
+  @Test
+  void testSegmentedMapping() throws IOException {
+    // Use tiny 16 byte segments to simulate a file that is larger than a single mapping
+    MappedFileCache cache = new MappedFileCache(4, 4);
+    String content = "<alto><Page ID=\"p1\"/><Page ID=\"p2\"/></alto>";
+    Path p = createFile("a.xml", content);
+    try (MappedFile mapping = cache.acquire(p)) {
+      assertThat(mapping.size()).isEqualTo(content.length());
+      for (int i = 0; i < content.length(); i++) {
+        assertThat((char) mapping.get(i)).isEqualTo(content.charAt(i));
+      }
+      // Inside of a single segment
+      assertWindow(mapping.window(16, 16), content.substring(16, 32));
+      // Across multiple segments
+      assertWindow(mapping.window(10, 30), content.substring(10, 40));
+      assertWindow(mapping.window(0, content.length()), content);
+    }
+  }
+
+  @Test
+  void testMapsRanges() throws IOException {
+    MappedFileCache cache = new MappedFileCache(4);
+    Path p = createFile("a.xml", "<alto><Page/><Page/></alto>");
+    try (MappedFile full = cache.acquire(p);
+        MappedFile range = cache.acquire(p, 6, 7);
+        MappedFile tail = cache.acquire(p, 20, -1)) {
+      assertThat(range.getOffset()).isEqualTo(6);
+      assertWindow(range.window(0, (int) range.size()), "<Page/>");
+      assertWindow(tail.window(0, (int) tail.size()), "</alto>");
+      assertThat(full.size()).isEqualTo(27);
+    }
+    // Ranges of the same file version don't evict each other
+    assertThat(cache.getNumMappings()).isEqualTo(3);
+    assertThat(cache.getEvictions()).isEqualTo(0);
+  }
+
+  private static void assertWindow(ByteBuffer window, String expected) {
+    byte[] bytes = new byte[window.remaining()];
+    window.get(bytes);
+    assertThat(new String(bytes, StandardCharsets.UTF_8)).isEqualTo(expected);
+  }
+}
@@ -15,6 +15,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 class MultiFileBytesCharIteratorTest {
   private static final Pattern OFFSET_PAT = Pattern.compile("\\s(.+?)⚑(\\d+)");
@@ -56,6 +57,25 @@ class MultiFileBytesCharIteratorTest {
     assertThat(utf8It.length()).isEqualTo(Files.size(utf8CompletePath));
   }
 
+  @Test
+  public void testUsesCurrentFileSizes(@TempDir Path tempDir) throws IOException {
+    Path first = tempDir.resolve("first.txt");
+    Path second = tempDir.resolve("second.txt");
+    Files.write(first, "abc".getBytes(StandardCharsets.UTF_8));
+    Files.write(second, "xyz".getBytes(StandardCharsets.UTF_8));
+    // Cache the metadata of the original version, then rewrite the file within the TTL
+    assertThat(FileMetadataCache.getInstance().size(first)).isEqualTo(3);
+    Files.write(first, "abcdef".getBytes(StandardCharsets.UTF_8));
+    try (MultiFileBytesCharIterator it =
+        new MultiFileBytesCharIterator(
+            ImmutableList.of(first, second), StandardCharsets.UTF_8, null)) {
+      assertThat(it.length()).isEqualTo(9);
+      assertThat(it.subSequence(0, 9).toString()).isEqualTo("abcdefxyz");
+    }
+    // Opening the file updated the cached metadata
+    assertThat(FileMetadataCache.getInstance().size(first)).isEqualTo(6);
+  }
+
   @Test
   public void testFirst() {
     // TODO: Test with file that has BOM
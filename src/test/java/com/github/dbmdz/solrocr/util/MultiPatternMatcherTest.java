@@ -0,0 +1,68 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.iter.AsciiView;
+import com.github.dbmdz.solrocr.iter.MultiPatternMatcher;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class MultiPatternMatcherTest {
+  private static final List<String> PATTERNS =
+      ImmutableList.of("ocr_line", "ocrx_line", "ocr_textfloat", "line", "x_l");
+
+  private static int expectedIndexOf(String haystack, int from) {
+    int best = -1;
+    for (String p : PATTERNS) {
+      int idx = haystack.indexOf(p, from);
+      if (idx >= 0 && (best < 0 || idx < best)) {
+        best = idx;
+      }
+    }
+    return best;
+  }
+
+  private static int expectedLastIndexOf(String haystack, int from) {
+    int best = -1;
+    for (String p : PATTERNS) {
+      best = Math.max(best, haystack.lastIndexOf(p, from));
+    }
+    return best;
+  }
+
+  @Test
+  void testSingleClass() {
+    MultiPatternMatcher matcher = MultiPatternMatcher.of(ImmutableList.of("<String"));
+    AsciiView view = AsciiView.of("<TextLine><String CONTENT=\"a\"/><String CONTENT=\"b\"/>");
+    assertThat(matcher.indexIn(view, 0)).isEqualTo(10);
+    assertThat(matcher.indexIn(view, 11)).isEqualTo(31);
+    assertThat(matcher.lastIndexIn(view, view.length())).isEqualTo(31);
+    assertThat(matcher.lastIndexIn(view, 30)).isEqualTo(10);
+    assertThat(matcher.lastIndexIn(view, 9)).isEqualTo(-1);
+  }
+
+  @Test
+  void testEquivalentToStringSearch() {
+    MultiPatternMatcher matcher = MultiPatternMatcher.of(PATTERNS);
+    String[] fragments = {"ocr", "_", "x", "line", "l", "<span class='", "'>", "textfloat", " "};
+    Random rand = new Random(42);
+    for (int run = 0; run < 200; run++) {
+      StringBuilder sb = new StringBuilder();
+      while (sb.length() < 80) {
+        sb.append(fragments[rand.nextInt(fragments.length)]);
+      }
+      String haystack = sb.toString();
+      AsciiView view = AsciiView.of(haystack);
+      for (int from = -2; from <= haystack.length() + 2; from++) {
+        assertThat(matcher.indexIn(view, from))
+            .as("indexIn(%s, %d)", haystack, from)
+            .isEqualTo(expectedIndexOf(haystack, from));
+        assertThat(matcher.lastIndexIn(view, from))
+            .as("lastIndexIn(%s, %d)", haystack, from)
+            .isEqualTo(expectedLastIndexOf(haystack, from));
+      }
+    }
+  }
+}
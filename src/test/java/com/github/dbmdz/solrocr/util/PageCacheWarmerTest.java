@@ -0,0 +1,73 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PageCacheWarmerTest {
+  @TempDir Path tempDir;
+
+  private PageCacheWarmer warmer;
+
+  @AfterEach
+  void shutdown() {
+    if (warmer != null) {
+      warmer.shutdown();
+    }
+  }
+
+  private Path createFile(String name, int size) throws IOException {
+    Path p = tempDir.resolve(name);
+    Files.write(p, new byte[size]);
+    return p;
+  }
+
+  private void awaitIdle() throws InterruptedException {
+    for (int i = 0; i < 500 && warmer.getBytesInFlight() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(warmer.getBytesInFlight()).isZero();
+  }
+
+  @Test
+  void testPreloadsCompleteSources() throws Exception {
+    warmer = new PageCacheWarmer(new MappedFileCache(16), 8192, 2, 0, 1 << 20);
+    Path a = createFile("a.xml", 10000);
+    SourcePointer ptr = SourcePointer.parse(a.toString());
+    warmer.preload(ptr, System.nanoTime());
+    awaitIdle();
+    assertThat(warmer.getBytesRead()).isEqualTo(10000);
+    warmer.cancelPreload(ptr);
+    assertThat(warmer.getNumWarmerFirst()).isEqualTo(1);
+    assertThat(warmer.getNumQueryFirst()).isZero();
+  }
+
+  @Test
+  void testPreloadsWindowsAroundMatches() throws Exception {
+    warmer = new PageCacheWarmer(new MappedFileCache(16), 8192, 1, 1000, 1 << 20);
+    Path a = createFile("a.xml", 100000);
+    SourcePointer ptr = SourcePointer.parse(a.toString());
+    warmer.preloadMatches(ptr, new int[] {500, 1200, 50000}, System.nanoTime());
+    awaitIdle();
+    // [0, 2200) and [49000, 51000)
+    assertThat(warmer.getBytesRead()).isEqualTo(2200 + 2000);
+  }
+
+  @Test
+  void testDropsJobsExceedingBudget() throws Exception {
+    warmer = new PageCacheWarmer(new MappedFileCache(16), 8192, 1, 0, 15000);
+    Path a = createFile("a.xml", 10000);
+    Path b = createFile("b.xml", 10000);
+    long requestStart = System.nanoTime();
+    warmer.preload(SourcePointer.parse(a.toString()), requestStart);
+    warmer.preload(SourcePointer.parse(b.toString()), requestStart);
+    awaitIdle();
+    assertThat(warmer.getNumDropped() + warmer.getBytesRead() / 10000).isEqualTo(2);
+  }
+}
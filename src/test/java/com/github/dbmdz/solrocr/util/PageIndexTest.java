@@ -0,0 +1,254 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.formats.miniocr.MiniOcrFormat;
+import com.github.dbmdz.solrocr.iter.BreakLocator;
+import com.github.dbmdz.solrocr.iter.FileBytesCharIterator;
+import com.github.dbmdz.solrocr.iter.IterableCharSequence;
+import com.github.dbmdz.solrocr.iter.TagBreakLocator;
+import com.github.dbmdz.solrocr.lucene.OcrPageCache;
+import com.github.dbmdz.solrocr.model.OcrBlock;
+import com.github.dbmdz.solrocr.model.OcrFormat;
+import com.github.dbmdz.solrocr.model.OcrPage;
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import com.github.dbmdz.solrocr.util.PageIndex.PageRecord;
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PageIndexTest {
+  private final OcrFormat format = new MiniOcrFormat();
+
+  @TempDir Path tempDir;
+
+  /** Locate and parse the pages in the file by scanning. */
+  private List<PageRecord> scanPages(Path p) throws IOException {
+    List<PageRecord> records = new ArrayList<>();
+    try (FileBytesCharIterator text = new FileBytesCharIterator(p, StandardCharsets.UTF_8, null)) {
+      BreakLocator pageLocator = format.getBreakLocator(text, OcrBlock.PAGE);
+      int start = pageLocator.following(-1);
+      while (start >= 0 && start < text.length()) {
+        int end = pageLocator.following(start);
+        OcrPage page =
+            format.parsePageFragment(
+                text.subSequence(start, Math.min(start + 512, text.length())).toString());
+        records.add(new PageRecord(page.id, start, end, page.dimensions));
+        start = end;
+      }
+    }
+    return records;
+  }
+
+  private Path copyWithPageIndex(String name) throws IOException {
+    Path p = tempDir.resolve(name);
+    Files.copy(Paths.get("src/test/resources/data").resolve(name), p);
+    assertThat(PageIndex.hasSidecar(p, PageIndex.DEFAULT_SIDECAR_SUFFIX)).isFalse();
+    assertThat(PageIndex.write(p, PageIndex.DEFAULT_SIDECAR_SUFFIX)).isTrue();
+    assertThat(PageIndex.hasSidecar(p, PageIndex.DEFAULT_SIDECAR_SUFFIX)).isTrue();
+    return p;
+  }
+
+  @Test
+  void testReadWrite() throws Exception {
+    Path p = copyWithPageIndex("miniocr.xml");
+    List<PageRecord> records = scanPages(p);
+    try (PageIndex idx =
+        new PageIndex(PageIndex.getSidecarPath(p, PageIndex.DEFAULT_SIDECAR_SUFFIX))) {
+      assertThat(idx.getPages()).isEqualTo(records);
+      for (PageRecord record : records) {
+        assertThat(idx.locatePage(record.getStartOffset())).contains(record);
+        assertThat(idx.locatePage(record.getEndOffset() - 1)).contains(record);
+      }
+      assertThat(idx.locatePage(0)).isEmpty();
+      assertThat(idx.locatePage(Long.MAX_VALUE)).isEmpty();
+      for (int i = 0; i < records.size(); i++) {
+        assertThat(idx.findRecord(records.get(i).getId())).isEqualTo(i);
+      }
+      assertThat(idx.findRecord("doesnotexist")).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  void testLargeVolumes() throws IOException {
+    // More pages than fit into a u16 and offsets beyond 4 GiB
+    int numPages = 70_000;
+    long pageLength = 100_000;
+    List<PageRecord> records = new ArrayList<>(numPages);
+    for (int i = 0; i < numPages; i++) {
+      long start = i * pageLength;
+      records.add(
+          new PageRecord(
+              "page_" + i,
+              start,
+              start + pageLength,
+              new Dimension(2000, 3000),
+              new long[] {start + 10, start + 50_000}));
+    }
+    Path idxPath = tempDir.resolve("large.ocridx");
+    PageIndex.writeIndex(records, idxPath);
+    try (PageIndex idx = new PageIndex(idxPath)) {
+      assertThat(idx.getNumRecords()).isEqualTo(numPages);
+      PageRecord last = records.get(numPages - 1);
+      assertThat(last.getEndOffset()).isGreaterThan(0xFFFFFFFFL);
+      assertThat(idx.getRecord(numPages - 1)).isEqualTo(last);
+      assertThat(idx.getDimensions(numPages - 1)).isEqualTo(new Dimension(2000, 3000));
+      assertThat(idx.getLineStarts(numPages - 1)).containsExactly(last.getLineStarts());
+      assertThat(idx.locatePage(last.getStartOffset() + 20_000)).contains(last);
+      assertThat(idx.findRecord("page_65536")).isEqualTo(65536);
+    }
+  }
+
+  @Test
+  void testReadsVersion1() throws IOException {
+    // Header, two pages with length, identifier and dimensions, identifiers
+    ByteBuffer buf = ByteBuffer.allocate(10 + 2 * 16 + 8);
+    buf.put("OCRIDX".getBytes(StandardCharsets.UTF_8));
+    buf.put((byte) 1);
+    buf.put((byte) 0x07);
+    buf.putShort((short) 2);
+    buf.putInt(100).putInt(400).putInt(42).putShort((short) 800).putShort((short) 1200);
+    buf.putInt(500).putInt(300).putInt(46).putShort((short) 0).putShort((short) 0);
+    buf.put("p_1\0p_2\0".getBytes(StandardCharsets.UTF_8));
+    Path idxPath = tempDir.resolve("v1.ocridx");
+    Files.write(idxPath, buf.array());
+    try (PageIndex idx = new PageIndex(idxPath)) {
+      assertThat(idx.getPages())
+          .containsExactly(
+              new PageRecord("p_1", 100, 500, new Dimension(800, 1200)),
+              new PageRecord("p_2", 500, 800, null));
+      assertThat(idx.getDimensions(0)).isEqualTo(new Dimension(800, 1200));
+      assertThat(idx.getDimensions(1)).isNull();
+      assertThat(idx.hasLineStarts()).isFalse();
+      assertThat(idx.findRecord("p_2")).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void testLineStarts() throws IOException {
+    Path p = copyWithPageIndex("miniocr.xml");
+    SourcePointer ptr = SourcePointer.parse(p.toString());
+    try (FileBytesCharIterator text = new FileBytesCharIterator(p, StandardCharsets.UTF_8, ptr)) {
+      DocumentPageIndex pageIndex =
+          DocumentPageIndex.load(
+              text, DecompressingBackend.getDefault(), PageIndex.DEFAULT_SIDECAR_SUFFIX);
+      assertThat(pageIndex).isNotNull();
+      BreakLocator indexed = pageIndex.getLineBreakLocator();
+      assertThat(indexed).isNotNull();
+      BreakLocator scanning = format.getBreakLocator(text, OcrBlock.LINE);
+      for (int offset = 0; offset < text.length(); offset += 997) {
+        assertThat(indexed.following(offset)).isEqualTo(scanning.following(offset));
+        assertThat(indexed.preceding(offset)).isEqualTo(scanning.preceding(offset));
+      }
+    }
+  }
+
+  @Test
+  void testCachedInstances() throws IOException {
+    Path p = copyWithPageIndex("miniocr.xml");
+    Path idxPath = PageIndex.getSidecarPath(p, PageIndex.DEFAULT_SIDECAR_SUFFIX);
+    List<PageRecord> records = scanPages(p);
+    PageIndex idx = PageIndex.open(idxPath);
+    assertThat(PageIndex.open(idxPath)).isSameAs(idx);
+    // Rewriting the index replaces the cached instance
+    PageIndex.writeIndex(records.subList(0, 3), idxPath);
+    PageIndex rewritten = PageIndex.open(idxPath);
+    assertThat(rewritten).isNotSameAs(idx);
+    assertThat(rewritten.getPages()).isEqualTo(records.subList(0, 3));
+  }
+
+  @Test
+  void testCommandLine() throws Exception {
+    Path dir = Files.createDirectory(tempDir.resolve("corpus"));
+    Path p = dir.resolve("miniocr.xml");
+    Files.copy(Paths.get("src/test/resources/data/miniocr.xml"), p);
+    PageIndex.main(new String[] {"-j", "2", dir.toString()});
+    assertThat(PageIndex.hasSidecar(p, PageIndex.DEFAULT_SIDECAR_SUFFIX)).isTrue();
+    try (PageIndex idx =
+        new PageIndex(PageIndex.getSidecarPath(p, PageIndex.DEFAULT_SIDECAR_SUFFIX))) {
+      assertThat(idx.getPages()).isEqualTo(scanPages(p));
+    }
+  }
+
+  @Test
+  void testMatchesScanning() throws IOException {
+    Path p = copyWithPageIndex("miniocr.xml");
+    SourcePointer ptr = SourcePointer.parse(p.toString());
+    try (FileBytesCharIterator text = new FileBytesCharIterator(p, StandardCharsets.UTF_8, ptr)) {
+      DocumentPageIndex pageIndex =
+          DocumentPageIndex.load(
+              text, DecompressingBackend.getDefault(), PageIndex.DEFAULT_SIDECAR_SUFFIX);
+      assertThat(pageIndex).isNotNull();
+      assertThat(pageIndex.getPageStarts())
+          .containsExactly(new TagBreakLocator(text, "p").locateAll());
+      OcrPageCache indexed = new OcrPageCache(pageIndex);
+      OcrPageCache scanning = newScanningCache(text);
+      for (int offset = pageIndex.getPageStarts()[0] + 1; offset < text.length(); offset += 997) {
+        assertThat(indexed.getPage(offset)).isEqualTo(scanning.getPage(offset));
+      }
+      for (int i = 0; i < pageIndex.getNumPages(); i++) {
+        String pageId = pageIndex.getPage(i).id;
+        assertThat(indexed.findPage(pageId)).isEqualTo(newScanningCache(text).findPage(pageId));
+      }
+      assertThat(indexed.findPage("doesnotexist")).isNull();
+    }
+  }
+
+  @Test
+  void testIgnoresMissingSidecars() throws IOException {
+    Path p = tempDir.resolve("miniocr.xml");
+    Files.copy(Paths.get("src/test/resources/data/miniocr.xml"), p);
+    SourcePointer ptr = SourcePointer.parse(p.toString());
+    try (FileBytesCharIterator text = new FileBytesCharIterator(p, StandardCharsets.UTF_8, ptr)) {
+      assertThat(
+              DocumentPageIndex.load(
+                  text, DecompressingBackend.getDefault(), PageIndex.DEFAULT_SIDECAR_SUFFIX))
+          .isNull();
+    }
+  }
+
+  @Test
+  void testIgnoresSidecarsAfterMtimePreservingCopy() throws IOException {
+    Path p = copyWithPageIndex("miniocr.xml");
+    FileTime mtime = Files.getLastModifiedTime(p);
+    // Replace the file with a different version, but keep the modification time, like `cp -p`
+    Files.write(p, "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    Files.setLastModifiedTime(p, mtime);
+    assertThat(PageIndex.hasSidecar(p, PageIndex.DEFAULT_SIDECAR_SUFFIX)).isFalse();
+    SourcePointer ptr = SourcePointer.parse(p.toString());
+    try (FileBytesCharIterator text = new FileBytesCharIterator(p, StandardCharsets.UTF_8, ptr)) {
+      assertThat(
+              DocumentPageIndex.load(
+                  text, DecompressingBackend.getDefault(), PageIndex.DEFAULT_SIDECAR_SUFFIX))
+          .isNull();
+    }
+  }
+
+  @Test
+  void testUnstampedSidecars() throws IOException {
+    Path p = tempDir.resolve("miniocr.xml");
+    Files.copy(Paths.get("src/test/resources/data/miniocr.xml"), p);
+    Path idxPath = PageIndex.getSidecarPath(p, PageIndex.DEFAULT_SIDECAR_SUFFIX);
+    // Indexes without the metadata of their OCR file are used if they are not older than it
+    PageIndex.writeIndex(scanPages(p), idxPath);
+    Files.setLastModifiedTime(p, FileTime.fromMillis(0));
+    assertThat(PageIndex.hasSidecar(p, PageIndex.DEFAULT_SIDECAR_SUFFIX)).isTrue();
+    Files.setLastModifiedTime(
+        p, FileTime.fromMillis(Files.getLastModifiedTime(idxPath).toMillis() + 10000));
+    assertThat(PageIndex.hasSidecar(p, PageIndex.DEFAULT_SIDECAR_SUFFIX)).isFalse();
+  }
+
+  private OcrPageCache newScanningCache(IterableCharSequence text) {
+    return new OcrPageCache(format.getBreakLocator(text, OcrBlock.PAGE), format);
+  }
+}
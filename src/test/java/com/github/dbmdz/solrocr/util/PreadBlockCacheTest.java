@@ -0,0 +1,114 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.github.dbmdz.solrocr.iter.ExitingIterCharSeq.ExitingIterCharSeqException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PreadBlockCacheTest {
+  @TempDir Path tempDir;
+
+  private Path createFile(String name, int size) throws IOException {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) ('a' + (i % 26));
+    }
+    Path p = tempDir.resolve(name);
+    Files.write(p, data);
+    return p;
+  }
+
+  private static String str(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.remaining()];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  void testReadsAcrossBlocks() throws IOException {
+    PreadBlockCache cache = new PreadBlockCache(512, 4096);
+    Path p = createFile("a.xml", 2000);
+    try (FileContent content = cache.open(p)) {
+      assertThat(content.size()).isEqualTo(2000);
+      assertThat(content.get(0)).isEqualTo((byte) 'a');
+      assertThat(content.get(1999)).isEqualTo((byte) ('a' + 1999 % 26));
+      // Spans three blocks
+      ByteBuffer window = content.window(500, 600);
+      assertThat(window.remaining()).isEqualTo(600);
+      assertThat(window.get(0)).isEqualTo((byte) ('a' + 500 % 26));
+      assertThat(window.get(599)).isEqualTo((byte) ('a' + 1099 % 26));
+    }
+    assertThat(cache.getMisses()).isEqualTo(4);
+    assertThat(cache.getBytesRead()).isEqualTo(2000);
+  }
+
+  @Test
+  void testReadsRanges() throws IOException {
+    PreadBlockCache cache = new PreadBlockCache(512, 4096);
+    Path p = createFile("a.xml", 2000);
+    try (FileContent content = cache.open(p, 520, 10)) {
+      assertThat(content.size()).isEqualTo(10);
+      assertThat(content.getOffset()).isEqualTo(520);
+      assertThat(str(content.window(0, 10))).isEqualTo("abcdefghij");
+    }
+    try (FileContent content = cache.open(p, 1990, 100)) {
+      // Truncated to the end of the file
+      assertThat(content.size()).isEqualTo(10);
+    }
+  }
+
+  @Test
+  void testEvictsLeastRecentlyUsedBlocks() throws IOException {
+    PreadBlockCache cache = new PreadBlockCache(512, 1024);
+    Path p = createFile("a.xml", 2048);
+    try (FileContent content = cache.open(p)) {
+      content.get(0);
+      content.get(512);
+      content.get(0);
+      content.get(1024);
+    }
+    assertThat(cache.getNumBlocks()).isEqualTo(2);
+    assertThat(cache.getMisses()).isEqualTo(3);
+    try (FileContent content = cache.open(p)) {
+      // The second block was evicted, the first one should still be cached
+      content.get(0);
+      assertThat(cache.getHits()).isEqualTo(2);
+      content.get(512);
+      assertThat(cache.getMisses()).isEqualTo(4);
+    }
+  }
+
+  @Test
+  void testInvalidatesChangedFiles() throws IOException {
+    PreadBlockCache cache = new PreadBlockCache(512, 4096);
+    Path p = createFile("a.xml", 100);
+    try (FileContent content = cache.open(p)) {
+      assertThat(content.get(0)).isEqualTo((byte) 'a');
+    }
+    Files.write(p, "zzz".getBytes(StandardCharsets.US_ASCII));
+    try (FileContent content = cache.open(p)) {
+      assertThat(content.size()).isEqualTo(3);
+      assertThat(content.get(0)).isEqualTo((byte) 'z');
+    }
+  }
+
+  @Test
+  void testStopsReadingAfterTimeout() throws IOException {
+    PreadBlockCache cache = new PreadBlockCache(512, 4096);
+    Path p = createFile("a.xml", 2000);
+    // A negative time budget means the timeout has already passed
+    HighlightTimeout.set(-1L);
+    try (FileContent content = cache.open(p)) {
+      assertThatThrownBy(() -> content.get(0)).isInstanceOf(ExitingIterCharSeqException.class);
+    } finally {
+      HighlightTimeout.reset();
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.github.dbmdz.solrocr.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.dbmdz.solrocr.formats.OcrFormats;
+import com.github.dbmdz.solrocr.iter.PageHeaderLocator;
+import com.github.dbmdz.solrocr.iter.RegionCharIterator;
+import com.github.dbmdz.solrocr.model.SourcePointer;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RegionCharIteratorTest {
+  @TempDir Path tempDir;
+
+  private Path createFile(String name, String content) throws IOException {
+    Path p = tempDir.resolve(name);
+    Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+    return p;
+  }
+
+  @Test
+  void testPresentsRegionsContiguously() throws IOException {
+    Path a = createFile("a.xml", "xx<p>Größe</p>xx<p>b</p>");
+    Path b = createFile("b.xml", "yyy<p>c</p>");
+    SourcePointer ptr = SourcePointer.parse(a + "[2:16,18:26]+" + b + "[3:]");
+    try (RegionCharIterator it = new RegionCharIterator(ptr, StandardCharsets.UTF_8)) {
+      assertThat(it.length()).isEqualTo(14 + 8 + 8);
+      assertThat(it.subSequence(0, it.length()).toString())
+          .isEqualTo("<p>Größe</p><p>b</p><p>c</p>");
+      // ASCII views across region boundaries
+      assertThat(it.subSequence(10, 18, true).toString()).isEqualTo("</p><p>b");
+      assertThat(it.subSequence(19, 25, true).toString()).isEqualTo("/p><p>");
+      assertThat(it.charAt(22)).isEqualTo('<');
+      // Non-ASCII bytes are represented as `?`
+      assertThat(it.charAt(5)).isEqualTo('?');
+    }
+  }
+
+  @Test
+  void testTranslatesIndexOffsets() throws IOException {
+    Path a = createFile("a.xml", "xx<p>a</p>xx<p>b</p>");
+    Path b = createFile("b.xml", "yyy<p>c</p>");
+    SourcePointer ptr = SourcePointer.parse(a + "[2:10,12:20]+" + b + "[3:]");
+    try (RegionCharIterator it = new RegionCharIterator(ptr, StandardCharsets.UTF_8)) {
+      // Offsets in the index are relative to the start of the first file
+      assertThat(it.translateIndexOffset(5)).isEqualTo(3);
+      assertThat(it.translateIndexOffset(15)).isEqualTo(11);
+      assertThat(it.translateIndexOffset(20 + 6)).isEqualTo(19);
+      // Region ends map to the end of the region in the sequence
+      assertThat(it.translateIndexOffset(10)).isEqualTo(8);
+      // Offsets between regions map to the start of the next region
+      assertThat(it.translateIndexOffset(11)).isEqualTo(8);
+      assertThat(it.subSequence(it.translateIndexOffset(26), it.translateIndexOffset(27)))
+          .isEqualTo("c");
+    }
+  }
+
+  @Test
+  void testPresentsPageHeaderFromScanWindow() throws IOException {
+    String header = "<Page ID=\"P1\" WIDTH=\"10\" HEIGHT=\"20\">";
+    StringBuilder filler = new StringBuilder();
+    while (filler.length() < 2000) {
+      filler.append("<String CONTENT=\"x\"/>");
+    }
+    String region = "<TextBlock><String CONTENT=\"y\"/></TextBlock>";
+    Path a = createFile("a.xml", "<alto>" + header + filler + region + "</Page></alto>");
+    long start = 6 + header.length() + filler.length();
+    SourcePointer ptr =
+        SourcePointer.parse(a + "[" + start + ":" + (start + region.length()) + "]");
+    PageHeaderLocator locator =
+        new PageHeaderLocator(DecompressingBackend.getDefault(), null, 4096)
+            .forFormat(OcrFormats.byName("alto"));
+    try (RegionCharIterator it =
+        new RegionCharIterator(
+            ptr, StandardCharsets.UTF_8, DecompressingBackend.getDefault(), locator)) {
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(header + region);
+      // Offsets from the index in the header are covered, the ones between header and region not
+      assertThat(it.coversIndexOffset(6)).isTrue();
+      assertThat(it.coversIndexOffset(6 + header.length())).isFalse();
+      assertThat(it.translateIndexOffset((int) start)).isEqualTo(header.length());
+    }
+    // The page starts before the scanned window, so no header is presented
+    PageHeaderLocator shortLocator =
+        new PageHeaderLocator(DecompressingBackend.getDefault(), null, 1000)
+            .forFormat(OcrFormats.byName("alto"));
+    try (RegionCharIterator it =
+        new RegionCharIterator(
+            ptr, StandardCharsets.UTF_8, DecompressingBackend.getDefault(), shortLocator)) {
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(region);
+    }
+  }
+
+  @Test
+  void testOnlyOpensBoundedRangesOfLargeFiles() throws IOException {
+    // Sparse file, larger than 2 GiB, with the page and the region located past 2 GiB
+    Path large = tempDir.resolve("large.xml");
+    long pageStart = 2560L * 1024 * 1024;
+    String header = "<Page ID=\"P7\" WIDTH=\"10\" HEIGHT=\"20\">";
+    String filler = "<PrintSpace><TextBlock><String CONTENT=\"x\"/></TextBlock>";
+    String region = "<TextBlock><String CONTENT=\"y\"/></TextBlock>";
+    try (RandomAccessFile raf = new RandomAccessFile(large.toFile(), "rw")) {
+      raf.setLength(3L * 1024 * 1024 * 1024);
+      raf.seek(0);
+      raf.write("<alto>".getBytes(StandardCharsets.UTF_8));
+      raf.seek(pageStart);
+      raf.write((header + filler + region + "</Page></alto>").getBytes(StandardCharsets.UTF_8));
+    }
+    long start = pageStart + header.length() + filler.length();
+    SourcePointer ptr =
+        SourcePointer.parse(large + "[" + start + ":" + (start + region.length()) + "]");
+
+    int scanLength = 64 * 1024;
+    List<long[]> opened = new ArrayList<>();
+    ContentBackend delegate = new PreadBlockCache(4096, 1024 * 1024);
+    ContentBackend recording =
+        (path, offset, length) -> {
+          opened.add(new long[] {offset, length});
+          return delegate.open(path, offset, length);
+        };
+    PageHeaderLocator locator =
+        new PageHeaderLocator(recording, null, scanLength).forFormat(OcrFormats.byName("alto"));
+    try (RegionCharIterator it =
+        new RegionCharIterator(ptr, StandardCharsets.UTF_8, recording, locator)) {
+      assertThat(it.subSequence(0, it.length()).toString()).isEqualTo(header + region);
+      // Offsets in the index are relative to the start of the region, since the content extends
+      // beyond 2 GiB from the start of the file
+      assertThat(it.getIndexBase()).isEqualTo(start);
+      assertThat(it.translateIndexOffset(0)).isEqualTo(header.length());
+      assertThat(it.translateIndexOffset(region.length())).isEqualTo(it.length());
+      assertThat(it.coversIndexOffset(pageStart - start)).isTrue();
+    }
+    assertThat(opened).isNotEmpty();
+    for (long[] range : opened) {
+      assertThat(range[0]).isGreaterThanOrEqualTo(start - scanLength);
+      assertThat(range[1]).isBetween(0L, (long) scanLength);
+    }
+  }
+}
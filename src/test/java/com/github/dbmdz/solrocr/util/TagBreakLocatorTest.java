@@ -11,6 +11,7 @@ import java.io.StringReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Random;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.charfilter.HTMLStripCharFilter;
@@ -91,4 +92,37 @@ class TagBreakLocatorTest {
     assertThat(StringUtils.countMatches(tag, "<w")).isEqualTo(0);
     assertThat(StringUtils.countMatches(tag, "</w>")).isEqualTo(0);
   }
+
+  @Test
+  void cachedLookupsMatchScans() throws IOException {
+    IterableCharSequence seq = new FileBytesCharIterator(utf8Path, StandardCharsets.UTF_8, null);
+    TagBreakLocator cached = new TagBreakLocator(seq, "b");
+    Random rand = new Random(42);
+    for (int i = 0; i < 500; i++) {
+      int offset = rand.nextInt(seq.length());
+      if (i % 3 == 0) {
+        // Query directly at a break, which has to be excluded from the results
+        offset = cached.following(offset);
+      }
+      // Use fresh locators for the expected values, so the results are not influenced by caching
+      assertThat(cached.following(offset))
+          .isEqualTo(new TagBreakLocator(seq, "b").following(offset));
+      assertThat(cached.preceding(offset))
+          .isEqualTo(new TagBreakLocator(seq, "b").preceding(offset));
+    }
+  }
+
+  @Test
+  void locateAllFillsCache() throws IOException {
+    IterableCharSequence seq = new FileBytesCharIterator(utf8Path, StandardCharsets.UTF_8, null);
+    TagBreakLocator it = new TagBreakLocator(seq, "b");
+    int[] breaks = it.locateAll();
+    assertThat(breaks).isSorted().isNotEmpty();
+    assertThat(it.following(0)).isEqualTo(breaks[0]);
+    for (int i = 1; i < breaks.length; i++) {
+      assertThat(it.following(breaks[i - 1])).isEqualTo(breaks[i]);
+      assertThat(it.preceding(breaks[i])).isEqualTo(breaks[i - 1]);
+    }
+    assertThat(it.following(breaks[breaks.length - 1])).isEqualTo(seq.getEndIndex());
+  }
 }